@@ -0,0 +1,107 @@
+package core;
+
+import gameplay.QuestLog;
+import model.character.NPC;
+import model.character.NPCFactory;
+import model.character.Player;
+import model.item.Item;
+import model.world.Point;
+import persistence.VersionedList;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Scanner;
+
+/**
+ * Checks that a turn where nothing new shows up doesn't allocate. It plays a game of the default world with its NPCs,
+ * items and quests through {@link Game#playTurn()}, with the turn history tracking it, so a turn goes through the
+ * prompt, the command parser, the move, the triggers of the location, the exploration map, the telemetry, the NPC
+ * tick, the marketplace and the recording of the turn, all of it the way a player's turn does. The player walks
+ * west and back east from the start location, one move per turn, while the goblins patrol around them.
+ * The commands of a round are typed on a single line, which is read by a turn played before the round is measured,
+ * since reading a line allocates its String. The turns are played WARM_UP_TURNS times first, so the JIT compiles
+ * them, then measured in rounds with the allocated-bytes counter of the thread. The JVM itself can allocate a few
+ * bytes on the thread once, when it swaps in newly compiled code, so the check passes as soon as one round allocates
+ * nothing; a turn that allocates makes every round allocate.
+ * The check exits with status 1 if every round allocated or the game didn't stay on the route, and 2 if the JVM can't
+ * count the bytes.
+ * Usage: java -cp rpg-game.jar core.AllocationCheck [turns]
+ */
+class AllocationCheck {
+    private static final int WARM_UP_TURNS = 20_000;
+    private static final int ROUNDS = 5;
+    private static final Point START = new Point(2, 0, 0);
+    private static final String THERE_AND_BACK = "explore; west; explore; east; ";
+
+    public static void main(String[] args) {
+        int turns = args.length > 0 ? Integer.parseInt(args[0]) / 2 * 2 : 10_000;
+        PrintStream console = System.out;
+        ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof com.sun.management.ThreadMXBean) ||
+                !((com.sun.management.ThreadMXBean) bean).isThreadAllocatedMemorySupported()) {
+            console.println("This JVM can't count the bytes a thread allocates.");
+            System.exit(2);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) bean;
+
+        StringBuilder script = new StringBuilder();
+        script.append(THERE_AND_BACK.repeat(WARM_UP_TURNS / 2 + 1)).append('\n');
+        for (int round = 1; round <= ROUNDS; round++) {
+            script.append(THERE_AND_BACK.repeat(turns / 2 + 1)).append('\n');
+        }
+
+        Renderer.install(OutputStream.nullOutputStream());
+        World world = World.getDefault();
+        VersionedList<NPC> individuals = GameManager.createNPCs();
+        VersionedList<Item> items = GameManager.createItems();
+        Player player = NPCFactory.createPlayer("Hero", START);
+        for (QuestLog.Quest quest : GameManager.createQuests()) {
+            player.getQuestLog().add(quest);
+        }
+        SessionContext session = world.acquireSession();
+        session.bind(player, individuals, items, new Scanner(script.toString()));
+        session.getHistoryManager().track(player, individuals, items);
+        Game game = new Game(session);
+
+        if (!playTurns(game, player, WARM_UP_TURNS + 2)) {
+            console.println("The game left the route, the turns aren't the same.");
+            System.exit(1);
+        }
+        long thread = Thread.currentThread().getId();
+        for (int round = 1; round <= ROUNDS; round++) {
+            if (!playTurns(game, player, 2)) { // reads the line of the round
+                console.println("The game left the route, the turns aren't the same.");
+                System.exit(1);
+            }
+            long before = threads.getThreadAllocatedBytes(thread);
+            boolean onRoute = playTurns(game, player, turns);
+            long allocated = threads.getThreadAllocatedBytes(thread) - before;
+            if (!onRoute) {
+                console.println("The game left the route, the turns aren't the same.");
+                System.exit(1);
+            }
+            console.println("Round " + round + ": " + turns + " turns allocated " + allocated + " bytes.");
+            if (allocated == 0) {
+                console.println("A turn doesn't allocate.");
+                return;
+            }
+        }
+        console.println("Every round allocated, a turn allocates.");
+        System.exit(1);
+    }
+
+    /**
+     * Plays an even number of turns, which brings the player back to the start location.
+     * @return false if the game ended or the player isn't back at the start location
+     */
+    private static boolean playTurns(Game game, Player player, int turns) {
+        for (int i = 0; i < turns; i++) {
+            if (!game.playTurn()) {
+                return false;
+            }
+        }
+        return player.getPosition().equals(START);
+    }
+}
@@ -6,6 +6,7 @@ import model.character.Character;
 import model.item.Item;
 import model.item.Potion;
 import model.item.Weapon;
+import persistence.TelemetryLog;
 
 import java.io.Serializable;
 import java.util.List;
@@ -14,45 +15,63 @@ import java.util.List;
  * The CombatManager class is responsible for managing the combat between the player and the enemy NPCs. It handles the
  * combat loop, where the player and the enemy take turns attacking each other until one of them is defeated. It also
  * updates the durability of the player's items after the combat and drops their loot when defeated.
+ * Each {@link SessionContext} has its own CombatManager, pointed at its game by
+ * {@link #reset(Player, List, List)}.
  */
 class CombatManager implements Serializable {
-    private static CombatManager instance;
-    private final Player player;
-    private final List<NPC> individuals;
-    private final List<Item> items;
+    private Player player;
+    private List<NPC> individuals;
+    private List<Item> items;
+    private transient DamageListener damageListener;
 
-    private CombatManager(Player player, List<NPC> individuals, List<Item> items) {
-        this.player = player;
-        this.individuals = individuals;
-        this.items = items;
+    /**
+     * Told about every hit of a fight as it happens, for sessions that show the hits other than as text.
+     */
+    interface DamageListener {
+        void damaged(Character character, float amount);
+    }
+
+    CombatManager() {
     }
 
     /**
-     * Returns the instance of the CombatManager class. If the instance is null, a new instance is created.
-     * Otherwise, the existing instance is returned.
+     * Handles the combats of the given game from now on, without a damage listener.
      *
      * @param player the player character
      * @param individuals the list of NPCs
      * @param items the list of items dropped around the map
-     * @return the instance of the CombatManager class
      */
-     static CombatManager getInstance(Player player, List<NPC> individuals, List<Item> items) {
-        if (instance == null) {
-            return new CombatManager(player, individuals, items);
-        }
-        return instance;
+    void reset(Player player, List<NPC> individuals, List<Item> items) {
+        this.player = player;
+        this.individuals = individuals;
+        this.items = items;
+        this.damageListener = null;
+    }
+
+    /**
+     * @param damageListener the listener told about every hit until the next reset, null for none
+     */
+    void setDamageListener(DamageListener damageListener) {
+        this.damageListener = damageListener;
     }
 
 
     /**
      * Handles the combat between the player and the specified enemy NPC. This method manages the combat loop,
      * where the player and the enemy take turns attacking each other until one of them is defeated. It also updates
-     * the durability of the player's items after the combat.
+     * the durability of the player's items after the combat. Every fight goes to the telemetry.
      *
      * @param enemy the NPC that the player is fighting against
      * @return true if the player is still alive after the combat, false if the player is defeated
      */
      boolean handleCombat(NPC enemy) {
+        boolean won = fight(enemy);
+        TelemetryLog.record(TelemetryLog.Kind.COMBAT, won, player.getId(), player.getPosition(),
+                enemy.getName(), (int) player.getHealth());
+        return won;
+    }
+
+    private boolean fight(NPC enemy) {
         System.out.println("You are fighting " + enemy.getName());
         displayCombatStats(enemy);
 
@@ -115,18 +134,41 @@ class CombatManager implements Serializable {
      * @param amount the amount of damage that the character is supposed to take
      */
      void takeDamage(Character character, float amount) {
-        float playerDefensePercentage = character.getDefense() / 100.0f;
-        float playerReducedDamage = amount * (1 - playerDefensePercentage);
+        float playerReducedDamage = reducedDamage(character, amount);
 
         float playerCurrentHealth = character.getHealth();
         float playerNewHealth = Math.max(0, playerCurrentHealth - playerReducedDamage);
         character.setHealth(playerNewHealth);
+        if (damageListener != null) {
+            damageListener.damaged(character, playerReducedDamage);
+        }
 
         System.out.println(character.getName() + " has taken " + playerReducedDamage + " damage." +
                 " Remaining health: " + character.getHealth());
     }
 
 
+    /**
+     * Calculates the damage a character takes from a hit once its defense is taken into account.
+     * @param character the character that is hit
+     * @param amount the damage of the hit
+     * @return the damage the character takes
+     */
+    static float reducedDamage(Character character, float amount) {
+        return reducedDamage(character.getDefense(), amount);
+    }
+
+    /**
+     * Calculates the damage taken from a hit by a character with the given defense.
+     * @param defense the defense of the character that is hit
+     * @param amount the damage of the hit
+     * @return the damage the character takes
+     */
+    static float reducedDamage(float defense, float amount) {
+        float defensePercentage = defense / 100.0f;
+        return amount * (1 - defensePercentage);
+    }
+
     private void displayCombatStats(NPC enemy) {
         System.out.println(enemy.getName() + " has " + enemy.getHealth() + " health, " +
                 enemy.getDamage() + " damage, and " + enemy.getDefense() + " defense.");
@@ -141,6 +183,7 @@ class CombatManager implements Serializable {
     private void handleEnemyDefeat(NPC enemy) {
         System.out.println("\nYou have defeated " + enemy.getName() + ". You may pass.");
         destroyNPCOnSpawnPoint(enemy);
+        player.getQuestLog().recordDefeat(enemy, player);
     }
 
     private void destroyNPCOnSpawnPoint(NPC npc) {
@@ -0,0 +1,94 @@
+package core;
+
+/**
+ * The commands the player can type. Movement commands carry the change of coordinates they make, the rest are
+ * plain actions whose meaning depends on the prompt they are typed at.
+ *
+ * @see CommandParser
+ */
+enum Command {
+    NORTH(0, 1, 0),
+    SOUTH(0, -1, 0),
+    EAST(1, 0, 0),
+    WEST(-1, 0, 0),
+    NORTH_UP(0, 1, 1),
+    SOUTH_UP(0, -1, 1),
+    EAST_UP(1, 0, 1),
+    WEST_UP(-1, 0, 1),
+    NORTH_DOWN(0, 1, -1),
+    SOUTH_DOWN(0, -1, -1),
+    EAST_DOWN(1, 0, -1),
+    WEST_DOWN(-1, 0, -1),
+    GO,
+    EXPLORE,
+    INVENTORY,
+    QUESTS,
+    MAP,
+    UNDO,
+    REDO,
+    QUIT,
+    TALK,
+    FIGHT,
+    RUN,
+    NOTHING,
+    PAY,
+    BUY,
+    SELL,
+    MARKET,
+    LIST,
+    BID,
+    COLLECT,
+    CANCEL,
+    EXIT;
+
+    private static final Command[] COMMANDS = values();
+
+    private final int dx;
+    private final int dy;
+    private final int dz;
+    private final boolean move;
+
+    Command() {
+        this(0, 0, 0, false);
+    }
+
+    Command(int dx, int dy, int dz) {
+        this(dx, dy, dz, true);
+    }
+
+    Command(int dx, int dy, int dz, boolean move) {
+        this.dx = dx;
+        this.dy = dy;
+        this.dz = dz;
+        this.move = move;
+    }
+
+    boolean isMove() {
+        return move;
+    }
+
+    int getDx() {
+        return dx;
+    }
+
+    int getDy() {
+        return dy;
+    }
+
+    int getDz() {
+        return dz;
+    }
+
+    /**
+     * Returns the movement command that changes the coordinates by the given amounts.
+     * @return the movement command or null if no single move does that
+     */
+    static Command moveOf(int dx, int dy, int dz) {
+        for (Command command : COMMANDS) {
+            if (command.move && command.dx == dx && command.dy == dy && command.dz == dz) {
+                return command;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,115 @@
+package core;
+
+import model.world.Location;
+
+/**
+ * A route of several moves the player asked for at once, like "east x3", "go to swamp" or "north; north; east".
+ * The whole route is checked against the exits of the map before the player takes the first step, so a route that
+ * can't be followed is refused instead of leaving the player halfway. The route is kept as node ids of the
+ * {@link WorldGraph} in an array that is reused between turns.
+ */
+class CommandBatch {
+    static final int MAX_STEPS = 32;
+    private static final String PATH_LOCATION = "Path";
+
+    private final WorldGraph graph;
+    private final int[] nodes = new int[MAX_STEPS];
+    private int size;
+    private int start = -1;
+
+    CommandBatch(WorldGraph graph) {
+        this.graph = graph;
+    }
+
+    /**
+     * Starts a new route from the given node.
+     * @param node the node the player stands on
+     * @return false if the player is not on the map, so no route can start there
+     */
+    boolean start(int node) {
+        start = node;
+        size = 0;
+        return node >= 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int node(int step) {
+        return nodes[step];
+    }
+
+    /**
+     * Adds a move, repeated the given number of times, to the end of the route.
+     * @return true if every step follows an exit of the map, false otherwise
+     */
+    boolean addMove(Command move, int times) {
+        for (int i = 0; i < times; i++) {
+            int from = last();
+            int to = graph.nodeAt(graph.x(from) + move.getDx(), graph.y(from) + move.getDy(),
+                    graph.z(from) + move.getDz());
+            if (to < 0 || size == MAX_STEPS || !graph.hasExit(from, to)) {
+                return false;
+            }
+            nodes[size++] = to;
+        }
+        return true;
+    }
+
+    /**
+     * Adds the shortest way to the closest named location whose name contains the given text, like "swamp" for the
+     * Foreboding Swamp.
+     * @param destination the text to look for in the location names
+     * @return true if such a location can be reached, false otherwise
+     */
+    boolean addPathTo(String destination) {
+        int from = last();
+        int[] best = null;
+        for (int node = 0; node < graph.size(); node++) {
+            Location location = graph.locationOf(node);
+            if (node == from || PATH_LOCATION.equals(location.getName()) ||
+                    !location.getName().toLowerCase().contains(destination)) {
+                continue;
+            }
+            int[] path = graph.shortestPath(from, node);
+            if (path != null && (best == null || path.length < best.length)) {
+                best = path;
+            }
+        }
+        if (best == null || size + best.length > MAX_STEPS) {
+            return false;
+        }
+        System.arraycopy(best, 0, nodes, size, best.length);
+        size += best.length;
+        return true;
+    }
+
+    private int last() {
+        return size == 0 ? start : nodes[size - 1];
+    }
+
+    /**
+     * Reads how many times a move should be repeated from its argument, written as "x3".
+     * @param result the parsed move
+     * @return the number of repetitions, or -1 if the argument is not a valid repetition
+     */
+    static int repetitions(CommandParser.Result result) {
+        if (!result.hasArgument()) {
+            return 1;
+        }
+        String argument = result.getArgument();
+        if (argument.length() < 2 || argument.charAt(0) != 'x') {
+            return -1;
+        }
+        int times = 0;
+        for (int i = 1; i < argument.length(); i++) {
+            char c = argument.charAt(i);
+            if (c < '0' || c > '9' || times > MAX_STEPS) {
+                return -1;
+            }
+            times = times * 10 + (c - '0');
+        }
+        return times > 0 && times <= MAX_STEPS ? times : -1;
+    }
+}
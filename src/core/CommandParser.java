@@ -0,0 +1,196 @@
+package core;
+
+import java.util.Arrays;
+
+/**
+ * CommandParser turns what the player typed into a {@link Command}. Every prompt has its own parser with the commands
+ * (and aliases) that make sense there, compiled into a trie once when the class is loaded.
+ * A command is matched one character at a time, ignoring case and extra spaces, and the longest command that ends on
+ * a word boundary wins: "north up" is NORTH_UP while "north" is NORTH. Whatever follows the command is kept as its
+ * argument, for example the item name in "buy iron sword".
+ * Parsing doesn't split or copy the input: the result is written into a reusable {@link Result} and the argument is
+ * only turned into a String when someone asks for it.
+ */
+final class CommandParser {
+    private static final String[][] MOVES = {
+            {"north", "n"}, {"south", "s"}, {"east", "e"}, {"west", "w"}
+    };
+    private static final String[][] ELEVATIONS = {{""}, {"up", "u"}, {"down", "d"}};
+    private static final Command[][] MOVE_COMMANDS = {
+            {Command.NORTH, Command.NORTH_UP, Command.NORTH_DOWN},
+            {Command.SOUTH, Command.SOUTH_UP, Command.SOUTH_DOWN},
+            {Command.EAST, Command.EAST_UP, Command.EAST_DOWN},
+            {Command.WEST, Command.WEST_UP, Command.WEST_DOWN}
+    };
+
+    /** The main prompt of a turn, movement is accepted directly as a shortcut for explore. */
+    static final CommandParser MAIN = new CommandParser().withMoves().add(Command.GO, "go to", "go")
+            .add(Command.EXPLORE, "explore").add(Command.INVENTORY, "inventory", "inv").add(Command.QUESTS, "quests")
+            .add(Command.MAP, "map").add(Command.UNDO, "undo").add(Command.REDO, "redo").add(Command.QUIT, "quit");
+    /** The prompt that asks for a direction. */
+    static final CommandParser EXPLORE = new CommandParser().withMoves().add(Command.GO, "go to", "go");
+    /** The first prompt when meeting an NPC. */
+    static final CommandParser NPC = new CommandParser()
+            .add(Command.TALK, "talk").add(Command.FIGHT, "fight").add(Command.RUN, "run")
+            .add(Command.NOTHING, "nothing");
+    /** The prompt after talking to an NPC that is not a shopkeeper. */
+    static final CommandParser POST_DIALOGUE = new CommandParser()
+            .add(Command.PAY, "pay").add(Command.FIGHT, "fight").add(Command.RUN, "run");
+    /** The prompt after talking to a shopkeeper. */
+    static final CommandParser SHOP = new CommandParser()
+            .add(Command.BUY, "buy").add(Command.SELL, "sell").add(Command.MARKET, "market")
+            .add(Command.FIGHT, "fight").add(Command.RUN, "run").add(Command.EXIT, "exit");
+    /** The prompt of the marketplace. */
+    static final CommandParser MARKET = new CommandParser()
+            .add(Command.LIST, "list").add(Command.BID, "bid").add(Command.COLLECT, "collect")
+            .add(Command.CANCEL, "cancel").add(Command.EXIT, "exit");
+
+    private final Node root = new Node();
+
+    /**
+     * A node of the trie. The children are kept in two small parallel arrays, which are faster to scan than a map for
+     * the handful of letters that follow any prefix.
+     */
+    private static final class Node {
+        private char[] labels = new char[0];
+        private Node[] children = new Node[0];
+        private Command command;
+
+        Node child(char label) {
+            for (int i = 0; i < labels.length; i++) {
+                if (labels[i] == label) {
+                    return children[i];
+                }
+            }
+            return null;
+        }
+
+        Node addChild(char label) {
+            Node child = child(label);
+            if (child == null) {
+                child = new Node();
+                labels = Arrays.copyOf(labels, labels.length + 1);
+                children = Arrays.copyOf(children, children.length + 1);
+                labels[labels.length - 1] = label;
+                children[children.length - 1] = child;
+            }
+            return child;
+        }
+    }
+
+    /**
+     * The outcome of parsing one command, reused between calls so parsing doesn't allocate.
+     */
+    static final class Result {
+        private String line;
+        private Command command;
+        private int argumentStart;
+        private int argumentEnd;
+        private String argument;
+
+        /**
+         * @return the command that was typed, or null if nothing in the parser's command set matched
+         */
+        Command getCommand() {
+            return command;
+        }
+
+        boolean hasArgument() {
+            return argumentStart < argumentEnd;
+        }
+
+        /**
+         * @return what was typed after the command, in lower case and trimmed, or an empty string
+         */
+        String getArgument() {
+            if (argument == null) {
+                argument = line.substring(argumentStart, argumentEnd).toLowerCase();
+            }
+            return argument;
+        }
+    }
+
+    private CommandParser() {
+    }
+
+    private CommandParser add(Command command, String... phrases) {
+        for (String phrase : phrases) {
+            Node node = root;
+            for (int i = 0; i < phrase.length(); i++) {
+                node = node.addChild(phrase.charAt(i));
+            }
+            node.command = command;
+        }
+        return this;
+    }
+
+    private CommandParser withMoves() {
+        for (int direction = 0; direction < MOVES.length; direction++) {
+            for (int elevation = 0; elevation < ELEVATIONS.length; elevation++) {
+                for (String base : MOVES[direction]) {
+                    for (String suffix : ELEVATIONS[elevation]) {
+                        add(MOVE_COMMANDS[direction][elevation], suffix.isEmpty() ? base : base + " " + suffix);
+                    }
+                }
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Parses the command typed between start and end of the line.
+     * @param line the line the player typed
+     * @param start the index of the first character of the command
+     * @param end the index after the last character of the command
+     * @param result where the command and its argument are written
+     */
+    void parse(String line, int start, int end, Result result) {
+        Node node = root;
+        Command matched = null;
+        int matchedEnd = start;
+        boolean pendingSpace = false;
+
+        int i = start;
+        while (i < end && Character.isWhitespace(line.charAt(i))) {
+            i++;
+        }
+        for (; i < end; i++) {
+            char c = line.charAt(i);
+            if (Character.isWhitespace(c)) {
+                if (!pendingSpace && node.command != null) {
+                    matched = node.command;
+                    matchedEnd = i;
+                }
+                pendingSpace = true;
+                continue;
+            }
+            if (pendingSpace) {
+                node = node.child(' ');
+                pendingSpace = false;
+                if (node == null) {
+                    break;
+                }
+            }
+            node = node.child(Character.toLowerCase(c));
+            if (node == null) {
+                break;
+            }
+        }
+        if (i == end && node != null && !pendingSpace && node.command != null) {
+            matched = node.command;
+            matchedEnd = end;
+        }
+
+        while (matchedEnd < end && Character.isWhitespace(line.charAt(matchedEnd))) {
+            matchedEnd++;
+        }
+        while (end > matchedEnd && Character.isWhitespace(line.charAt(end - 1))) {
+            end--;
+        }
+        result.line = line;
+        result.command = matched;
+        result.argumentStart = matched == null ? end : matchedEnd;
+        result.argumentEnd = end;
+        result.argument = null;
+    }
+}
@@ -1,63 +1,78 @@
 package core;
 
+import gameplay.Marketplace;
 import model.character.NPC;
 import model.character.Player;
 import model.item.Item;
 import model.world.Location;
 import model.world.Point;
+import persistence.TelemetryLog;
 
 import java.io.Serializable;
-import java.util.HashMap;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Scanner;
-import java.util.stream.Collectors;
+import java.util.Map;
 
 
 /**
  * The Game class is responsible for managing the game logic and the interactions between the player and the NPCs.
  * It handles the game loop, where the player can explore the map, interact with NPCs and manage their inventory.
  * It also checks for win conditions and updates the game state accordingly.
+ * A turn where nothing new shows up doesn't allocate: the NPCs and items found on a location are collected into
+ * lists kept for the next turn, and the fixed texts are printed through the {@link Renderer}.
+ * The state at every prompt is recorded by the session's {@link HistoryManager}, so the player can undo and redo
+ * their last actions when the game tracks its history.
  */
 class Game implements Serializable {
+    private static final int MAP_RADIUS = 2;
     private final List<NPC> individuals;
     private final Player player;
     private boolean quit = false;
-    private final HashMap<Point, Location> gameMap;
+    private final Map<Point, Location> gameMap;
     private final List<Item> items;
     private final InputHandler inputHandler;
     private final InteractionManager interactionManager;
     private final NavigationManager navigationManager;
     private final InventoryInteraction inventoryInteraction;
+    private final NPCBehaviourManager npcBehaviourManager;
+    private final WorldGraph worldGraph;
+    private final CommandBatch commandBatch;
+    private final TriggerManager triggerManager;
+    private final HistoryManager historyManager;
+    private final List<NPC> individualsHere = new ArrayList<>();
+    private final List<Item> itemsHere = new ArrayList<>();
+    private Command offMapMove;
 
 
     /**
-     * Creates a new Game instance with the specified list of NPCs, player character, game map, items and scanner.
-     * Initializes the input handler, combat manager, inventory interaction, interaction manager
-     * and navigation manager.
+     * Creates a new Game played with the managers of the given session, which must already be bound to the player,
+     * NPCs and items of the game. The map, its exit graph and its triggers come from the session's world.
      *
-     * @param individuals the list of NPCs in the game
-     * @param player the player character
-     * @param gameMap the game map with locations and exits
-     * @param items the list of items dropped around the map
-     * @param scanner the scanner object to read user input
+     * @param session the session the game is played in
      */
-    Game(List<NPC> individuals, Player player, HashMap<Point, Location> gameMap, List<Item> items,
-                Scanner scanner) {
-        this.individuals = individuals;
-        this.gameMap = gameMap;
-        this.player = player;
-        this.items = items;
-        this.inputHandler = InputHandler.getInstance(scanner);
-        this.navigationManager = NavigationManager.getInstance(player, gameMap, inputHandler);
-        CombatManager combatManager = CombatManager.getInstance(player, individuals, items);
-        this.inventoryInteraction = InventoryInteraction.getInstance(player, inputHandler, items, combatManager);
-        this.interactionManager = InteractionManager.getInstance(player, inputHandler, inventoryInteraction,
-                combatManager);
+    Game(SessionContext session) {
+        World world = session.getWorld();
+        this.individuals = session.getIndividuals();
+        this.player = session.getPlayer();
+        this.items = session.getItems();
+        this.gameMap = world.getGameMap();
+        this.worldGraph = world.getGraph();
+        this.triggerManager = world.getTriggerManager();
+        this.inputHandler = session.getInputHandler();
+        this.navigationManager = session.getNavigationManager();
+        this.inventoryInteraction = session.getInventoryInteraction();
+        this.interactionManager = session.getInteractionManager();
+        this.npcBehaviourManager = session.getNPCBehaviourManager();
+        this.commandBatch = session.getCommandBatch();
+        this.historyManager = session.getHistoryManager();
+        player.getExplorationMap().visit(player.getPosition());
     }
 
     /**
      * Starts the game loop, where the player can play the game.
      * The game loop continues until the player's health reaches 0 or the player decides to quit the game.
+     * After the player's action the NPCs take their turn and move around the map, and the open orders of the
+     * {@link Marketplace} are matched.
      *
      * @return true if the player is still alive and has not quit the game, false otherwise
      */
@@ -70,27 +85,55 @@ class Game implements Serializable {
             if (checkForInteractions()) {
                 return false;
             }
-            return handleInput();
+            boolean playing = handleInput();
+            if (playing && !quit) {
+                npcBehaviourManager.tick(player);
+                Marketplace.getInstance().matchOrders();
+            }
+            return playing;
         }
         return false;
     }
 
+    /**
+     * Handles the main prompt of a turn. Besides explore, inventory, quests, map and quit the player can type a
+     * direction or a route straight away, which moves them as if they had chosen explore first. Looking at the quests
+     * or the map of the explored area around the player doesn't use up the turn, and neither does undo or redo, which
+     * go back to the prompt of the previous turn or forward again and show it.
+     * @return true if the player is still alive, false otherwise
+     */
     private boolean handleInput() {
-        System.out.println("What would you like to do? (explore / inventory / quit). Player stats: " +
-                player.characterStats());
+        historyManager.recordTurn();
+        printPrompt();
 
         while (true) {
-            String input = inputHandler.getUserInput();
+            CommandParser.Result result = inputHandler.readCommand(CommandParser.MAIN);
+            Command command = result.getCommand();
 
-            if (input.equalsIgnoreCase("quit")) {
+            if (command == Command.QUIT) {
                 System.out.println("Goodbye!");
                 quit = true;
                 break;
-            } else if (input.equalsIgnoreCase("inventory")) {
+            } else if (command == Command.INVENTORY) {
                 inventoryInteraction.handleInventoryActions();
                 break;
-            } else if (input.equalsIgnoreCase("explore")) {
+            } else if (command == Command.QUESTS) {
+                player.getQuestLog().display();
+            } else if (command == Command.MAP) {
+                player.getExplorationMap().display(player.getPosition(), MAP_RADIUS);
+            } else if (command == Command.UNDO || command == Command.REDO) {
+                boolean moved = command == Command.UNDO ? historyManager.undo() : historyManager.redo();
+                if (moved) {
+                    describeLocation(player.getPosition());
+                    printPrompt();
+                } else {
+                    System.out.println(command == Command.UNDO ? "There is nothing to undo." :
+                            "There is nothing to redo.");
+                }
+            } else if (command == Command.EXPLORE) {
                 return handleExplore();
+            } else if (command != null && (command.isMove() || command == Command.GO) && planMoves(result)) {
+                return executeMoves();
             } else {
                 System.out.println("Invalid input. Please try again.");
             }
@@ -98,6 +141,12 @@ class Game implements Serializable {
         return true;
     }
 
+    private void printPrompt() {
+        Renderer.print("What would you like to do? (explore / inventory / quests / map / undo / quit). " +
+                "Player stats: ");
+        Renderer.printChangingLine(player.characterStats());
+    }
+
 
     /**
      * Handles the player's exploration of the game map. The player can only move in the directions that are available
@@ -106,14 +155,13 @@ class Game implements Serializable {
      * @return true if the player is still alive (some locations may have no exits), false otherwise
      */
     private boolean handleExplore() {
-        String input;
         do {
-            System.out.println("You may only go in the following directions: ");
+            Renderer.printLine("You may only go in the following directions: ");
             navigationManager.showPossibleDirections();
 
-            input = inputHandler.getUserInput();
-            if (navigationManager.isValidDirection(input)) {
-                return handleDirection(input);
+            CommandParser.Result result = inputHandler.readCommand(CommandParser.EXPLORE);
+            if (result.getCommand() != null && planMoves(result)) {
+                return executeMoves();
             } else {
                 System.out.println("Invalid input. Please try again.");
             }
@@ -121,60 +169,151 @@ class Game implements Serializable {
     }
 
 
+    /**
+     * Plans the route the player typed: a single move, a repeated move like "east x3", a destination like
+     * "go to swamp", followed by any other moves left on the same line, like "north; north; east". The whole route
+     * is checked against the exits before the player moves. If any step can't be taken the route is refused and the
+     * rest of the line is dropped.
+     * Off the map the exits are unknown, so only a single step back within the map boundaries is allowed.
+     * @param result the first command of the route
+     * @return true if the route can be followed, false otherwise
+     */
+    private boolean planMoves(CommandParser.Result result) {
+        Command command = result.getCommand();
+        if (!commandBatch.start(worldGraph.nodeOf(player.getPosition()))) {
+            offMapMove = command.isMove() && !result.hasArgument() && navigationManager.isValidDirection(command) ?
+                    command : null;
+            return offMapMove != null;
+        }
+        if (!addToBatch(result)) {
+            inputHandler.clearPendingInput();
+            return false;
+        }
+
+        CommandParser.Result next;
+        while ((next = inputHandler.peekCommand(CommandParser.EXPLORE)) != null && next.getCommand() != null) {
+            if (!addToBatch(next)) {
+                inputHandler.clearPendingInput();
+                return false;
+            }
+            inputHandler.skipCommand();
+        }
+        return true;
+    }
+
+    private boolean addToBatch(CommandParser.Result result) {
+        if (result.getCommand() == Command.GO) {
+            return result.hasArgument() && commandBatch.addPathTo(result.getArgument());
+        }
+        int times = CommandBatch.repetitions(result);
+        return times > 0 && commandBatch.addMove(result.getCommand(), times);
+    }
+
+    /**
+     * Moves the player along the planned route in one go. The NPCs take their turn after every step but the last
+     * (which is taken by the game loop) and the route stops early as soon as the player meets an NPC or an item, or
+     * reaches a location with triggers like the princess, so nothing that needs the player's attention is walked
+     * past.
+     * @return true if the player is still alive, false otherwise
+     */
+    private boolean executeMoves() {
+        if (commandBatch.size() == 0) {
+            return handleDirection(offMapMove);
+        }
+        for (int step = 0; step < commandBatch.size(); step++) {
+            Point next = worldGraph.pointOf(commandBatch.node(step));
+            if (!moveTo(next)) {
+                return false;
+            }
+            if (step == commandBatch.size() - 1) {
+                break;
+            }
+            npcBehaviourManager.tick(player);
+            if (isInterrupting(next)) {
+                System.out.println("You stop, something here needs your attention.");
+                inputHandler.clearPendingInput();
+                break;
+            }
+            Renderer.print("You pass through ");
+            Renderer.print(worldGraph.locationOf(commandBatch.node(step)).getName());
+            Renderer.printLine(".");
+        }
+        return true;
+    }
+
+    private boolean isInterrupting(Point point) {
+        return triggerManager.hasLocationTriggers(point) || !checkForIndividuals(point).isEmpty() ||
+                !checkForItems(point).isEmpty();
+    }
+
     /**
      * Compares the player's current location with the game map and displays the location description.
-     * It also checks if the player is at the winning location and has the key to free the princess (win the game)
-     * If there are NPCs present at the location, it displays the NPCs' names.
-     * @return true if the game continues because the player doesn't have the key or hasn't reached the princess yet,
-     * false otherwise.
+     * If there are NPCs present at the location, it displays the NPCs' names. Then it fires the triggers of the
+     * location, like freeing the princess when the player has the key (win the game).
+     * @return true if the game continues, false if a trigger of the location ended it
      */
     boolean compareLocations() {
         Point playerPos = player.getPosition();
+        describeLocation(playerPos);
+
+        return triggerManager.fire(TriggerManager.Event.AT_LOCATION, playerPos, player) ==
+                TriggerManager.Outcome.CONTINUE;
+    }
+
+    /**
+     * Prints the description of the location at the given point and the NPCs there, if it is on the map.
+     */
+    private void describeLocation(Point playerPos) {
         Location currentLocation = gameMap.get(playerPos);
 
         if (currentLocation != null) {
             List<NPC> npcsPresent = checkForIndividuals(playerPos);
             if (!npcsPresent.isEmpty()) {
-                String npcNames = npcsPresent.stream()
-                        .map(NPC::getName)
-                        .collect(Collectors.joining(", "));
-                System.out.println(currentLocation + " You're accompanied by: " + npcNames);
+                Renderer.print(currentLocation.getDescription());
+                Renderer.print(" You're accompanied by: ");
+                for (int i = 0; i < npcsPresent.size(); i++) {
+                    if (i > 0) {
+                        Renderer.print(", ");
+                    }
+                    Renderer.print(npcsPresent.get(i).getName());
+                }
+                Renderer.printLine("");
             } else {
-                System.out.println(currentLocation);
+                Renderer.printLine(currentLocation.getDescription());
             }
         }
-
-        if(playerPos.equals(new Point(4, 4, 0))){
-            if(player.getItem("Key") != null){
-                System.out.println("You have freed the princess! You win!");
-                return false;
-            } else if(player.getItem("Key") == null){
-                System.out.println("You need a key to free the princess!");
-                return true;
-            }
-
-        }
-
-        return true;
     }
 
     /**
      * Checks for interactions at the player's current location whether it's with NPCs or items.
-     * If the player's health reaches 0 due to any of the NPC interactions, the game is over.
-     * @return true if the player's health is less or equal to 0, false otherwise
+     * If the player's health reaches 0 due to any of the NPC interactions, the game is over. Defeating an NPC or
+     * picking up an item fires its triggers, which may end the game too.
+     * @return true if the game is over, false otherwise
      */
     boolean checkForInteractions() {
         List<NPC> npcs = checkForIndividuals(player.getPosition());
-        for (NPC npc : npcs) {
+        for (int i = 0; i < npcs.size(); i++) {
+            NPC npc = npcs.get(i);
             if (npc != null && !interactionManager.handleNPCInteraction(npc)) {
                 return true;
             }
+            if (npc != null && !npc.isAlive() &&
+                    triggerManager.fire(TriggerManager.Event.NPC_DEFEATED, npc.getName(), player) !=
+                            TriggerManager.Outcome.CONTINUE) {
+                return true;
+            }
         }
 
         List<Item> locationItems = checkForItems(player.getPosition());
-        for (Item item : locationItems) {
+        for (int i = 0; i < locationItems.size(); i++) {
+            Item item = locationItems.get(i);
             if (item != null) {
                 interactionManager.handleItemInteraction(item);
+                if (player.getInventory().getItems().contains(item) &&
+                        triggerManager.fire(TriggerManager.Event.ITEM_ACQUIRED, item.getName(), player) !=
+                                TriggerManager.Outcome.CONTINUE) {
+                    return true;
+                }
             }
         }
 
@@ -184,35 +323,58 @@ class Game implements Serializable {
 
     /**
      * Handles the player's movement in the specified direction. The player's new position is calculated based on the
-     * direction they want to move in. If the new position has no exits, the player's health is set to 0 and
-     * the game is over.
-     * @param direction the direction the player wants to move in
+     * direction they want to move in. Entering the new position fires its triggers, like dying on a location with no
+     * exits.
+     * @param direction the movement command the player typed
      * @return true if the player is still alive and the game continues, false otherwise
      */
-    private boolean handleDirection(String direction) {
-        Point newPosition = inputHandler.calculateNewPosition(direction, player.getPosition());
-        player.setPosition(newPosition);
+    private boolean handleDirection(Command direction) {
+        return moveTo(inputHandler.calculateNewPosition(direction, player.getPosition()));
+    }
 
-        Location currentLocation = gameMap.get(newPosition);
-        if (currentLocation != null && (currentLocation.getExits() == null || currentLocation.getExits().isEmpty())) {
-            player.setHealth(0);
-            System.out.println(currentLocation);
-            System.out.println("There are no exits. You have died!");
-            return false;
-        }
-        return true;
+    /**
+     * Takes one step, of a typed direction or of a planned route, marks the new point as explored and records the
+     * step in the telemetry.
+     */
+    private boolean moveTo(Point newPosition) {
+        player.setPosition(newPosition);
+        player.getExplorationMap().visit(newPosition);
+        boolean continues = triggerManager.fire(TriggerManager.Event.ENTER_LOCATION, newPosition, player) ==
+                TriggerManager.Outcome.CONTINUE;
+        TelemetryLog.record(TelemetryLog.Kind.MOVE, continues, player.getId(), newPosition, null, 0);
+        return continues;
     }
 
+    /**
+     * Collects the NPCs at the given point.
+     * @param point the point to look at
+     * @return the NPCs at the point, in a list that is reused by the next call
+     */
     List<NPC> checkForIndividuals(Point point) {
-        return individuals.stream()
-                .filter(individual -> individual.getPosition().equals(point))
-                .collect(Collectors.toList());
+        individualsHere.clear();
+        for (int i = 0; i < individuals.size(); i++) {
+            NPC individual = individuals.get(i);
+            if (individual.getPosition().equals(point)) {
+                individualsHere.add(individual);
+            }
+        }
+        return individualsHere;
     }
 
+    /**
+     * Collects the items on the ground at the given point.
+     * @param point the point to look at
+     * @return the items at the point, in a list that is reused by the next call
+     */
     List<Item> checkForItems(Point point) {
-        return items.stream()
-                .filter(item -> item.getSpawnPoint().equals(point))
-                .collect(Collectors.toList());
+        itemsHere.clear();
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
+            if (point.equals(item.getSpawnPoint())) {
+                itemsHere.add(item);
+            }
+        }
+        return itemsHere;
     }
 
 }
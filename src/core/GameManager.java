@@ -1,37 +1,59 @@
 package core;
 
+import gameplay.QuestLog;
 import model.character.*;
 import model.item.*;
+import model.world.Location;
 import model.world.Point;
 import persistence.GameState;
 import persistence.GameStateManager;
+import persistence.VersionedList;
+import persistence.WriteAheadLog;
 
 import java.io.Serializable;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ThreadLocalRandom;
 import java.io.*;
 
 /**
  * The GameManager class is responsible for managing the game state and the game loop. It handles the setup of the game,
  * including creating the player, NPCs, and items, and starting the game loop. It also provides the option to save and
  * load the game state.
+ * Between the autosaves, the input of the game is kept in a {@link WriteAheadLog} by a {@link SessionLog}, so loading
+ * after a crash gives back every turn played.
  */
 class GameManager implements Serializable {
     private Game game;
     private final Scanner scanner;
+    private final World world;
     private final MapManager mapManager;
-    private List<Item> items;
-    private List<NPC> individuals;
+    private final SessionContext session;
+    private VersionedList<Item> items;
+    private VersionedList<NPC> individuals;
     private Player player;
+    private WriteAheadLog log;
+    private boolean logOpened;
+    private SessionLog sessionLog;
     private static final String SAVE_FILE = "save_game.dat";
+    private static final String LOG_DIRECTORY = "save_game.wal";
+    static final String START_PROMPT = "Please choose an option (1,2,3): ";
+    private static final Point PRINCESS_POINT = new Point(4, 4, 0);
 
     /**
-     * Creates a new GameManager instance with a scanner and a map manager. It then shows the start menu to the player.
+     * Creates a new GameManager instance with a scanner, the default world and a session on it. It then shows the
+     * start menu to the player.
      */
     GameManager() {
         this.scanner = new Scanner(System.in);
-        this.mapManager = MapManager.getInstance();
+        this.world = World.getDefault();
+        this.mapManager = world.getMapManager();
+        this.session = world.acquireSession();
         showStartMenu();
     }
 
@@ -41,12 +63,20 @@ class GameManager implements Serializable {
      * game, the game is loaded from the save file. If the player chooses to exit the game, the program is terminated.
      */
     private void showStartMenu() {
+        boolean firstPrompt = true;
         while (true) {
             System.out.println("\n=== Welcome to my RPG text based game ===");
             System.out.println("1. New Game");
             System.out.println("2. Load Game");
             System.out.println("3. Exit");
-            System.out.print("Please choose an option (1,2,3): ");
+            System.out.print(START_PROMPT);
+            System.out.flush();
+
+            if (firstPrompt && Boolean.getBoolean("rpg.startupTiming")) {
+                long elapsed = System.currentTimeMillis() - ManagementFactory.getRuntimeMXBean().getStartTime();
+                System.err.println("Time to first prompt: " + elapsed + " ms");
+            }
+            firstPrompt = false;
 
             String choice = scanner.nextLine().trim();
             switch (choice) {
@@ -75,20 +105,39 @@ class GameManager implements Serializable {
     private void setupGame() {
         individuals = createNPCs();
         items = createItems();
-        player = NPCFactory.createPlayer("Hero", new Point(2, 0, 0));
+        player = createPlayer();
+        for (QuestLog.Quest quest : createQuests()) {
+            player.getQuestLog().add(quest);
+        }
+        placeItems(items, mapManager);
 
+        session.bind(player, individuals, items, scanner);
+        session.getHistoryManager().track(player, individuals, items);
+        game = new Game(session);
+        startLog(newSessionId(), 0);
+        autoSaveGame(); // the save has to name the session the log is kept for
+    }
+
+    /**
+     * Gives a random spawn point to every item that doesn't have a fixed one.
+     * @param items the items of a new game
+     * @param mapManager the map to place them on
+     */
+    static void placeItems(List<Item> items, MapManager mapManager) {
         for (Item item : items) {
             if(item.getSpawnPoint() == null){
                 Point spawnPoint = mapManager.getRandomSpawnPoint();
                 item.setSpawnPoint(spawnPoint);
             }
         }
+    }
 
-        game = new Game(individuals, player, mapManager.getGameMap(), items, scanner);
+    static Player createPlayer() {
+        return NPCFactory.createPlayer("Hero", new Point(2, 0, 0));
     }
 
-    private List<NPC> createNPCs() {
-        List<NPC> individuals = new ArrayList<>();
+    static VersionedList<NPC> createNPCs() {
+        VersionedList<NPC> individuals = new VersionedList<>();
 
         individuals.add(NPCFactory.createGoblin("Bridge Goblin", new Point(2, 1, 0),
                 "bridge", 5));
@@ -105,8 +154,8 @@ class GameManager implements Serializable {
     }
 
 
-    private List<Item> createItems() {
-        List<Item> items = new ArrayList<>();
+    static VersionedList<Item> createItems() {
+        VersionedList<Item> items = new VersionedList<>();
 
         items.add(ItemFactory.createWeapon("Shield", 1, "Wooden Shield",
                 "A wooden shield."));
@@ -153,6 +202,51 @@ class GameManager implements Serializable {
         return items;
     }
 
+    /**
+     * Creates the quests a new player starts with.
+     * @return the quests of a new game
+     */
+    static List<QuestLog.Quest> createQuests() {
+        List<QuestLog.Quest> quests = new ArrayList<>();
+
+        quests.add(new QuestLog.Quest("The Princess", 0)
+                .then(QuestLog.Objective.defeat("Swamp Ogre", 1))
+                .then(QuestLog.Objective.pickUp("Key", 1)));
+        quests.add(new QuestLog.Quest("Goblin Slayer", 10)
+                .then(QuestLog.Objective.defeat("Goblin", 2)));
+        quests.add(new QuestLog.Quest("Potions for the Witch", 15)
+                .then(QuestLog.Objective.pickUp("Potion", 2))
+                .then(QuestLog.Objective.deliver("Potion", 2, "House Witch")));
+        quests.add(new QuestLog.Quest("Bridge Toll", 2)
+                .then(QuestLog.Objective.pay("Bridge Goblin")));
+
+        return quests;
+    }
+
+    /**
+     * Creates the scripted rules of the world: the player wins by reaching the princess with the key, and dies on
+     * any location without exits.
+     * @param gameMap the game map with locations and exits
+     * @return the triggers of the world
+     */
+    static TriggerManager createTriggers(Map<Point, Location> gameMap) {
+        TriggerManager triggers = new TriggerManager(gameMap);
+
+        triggers.add(TriggerManager.Trigger.onLocation(PRINCESS_POINT)
+                .requiring("Key", "You need a key to free the princess!")
+                .then(TriggerManager.Outcome.WIN, "You have freed the princess! You win!"));
+
+        for (Map.Entry<Point, Location> entry : gameMap.entrySet()) {
+            List<Point> exits = entry.getValue().getExits();
+            if (exits == null || exits.isEmpty()) {
+                triggers.add(TriggerManager.Trigger.onEnter(entry.getKey())
+                        .describingLocation()
+                        .then(TriggerManager.Outcome.DEATH, "There are no exits. You have died!"));
+            }
+        }
+        return triggers;
+    }
+
 
     /**
      * Starts the game loop, where the player can play the game. The game loop continues until the player's health
@@ -174,11 +268,16 @@ class GameManager implements Serializable {
             }
 
         }
+        if (sessionLog != null) {
+            sessionLog.end();
+        }
     }
 
 
     void saveGame(String filePath) {
-        GameState gameState = new GameState(individuals, player, items, mapManager);
+        GameState gameState = sessionLog == null ? new GameState(individuals, player, items, mapManager) :
+                new GameState(individuals, player, items, mapManager, sessionLog.getSessionId(),
+                        sessionLog.getSequence());
         try {
             GameStateManager.saveGame(gameState, filePath);
         } catch (IOException e) {
@@ -190,9 +289,76 @@ class GameManager implements Serializable {
         saveGame(SAVE_FILE);
     }
 
+    /**
+     * Opens the write-ahead log the first time it is needed. A game is still played when it can't be opened, only
+     * without the log.
+     * @return the log, or null if it can't be opened
+     */
+    private WriteAheadLog writeAheadLog() {
+        if (!logOpened) {
+            logOpened = true;
+            try {
+                log = WriteAheadLog.open(Path.of(LOG_DIRECTORY));
+            } catch (IOException e) {
+                System.err.println("Failed to open the write-ahead log, the game is only kept by its autosaves: " +
+                        e.getMessage());
+            }
+        }
+        return log;
+    }
+
+    private static long newSessionId() {
+        long sessionId;
+        do {
+            sessionId = ThreadLocalRandom.current().nextLong();
+        } while (sessionId == 0);
+        return sessionId;
+    }
+
+    /**
+     * Starts logging the input of the game that was just bound, with its current state as the base of the session.
+     * The base holds the id of the player, so a game recovered from it keeps its orders on the marketplace.
+     * @param sessionId the session of the game
+     * @param sequence the sequence of the last record of the session the game includes
+     */
+    private void startLog(long sessionId, long sequence) {
+        WriteAheadLog writeAheadLog = writeAheadLog();
+        if (writeAheadLog == null) {
+            return;
+        }
+        sessionLog = new SessionLog(writeAheadLog, sessionId, sequence);
+        player.getId(); // picks the id of a player saved before it was kept
+        try {
+            sessionLog.writeBase(new GameState(individuals, player, items, mapManager, sessionId, sequence));
+            session.getInputHandler().setSessionLog(sessionLog);
+        } catch (IOException e) {
+            System.err.println("Failed to start the write-ahead log of the game: " + e.getMessage());
+            sessionLog = null;
+        }
+    }
+
+    /**
+     * Finds out whether the game of a save was played on after the save and then lost in a crash: the log then has
+     * records of its session after the save, and the session didn't end.
+     * @return true if the game can be recovered from the base of its session
+     */
+    private boolean wasLost(GameState gameState) throws IOException {
+        WriteAheadLog writeAheadLog = gameState.getSessionId() != 0 ? writeAheadLog() : null;
+        if (writeAheadLog == null) {
+            return false;
+        }
+        List<WriteAheadLog.Record> records = writeAheadLog.records(gameState.getSessionId(),
+                gameState.getLogSequence());
+        return !records.isEmpty() && records.get(records.size() - 1).getType() != WriteAheadLog.END &&
+                Files.exists(SessionLog.basePath(writeAheadLog, gameState.getSessionId()));
+    }
+
     /**
      * Loads the game from the specified file path. If the file does not exist, a message is displayed to the user.
      * The GameState class provides an object representation of the game state containing the player, NPCs, and items.
+     * When the game went on after the save and was lost in a crash, the base of its session is loaded instead and
+     * the input logged since then is replayed on it. Otherwise the game starts a new session from the save.
+     * A save that can't be read or deserialized, whatever the reason, is reported as a failed load.
      * @param filePath the file path to load the game from
      * @return true if the game was loaded successfully, false otherwise
      */
@@ -205,19 +371,73 @@ class GameManager implements Serializable {
             }
 
             GameState gameState = GameStateManager.loadGame(filePath);
-            individuals = gameState.getNpcs();
+            List<WriteAheadLog.Record> replayed = null;
+            if (wasLost(gameState)) {
+                gameState = GameStateManager.loadGame(SessionLog.basePath(log, gameState.getSessionId()).toString());
+                replayed = log.records(gameState.getSessionId(), gameState.getLogSequence());
+            }
             player = gameState.getPlayer();
-            items = gameState.getItems();
-            game = new Game(individuals, player, mapManager.getGameMap(), items, scanner);
+            if (player.getQuestLog().getQuests().isEmpty()) { // saved before the quests were kept
+                for (QuestLog.Quest quest : createQuests()) {
+                    player.getQuestLog().add(quest);
+                }
+            }
+            if (!gameState.isComplete()) {
+                System.out.println("The saved game is damaged, the parts that were lost start over.");
+            }
+            individuals = gameState.getNpcs() != null ? versioned(gameState.getNpcs()) : createNPCs();
+            if (gameState.getItems() != null) {
+                items = versioned(gameState.getItems());
+            } else {
+                items = createItems();
+                placeItems(items, mapManager);
+            }
+            session.bind(player, individuals, items, scanner);
+            session.getHistoryManager().track(player, individuals, items);
+            game = new Game(session);
             System.out.println("Game loaded successfully.");
+            if (replayed != null) {
+                sessionLog = new SessionLog(log, gameState.getSessionId(), gameState.getLogSequence());
+                session.getInputHandler().setSessionLog(sessionLog);
+                sessionLog.replay(replayed);
+            } else {
+                if (gameState.getSessionId() != 0 && log != null) {
+                    SessionLog.drop(log, gameState.getSessionId());
+                }
+                startLog(newSessionId(), 0);
+                autoSaveGame();
+            }
             return true;
-        } catch (IOException | ClassNotFoundException e) {
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
             System.err.println("Failed to load game: " + e.getMessage());
             return false;
         }
     }
 
+    /**
+     * Saves written before the turn history kept their lists as plain lists, which are copied into versioned ones.
+     */
+    @SuppressWarnings("unchecked")
+    private static <E> VersionedList<E> versioned(List<E> list) {
+        return list instanceof VersionedList ? (VersionedList<E>) list : new VersionedList<>(list);
+    }
+
+    /**
+     * Starts the game. Running with "--bake-world file" writes the default world to the given file instead, so
+     * later launches can load it through -Drpg.world=file.
+     * @param args the command line arguments
+     */
     public static void main(String[] args) {
+        if (args.length == 2 && args[0].equals("--bake-world")) {
+            try {
+                MapManager.load().bakeWorld(Path.of(args[1]));
+                System.out.println("World written to " + args[1]);
+            } catch (IOException e) {
+                System.err.println("Failed to write world: " + e.getMessage());
+            }
+            return;
+        }
+        Renderer.install();
         new GameManager();
     }
 }
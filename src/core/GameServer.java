@@ -0,0 +1,317 @@
+package core;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * GameServer lets players play over TCP. Each connection gets a {@link RemoteSession} with a game of its own.
+ * The server runs a few selector threads and spreads the connections over them, so every thread serves many sessions;
+ * the first selector thread also accepts the new connections. The games run on a bounded pool of game threads: a
+ * selector thread queues the commands of a session for its game and goes on, and the game posts the events of each
+ * command back and wakes the selector thread up to send them, so a selector thread never blocks on a player nor on a
+ * game. A game keeps its thread while it waits for the next command, since it asks for input in the middle of a turn,
+ * so the pool bounds the games played at once; the games of the sessions beyond it wait for a thread to free up.
+ * Whatever the game of a session prints is captured and sent to that session as a message.
+ * Start it with "java core.GameServer [port] [threads] [games]".
+ *
+ * @see Protocol
+ * @see LoadGenerator
+ */
+class GameServer implements Closeable {
+    static final int DEFAULT_PORT = 4000;
+    static final int DEFAULT_MAX_GAMES = 1024;
+    private static final int ACCEPT_BACKLOG = 1024;
+    private static final long GAME_THREAD_KEEP_ALIVE_SECONDS = 60;
+    private static final long SHUTDOWN_SECONDS = 10;
+    private static final ThreadLocal<OutputStream> CAPTURED_OUTPUT = new ThreadLocal<>();
+
+    private final ServerSocketChannel serverChannel;
+    private final SelectorLoop[] loops;
+    private final ThreadPoolExecutor games;
+    private final World world;
+    private int nextLoop;
+
+    /**
+     * Opens the server on the given port and starts its selector threads, with room for DEFAULT_MAX_GAMES games at
+     * once.
+     * @param port the port to listen on, or 0 for any free port
+     * @param threads the number of selector threads
+     * @throws IOException if the port can't be opened
+     */
+    GameServer(int port, int threads) throws IOException {
+        this(port, threads, DEFAULT_MAX_GAMES);
+    }
+
+    /**
+     * Opens the server on the given port and starts its selector threads.
+     * @param port the port to listen on, or 0 for any free port
+     * @param threads the number of selector threads
+     * @param maxGames the number of game threads, which is how many games are played at once
+     * @throws IOException if the port can't be opened
+     */
+    GameServer(int port, int threads, int maxGames) throws IOException {
+        this.world = World.getDefault();
+        AtomicInteger gameThreads = new AtomicInteger();
+        this.games = new ThreadPoolExecutor(maxGames, maxGames, GAME_THREAD_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), runnable -> {
+                    Thread thread = new Thread(runnable, "remote-game-" + gameThreads.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        games.allowCoreThreadTimeOut(true);
+        this.serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(port), ACCEPT_BACKLOG);
+        serverChannel.configureBlocking(false);
+
+        loops = new SelectorLoop[threads];
+        for (int i = 0; i < threads; i++) {
+            loops[i] = new SelectorLoop(i);
+        }
+        serverChannel.register(loops[0].selector, SelectionKey.OP_ACCEPT);
+        for (SelectorLoop loop : loops) {
+            loop.thread.start();
+        }
+    }
+
+    int getPort() throws IOException {
+        return ((InetSocketAddress) serverChannel.getLocalAddress()).getPort();
+    }
+
+    /**
+     * Sends what the current thread prints to the given stream instead of the console, or back to the console when
+     * the stream is null. The server must have replaced System.out through {@link #installOutputCapture()}.
+     * @param stream the stream to capture to, or null
+     */
+    static void captureOutput(OutputStream stream) {
+        if (stream == null) {
+            CAPTURED_OUTPUT.remove();
+        } else {
+            CAPTURED_OUTPUT.set(stream);
+        }
+    }
+
+    /**
+     * Replaces System.out with a stream that writes to the stream captured by the current thread, if any, and to the
+     * console otherwise.
+     */
+    static synchronized void installOutputCapture() {
+        PrintStream console = System.out;
+        System.setOut(new PrintStream(new OutputStream() {
+            @Override
+            public void write(int b) throws IOException {
+                OutputStream captured = CAPTURED_OUTPUT.get();
+                (captured != null ? captured : console).write(b);
+            }
+
+            @Override
+            public void write(byte[] bytes, int offset, int length) throws IOException {
+                OutputStream captured = CAPTURED_OUTPUT.get();
+                (captured != null ? captured : console).write(bytes, offset, length);
+            }
+
+            @Override
+            public void flush() {
+                console.flush();
+            }
+        }, true));
+    }
+
+    private synchronized SelectorLoop nextLoop() {
+        SelectorLoop loop = loops[nextLoop];
+        nextLoop = (nextLoop + 1) % loops.length;
+        return loop;
+    }
+
+    /**
+     * Stops the selector threads, which closes every session, and waits a while for the games to end.
+     * @throws IOException if the server channel can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        for (SelectorLoop loop : loops) {
+            loop.running = false;
+            loop.selector.wakeup();
+        }
+        serverChannel.close();
+        games.shutdown();
+        try {
+            for (SelectorLoop loop : loops) {
+                loop.thread.join();
+            }
+            games.awaitTermination(SHUTDOWN_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * One selector thread with the sessions it serves. New connections are handed to it through a queue, since a
+     * channel can only be registered safely by the thread that owns the selector, and so are the sessions whose game
+     * posted events.
+     */
+    private final class SelectorLoop implements Runnable {
+        private final Selector selector;
+        private final Thread thread;
+        private final Queue<SocketChannel> newChannels = new ConcurrentLinkedQueue<>();
+        private final Queue<RemoteSession> postedSessions = new ConcurrentLinkedQueue<>();
+        private volatile boolean running = true;
+
+        SelectorLoop(int index) throws IOException {
+            this.selector = Selector.open();
+            this.thread = new Thread(this, "game-server-" + index);
+        }
+
+        void add(SocketChannel channel) {
+            newChannels.add(channel);
+            selector.wakeup();
+        }
+
+        /**
+         * Called on a game thread when the game of a session posted events.
+         */
+        void post(RemoteSession session) {
+            postedSessions.add(session);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            try {
+                while (running) {
+                    selector.select();
+                    registerNewChannels();
+                    flushPostedSessions();
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isAcceptable()) {
+                            accept();
+                        } else {
+                            handle(key);
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Selector failed: " + e.getMessage());
+            } finally {
+                for (SelectionKey key : selector.keys()) {
+                    closeQuietly(key.attachment() instanceof RemoteSession ? (RemoteSession) key.attachment() :
+                            key.channel());
+                }
+                closeQuietly(selector);
+            }
+        }
+
+        private void accept() throws IOException {
+            SocketChannel channel;
+            while ((channel = serverChannel.accept()) != null) {
+                channel.configureBlocking(false);
+                channel.socket().setTcpNoDelay(true);
+                nextLoop().add(channel);
+            }
+        }
+
+        private void registerNewChannels() {
+            SocketChannel channel;
+            while ((channel = newChannels.poll()) != null) {
+                RemoteSession session = new RemoteSession(channel, world, games, this::post);
+                try {
+                    channel.register(selector, SelectionKey.OP_READ, session);
+                } catch (ClosedChannelException e) {
+                    closeQuietly(session);
+                }
+            }
+        }
+
+        /**
+         * Sends the events the games posted. A session closed in the meantime has no key anymore and is skipped.
+         */
+        private void flushPostedSessions() {
+            RemoteSession session;
+            while ((session = postedSessions.poll()) != null) {
+                SelectionKey key = session.getChannel().keyFor(selector);
+                if (key != null && key.isValid()) {
+                    handle(key, false);
+                }
+            }
+        }
+
+        private void handle(SelectionKey key) {
+            handle(key, key.isReadable());
+        }
+
+        /**
+         * Reads and queues the commands of a session, and writes the events its game posted. A session only asks to
+         * be told when the connection has more commands while its game has room for them, and when the connection can
+         * take more output while some of it is still waiting. Whatever goes wrong while handling a session closes that
+         * session only, never the selector thread with the other sessions it serves.
+         */
+        private void handle(SelectionKey key, boolean readable) {
+            RemoteSession session = (RemoteSession) key.attachment();
+            try {
+                session.takePosted();
+                if (!(readable ? session.read() : session.handleInput())) {
+                    close(key);
+                    return;
+                }
+                if (session.hasOutput()) {
+                    session.write();
+                }
+                if (session.isFinished()) {
+                    close(key);
+                    return;
+                }
+                key.interestOps((session.wantsInput() ? SelectionKey.OP_READ : 0) |
+                        (session.hasOutput() ? SelectionKey.OP_WRITE : 0));
+            } catch (IOException e) {
+                close(key);
+            } catch (RuntimeException e) {
+                System.err.println("Closing a session that failed: " + e);
+                close(key);
+            }
+        }
+
+        /**
+         * Closes the connection of a session, which gives its managers back to the world's pool.
+         */
+        private void close(SelectionKey key) {
+            key.cancel();
+            closeQuietly((RemoteSession) key.attachment());
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        try {
+            closeable.close();
+        } catch (IOException ignored) {
+        }
+    }
+
+    /**
+     * Starts the server.
+     * @param args the port (4000 by default), the number of selector threads (the number of processors by default)
+     *             and the number of games played at once (DEFAULT_MAX_GAMES by default)
+     * @throws IOException if the server can't be started
+     */
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int maxGames = args.length > 2 ? Integer.parseInt(args[2]) : DEFAULT_MAX_GAMES;
+        installOutputCapture();
+        GameServer server = new GameServer(port, threads, maxGames);
+        System.out.println("Game server listening on port " + server.getPort() + " with " + threads +
+                " selector threads and " + maxGames + " game threads.");
+    }
+}
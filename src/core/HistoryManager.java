@@ -0,0 +1,311 @@
+package core;
+
+import model.character.Character;
+import model.character.NPC;
+import model.character.Player;
+import model.item.Item;
+import persistence.PersistentList;
+import persistence.VersionedList;
+
+import java.util.Arrays;
+
+/**
+ * HistoryManager keeps the last turns of a game so the player can undo and redo their actions.
+ * The NPCs and the items on the ground are {@link VersionedList}s, which share their structure with their earlier
+ * versions, so a turn only keeps a reference to each. The stats of the characters (including the contents of their
+ * inventories, which are versioned too) are kept in a journal: a change only marks the character, and when the next
+ * turn is recorded the stats it had at the start of the turn before are written to the journal, once per character
+ * that changed. Recording a turn is therefore O(1) plus the characters that changed, and the turns kept in the
+ * history cost memory proportional to what changed between them, not to the size of the world.
+ * The quests of the player and the stock of the shopkeepers are saved with their stats, and the routes of the NPCs
+ * are kept by the {@link NPCBehaviourManager} in a journal of its own, so undoing a turn takes back everything that
+ * happened in it.
+ * The turns and the journal entries live in rings that are filled again and again, so once the rings are big enough
+ * recording a turn doesn't allocate. Going back a turn swaps the stats in the journal with the current ones, which
+ * leaves the journal ready to go forward again.
+ * The history isn't tracking anything until {@link #track} is called, so sessions without undo pay nothing for it.
+ * Only the player's own game is kept. Orders on the marketplace are shared with the other players and can't be taken
+ * back, so a visit to the marketplace {@link #forget() forgets} the turns before it.
+ */
+class HistoryManager {
+    static final int DEFAULT_DEPTH = 20;
+
+    /**
+     * The state of the game at the start of a turn: the versions of the NPC and item lists, the end of the journals
+     * and the tick count of the NPCs. The entries of the journal between a turn and the next one hold the stats the
+     * characters had at the start of the turn, for the characters that changed during it.
+     */
+    private static final class Turn {
+        private PersistentList<NPC> individuals;
+        private PersistentList<Item> items;
+        private long journalEnd;
+        private long behaviourEnd;
+        private int npcTurn;
+    }
+
+    private final Turn[] turns;
+    private final NPCBehaviourManager npcBehaviourManager;
+    private Player player;
+    private VersionedList<NPC> individuals;
+    private VersionedList<Item> items;
+
+    private Character[] characters = new Character[16];
+    private Character.Stats[] recorded = new Character.Stats[16];
+    private boolean[] changed = new boolean[16];
+    private int[] changedSlots = new int[16];
+    private int changedCount;
+    private int characterCount;
+
+    private int[] journalSlots = new int[64];
+    private Character.Stats[] journal = new Character.Stats[64];
+    private long journalStart;
+    private long journalEnd;
+
+    private int first;
+    private int count;
+    private int current;
+
+    /**
+     * Creates a history that keeps the given number of turns.
+     * @param depth how many turns can be undone, plus one for the current turn
+     * @param npcBehaviourManager the behaviour of the NPCs of the session, whose routes are kept with the turns
+     */
+    HistoryManager(int depth, NPCBehaviourManager npcBehaviourManager) {
+        this.npcBehaviourManager = npcBehaviourManager;
+        this.turns = new Turn[depth];
+        for (int i = 0; i < depth; i++) {
+            turns[i] = new Turn();
+        }
+    }
+
+    /**
+     * Starts recording the changes of a game, forgetting the turns of the previous one.
+     * @param player the player character
+     * @param individuals the NPCs of the game
+     * @param items the items on the ground
+     */
+    void track(Player player, VersionedList<NPC> individuals, VersionedList<Item> items) {
+        reset();
+        this.player = player;
+        this.individuals = individuals;
+        this.items = items;
+        startTracking(player);
+        for (NPC npc : individuals) {
+            startTracking(npc);
+        }
+        npcBehaviourManager.trackHistory();
+    }
+
+    /**
+     * Stops recording and forgets every turn.
+     */
+    void reset() {
+        for (int slot = 0; slot < characterCount; slot++) {
+            characters[slot].setChangeListener(null);
+            characters[slot] = null;
+            changed[slot] = false;
+        }
+        characterCount = 0;
+        changedCount = 0;
+        player = null;
+        individuals = null;
+        items = null;
+        forget();
+    }
+
+    /**
+     * Forgets every turn recorded so far but keeps tracking, so undo can't go back past this point. The next turn
+     * recorded is the first one again.
+     */
+    void forget() {
+        for (Turn turn : turns) {
+            turn.individuals = null;
+            turn.items = null;
+        }
+        journalStart = 0;
+        journalEnd = 0;
+        first = 0;
+        count = 0;
+        current = 0;
+    }
+
+    boolean isTracking() {
+        return player != null;
+    }
+
+    private void startTracking(Character character) {
+        if (characterCount == characters.length) {
+            int capacity = characters.length * 2;
+            characters = Arrays.copyOf(characters, capacity);
+            recorded = Arrays.copyOf(recorded, capacity);
+            changed = Arrays.copyOf(changed, capacity);
+            changedSlots = Arrays.copyOf(changedSlots, capacity);
+        }
+        int slot = characterCount++;
+        characters[slot] = character;
+        if (recorded[slot] == null) {
+            recorded[slot] = new Character.Stats();
+        }
+        character.saveStats(recorded[slot]);
+        character.setChangeListener(changedCharacter -> markChanged(slot));
+    }
+
+    private void markChanged(int slot) {
+        if (!changed[slot]) {
+            changed[slot] = true;
+            changedSlots[changedCount++] = slot;
+        }
+    }
+
+    /**
+     * Records the state at the start of a turn. The turns that were undone before it can't be redone anymore, and
+     * the oldest turn is forgotten when the history is full.
+     */
+    void recordTurn() {
+        if (!isTracking()) {
+            return;
+        }
+        long behaviourEnd = 0;
+        if (count == 0) { // there is no turn before this one to go back to
+            saveChanged();
+            npcBehaviourManager.forgetHistory();
+        } else {
+            count = current + 1;
+            journalEnd = turns[index(current)].journalEnd;
+            journalChanged();
+            behaviourEnd = npcBehaviourManager.recordHistory(turns[index(current)].behaviourEnd);
+        }
+        if (count == turns.length) {
+            first = (first + 1) % turns.length;
+            count--;
+            journalStart = turns[first].journalEnd;
+            npcBehaviourManager.trimHistory(turns[first].behaviourEnd);
+        }
+        Turn turn = turns[index(count)];
+        turn.individuals = individuals.version();
+        turn.items = items.version();
+        turn.journalEnd = journalEnd;
+        turn.behaviourEnd = behaviourEnd;
+        turn.npcTurn = npcBehaviourManager.getTurn();
+        current = count;
+        count++;
+    }
+
+    /**
+     * Writes the stats the changed characters had at the start of the turn to the journal and keeps their current
+     * stats for the next turn. The Stats written to the journal change places with the ones it held before.
+     */
+    private void journalChanged() {
+        for (int i = 0; i < changedCount; i++) {
+            int slot = changedSlots[i];
+            changed[slot] = false;
+            if (journalEnd - journalStart == journal.length) {
+                growJournal();
+            }
+            int entry = journalIndex(journalEnd++);
+            Character.Stats free = journal[entry];
+            journal[entry] = recorded[slot];
+            journalSlots[entry] = slot;
+            recorded[slot] = free == null ? new Character.Stats() : free;
+            characters[slot].saveStats(recorded[slot]);
+        }
+        changedCount = 0;
+    }
+
+    private void saveChanged() {
+        for (int i = 0; i < changedCount; i++) {
+            int slot = changedSlots[i];
+            changed[slot] = false;
+            characters[slot].saveStats(recorded[slot]);
+        }
+        changedCount = 0;
+    }
+
+    /**
+     * Puts back the stats the changed characters had at the start of the turn.
+     */
+    private void revertChanged() {
+        for (int i = 0; i < changedCount; i++) {
+            int slot = changedSlots[i];
+            changed[slot] = false;
+            characters[slot].restoreStats(recorded[slot]);
+        }
+        changedCount = 0;
+    }
+
+    /**
+     * Goes back to the turn before the current one.
+     * @return true if there was a turn to go back to
+     */
+    boolean undo() {
+        if (!isTracking() || current == 0) {
+            return false;
+        }
+        current--;
+        restore(turns[index(current)], turns[index(current + 1)], turns[index(current)]);
+        return true;
+    }
+
+    /**
+     * Goes forward to the turn that was undone last.
+     * @return true if there was a turn to go forward to
+     */
+    boolean redo() {
+        if (!isTracking() || current >= count - 1) {
+            return false;
+        }
+        current++;
+        restore(turns[index(current - 1)], turns[index(current)], turns[index(current)]);
+        return true;
+    }
+
+    /**
+     * Goes from one of two consecutive turns to the other, after taking back what changed since the current turn
+     * was recorded. The NPCs are moved to the location lists of their restored positions.
+     */
+    private void restore(Turn earlier, Turn later, Turn target) {
+        revertChanged();
+        swapStats(earlier.journalEnd, later.journalEnd);
+        individuals.restore(target.individuals);
+        items.restore(target.items);
+        npcBehaviourManager.swapHistory(earlier.behaviourEnd, later.behaviourEnd, target.npcTurn);
+    }
+
+    /**
+     * Swaps the stats in the journal entries between the given positions with the current stats of their characters.
+     * A character has at most one entry between two turns, so the order doesn't matter.
+     */
+    private void swapStats(long from, long to) {
+        for (long position = from; position < to; position++) {
+            int entry = journalIndex(position);
+            int slot = journalSlots[entry];
+            Character.Stats saved = journal[entry];
+            characters[slot].restoreStats(saved);
+            journal[entry] = recorded[slot];
+            recorded[slot] = saved;
+        }
+    }
+
+    private int index(int turn) {
+        return (first + turn) % turns.length;
+    }
+
+    private int journalIndex(long position) {
+        return (int) (position & (journal.length - 1));
+    }
+
+    /**
+     * Doubles the journal, keeping every entry at the position it had.
+     */
+    private void growJournal() {
+        int[] oldSlots = journalSlots;
+        Character.Stats[] oldJournal = journal;
+        journalSlots = new int[oldSlots.length * 2];
+        journal = new Character.Stats[oldJournal.length * 2];
+        for (long position = journalStart; position < journalEnd; position++) {
+            int oldEntry = (int) (position & (oldJournal.length - 1));
+            journalSlots[journalIndex(position)] = oldSlots[oldEntry];
+            journal[journalIndex(position)] = oldJournal[oldEntry];
+        }
+    }
+}
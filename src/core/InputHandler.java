@@ -7,25 +7,170 @@ import java.util.*;
 
 /**
  * This class is responsible for handling user input.
- * It is a singleton class, meaning that only one instance of this class can be created.
+ * Each {@link SessionContext} has its own InputHandler, pointed at the scanner of its game by {@link #reset(Scanner)}.
+ * A line can hold several commands separated by ';', like "north; north; east". The commands left on the line answer
+ * the next prompts, one per prompt, before a new line is read.
+ * When the game has a {@link SessionLog}, every line read is logged, and the log is durable before the game prints
+ * anything after reading the next line. While a crashed game is recovered, the lines come from the log instead.
  */
 class InputHandler implements Serializable {
-    private static InputHandler instance;
-    private final Scanner scanner;
+    private static final char COMMAND_SEPARATOR = ';';
 
-    private InputHandler(Scanner scanner) {
+    private Scanner scanner;
+    private transient SessionLog sessionLog;
+    private transient CommandParser.Result result;
+    private String line = "";
+    private int position;
+    private int segmentStart;
+    private int segmentEnd;
+
+    InputHandler() {
+    }
+
+    /**
+     * Reads from the given scanner from now on and drops any commands left from the previous game.
+     * @param scanner the scanner to read user input from
+     */
+    void reset(Scanner scanner) {
         this.scanner = scanner;
+        this.sessionLog = null;
+        this.line = "";
+        this.position = 0;
+        this.segmentStart = 0;
+        this.segmentEnd = 0;
     }
 
-    static InputHandler getInstance(Scanner scanner) {
-        if (instance == null) {
-            return new InputHandler(scanner);
-        }
-        return instance;
+    /**
+     * Logs the lines read from now on, and replays the lines the log still has to replay first.
+     * @param sessionLog the log of the game
+     */
+    void setSessionLog(SessionLog sessionLog) {
+        this.sessionLog = sessionLog;
+    }
+
+    /**
+     * @return the key of the next operation on the marketplace, see {@link SessionLog#nextOperationKey()}, or null if
+     * the game has no log
+     */
+    String nextOperationKey() {
+        return sessionLog != null ? sessionLog.nextOperationKey() : null;
     }
 
     String getUserInput() {
-        return scanner.nextLine().toLowerCase();
+        nextSegment();
+        return line.substring(segmentStart, segmentEnd).trim().toLowerCase();
+    }
+
+    /**
+     * Reads the next command and parses it with the command set of the current prompt. A command the prompt doesn't
+     * know drops the rest of the line, since the commands after it were meant for a different situation.
+     * @param parser the commands accepted at the current prompt
+     * @return the parsed command, reused by the next call, whose command is null if the input didn't match any
+     */
+    CommandParser.Result readCommand(CommandParser parser) {
+        nextSegment();
+        if (result == null) {
+            result = new CommandParser.Result();
+        }
+        parser.parse(line, segmentStart, segmentEnd, result);
+        if (result.getCommand() == null) {
+            clearPendingInput();
+        }
+        return result;
+    }
+
+    /**
+     * Parses the next command left on the current line without using it up, so the caller can decide whether it
+     * belongs to what it is doing. {@link #skipCommand()} uses it up.
+     * @param parser the commands to parse it with
+     * @return the parsed command, reused by the next call, or null if no command is left on the line
+     */
+    CommandParser.Result peekCommand(CommandParser parser) {
+        int saved = position;
+        if (!nextPendingSegment()) {
+            return null;
+        }
+        position = saved;
+        if (result == null) {
+            result = new CommandParser.Result();
+        }
+        parser.parse(line, segmentStart, segmentEnd, result);
+        return result;
+    }
+
+    /**
+     * Uses up the command returned by {@link #peekCommand(CommandParser)}.
+     */
+    void skipCommand() {
+        nextPendingSegment();
+    }
+
+    /**
+     * @return true if commands typed on an earlier line are still waiting to be used
+     */
+    boolean hasPendingInput() {
+        return position < line.length();
+    }
+
+    /**
+     * Drops the commands left on the current line, for when something happens that the player didn't expect when
+     * they typed them.
+     */
+    void clearPendingInput() {
+        position = line.length();
+    }
+
+    /**
+     * Moves to the next non-empty command of the current line, reading a new line when the current one is used up.
+     */
+    private void nextSegment() {
+        if (nextPendingSegment()) {
+            return;
+        }
+        String replayed = sessionLog != null ? sessionLog.nextReplayedLine() : null;
+        if (replayed != null) {
+            line = replayed;
+        } else {
+            if (sessionLog != null) {
+                sessionLog.sync(); // the player only sees the outcome of their commands once they can't be lost
+            }
+            System.out.flush();
+            line = scanner.nextLine();
+            if (sessionLog != null) {
+                sessionLog.record(line);
+            }
+        }
+        position = 0;
+        if (!nextPendingSegment()) {
+            segmentStart = 0;
+            segmentEnd = 0;
+        }
+    }
+
+    /**
+     * Moves to the next non-empty command left on the current line.
+     * @return false if there is none
+     */
+    private boolean nextPendingSegment() {
+        while (position < line.length()) {
+            int separator = line.indexOf(COMMAND_SEPARATOR, position);
+            segmentStart = position;
+            segmentEnd = separator < 0 ? line.length() : separator;
+            position = separator < 0 ? line.length() : separator + 1;
+            if (!isBlank(segmentStart, segmentEnd)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isBlank(int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (!Character.isWhitespace(line.charAt(i))) {
+                return false;
+            }
+        }
+        return true;
     }
 
     boolean getYesNoInput(String question) {
@@ -41,35 +186,15 @@ class InputHandler implements Serializable {
     }
 
     /**
-     * This method is used to get a valid integer input from the user. It gets the current position of the user, and
-     * it shows the possible directions the user can take. If the direction the user chose only has the base movements,
-     * the method will increment, or decrement, the x and y coordinates accordingly. If the user's direction has
-     * additional movements, such as up or down, the method will increment, or decrement, the z coordinate accordingly.
-     * @param direction the direction the user wants to go
+     * Calculates the position the player reaches by moving in the given direction from their current position. The
+     * movement command already carries the change of the x and y coordinates and, when the direction goes up or down,
+     * of the z coordinate.
+     * @param direction the movement command the user typed
      * @param currentPos the current position of the user
      * @return the new position of the user
      */
-    Point calculateNewPosition(String direction, Point currentPos) {
-        int newX = currentPos.getX();
-        int newY = currentPos.getY();
-        int newZ = currentPos.getZ();
-
-        String[] commands = direction.toLowerCase().split(" ");
-
-        switch (commands[0]) {
-            case "west" -> newX--;
-            case "east" -> newX++;
-            case "north" -> newY++;
-            case "south" -> newY--;
-        }
-
-        if (commands.length > 1) {
-            switch (commands[1]) {
-                case "up" -> newZ++;
-                case "down" -> newZ--;
-            }
-        }
-
-        return new Point(newX, newY, newZ);
+    Point calculateNewPosition(Command direction, Point currentPos) {
+        return new Point(currentPos.getX() + direction.getDx(), currentPos.getY() + direction.getDy(),
+                currentPos.getZ() + direction.getDz());
     }
 }
\ No newline at end of file
@@ -1,61 +1,55 @@
 package core;
 
+import gameplay.Marketplace;
 import model.character.Merchant;
 import model.character.NPC;
 import model.character.Player;
 import model.character.ShopkeeperNPC;
 import model.item.Item;
+import model.item.Weapon;
 import model.world.Point;
 
 import java.io.Serializable;
 
 /**
  * Manages all interactions between the player and NPCs and Items.
- * This class follows the Singleton pattern to ensure only one interaction manager exists.
- * It coordinates combat, inventory, and dialogue interactions throughout the game.
+ * Each {@link SessionContext} has its own interaction manager, pointed at the player of its game by
+ * {@link #reset(Player)}. It coordinates combat, inventory, and dialogue interactions throughout the game.
  *
  * @see CombatManager
  * @see InventoryInteraction
  * @see InputHandler
  */
 class InteractionManager implements Serializable {
-    private static InteractionManager instance;
-    private final Player player;
+    private Player player;
     private final CombatManager combatManager;
     private final InputHandler inputHandler;
     private final InventoryInteraction inventoryInteraction;
+    private final HistoryManager historyManager;
 
     /**
-     * Private constructor to enforce Singleton pattern.
+     * Creates an interaction manager working with the given managers.
      *
-     * @param player The game's player instance
      * @param inputHandler Handler for processing user input
      * @param inventoryInteraction Manager for inventory-related interactions
      * @param combatManager Manager for combat-related interactions
+     * @param historyManager History of the game, forgotten when the player trades on the marketplace
      */
-    private InteractionManager(Player player, InputHandler inputHandler, InventoryInteraction inventoryInteraction,
-                               CombatManager combatManager) {
-        this.player = player;
+    InteractionManager(InputHandler inputHandler, InventoryInteraction inventoryInteraction,
+                       CombatManager combatManager, HistoryManager historyManager) {
         this.inputHandler = inputHandler;
         this.combatManager = combatManager;
         this.inventoryInteraction = inventoryInteraction;
+        this.historyManager = historyManager;
     }
 
     /**
-     * Gets the singleton instance of InteractionManager, creating it if it doesn't exist.
+     * Handles the interactions of the given player from now on.
      *
      * @param player The game's player instance
-     * @param inputHandler Handler for processing user input
-     * @param inventoryInteraction Manager for inventory-related interactions
-     * @param combatManager Manager for combat-related interactions
-     * @return The singleton instance of InteractionManager
      */
-    static InteractionManager getInstance(Player player, InputHandler inputHandler, InventoryInteraction inventoryInteraction,
-                                                 CombatManager combatManager) {
-        if (instance == null) {
-            return new InteractionManager(player, inputHandler, inventoryInteraction, combatManager);
-        }
-        return instance;
+    void reset(Player player) {
+        this.player = player;
     }
 
     /**
@@ -76,17 +70,19 @@ class InteractionManager implements Serializable {
             }
             System.out.println("What would you like to do? (" + options + ")");
 
-            switch (inputHandler.getUserInput()) {
-                case "talk":
+            Command command = inputHandler.readCommand(CommandParser.NPC).getCommand();
+            switch (command == null ? Command.EXIT : command) {
+                case TALK:
                     showNPCDialogue(individual);
+                    player.getQuestLog().recordMeeting(individual, player);
                     return handlePostDialogue(individual, canPayOption, canRun);
-                case "fight":
+                case FIGHT:
                     return combatManager.handleCombat(individual);
-                case "run":
+                case RUN:
                     if (canRun) {
                         return handleRunAttempt(individual);
                     }
-                case "nothing":
+                case NOTHING:
                     if(canDoNothing){
                         return true;
                     }
@@ -140,16 +136,16 @@ class InteractionManager implements Serializable {
         }
 
         while (true) {
-            String input = inputHandler.getUserInput();
+            Command command = inputHandler.readCommand(CommandParser.POST_DIALOGUE).getCommand();
 
-            if (input.equals("pay") && canPayOption) {
+            if (command == Command.PAY && canPayOption) {
                 return inventoryInteraction.handlePayment(individual);
             }
 
-            switch (input) {
-                case "fight":
+            switch (command == null ? Command.EXIT : command) {
+                case FIGHT:
                     return combatManager.handleCombat(individual);
-                case "run":
+                case RUN:
                     if(canRun){
                         return handleRunAttempt(individual);
                     }
@@ -167,28 +163,33 @@ class InteractionManager implements Serializable {
      * @return true if the player got out of the interaction alive, false otherwise
      */
     private boolean handleShopKeeperInteraction(ShopkeeperNPC shopkeeperNPC, boolean canRun) {
-        String options = canRun ? "buy / sell / fight / run" : "buy / sell / fight";
+        String options = canRun ? "buy / sell / market / fight / run" : "buy / sell / market / fight";
         System.out.println("What would you like to do? (" + options + "). Type 'exit' to leave.");
-        String input;
         do{
-            input = inputHandler.getUserInput();
-            switch (input) {
-                case "buy":
-                    handleBuyAction(shopkeeperNPC);
+            CommandParser.Result result = inputHandler.readCommand(CommandParser.SHOP);
+            Command command = result.getCommand();
+            String argument = result.hasArgument() ? result.getArgument() : null;
+            switch (command == null ? Command.NOTHING : command) {
+                case BUY:
+                    handleBuyAction(shopkeeperNPC, argument);
+                    System.out.println("What would you like to do? (" + options + "). Type 'exit' to leave.");
+                    break;
+                case SELL:
+                    handleSellAction(shopkeeperNPC, argument);
                     System.out.println("What would you like to do? (" + options + "). Type 'exit' to leave.");
                     break;
-                case "sell":
-                    handleSellAction(shopkeeperNPC);
+                case MARKET:
+                    handleMarketAction();
                     System.out.println("What would you like to do? (" + options + "). Type 'exit' to leave.");
                     break;
-                case "fight":
+                case FIGHT:
                     return combatManager.handleCombat(shopkeeperNPC);
-                case "run":
+                case RUN:
                     if (canRun) {
                         handleRunAway(shopkeeperNPC);
                         return true;
                     }
-                case "exit":
+                case EXIT:
                     return true;
                 default:
                     System.out.println("Invalid input. Please try again.");
@@ -200,13 +201,21 @@ class InteractionManager implements Serializable {
         System.out.println(individual.getName() + ": " + individual.getDialogue());
     }
 
-    private void handleBuyAction(ShopkeeperNPC shopkeeperNPC) {
+    /**
+     * Buys an item from the shopkeeper. An item typed with the command, like "buy iron sword", is bought straight
+     * away; otherwise the shop is shown and the player is asked which item to buy.
+     */
+    private void handleBuyAction(ShopkeeperNPC shopkeeperNPC, String itemName) {
+        if (itemName != null) {
+            shopkeeperNPC.buyItem(itemName, player);
+            return;
+        }
         shopkeeperNPC.displayShop();
         System.out.println("Current gold: " + player.getGold());
         System.out.println("What would you like to buy? (exit to cancel)");
 
-        String itemToBuy = inputHandler.getUserInput();
         do{
+            String itemToBuy = inputHandler.getUserInput();
             if(itemToBuy.equals("exit")){
                 System.out.println("You have exited the shop.");
                 break;
@@ -216,7 +225,15 @@ class InteractionManager implements Serializable {
         }while(true);
     }
 
-    private void handleSellAction(ShopkeeperNPC shopkeeperNPC) {
+    /**
+     * Sells an item to the shopkeeper. An item typed with the command, like "sell iron sword", is sold straight
+     * away; otherwise the inventory is shown and the player is asked which item to sell.
+     */
+    private void handleSellAction(ShopkeeperNPC shopkeeperNPC, String itemName) {
+        if (itemName != null) {
+            shopkeeperNPC.sellItem(itemName, player);
+            return;
+        }
         System.out.println(player.getInventory());
         System.out.println("What would you like to sell? (exit to cancel)");
 
@@ -234,6 +251,94 @@ class InteractionManager implements Serializable {
         }
     }
 
+    /**
+     * Handles the marketplace shared by all players, reachable from any shopkeeper. Whatever the player earned or
+     * bought since the last visit is collected first, then the player can list items, bid for items or cancel their
+     * open orders. Orders are matched at the end of every turn of any player, so what the player earned or bought is
+     * ready by their next visit.
+     * What happens on the marketplace is shared with the other players and can't be undone, so leaving it forgets the
+     * turns played before the visit. Every operation carries the key of the line it was typed on, so a game recovered
+     * from its log doesn't do it twice.
+     */
+    private void handleMarketAction() {
+        Marketplace marketplace = Marketplace.getInstance();
+        marketplace.collect(player, inputHandler.nextOperationKey());
+
+        while (true) {
+            marketplace.displayMarket();
+            System.out.println("Current gold: " + player.getGold());
+            System.out.println("What would you like to do? (list / bid / collect / cancel). Type 'exit' to leave.");
+
+            Command command = inputHandler.readCommand(CommandParser.MARKET).getCommand();
+            switch (command == null ? Command.NOTHING : command) {
+                case LIST:
+                    handleListAction(marketplace);
+                    break;
+                case BID:
+                    handleBidAction(marketplace);
+                    break;
+                case COLLECT:
+                    marketplace.collect(player, inputHandler.nextOperationKey());
+                    break;
+                case CANCEL:
+                    marketplace.cancelOrders(player, inputHandler.nextOperationKey());
+                    break;
+                case EXIT:
+                    System.out.println("You have left the marketplace.");
+                    historyManager.forget();
+                    return;
+                default:
+                    System.out.println("Invalid input. Please try again.");
+            }
+        }
+    }
+
+    private void handleListAction(Marketplace marketplace) {
+        System.out.println(player.getInventory());
+        System.out.println("What would you like to list? (exit to cancel)");
+        String itemToList = inputHandler.getUserInput();
+        if (itemToList.equals("exit")) {
+            return;
+        }
+
+        Item item = player.getItem(itemToList);
+        if (!(item instanceof Weapon)) {
+            System.out.println(item == null ? "You don't have this item in your inventory." :
+                    "You cannot list " + item.getName() + " on the marketplace.");
+            return;
+        }
+
+        Weapon weapon = (Weapon) item;
+        int price = readPrice("How much do you want for " + weapon.getName() + "? (suggested: " +
+                weapon.getPrice() + " gold)");
+        if (price > 0) {
+            marketplace.listItem(player, weapon, price, inputHandler.nextOperationKey());
+        }
+    }
+
+    private void handleBidAction(Marketplace marketplace) {
+        System.out.println("What item would you like to bid for? (exit to cancel)");
+        String itemToBid = inputHandler.getUserInput();
+        if (itemToBid.equals("exit")) {
+            return;
+        }
+
+        int price = readPrice("How much are you willing to pay?");
+        if (price > 0) {
+            marketplace.placeBid(player, itemToBid, price, inputHandler.nextOperationKey());
+        }
+    }
+
+    private int readPrice(String question) {
+        System.out.println(question);
+        try {
+            return Integer.parseInt(inputHandler.getUserInput().trim());
+        } catch (NumberFormatException e) {
+            System.out.println("Invalid price.");
+            return -1;
+        }
+    }
+
     private void handleRunAway(NPC enemy) {
         System.out.println("You ran away from the " + enemy.getName());
         player.setPosition(new Point(player.getPreviousPosition().getX(),
@@ -5,60 +5,56 @@ import model.character.Player;
 import model.item.Gold;
 import model.item.Item;
 import model.item.Potion;
+import persistence.TelemetryLog;
 
 import java.io.Serializable;
 import java.util.List;
 
+/**
+ * Handles the player's inventory: picking up items, using potions, removing items and paying NPCs.
+ * Each {@link SessionContext} has its own InventoryInteraction, pointed at its game by {@link #reset(Player, List)}.
+ */
  class InventoryInteraction implements Serializable {
-    private static InventoryInteraction instance;
-    private final Player player;
+    private Player player;
     private final InputHandler inputHandler;
-    private final List<Item> items;
+    private List<Item> items;
     private final CombatManager combatManager;
 
     /**
-     * Creates a new InventoryInteraction instance with the specified player, input handler, items and combat manager.
-     * @param player the player character
+     * Creates a new InventoryInteraction instance with the specified input handler and combat manager.
      * @param inputHandler the input handler to read user input
-     * @param items the list of items dropped around the map
      * @param combatManager the combat manager to handle combat interactions
      */
-    private InventoryInteraction(Player player, InputHandler inputHandler, List<Item> items, CombatManager combatManager)
-    {
-        this.player = player;
+    InventoryInteraction(InputHandler inputHandler, CombatManager combatManager) {
         this.inputHandler = inputHandler;
-        this.items = items;
         this.combatManager = combatManager;
     }
 
     /**
-     * Returns the InventoryInteraction instance with the specified player, input handler, items and combat manager.
-     * To enforce the singleton pattern, the instance is created only once, if the instance is null, 
-     * creates a new InventoryInteraction instance with the specified parameters.
+     * Handles the inventory of the given game from now on.
      * @param player the player character
-     * @param inputHandler the input handler to read user input
      * @param items the list of items dropped around the map
-     * @param combatManager the combat manager to handle combat interactions
-     * @return the InventoryInteraction instance
      */
-    static InventoryInteraction getInstance(Player player, InputHandler inputHandler, List<Item> items, CombatManager combatManager) {
-        if (instance == null) {
-            return new InventoryInteraction(player, inputHandler, items, combatManager);
-        }
-        return instance;
+    void reset(Player player, List<Item> items) {
+        this.player = player;
+        this.items = items;
     }
 
     /**
      * For making a payment to an NPC, checks if the player has enough gold to pay the NPC in order to pass.
      * If the player has enough gold, the player pays the NPC the required gold and the NPC lets the player pass, 
-     * otherwise the NPC gets angry and the player has to fight the NPC.
+     * otherwise the NPC gets angry and the player has to fight the NPC. Every payment, or refusal, goes to the
+     * telemetry.
      * @param individual the NPC to make a payment to
      * @return true if the player got out of the situation alive, false otherwise
      */
     boolean handlePayment(NPC individual) {
         int requiredGold = individual.getGoldRequired();
+        boolean paying = player.getGold() >= requiredGold;
+        TelemetryLog.record(TelemetryLog.Kind.PAYMENT, paying, player.getId(), player.getPosition(),
+                individual.getName(), requiredGold);
 
-        if (player.getGold() < requiredGold) {
+        if (!paying) {
             System.out.println(individual.getName() + ": You don't have enough gold. " +
                     "You have angered me, now prepare to fight!");
             return combatManager.handleCombat(individual);
@@ -69,6 +65,7 @@ import java.util.List;
         System.out.println("You have paid " + individual.getName() + " " +
                 requiredGold + " gold. Current gold: " + player.getGold());
         System.out.println(individual.getName() + ": You may pass.");
+        player.getQuestLog().recordPayment(individual, player);
         return true;
     }
 
@@ -157,6 +154,7 @@ import java.util.List;
             handleMakeSpace();
             if(player.addItem(item)){
                 player.addStats(item);
+                player.getQuestLog().recordPickup(item, player);
             }
             destroyItemOnSpawnPoint(item);
         }
@@ -194,9 +192,11 @@ import java.util.List;
                 player.addGold(((Gold) item).getAmount());
                 System.out.println("You have picked up " + item.getDescription() +
                         ". Current gold: " + player.getGold());
+                player.getQuestLog().recordPickup(item, player);
             } else {
                 if(player.addItem(item)){
                     player.addStats(item);
+                    player.getQuestLog().recordPickup(item, player);
                 }
             }
             destroyItemOnSpawnPoint(item);
@@ -0,0 +1,210 @@
+package core;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.Random;
+
+/**
+ * LoadGenerator measures the {@link GameServer} over loopback. It opens many binary connections from a single
+ * selector thread, and every client keeps one command in flight: mostly random moves, sometimes a fight. A client
+ * answers the questions the game asks on the way, picking up every item and leaving every shop, so it keeps moving.
+ * When the TURN_END of a command arrives the client acknowledges the turn and sends the next command. A client whose
+ * player dies reconnects with a new game. At the end it prints the commands handled per second, the bytes received per
+ * command and the latency percentiles.
+ * Run it with "java core.LoadGenerator [clients] [seconds] [port]". Without a port it starts a server in the same JVM.
+ */
+class LoadGenerator {
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int MAX_SAMPLES = 1 << 20;
+    private static final int FIGHT_PERCENT = 10;
+
+    /**
+     * One simulated player.
+     */
+    private static final class Client {
+        private final SocketChannel channel;
+        private final ByteBuffer input = ByteBuffer.allocate(BUFFER_SIZE);
+        private final ByteBuffer output = ByteBuffer.allocate(256);
+        private long sentAt;
+        private int lastTurn = -1;
+        private String answer;
+
+        Client(SocketChannel channel) {
+            this.channel = channel;
+        }
+    }
+
+    private final Random random = new Random(42);
+    private final long[] latencies = new long[MAX_SAMPLES];
+    private int samples;
+    private long commands;
+    private long reconnects;
+    private long bytesReceived;
+
+    /**
+     * Connects the clients and keeps them busy for the given time.
+     * @param port the port of the server on the loopback address
+     * @param clientCount the number of clients
+     * @param seconds how long to run
+     * @throws IOException if a connection fails
+     */
+    void run(int port, int clientCount, int seconds) throws IOException {
+        try (Selector selector = Selector.open()) {
+            for (int i = 0; i < clientCount; i++) {
+                connect(selector, port);
+            }
+
+            long start = System.nanoTime();
+            long end = start + seconds * 1_000_000_000L;
+            while (System.nanoTime() < end) {
+                selector.select(100);
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    if (!read((Client) key.attachment())) {
+                        key.cancel();
+                        key.channel().close();
+                        reconnects++;
+                        connect(selector, port);
+                    }
+                }
+            }
+            report(System.nanoTime() - start, clientCount);
+
+            for (SelectionKey key : selector.keys()) {
+                key.channel().close();
+            }
+        }
+    }
+
+    private void connect(Selector selector, int port) throws IOException {
+        SocketChannel channel = SocketChannel.open(new InetSocketAddress("127.0.0.1", port));
+        channel.configureBlocking(false);
+        channel.socket().setTcpNoDelay(true);
+        Client client = new Client(channel);
+        client.output.put(Protocol.MAGIC);
+        sendCommand(client);
+        channel.register(selector, SelectionKey.OP_READ, client);
+    }
+
+    /**
+     * Reads the events of a client and sends its next command once the current one was handled.
+     * @return false if the server closed the connection
+     */
+    private boolean read(Client client) throws IOException {
+        int read = client.channel.read(client.input);
+        if (read < 0) {
+            return false;
+        }
+        bytesReceived += read;
+        client.input.flip();
+        int length;
+        boolean turnEnded = false;
+        while ((length = Protocol.completeFrameLength(client.input)) >= 0) {
+            byte type = client.input.get(client.input.position() + Protocol.HEADER_SIZE);
+            if (type == Protocol.TURN_END) {
+                client.lastTurn = client.input.getInt(client.input.position() + Protocol.HEADER_SIZE + 1);
+                turnEnded = true;
+            } else if (type == Protocol.MESSAGE) {
+                ByteBuffer frame = client.input.slice(client.input.position() + Protocol.HEADER_SIZE + 1,
+                        length - Protocol.HEADER_SIZE - 1);
+                String message = Protocol.getString(frame);
+                client.answer = message.endsWith("(yes / no)") ? "yes" :
+                        message.endsWith("Type 'exit' to leave.") ? "exit" : null;
+            }
+            client.input.position(client.input.position() + length);
+        }
+        client.input.compact();
+
+        if (turnEnded) {
+            long latency = System.nanoTime() - client.sentAt;
+            if (samples < MAX_SAMPLES) {
+                latencies[samples++] = latency;
+            }
+            commands++;
+            sendCommand(client);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the answer to the question the game asked, if it asked one, or else a random command: a move in one of
+     * the four directions or, now and then, a fight.
+     */
+    private void sendCommand(Client client) throws IOException {
+        ByteBuffer output = client.output;
+        if (client.lastTurn >= 0) {
+            int ack = Protocol.beginFrame(output, Protocol.ACK);
+            output.putInt(client.lastTurn);
+            Protocol.endFrame(output, ack);
+        }
+        if (client.answer != null) {
+            int frame = Protocol.beginFrame(output, Protocol.INPUT);
+            Protocol.putString(output, client.answer);
+            Protocol.endFrame(output, frame);
+        } else if (random.nextInt(100) < FIGHT_PERCENT) {
+            int frame = Protocol.beginFrame(output, Protocol.FIGHT);
+            Protocol.endFrame(output, frame);
+        } else {
+            int direction = random.nextInt(4);
+            int frame = Protocol.beginFrame(output, Protocol.MOVE);
+            output.put((byte) (direction == 2 ? 1 : direction == 3 ? -1 : 0));
+            output.put((byte) (direction == 0 ? 1 : direction == 1 ? -1 : 0));
+            output.put((byte) 0);
+            Protocol.endFrame(output, frame);
+        }
+        output.flip();
+        while (output.hasRemaining()) {
+            client.channel.write(output);
+        }
+        output.clear();
+        client.sentAt = System.nanoTime();
+    }
+
+    private void report(long elapsed, int clientCount) {
+        long[] sorted = Arrays.copyOf(latencies, samples);
+        Arrays.sort(sorted);
+        System.out.println(clientCount + " clients, " + commands + " commands in " + elapsed / 1_000_000 + " ms: " +
+                (commands * 1_000_000_000L / Math.max(1, elapsed)) + " commands/s, " + reconnects + " reconnects, " +
+                bytesReceived / Math.max(1, commands) + " bytes received per command");
+        if (samples > 0) {
+            System.out.println("Latency p50: " + sorted[samples / 2] / 1000 + " us, p99: " +
+                    sorted[(int) (samples * 0.99)] / 1000 + " us, max: " + sorted[samples - 1] / 1000 + " us");
+        }
+    }
+
+    /**
+     * Runs the load generator.
+     * @param args the number of clients (100 by default), the seconds to run (10 by default) and the port of a
+     *             running server (a server is started in this JVM if it's missing)
+     * @throws IOException if the server can't be reached
+     */
+    public static void main(String[] args) throws IOException {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        int seconds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        GameServer server = null;
+        int port;
+        if (args.length > 2) {
+            port = Integer.parseInt(args[2]);
+        } else {
+            GameServer.installOutputCapture();
+            server = new GameServer(0, Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+            port = server.getPort();
+        }
+
+        try {
+            new LoadGenerator().run(port, clients, seconds);
+        } finally {
+            if (server != null) {
+                server.close();
+            }
+        }
+    }
+}
@@ -3,23 +3,30 @@ package core;
 import model.world.Location;
 import model.world.Point;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
 
 /**
  * Manages the game map, including the locations and their exits.
+ * Every world has its own MapManager, see {@link World}. The map is read-only once built, so the sessions of a world
+ * share it instead of copying it.
  */
 public class MapManager implements Serializable {
-    private static MapManager instance;
+    private static final long serialVersionUID = 1L;
     private final HashMap<Point, Location> gameMap;
+    private transient Map<Point, Location> readOnlyMap;
     private final Random random;
     public static final int MIN_X = 0;
     public static final int MAX_X = 4;
     public static final int MIN_Y = 0;
     public static final int MAX_Y = 4;
+    static final String WORLD_FILE_PROPERTY = "rpg.world";
 
     /**
-     * To enforce the singleton pattern, the constructor is private and initializes the game map and a random object.
+     * Builds the default map and initializes a random object. Use {@link #load()} to create a MapManager.
      */
     private MapManager() {
         this.gameMap = new HashMap<>();
@@ -27,38 +34,69 @@ public class MapManager implements Serializable {
         initializeMap();
     }
 
+    private MapManager(HashMap<Point, Location> preBakedMap) {
+        this.gameMap = preBakedMap;
+        this.random = new Random();
+    }
+
     /**
-     * Returns the singleton instance of the MapManager.
-     * @return the MapManager instance
+     * Creates a MapManager with the default world. When the rpg.world system property points to a pre-baked
+     * world file, the world is mapped from that file instead of being built again. If the file can't be read the
+     * world is built as usual.
+     * @return a new MapManager
      */
-    static MapManager getInstance() {
-        if (instance == null) {
-            instance = new MapManager();
+    static MapManager load() {
+        MapManager mapManager = loadPreBakedWorld();
+        return mapManager != null ? mapManager : new MapManager();
+    }
+
+    private static MapManager loadPreBakedWorld() {
+        String worldFile = System.getProperty(WORLD_FILE_PROPERTY);
+        if (worldFile == null || !Files.isReadable(Path.of(worldFile))) {
+            return null;
+        }
+        try {
+            return new MapManager(WorldFile.read(Path.of(worldFile)));
+        } catch (IOException e) {
+            System.err.println("Failed to load pre-baked world: " + e.getMessage());
+            return null;
         }
-        return instance;
     }
 
-    private static final String[] FILLER_DESCRIPTIONS = {
+    /**
+     * Writes the current world to a file that can later be passed through the rpg.world system property for a
+     * fast start.
+     * @param path the file to write the world to
+     * @throws IOException if the file cannot be written
+     */
+    void bakeWorld(Path path) throws IOException {
+        WorldFile.write(gameMap, path);
+    }
+
+    /**
+     * The ids of the filler descriptions in the {@link model.text.TextStore}, four for every quadrant of the map.
+     */
+    private static final String[] FILLER_DESCRIPTION_IDS = {
             // Northeast quadrant (closer to the winning location)
-            "The path ahead seems to lead towards something important.",
-            "You sense the path is guiding you in the right direction.",
-            "The trees thin out, revealing a glimpse of what lies ahead.",
-            "The air currents shift, as if urging you onward.",
+            "filler.northeast.0",
+            "filler.northeast.1",
+            "filler.northeast.2",
+            "filler.northeast.3",
             // Northwest quadrant
-            "The forest grows denser, obscuring your view of the way forward.",
-            "The path splits, leaving you to choose which way to go.",
-            "The familiar surroundings offer little indication of where to head next.",
-            "You hear the sounds of the forest, but the path ahead is unclear.",
+            "filler.northwest.0",
+            "filler.northwest.1",
+            "filler.northwest.2",
+            "filler.northwest.3",
             // Southwest quadrant
-            "The ground becomes more uneven, making the way ahead less certain.",
-            "The shadows deepen, casting an air of mystery over the area.",
-            "You catch a whiff of something unfamiliar, but it doesn't seem to lead anywhere.",
-            "The sounds of the forest fade, leaving you in relative silence.",
+            "filler.southwest.0",
+            "filler.southwest.1",
+            "filler.southwest.2",
+            "filler.southwest.3",
             // Southeast quadrant (farthest from the winning location)
-            "The path ahead appears overgrown and difficult to traverse.",
-            "The trees grow thicker, blocking out much of the sunlight.",
-            "Fallen branches litter the ground, hampering your progress.",
-            "The air feels stagnant, as if the forest is trapping you in place."
+            "filler.southeast.0",
+            "filler.southeast.1",
+            "filler.southeast.2",
+            "filler.southeast.3"
     };
 
 
@@ -96,37 +134,21 @@ public class MapManager implements Serializable {
         List<Point> exitsPrincess = List.of(new Point(4, 3, 0), new Point(3, 4, 0));
 
         // Define locations
-        Location start = new Location("You stand at the beginning of your journey, filled with a sense of " +
-                "adventure and curiosity.", "Start", exitsStart);
-        Location forest1 = new Location("You find yourself in a dense forest, the trees casting long " +
-                "shadows on the path ahead.", "Dark Forest", exitsForest1);
-        Location forest2 = new Location("The forest grows thicker, but you can see a faint glimmer of " +
-                "light in the distance.", "Deeper Forest", exitsForest2);
-        Location forest3 = new Location("The forest seems to be opening up, and you feel a growing sense " +
-                "of purpose.", "Clearing Forest", exitsForest3);
-        Location forest4 = new Location("The trees part, revealing a breathtaking view of the landscape" +
-                " beyond. You sense your goal is within reach.", "Enlightened Forest", exitsForest4);
-        Location swamp = new Location("The path leads you into a dark, murky swamp. The way forward is " +
-                "unclear. You sense that the key to save the princess is here, guarded by a fearsome ogre.",
-                "Foreboding Swamp", exitsSwamp);
-        Location cave = new Location("You approach the entrance of a cave, its dark maw beckoning you to " +
-                "explore.", "Cave Entrance", exitsCave);
-        Location bridge = new Location("You cross an old, weathered bridge, feeling a sense of progress" +
-                " in your journey.", "Crossing the Bridge", exitsBridge);
-        Location village1 = new Location("You enter a small, bustling village, the residents going about" +
-                " their daily lives.", "Village Center", exitsVillage1);
-        Location village2 = new Location("The village expands, with more buildings and activity in the " +
-                "distance.", "Village Outskirts", exitsVillage2);
-        Location abyss = new Location("You stand at the edge of a vast, unforgiving abyss, the depths" +
-                " below filled with an unsettling energy.", "Abyss Edge", exitsAbyss);
-        Location witchHouse = new Location("You approach a mysterious-looking house, its appearance" +
-                " suggesting the presence of a powerful witch.", "Witch's House", exitsWitchHouse);
-        Location witchCave = new Location("You delve deeper, entering the hidden cave where the witch" +
-                "resides.", "Witch's Cave", exitsWitchCave);
-        Location restPoint = new Location("You come across a peaceful clearing, a place where you can" +
-                " rest and regain your strength.", "Resting Point", exitsRestPoint);
-        Location winPoint = new Location("Congratulations! You have reached the end of your journey." +
-                " Insert the key to free the Princess!", "Winning Point", exitsPrincess);
+        Location start = new Location("location.start", "Start", exitsStart);
+        Location forest1 = new Location("location.forest1", "Dark Forest", exitsForest1);
+        Location forest2 = new Location("location.forest2", "Deeper Forest", exitsForest2);
+        Location forest3 = new Location("location.forest3", "Clearing Forest", exitsForest3);
+        Location forest4 = new Location("location.forest4", "Enlightened Forest", exitsForest4);
+        Location swamp = new Location("location.swamp", "Foreboding Swamp", exitsSwamp);
+        Location cave = new Location("location.cave", "Cave Entrance", exitsCave);
+        Location bridge = new Location("location.bridge", "Crossing the Bridge", exitsBridge);
+        Location village1 = new Location("location.village1", "Village Center", exitsVillage1);
+        Location village2 = new Location("location.village2", "Village Outskirts", exitsVillage2);
+        Location abyss = new Location("location.abyss", "Abyss Edge", exitsAbyss);
+        Location witchHouse = new Location("location.witchHouse", "Witch's House", exitsWitchHouse);
+        Location witchCave = new Location("location.witchCave", "Witch's Cave", exitsWitchCave);
+        Location restPoint = new Location("location.restPoint", "Resting Point", exitsRestPoint);
+        Location winPoint = new Location("location.winPoint", "Winning Point", exitsPrincess);
 
         // Add all main locations to the map
         addLocation(new Point(2, 0, 0), start);
@@ -167,17 +189,17 @@ public class MapManager implements Serializable {
      */
     private void addFillerLocation(Point point) {
         List<Point> exits = generateExits(point);
-        String description;
+        String descriptionId;
         if (point.getX() >= 2 && point.getY() >= 2) { // Northeast quadrant (closer to winning location)
-            description = FILLER_DESCRIPTIONS[random.nextInt(4)];
+            descriptionId = FILLER_DESCRIPTION_IDS[random.nextInt(4)];
         } else if (point.getX() < 2 && point.getY() >= 2) { // Northwest quadrant
-            description = FILLER_DESCRIPTIONS[4 + random.nextInt(4)];
+            descriptionId = FILLER_DESCRIPTION_IDS[4 + random.nextInt(4)];
         } else if (point.getX() < 2 && point.getY() < 2) { // Southwest quadrant
-            description = FILLER_DESCRIPTIONS[8 + random.nextInt(4)];
+            descriptionId = FILLER_DESCRIPTION_IDS[8 + random.nextInt(4)];
         } else { // Southeast quadrant (farthest from winning location)
-            description = FILLER_DESCRIPTIONS[12 + random.nextInt(4)];
+            descriptionId = FILLER_DESCRIPTION_IDS[12 + random.nextInt(4)];
         }
-        Location fillerLocation = new Location(description, "Path", exits);
+        Location fillerLocation = new Location(descriptionId, "Path", exits);
         gameMap.put(point, fillerLocation);
     }
 
@@ -226,11 +248,17 @@ public class MapManager implements Serializable {
         return spawnPoint;
     }
 
-    void addLocation(Point point, Location location) {
+    private void addLocation(Point point, Location location) {
         gameMap.put(point, location);
     }
 
-    HashMap<Point, Location> getGameMap() {
-        return new HashMap<>(gameMap);
+    /**
+     * @return a read-only view of the map, shared by every caller
+     */
+    Map<Point, Location> getGameMap() {
+        if (readOnlyMap == null) {
+            readOnlyMap = Collections.unmodifiableMap(gameMap);
+        }
+        return readOnlyMap;
     }
 }
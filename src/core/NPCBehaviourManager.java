@@ -0,0 +1,659 @@
+package core;
+
+import model.character.*;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * The NPCBehaviourManager moves the NPCs around the map once per turn. Goblins patrol the locations around their post
+ * and chase the player when they are one exit away, ogres and witches guard their post and merchants travel between
+ * the villages following the exits of the map. Shopkeepers also restock their shops when they are ticked.
+ * The behaviour state is stored as parallel arrays indexed by NPC slot (struct-of-arrays) and every route is a cycle
+ * of node ids in one shared int array, so a tick is a tight loop over primitive arrays that only touches an NPC
+ * object when that NPC actually moves.
+ * Only the NPCs around the player are simulated (area of interest). NPCs within FULL_RADIUS tick every turn, NPCs
+ * within COARSE_RADIUS tick every COARSE_INTERVAL turns and the rest of the world is frozen. NPCs are kept in
+ * per-location lists, so a tick only visits the locations inside COARSE_RADIUS, and an NPC that wakes up catches up
+ * on the turns it missed in one step by moving along its route.
+ * When the session keeps a turn history, the route step, cooldown and last tick of the NPCs that were ticked are kept
+ * in a journal the same way the {@link HistoryManager} keeps the stats of the characters: a tick only marks the NPCs
+ * and {@link #recordHistory} writes what they had at the last recorded turn, once per NPC, into arrays that are
+ * reused, so undoing a turn puts the NPCs back on their routes without the tick allocating.
+ */
+class NPCBehaviourManager implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final byte GUARD = 0;
+    private static final byte PATROL = 1;
+    private static final byte TRAVEL = 2;
+
+    private static final int PATROL_DWELL = 2;
+    private static final int VILLAGE_DWELL = 3;
+    private static final int AGGRO_COOLDOWN = 3;
+    private static final int MAX_TRAVEL_VILLAGES = 3;
+    static final int FULL_RADIUS = 2;
+    static final int COARSE_RADIUS = 4;
+    static final int COARSE_INTERVAL = 2;
+    static final int REGION_SIZE = 4;
+    private static final int PARALLEL_THRESHOLD = 4096;
+
+    private final WorldGraph graph;
+
+    private NPC[] npcs = new NPC[16];
+    private byte[] behaviour = new byte[16];
+    private int[] node = new int[16];
+    private int[] routeOffset = new int[16];
+    private int[] routeLength = new int[16];
+    private int[] routeStep = new int[16];
+    private boolean[] aggressive = new boolean[16];
+    private boolean[] shopkeeper = new boolean[16];
+    private int[] cooldown = new int[16];
+    private int[] lastTick = new int[16];
+    private int[] nextInNode = new int[16];
+    private int[] previousInNode = new int[16];
+    private int[] pendingNode = new int[16];
+    private int count;
+
+    private final int[] nodeHead;
+    private final int regionsX;
+    private final int regionsY;
+    private final RegionTick[] regionTickPool;
+    private final RegionTick[] regionTicks;
+    private int turn;
+
+    private int[] routes = new int[64];
+    private int routesSize;
+
+    private boolean tracking;
+    private int[] recordedStep = new int[16];
+    private int[] recordedCooldown = new int[16];
+    private int[] recordedLastTick = new int[16];
+    private boolean[] changed = new boolean[16];
+    private int[] changedSlots = new int[16];
+    private int changedCount;
+    private int[] journalSlots = new int[64];
+    private int[] journalSteps = new int[64];
+    private int[] journalCooldowns = new int[64];
+    private int[] journalLastTicks = new int[64];
+    private long journalStart;
+    private long journalEnd;
+
+    /**
+     * Creates a new NPCBehaviourManager for the given map and registers the given NPCs, using their current position
+     * as their post.
+     * @param graph the exit graph of the map
+     * @param individuals the NPCs to move around
+     */
+    NPCBehaviourManager(WorldGraph graph, List<NPC> individuals) {
+        this(graph);
+        for (NPC npc : individuals) {
+            addNPC(npc);
+        }
+    }
+
+    /**
+     * Creates a NPCBehaviourManager for the given map without any NPC, see {@link #reset(List)}.
+     * @param graph the exit graph of the map
+     */
+    NPCBehaviourManager(WorldGraph graph) {
+        this.graph = graph;
+        this.nodeHead = new int[graph.size()];
+        Arrays.fill(nodeHead, -1);
+        this.regionsX = Math.max(1, (graph.maxX() - graph.minX()) / REGION_SIZE + 1);
+        this.regionsY = Math.max(1, (graph.maxY() - graph.minY()) / REGION_SIZE + 1);
+        this.regionTickPool = new RegionTick[regionsX * regionsY];
+        this.regionTicks = new RegionTick[regionsX * regionsY];
+    }
+
+    /**
+     * Forgets every NPC and route and registers the given NPCs instead, keeping the arrays for the next session.
+     * @param individuals the NPCs of the new session, null to only forget the old ones
+     */
+    void reset(List<NPC> individuals) {
+        Arrays.fill(npcs, 0, count, null);
+        Arrays.fill(nodeHead, -1);
+        Arrays.fill(changed, 0, count, false);
+        changedCount = 0;
+        tracking = false;
+        count = 0;
+        routesSize = 0;
+        turn = 0;
+        if (individuals != null) {
+            for (NPC npc : individuals) {
+                addNPC(npc);
+            }
+        }
+    }
+
+    /**
+     * Registers an NPC and builds its route from its current position. NPCs placed outside the map are ignored.
+     * @param npc the NPC to register
+     */
+    void addNPC(NPC npc) {
+        int home = graph.nodeOf(npc.getPosition());
+        if (home < 0) {
+            return;
+        }
+        ensureCapacity(count + 1);
+
+        int slot = count++;
+        npcs[slot] = npc;
+        node[slot] = home;
+        routeOffset[slot] = routesSize;
+        routeStep[slot] = 0;
+        aggressive[slot] = npc.getGoldRequired() > 0;
+        shopkeeper[slot] = npc instanceof ShopkeeperNPC;
+        cooldown[slot] = 0;
+        lastTick[slot] = turn;
+        saveRecorded(slot);
+        link(slot, home);
+
+        if (npc instanceof Goblin) {
+            behaviour[slot] = PATROL;
+            buildPatrolRoute(home);
+        } else if (npc instanceof Merchant) {
+            behaviour[slot] = TRAVEL;
+            buildTravelRoute(home);
+        } else {
+            behaviour[slot] = GUARD;
+            appendRoute(home, 1);
+        }
+        routeLength[slot] = routesSize - routeOffset[slot];
+    }
+
+    /**
+     * Moves every NPC to the location list of the position it has now, for when the positions were changed outside of
+     * a tick, like when a turn is undone. Dead NPCs are left out of the lists, and NPCs that came back to life are put
+     * back in. The NPCs keep their routes and walk back to them from wherever they are.
+     */
+    void relocate() {
+        for (int slot = 0; slot < count; slot++) {
+            unlink(slot);
+            int current = graph.nodeOf(npcs[slot].getPosition());
+            if (npcs[slot].isAlive() && current >= 0) {
+                link(slot, current);
+            }
+        }
+    }
+
+    /**
+     * @return how many times the NPCs were ticked
+     */
+    int getTurn() {
+        return turn;
+    }
+
+    /**
+     * Starts keeping the history of the NPCs' routes for the turn history, from their current state.
+     */
+    void trackHistory() {
+        tracking = true;
+        for (int slot = 0; slot < count; slot++) {
+            saveRecorded(slot);
+        }
+        forgetHistory();
+    }
+
+    /**
+     * Forgets the journal, keeping the current state of the NPCs as the state of the next turn recorded.
+     */
+    void forgetHistory() {
+        for (int i = 0; i < changedCount; i++) {
+            changed[changedSlots[i]] = false;
+            saveRecorded(changedSlots[i]);
+        }
+        changedCount = 0;
+        journalStart = 0;
+        journalEnd = 0;
+    }
+
+    /**
+     * Writes the route step, cooldown and last tick the NPCs ticked since the last recorded turn had at that turn to
+     * the journal, dropping the entries after the given position, which belonged to turns that were undone.
+     * @param end the position of the journal the last recorded turn ended at
+     * @return the position the journal ends at now
+     */
+    long recordHistory(long end) {
+        journalEnd = end;
+        for (int i = 0; i < changedCount; i++) {
+            int slot = changedSlots[i];
+            changed[slot] = false;
+            if (journalEnd - journalStart == journalSlots.length) {
+                growJournal();
+            }
+            int entry = journalIndex(journalEnd++);
+            journalSlots[entry] = slot;
+            journalSteps[entry] = recordedStep[slot];
+            journalCooldowns[entry] = recordedCooldown[slot];
+            journalLastTicks[entry] = recordedLastTick[slot];
+            saveRecorded(slot);
+        }
+        changedCount = 0;
+        return journalEnd;
+    }
+
+    /**
+     * Drops the entries of the journal before the given position, which belonged to turns the history forgot.
+     * @param start the position of the first entry still needed
+     */
+    void trimHistory(long start) {
+        journalStart = start;
+    }
+
+    /**
+     * Goes back or forward to another recorded turn by swapping the journal entries between the two turns with the
+     * current state of their NPCs, after putting back the NPCs ticked since the last recorded turn. The NPCs are
+     * moved to the location lists of their positions, which the caller must have restored already.
+     * @param from the position of the journal the earlier of the two turns ended at
+     * @param to the position the later turn ended at
+     * @param turn the tick count of the turn gone to
+     */
+    void swapHistory(long from, long to, int turn) {
+        for (int i = 0; i < changedCount; i++) {
+            int slot = changedSlots[i];
+            changed[slot] = false;
+            routeStep[slot] = recordedStep[slot];
+            cooldown[slot] = recordedCooldown[slot];
+            lastTick[slot] = recordedLastTick[slot];
+        }
+        changedCount = 0;
+        for (long position = from; position < to; position++) {
+            int entry = journalIndex(position);
+            int slot = journalSlots[entry];
+            int savedStep = journalSteps[entry];
+            int savedCooldown = journalCooldowns[entry];
+            int savedLastTick = journalLastTicks[entry];
+            journalSteps[entry] = routeStep[slot];
+            journalCooldowns[entry] = cooldown[slot];
+            journalLastTicks[entry] = lastTick[slot];
+            routeStep[slot] = savedStep;
+            cooldown[slot] = savedCooldown;
+            lastTick[slot] = savedLastTick;
+            saveRecorded(slot);
+        }
+        this.turn = turn;
+        relocate();
+    }
+
+    /**
+     * Moves the NPCs around the player. NPCs within FULL_RADIUS move one step: an aggressive NPC that is one exit
+     * away from the player moves onto the player's location, otherwise it follows its route, or walks back to it
+     * after a chase. NPCs further away, up to COARSE_RADIUS, only move every COARSE_INTERVAL turns, catching up on
+     * all the steps they missed at once. NPCs outside COARSE_RADIUS are not visited at all.
+     * The tick runs in two phases. First every region of the map inside the area of interest works out where its
+     * NPCs go, in parallel when there are enough NPCs to be worth it. Each NPC only writes to its own slot, so the
+     * regions never touch each other's state. Then the moves are applied region by region, in region order, which
+     * gives the same result as a single-threaded tick no matter how the regions were scheduled.
+     * @param player the player character
+     */
+    void tick(Player player) {
+        turn++;
+        int playerNode = graph.nodeOf(player.getPosition());
+        if (playerNode < 0) {
+            return;
+        }
+        int playerX = graph.x(playerNode);
+        int playerY = graph.y(playerNode);
+
+        int firstRegionX = Math.max(0, (playerX - COARSE_RADIUS - graph.minX()) / REGION_SIZE);
+        int lastRegionX = Math.min(regionsX - 1, Math.max(0, playerX + COARSE_RADIUS - graph.minX()) / REGION_SIZE);
+        int firstRegionY = Math.max(0, (playerY - COARSE_RADIUS - graph.minY()) / REGION_SIZE);
+        int lastRegionY = Math.min(regionsY - 1, Math.max(0, playerY + COARSE_RADIUS - graph.minY()) / REGION_SIZE);
+
+        int regionCount = 0;
+        for (int regionY = firstRegionY; regionY <= lastRegionY; regionY++) {
+            for (int regionX = firstRegionX; regionX <= lastRegionX; regionX++) {
+                regionTicks[regionCount++] = regionTick(regionY * regionsX + regionX, playerNode);
+            }
+        }
+
+        if (regionCount > 1 && count >= PARALLEL_THRESHOLD) {
+            ForkJoinTask.invokeAll(Arrays.copyOf(regionTicks, regionCount));
+        } else {
+            for (int i = 0; i < regionCount; i++) {
+                regionTicks[i].compute();
+            }
+        }
+
+        for (int i = 0; i < regionCount; i++) {
+            regionTicks[i].applyMoves();
+        }
+    }
+
+    private RegionTick regionTick(int region, int playerNode) {
+        RegionTick regionTick = regionTickPool[region];
+        if (regionTick == null) {
+            regionTick = new RegionTick(region);
+            regionTickPool[region] = regionTick;
+        } else {
+            regionTick.reinitialize();
+        }
+        regionTick.playerNode = playerNode;
+        return regionTick;
+    }
+
+    /**
+     * The work of one tick for one region: works out where each NPC of the region goes and records the moves, which
+     * are applied later by {@link #applyMoves()}.
+     */
+    private class RegionTick extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final int region;
+        private int[] moved = new int[16];
+        private int movedCount;
+        private int[] ticked = new int[16];
+        private int tickedCount;
+        private int playerNode;
+
+        RegionTick(int region) {
+            this.region = region;
+        }
+
+        @Override
+        protected void compute() {
+            movedCount = 0;
+            tickedCount = 0;
+            int playerX = graph.x(playerNode);
+            int playerY = graph.y(playerNode);
+            int playerZ = graph.z(playerNode);
+            int regionMinX = graph.minX() + (region % regionsX) * REGION_SIZE;
+            int regionMinY = graph.minY() + (region / regionsX) * REGION_SIZE;
+
+            for (int z = Math.max(graph.minZ(), playerZ - COARSE_RADIUS);
+                 z <= Math.min(graph.maxZ(), playerZ + COARSE_RADIUS); z++) {
+                int radiusZ = COARSE_RADIUS - Math.abs(z - playerZ);
+                for (int y = Math.max(regionMinY, playerY - radiusZ);
+                     y <= Math.min(regionMinY + REGION_SIZE - 1, playerY + radiusZ); y++) {
+                    int radiusY = radiusZ - Math.abs(y - playerY);
+                    for (int x = Math.max(regionMinX, playerX - radiusY);
+                         x <= Math.min(regionMinX + REGION_SIZE - 1, playerX + radiusY); x++) {
+                        int current = graph.nodeAt(x, y, z);
+                        if (current >= 0) {
+                            boolean full = distance(current, playerX, playerY, playerZ) <= FULL_RADIUS;
+                            computeNode(current, full);
+                        }
+                    }
+                }
+            }
+        }
+
+        private void computeNode(int current, boolean full) {
+            for (int slot = nodeHead[current]; slot >= 0; slot = nextInNode[slot]) {
+                if (!npcs[slot].isAlive()) {
+                    pendingNode[slot] = -1;
+                    record(slot);
+                } else if (full || turn - lastTick[slot] >= COARSE_INTERVAL) {
+                    int elapsed = turn - lastTick[slot];
+                    lastTick[slot] = turn;
+                    if (tracking) {
+                        recordTicked(slot);
+                    }
+                    if (shopkeeper[slot]) {
+                        ((ShopkeeperNPC) npcs[slot]).restockShop(turn);
+                    }
+                    int target = full ? step(slot, catchUp(slot, elapsed - 1, current), playerNode)
+                            : catchUp(slot, elapsed, current);
+                    if (target != current) {
+                        pendingNode[slot] = target;
+                        record(slot);
+                    }
+                }
+            }
+        }
+
+        private void record(int slot) {
+            if (movedCount == moved.length) {
+                moved = Arrays.copyOf(moved, moved.length * 2);
+            }
+            moved[movedCount++] = slot;
+        }
+
+        private void recordTicked(int slot) {
+            if (tickedCount == ticked.length) {
+                ticked = Arrays.copyOf(ticked, ticked.length * 2);
+            }
+            ticked[tickedCount++] = slot;
+        }
+
+        /**
+         * Applies the recorded moves in the order they were found, moving each NPC to its new location list and
+         * updating its position. Dead NPCs are dropped from their location list. The NPCs that were ticked are marked
+         * for the turn history.
+         */
+        void applyMoves() {
+            for (int i = 0; i < tickedCount; i++) {
+                markChanged(ticked[i]);
+            }
+            tickedCount = 0;
+            for (int i = 0; i < movedCount; i++) {
+                int slot = moved[i];
+                unlink(slot);
+                if (pendingNode[slot] >= 0) {
+                    link(slot, pendingNode[slot]);
+                    npcs[slot].setPosition(graph.pointOf(pendingNode[slot]));
+                }
+            }
+            movedCount = 0;
+        }
+    }
+
+    private int step(int slot, int current, int playerNode) {
+        if (current == playerNode) {
+            cooldown[slot] = AGGRO_COOLDOWN;
+            return current;
+        }
+        if (aggressive[slot] && cooldown[slot] == 0 && graph.hasExit(current, playerNode)) {
+            cooldown[slot] = AGGRO_COOLDOWN;
+            return playerNode;
+        }
+        if (cooldown[slot] > 0) {
+            cooldown[slot]--;
+        }
+        return followRoute(slot, current);
+    }
+
+    /**
+     * Applies the given number of missed steps to an NPC without simulating them one by one. An NPC that was away
+     * from its route spends one step getting back to it, and the rest of the steps move it along its route.
+     * @param slot the NPC slot
+     * @param steps the number of missed steps
+     * @param current the node the NPC is on
+     * @return the node the NPC ends up on
+     */
+    private int catchUp(int slot, int steps, int current) {
+        if (steps <= 0) {
+            return current;
+        }
+        cooldown[slot] = Math.max(0, cooldown[slot] - steps);
+
+        int offset = routeOffset[slot];
+        int target = current;
+        if (target != routes[offset + routeStep[slot]]) {
+            target = routes[offset + routeStep[slot]];
+            steps--;
+        }
+        if (behaviour[slot] != GUARD) {
+            routeStep[slot] = (int) ((routeStep[slot] + (long) steps) % routeLength[slot]);
+            target = routes[offset + routeStep[slot]];
+        }
+        return target;
+    }
+
+    private void saveRecorded(int slot) {
+        recordedStep[slot] = routeStep[slot];
+        recordedCooldown[slot] = cooldown[slot];
+        recordedLastTick[slot] = lastTick[slot];
+    }
+
+    private void markChanged(int slot) {
+        if (!changed[slot]) {
+            changed[slot] = true;
+            changedSlots[changedCount++] = slot;
+        }
+    }
+
+    private int journalIndex(long position) {
+        return (int) (position & (journalSlots.length - 1));
+    }
+
+    /**
+     * Doubles the journal, keeping every entry at the position it had.
+     */
+    private void growJournal() {
+        int[] oldSlots = journalSlots;
+        int[] oldSteps = journalSteps;
+        int[] oldCooldowns = journalCooldowns;
+        int[] oldLastTicks = journalLastTicks;
+        journalSlots = new int[oldSlots.length * 2];
+        journalSteps = new int[oldSlots.length * 2];
+        journalCooldowns = new int[oldSlots.length * 2];
+        journalLastTicks = new int[oldSlots.length * 2];
+        for (long position = journalStart; position < journalEnd; position++) {
+            int oldEntry = (int) (position & (oldSlots.length - 1));
+            int entry = journalIndex(position);
+            journalSlots[entry] = oldSlots[oldEntry];
+            journalSteps[entry] = oldSteps[oldEntry];
+            journalCooldowns[entry] = oldCooldowns[oldEntry];
+            journalLastTicks[entry] = oldLastTicks[oldEntry];
+        }
+    }
+
+    private int distance(int node, int x, int y, int z) {
+        return Math.abs(graph.x(node) - x) + Math.abs(graph.y(node) - y) + Math.abs(graph.z(node) - z);
+    }
+
+    private void link(int slot, int target) {
+        node[slot] = target;
+        previousInNode[slot] = -1;
+        nextInNode[slot] = nodeHead[target];
+        if (nodeHead[target] >= 0) {
+            previousInNode[nodeHead[target]] = slot;
+        }
+        nodeHead[target] = slot;
+    }
+
+    private void unlink(int slot) {
+        int previous = previousInNode[slot];
+        int next = nextInNode[slot];
+        if (previous >= 0) {
+            nextInNode[previous] = next;
+        } else if (nodeHead[node[slot]] == slot) {
+            nodeHead[node[slot]] = next;
+        }
+        if (next >= 0) {
+            previousInNode[next] = previous;
+        }
+        previousInNode[slot] = -1;
+        nextInNode[slot] = -1;
+    }
+
+    private int followRoute(int slot, int current) {
+        int offset = routeOffset[slot];
+        int expected = routes[offset + routeStep[slot]];
+        if (current != expected) {
+            int[] path = graph.shortestPath(current, expected);
+            return path == null || path.length == 0 ? current : path[0];
+        }
+        if (behaviour[slot] == GUARD) {
+            return current;
+        }
+        routeStep[slot] = (routeStep[slot] + 1) % routeLength[slot];
+        return routes[offset + routeStep[slot]];
+    }
+
+    /**
+     * A patrol waits at the post, visits one neighbouring location and comes back, then does the same with the next
+     * neighbour. Only neighbours with an exit back to the post are patrolled.
+     */
+    private void buildPatrolRoute(int home) {
+        int start = routesSize;
+        for (int i = 0; i < graph.exitCount(home); i++) {
+            int neighbour = graph.exit(home, i);
+            if (graph.hasExit(neighbour, home)) {
+                appendRoute(home, PATROL_DWELL);
+                appendRoute(neighbour, 1);
+            }
+        }
+        if (routesSize == start) {
+            appendRoute(home, 1);
+        }
+    }
+
+    /**
+     * A journey waits in the home village, walks to up to MAX_TRAVEL_VILLAGES other villages in turn, waiting in
+     * each one, and walks back home.
+     */
+    private void buildTravelRoute(int home) {
+        int start = routesSize;
+        appendRoute(home, VILLAGE_DWELL);
+        int last = home;
+        int visited = 0;
+        for (int village = 0; village < graph.size() && visited < MAX_TRAVEL_VILLAGES; village++) {
+            if (village == home || !isVillage(village)) {
+                continue;
+            }
+            int[] path = graph.shortestPath(last, village);
+            if (path != null) {
+                appendPath(path);
+                appendRoute(village, VILLAGE_DWELL - 1);
+                last = village;
+                visited++;
+            }
+        }
+        int[] back = graph.shortestPath(last, home);
+        if (back == null) {
+            routesSize = start;
+            appendRoute(home, 1);
+        } else if (back.length > 0) {
+            appendPath(back);
+            routesSize--; // the route starts at home again
+        }
+    }
+
+    private boolean isVillage(int node) {
+        return graph.locationOf(node).getName().startsWith("Village");
+    }
+
+    private void appendPath(int[] path) {
+        for (int step : path) {
+            appendRoute(step, 1);
+        }
+    }
+
+    private void appendRoute(int node, int times) {
+        if (routesSize + times > routes.length) {
+            routes = Arrays.copyOf(routes, Math.max(routes.length * 2, routesSize + times));
+        }
+        for (int i = 0; i < times; i++) {
+            routes[routesSize++] = node;
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= npcs.length) {
+            return;
+        }
+        int newCapacity = Math.max(npcs.length * 2, capacity);
+        npcs = Arrays.copyOf(npcs, newCapacity);
+        behaviour = Arrays.copyOf(behaviour, newCapacity);
+        node = Arrays.copyOf(node, newCapacity);
+        routeOffset = Arrays.copyOf(routeOffset, newCapacity);
+        routeLength = Arrays.copyOf(routeLength, newCapacity);
+        routeStep = Arrays.copyOf(routeStep, newCapacity);
+        aggressive = Arrays.copyOf(aggressive, newCapacity);
+        shopkeeper = Arrays.copyOf(shopkeeper, newCapacity);
+        cooldown = Arrays.copyOf(cooldown, newCapacity);
+        lastTick = Arrays.copyOf(lastTick, newCapacity);
+        nextInNode = Arrays.copyOf(nextInNode, newCapacity);
+        previousInNode = Arrays.copyOf(previousInNode, newCapacity);
+        pendingNode = Arrays.copyOf(pendingNode, newCapacity);
+        recordedStep = Arrays.copyOf(recordedStep, newCapacity);
+        recordedCooldown = Arrays.copyOf(recordedCooldown, newCapacity);
+        recordedLastTick = Arrays.copyOf(recordedLastTick, newCapacity);
+        changed = Arrays.copyOf(changed, newCapacity);
+        changedSlots = Arrays.copyOf(changedSlots, newCapacity);
+    }
+}
@@ -8,40 +8,31 @@ import java.io.Serializable;
 import java.util.*;
 
 /**
- * NavigationManager is a singleton class that manages the navigation of the player
+ * NavigationManager manages the navigation of the player. Each {@link SessionContext} has its own, pointed at the
+ * player of its game by {@link #reset(Player)}.
  */
 class NavigationManager implements Serializable {
-    private static NavigationManager instance;
-    private final Player player;
-    private final HashMap<Point, Location> gameMap;
+    private Player player;
+    private final Map<Point, Location> gameMap;
     private final InputHandler inputHandler;
+    private final Map<Location, String> directionTexts = new HashMap<>();
 
     /**
-     * To enforce the singleton pattern the constructor is private
-     * @param player the player
+     * Creates a NavigationManager for the given map.
      * @param gameMap the game map
      * @param inputHandler the input handler
      */
-    private NavigationManager(Player player, HashMap<Point, Location> gameMap, InputHandler inputHandler) {
-        this.player = player;
+    NavigationManager(Map<Point, Location> gameMap, InputHandler inputHandler) {
         this.gameMap = gameMap;
         this.inputHandler = inputHandler;
     }
 
     /**
-     * Returns the instance of the NavigationManager class. If the instance is null, a new instance is created.
-     * Otherwise, the existing instance is returned.
-     *
+     * Navigates for the given player from now on.
      * @param player the player character
-     * @param gameMap the game map with locations and exits
-     * @param inputHandler the input handler
-     * @return the instance of the NavigationManager class
      */
-    public static NavigationManager getInstance(Player player, HashMap<Point, Location> gameMap, InputHandler inputHandler) {
-        if (instance == null) {
-            return new NavigationManager(player, gameMap, inputHandler);
-        }
-        return instance;
+    void reset(Player player) {
+        this.player = player;
     }
 
     /**
@@ -50,10 +41,10 @@ class NavigationManager implements Serializable {
      * It confirms the direction is valid by checking if the player's current location has
      * the target position as an exit. If the player's current location is null, it checks if the target position
      * is within the map boundaries.
-     * @param direction the direction the player wants to go
+     * @param direction the movement command the player typed
      * @return true if the direction is valid, false otherwise
      */
-    boolean isValidDirection(String direction) {
+    boolean isValidDirection(Command direction) {
         Point pos = player.getPosition();
         Point targetPos = inputHandler.calculateNewPosition(direction, pos);
 
@@ -70,25 +61,33 @@ class NavigationManager implements Serializable {
      * available in the current location.
      * It gets the exits of the current location and displays the possible directions to the user including the base
      * directions (North, South, East, West) and the elevation directions (Up, Down).
+     * The exits of a location never change, so the text is built the first time the location is shown and reused.
      */
     void showPossibleDirections() {
-        List<Point> directions = getLocation(player.getPosition()).getExits();
-        List<String> directionsList = new ArrayList<>();
-
-        if(directions.isEmpty()){
+        Location location = getLocation(player.getPosition());
+        if (location.getExits().isEmpty()) {
             return;
         }
 
+        String text = directionTexts.get(location);
+        if (text == null) {
+            text = directionsText(location.getExits(), player.getPosition());
+            directionTexts.put(location, text);
+        }
+        Renderer.printLine(text);
+    }
+
+    private String directionsText(List<Point> directions, Point position) {
+        List<String> directionsList = new ArrayList<>();
         for (Point direction : directions) {
-            String baseDirection = getBaseDirection(direction, player.getPosition());
-            String elevation = getElevation(direction, player.getPosition());
+            String baseDirection = getBaseDirection(direction, position);
+            String elevation = getElevation(direction, position);
 
             if (baseDirection != null) {
                 directionsList.add(elevation != null ? baseDirection + " " + elevation : baseDirection);
             }
         }
-
-        System.out.println("Available directions: " + directionsList);
+        return "Available directions: " + directionsList;
     }
 
     private boolean isWithinMapBoundaries(Point point) {
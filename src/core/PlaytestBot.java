@@ -0,0 +1,378 @@
+package core;
+
+import model.character.NPC;
+import model.character.Player;
+import model.item.Item;
+
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * PlaytestBot plays whole games on its own to measure them: how often the princess can be freed, what kills the
+ * player and how every NPC fares when it is fought, paid or run from.
+ * Every game is set up like a new game of the console and played on a {@link PlaytestState}. Each decision is chosen
+ * by Monte Carlo tree search: starting from a copy of the state, the search walks down the tree of decisions tried so
+ * far (UCB1), tries one new decision, plays on with random decisions up to ROLLOUT_DEPTH and scores the result, 1 for
+ * a win and 0 for a death. The search runs on every core with root parallelization: each worker grows its own tree
+ * from the same state with its own random numbers, and the visits of the first decisions are added up to pick the
+ * one to play. The workers share nothing but the immutable setup of the game.
+ * The searches are also a load for the game rules: the report ends with the rollouts and the simulated decisions per
+ * second.
+ * Run it with "java core.PlaytestBot [games] [iterations per decision] [threads]".
+ */
+class PlaytestBot {
+    private static final double EXPLORATION = 1.4;
+    private static final int ROLLOUT_DEPTH = 60;
+    private static final int PICK_UP_PERCENT = 80;
+
+    private final World world;
+    private final int iterations;
+    private final int threads;
+    private final ForkJoinPool pool;
+    private long rollouts;
+    private long steps;
+
+    /**
+     * What happened in the games played, overall and for every NPC.
+     */
+    static final class Report {
+        private final String[] npcNames;
+        private final long[] encounters;
+        private final long[] fights;
+        private final long[] defeated;
+        private final long[] kills;
+        private final long[] payments;
+        private final long[] runs;
+        private final long[] purchases;
+        private final double[] damageDealt;
+        private int games;
+        private int wins;
+        private int deaths;
+        private int outOfTurns;
+        private long winTurns;
+        private long decisions;
+
+        Report(PlaytestState.Setup setup) {
+            int count = setup.npcCount();
+            npcNames = new String[count];
+            for (int i = 0; i < count; i++) {
+                npcNames[i] = setup.npcName(i);
+            }
+            encounters = new long[count];
+            fights = new long[count];
+            defeated = new long[count];
+            kills = new long[count];
+            payments = new long[count];
+            runs = new long[count];
+            purchases = new long[count];
+            damageDealt = new double[count];
+        }
+
+        void encounter(int npc, int action) {
+            encounters[npc]++;
+            if (action == PlaytestState.PAY) {
+                payments[npc]++;
+            } else if (action == PlaytestState.RUN) {
+                runs[npc]++;
+            }
+        }
+
+        void fought(int npc, float damageTaken, boolean won) {
+            fights[npc]++;
+            damageDealt[npc] += damageTaken;
+            if (won) {
+                defeated[npc]++;
+            }
+        }
+
+        void bought(int npc) {
+            purchases[npc]++;
+        }
+
+        private void finish(PlaytestState state) {
+            games++;
+            switch (state.getResult()) {
+                case WON -> {
+                    wins++;
+                    winTurns += state.getTurn();
+                }
+                case DIED -> {
+                    deaths++;
+                    if (state.getKiller() >= 0) {
+                        kills[state.getKiller()]++;
+                    }
+                }
+                default -> outOfTurns++;
+            }
+        }
+
+        private void print() {
+            System.out.println(games + " games: " + wins + " won (" + percent(wins, games) + "%), " + deaths +
+                    " died, " + outOfTurns + " ran out of turns" +
+                    (wins > 0 ? ", " + winTurns / wins + " turns per win on average" : ""));
+            long killedByNPCs = 0;
+            for (long count : kills) {
+                killedByNPCs += count;
+            }
+            System.out.println("Deaths outside a fight (dead ends and triggers): " + (deaths - killedByNPCs));
+            System.out.println(String.format("%-20s %10s %7s %9s %6s %5s %4s %6s %13s", "NPC", "encounters",
+                    "fights", "defeated", "kills", "paid", "ran", "bought", "damage/fight"));
+            for (int i = 0; i < npcNames.length; i++) {
+                System.out.println(String.format("%-20s %10d %7d %9d %6d %5d %4d %6d %13.1f", npcNames[i],
+                        encounters[i], fights[i], defeated[i], kills[i], payments[i], runs[i], purchases[i],
+                        fights[i] == 0 ? 0 : damageDealt[i] / fights[i]));
+            }
+        }
+
+        private static long percent(long part, long whole) {
+            return whole == 0 ? 0 : part * 100 / whole;
+        }
+    }
+
+    /**
+     * A decision in a search tree, with the decisions tried after it and the total score of the games that went
+     * through it.
+     */
+    private static final class TreeNode {
+        private final int action;
+        private final TreeNode parent;
+        private TreeNode[] children = new TreeNode[4];
+        private int childCount;
+        private int[] untried;
+        private int untriedCount;
+        private int visits;
+        private double score;
+
+        TreeNode(int action, TreeNode parent) {
+            this.action = action;
+            this.parent = parent;
+        }
+
+        void expand(PlaytestState state, int[] actions) {
+            untriedCount = state.legalActions(actions);
+            untried = java.util.Arrays.copyOf(actions, untriedCount);
+        }
+
+        TreeNode add(int action) {
+            if (childCount == children.length) {
+                children = java.util.Arrays.copyOf(children, childCount * 2);
+            }
+            TreeNode child = new TreeNode(action, this);
+            children[childCount++] = child;
+            return child;
+        }
+
+        TreeNode select() {
+            double logVisits = Math.log(visits);
+            TreeNode best = null;
+            double bestValue = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < childCount; i++) {
+                TreeNode child = children[i];
+                double value = child.score / child.visits + EXPLORATION * Math.sqrt(logVisits / child.visits);
+                if (value > bestValue) {
+                    bestValue = value;
+                    best = child;
+                }
+            }
+            return best;
+        }
+    }
+
+    /**
+     * One worker of a decision: grows its own tree from the state of the game.
+     */
+    private static final class Search extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final PlaytestState state;
+        private final int iterations;
+        private final SplittableRandom random;
+        private final TreeNode root = new TreeNode(-1, null);
+        private final int[] actions = new int[PlaytestState.MAX_ACTIONS];
+        private long rollouts;
+        private long steps;
+
+        Search(PlaytestState state, int iterations, SplittableRandom random) {
+            this.state = state;
+            this.iterations = iterations;
+            this.random = random;
+        }
+
+        @Override
+        protected void compute() {
+            root.expand(state, actions);
+            for (int i = 0; i < iterations; i++) {
+                iterate();
+            }
+        }
+
+        private void iterate() {
+            PlaytestState game = state.copy();
+            TreeNode node = root;
+            while (node.untriedCount == 0 && node.childCount > 0) {
+                node = node.select();
+                game.apply(node.action);
+                steps++;
+            }
+            if (node.untriedCount > 0) {
+                int pick = random.nextInt(node.untriedCount);
+                int action = node.untried[pick];
+                node.untried[pick] = node.untried[--node.untriedCount];
+                node = node.add(action);
+                game.apply(action);
+                steps++;
+                node.expand(game, actions);
+            }
+
+            for (int depth = 0; depth < ROLLOUT_DEPTH && game.getResult() == PlaytestState.Result.PLAYING; depth++) {
+                game.apply(rolloutAction(game));
+                steps++;
+            }
+            double score = score(game);
+            for (; node != null; node = node.parent) {
+                node.visits++;
+                node.score += score;
+            }
+            rollouts++;
+        }
+
+        /**
+         * Picks a random decision, but picks up what is found most of the time, as a player would.
+         */
+        private int rolloutAction(PlaytestState game) {
+            int count = game.legalActions(actions);
+            for (int i = 0; i < count; i++) {
+                if (actions[i] == PlaytestState.PICK_UP && random.nextInt(100) < PICK_UP_PERCENT) {
+                    return PlaytestState.PICK_UP;
+                }
+            }
+            return actions[random.nextInt(count)];
+        }
+    }
+
+    /**
+     * Creates a bot that searches with the given budget.
+     * @param world the world to play on
+     * @param iterations the search iterations per decision, split between the threads
+     * @param threads the number of searches run in parallel
+     */
+    PlaytestBot(World world, int iterations, int threads) {
+        this.world = world;
+        this.iterations = iterations;
+        this.threads = threads;
+        this.pool = new ForkJoinPool(threads);
+    }
+
+    /**
+     * Scores a game where the search stopped: 1 for a win and 0 for a death. A game still going scores between them,
+     * higher for a healthier player and, once they hold what winning takes, for being close to the winning location.
+     */
+    static double score(PlaytestState game) {
+        switch (game.getResult()) {
+            case WON:
+                return 1 - 0.1 * game.getTurn() / PlaytestState.MAX_TURNS;
+            case DIED:
+                return 0;
+            default:
+                double score = 0.1 + 0.2 * game.getHealthFraction();
+                if (game.canWin()) {
+                    score += 0.3 + 0.3 * game.getWinProximity();
+                }
+                return score;
+        }
+    }
+
+    /**
+     * Sets up a game the way a new game of the console is set up.
+     * @return the setup of the new game
+     */
+    PlaytestState.Setup newGame() {
+        List<NPC> individuals = GameManager.createNPCs();
+        List<Item> items = GameManager.createItems();
+        GameManager.placeItems(items, world.getMapManager());
+        Player player = GameManager.createPlayer();
+        return new PlaytestState.Setup(world, player, individuals, items);
+    }
+
+    /**
+     * Plays the given number of games to the end.
+     * @param games the number of games
+     * @param seed the seed of the searches' random numbers
+     * @return what happened in the games
+     */
+    Report play(int games, long seed) {
+        SplittableRandom random = new SplittableRandom(seed);
+        Report report = null;
+        for (int game = 0; game < games; game++) {
+            PlaytestState.Setup setup = newGame();
+            if (report == null) {
+                report = new Report(setup);
+            }
+            PlaytestState state = PlaytestState.start(setup, report);
+            int[] actions = new int[PlaytestState.MAX_ACTIONS];
+            while (state.getResult() == PlaytestState.Result.PLAYING) {
+                state.apply(choose(state, actions, random));
+                report.decisions++;
+            }
+            report.finish(state);
+        }
+        return report;
+    }
+
+    /**
+     * Chooses a decision by searching in parallel and taking the decision visited most often over all the trees.
+     */
+    private int choose(PlaytestState state, int[] actions, SplittableRandom random) {
+        int count = state.legalActions(actions);
+        if (count == 1) {
+            return actions[0];
+        }
+
+        Search[] searches = new Search[threads];
+        for (int i = 0; i < threads; i++) {
+            searches[i] = new Search(state, Math.max(1, iterations / threads), random.split());
+            pool.execute(searches[i]);
+        }
+        long[] visits = new long[PlaytestState.MAX_ACTIONS];
+        for (Search search : searches) {
+            search.join();
+            rollouts += search.rollouts;
+            steps += search.steps;
+            for (int i = 0; i < search.root.childCount; i++) {
+                visits[search.root.children[i].action] += search.root.children[i].visits;
+            }
+        }
+
+        int best = actions[0];
+        for (int i = 1; i < count; i++) {
+            if (visits[actions[i]] > visits[best]) {
+                best = actions[i];
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Plays games and prints the report and the throughput of the searches.
+     * @param args the number of games (20 by default), the search iterations per decision (20000 by default) and
+     *             the threads (all cores by default)
+     */
+    public static void main(String[] args) {
+        int games = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+
+        PlaytestBot bot = new PlaytestBot(World.getDefault(), iterations, threads);
+        long start = System.nanoTime();
+        Report report = bot.play(games, 42);
+        long elapsed = System.nanoTime() - start;
+        bot.pool.shutdown();
+
+        report.print();
+        System.out.println(report.decisions + " decisions, " + bot.rollouts + " rollouts and " + bot.steps +
+                " simulated decisions in " + elapsed / 1_000_000 + " ms on " + threads + " threads: " +
+                bot.rollouts * 1_000_000_000L / Math.max(1, elapsed) + " rollouts/s, " +
+                bot.steps * 1_000_000_000L / Math.max(1, elapsed) + " decisions/s");
+    }
+}
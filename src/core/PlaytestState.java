@@ -0,0 +1,643 @@
+package core;
+
+import model.character.Merchant;
+import model.character.NPC;
+import model.character.Player;
+import model.character.ShopkeeperNPC;
+import model.item.Gold;
+import model.item.Item;
+import model.item.ItemTemplate;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Predicate;
+
+/**
+ * PlaytestState is a compact copy of a game for the {@link PlaytestBot}. It follows the same rules as {@link Game},
+ * {@link CombatManager}, {@link InventoryInteraction} and the shops, reusing their formulas, but keeps the whole
+ * changing state in a few small primitive arrays, so {@link #copy()} costs a handful of array clones and a search can
+ * try thousands of futures of the same game without touching the real objects.
+ * The game is played as a sequence of decisions. Every call to {@link #apply} takes one decision and plays on until
+ * the next one: meeting an NPC (fight, pay, run, buy or leave), finding an item (pick it up or leave it) and the main
+ * prompt (move through an exit or drink a potion). What doesn't change during a game (the map, the NPCs' stats and
+ * posts, the items and the shops) lives in a {@link Setup} shared by every copy.
+ * NPCs stay at their posts, shops don't restock and items don't wear out: the real game only wears items out in a
+ * lost fight, and restocking and patrols don't decide whether a game can be won.
+ */
+final class PlaytestState implements Predicate<String> {
+    static final int FIGHT = 0;
+    static final int PAY = 1;
+    static final int RUN = 2;
+    static final int LEAVE = 3;
+    static final int PICK_UP = 4;
+    static final int SKIP = 5;
+    static final int MOVE = 16;
+    static final int POTION = 32;
+    static final int BUY = 48;
+    static final int MAX_ACTIONS = 64;
+
+    static final int MAX_TURNS = 200;
+    private static final int INVENTORY_SLOTS = 4;
+    private static final int MAX_ROUNDS = 1000;
+
+    enum Result { PLAYING, WON, DIED, OUT_OF_TURNS }
+
+    private enum Phase { NPC, ITEM, MAIN }
+
+    /**
+     * The part of a game that never changes, indexed by NPC and item number in the order of the game's lists.
+     */
+    static final class Setup {
+        private final WorldGraph graph;
+        private final TriggerManager triggers;
+        private final boolean[] locationTriggers;
+        private final int[][] npcsAt;
+        private final int[][] itemsAt;
+        private final int[] winNodes;
+        private final int[] distanceToWin;
+        private final int maxDistance;
+
+        private final String[] npcNames;
+        private final float[] npcHealth;
+        private final float[] npcDamage;
+        private final float[] npcDefense;
+        private final int[] npcGold;
+        private final int[] npcGoldRequired;
+        private final boolean[] npcCanRunAway;
+        private final boolean[] npcShopkeeper;
+        private final boolean[] npcMerchant;
+        private final int[] npcNode;
+        private final ItemTemplate[][] shopItems;
+        private final int[][] shopPrices;
+        private final int[] shopOffset;
+        private final int shopSlots;
+
+        private final ItemTemplate[] items;
+        private final int[] itemGold;
+
+        private final int startNode;
+        private final float startHealth;
+        private final float maxHealth;
+        private final float startDamage;
+        private final float startDefense;
+        private final int startGold;
+
+        /**
+         * Reads a new game: the NPCs and their shops, the items on the ground and the player.
+         */
+        Setup(World world, Player player, List<NPC> individuals, List<Item> items) {
+            this.graph = world.getGraph();
+            this.triggers = world.getTriggerManager();
+            int nodes = graph.size();
+
+            locationTriggers = new boolean[nodes];
+            for (int node = 0; node < nodes; node++) {
+                locationTriggers[node] = triggers.hasLocationTriggers(graph.pointOf(node));
+            }
+
+            int npcCount = individuals.size();
+            npcNames = new String[npcCount];
+            npcHealth = new float[npcCount];
+            npcDamage = new float[npcCount];
+            npcDefense = new float[npcCount];
+            npcGold = new int[npcCount];
+            npcGoldRequired = new int[npcCount];
+            npcCanRunAway = new boolean[npcCount];
+            npcShopkeeper = new boolean[npcCount];
+            npcMerchant = new boolean[npcCount];
+            npcNode = new int[npcCount];
+            shopItems = new ItemTemplate[npcCount][];
+            shopPrices = new int[npcCount][];
+            shopOffset = new int[npcCount];
+            int slots = 0;
+            for (int i = 0; i < npcCount; i++) {
+                NPC npc = individuals.get(i);
+                npcNames[i] = npc.getName();
+                npcHealth[i] = npc.getHealth();
+                npcDamage[i] = npc.getDamage();
+                npcDefense[i] = npc.getDefense();
+                npcGold[i] = npc.getGold();
+                npcGoldRequired[i] = npc.getGoldRequired();
+                npcCanRunAway[i] = npc.canRunAway();
+                npcMerchant[i] = npc instanceof Merchant;
+                npcNode[i] = graph.nodeOf(npc.getPosition());
+                if (npc instanceof ShopkeeperNPC) {
+                    ShopkeeperNPC shopkeeper = (ShopkeeperNPC) npc;
+                    npcShopkeeper[i] = true;
+                    shopItems[i] = shopkeeper.getAvailableItems().toArray(new ItemTemplate[0]);
+                    shopPrices[i] = new int[shopItems[i].length];
+                    for (int entry = 0; entry < shopItems[i].length; entry++) {
+                        shopPrices[i][entry] = shopkeeper.getPrice(shopItems[i][entry].getName());
+                    }
+                } else {
+                    shopItems[i] = new ItemTemplate[0];
+                    shopPrices[i] = new int[0];
+                }
+                shopOffset[i] = slots;
+                slots += shopItems[i].length;
+            }
+            shopSlots = slots;
+
+            int itemCount = items.size();
+            this.items = new ItemTemplate[itemCount];
+            itemGold = new int[itemCount];
+            int[] itemNode = new int[itemCount];
+            for (int i = 0; i < itemCount; i++) {
+                Item item = items.get(i);
+                this.items[i] = item.getTemplate();
+                itemGold[i] = item instanceof Gold ? ((Gold) item).getAmount() : 0;
+                itemNode[i] = item.getSpawnPoint() == null ? -1 : graph.nodeOf(item.getSpawnPoint());
+            }
+            npcsAt = byNode(npcNode, nodes);
+            itemsAt = byNode(itemNode, nodes);
+
+            int[] wins = new int[nodes];
+            int winCount = 0;
+            for (int node = 0; node < nodes; node++) {
+                if (locationTriggers[node] && triggers.outcomeOf(TriggerManager.Event.AT_LOCATION,
+                        graph.pointOf(node), name -> true) == TriggerManager.Outcome.WIN) {
+                    wins[winCount++] = node;
+                }
+            }
+            winNodes = Arrays.copyOf(wins, winCount);
+
+            distanceToWin = new int[nodes];
+            int max = 0;
+            for (int node = 0; node < nodes; node++) {
+                distanceToWin[node] = Integer.MAX_VALUE;
+                for (int target : winNodes) {
+                    int[] path = graph.shortestPath(node, target);
+                    if (path != null) {
+                        distanceToWin[node] = Math.min(distanceToWin[node], path.length);
+                    }
+                }
+                if (distanceToWin[node] != Integer.MAX_VALUE) {
+                    max = Math.max(max, distanceToWin[node]);
+                }
+            }
+            maxDistance = max;
+
+            startNode = graph.nodeOf(player.getPosition());
+            startHealth = player.getHealth();
+            maxHealth = player.getHealth();
+            startDamage = player.getDamage();
+            startDefense = player.getDefense();
+            startGold = player.getGold();
+        }
+
+        private static int[][] byNode(int[] nodeOf, int nodes) {
+            int[] counts = new int[nodes];
+            for (int node : nodeOf) {
+                if (node >= 0) {
+                    counts[node]++;
+                }
+            }
+            int[][] byNode = new int[nodes][];
+            for (int node = 0; node < nodes; node++) {
+                byNode[node] = new int[counts[node]];
+                counts[node] = 0;
+            }
+            for (int i = 0; i < nodeOf.length; i++) {
+                if (nodeOf[i] >= 0) {
+                    byNode[nodeOf[i]][counts[nodeOf[i]]++] = i;
+                }
+            }
+            return byNode;
+        }
+
+        int npcCount() {
+            return npcNames.length;
+        }
+
+        String npcName(int npc) {
+            return npcNames[npc];
+        }
+    }
+
+    private final Setup setup;
+    private int node;
+    private int previousNode = -1;
+    private float health;
+    private float damage;
+    private float defense;
+    private int gold;
+    private ItemTemplate[] inventory = new ItemTemplate[INVENTORY_SLOTS];
+    private int inventorySize;
+    private float[] npcHealth;
+    private int[] npcGold;
+    private boolean[] lootTaken;
+    private boolean[] itemTaken;
+    private boolean[] soldOut;
+    private Phase phase;
+    private int cursor;
+    private int encounterNode;
+    private int turn;
+    private Result result = Result.PLAYING;
+    private int killer = -1;
+    private PlaytestBot.Report report;
+
+    private PlaytestState(Setup setup) {
+        this.setup = setup;
+    }
+
+    /**
+     * Starts a game at its first decision.
+     * @param setup the game to play
+     * @param report where to count what happens in the game, null to count nothing
+     * @return the state of the new game
+     */
+    static PlaytestState start(Setup setup, PlaytestBot.Report report) {
+        PlaytestState state = new PlaytestState(setup);
+        state.report = report;
+        state.node = setup.startNode;
+        state.health = setup.startHealth;
+        state.damage = setup.startDamage;
+        state.defense = setup.startDefense;
+        state.gold = setup.startGold;
+        state.npcHealth = setup.npcHealth.clone();
+        state.npcGold = setup.npcGold.clone();
+        state.lootTaken = new boolean[setup.npcCount()];
+        state.itemTaken = new boolean[setup.items.length];
+        state.soldOut = new boolean[setup.shopSlots];
+        state.startTurn();
+        return state;
+    }
+
+    /**
+     * @return a copy of the state that can be played on without changing this one; it counts nothing
+     */
+    PlaytestState copy() {
+        PlaytestState copy = new PlaytestState(setup);
+        copy.node = node;
+        copy.previousNode = previousNode;
+        copy.health = health;
+        copy.damage = damage;
+        copy.defense = defense;
+        copy.gold = gold;
+        copy.inventory = inventory.clone();
+        copy.inventorySize = inventorySize;
+        copy.npcHealth = npcHealth.clone();
+        copy.npcGold = npcGold.clone();
+        copy.lootTaken = lootTaken.clone();
+        copy.itemTaken = itemTaken.clone();
+        copy.soldOut = soldOut.clone();
+        copy.phase = phase;
+        copy.cursor = cursor;
+        copy.encounterNode = encounterNode;
+        copy.turn = turn;
+        copy.result = result;
+        copy.killer = killer;
+        return copy;
+    }
+
+    Result getResult() {
+        return result;
+    }
+
+    int getTurn() {
+        return turn;
+    }
+
+    /**
+     * @return the NPC that killed the player, or -1 if the player wasn't killed in a fight
+     */
+    int getKiller() {
+        return killer;
+    }
+
+    float getHealthFraction() {
+        return health / setup.maxHealth;
+    }
+
+    float getDamage() {
+        return damage;
+    }
+
+    /**
+     * @return true if the player holds everything needed to win once they reach a winning location
+     */
+    boolean canWin() {
+        for (int target : setup.winNodes) {
+            if (outcomeAt(TriggerManager.Event.AT_LOCATION, target) == TriggerManager.Outcome.WIN) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return how close the player is to a winning location, 1 when on it and 0 when as far as it gets or cut off
+     */
+    float getWinProximity() {
+        int distance = setup.distanceToWin[node];
+        if (distance == Integer.MAX_VALUE || setup.maxDistance == 0) {
+            return 0;
+        }
+        return 1 - (float) distance / setup.maxDistance;
+    }
+
+    /**
+     * Tells whether the player carries an item with the given name, for the conditions of the triggers.
+     */
+    @Override
+    public boolean test(String itemName) {
+        for (int i = 0; i < inventorySize; i++) {
+            if (inventory[i].getName().equalsIgnoreCase(itemName)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Writes the decisions that can be taken now.
+     * @param actions the array to fill, at least MAX_ACTIONS long
+     * @return the number of decisions, 0 if the game is over
+     */
+    int legalActions(int[] actions) {
+        if (result != Result.PLAYING) {
+            return 0;
+        }
+        int count = 0;
+        if (phase == Phase.NPC) {
+            int npc = setup.npcsAt[encounterNode][cursor];
+            actions[count++] = FIGHT;
+            if (setup.npcGoldRequired[npc] > 0 && gold >= setup.npcGoldRequired[npc]) {
+                actions[count++] = PAY;
+            }
+            if (previousNode >= 0 && setup.npcCanRunAway[npc]) {
+                actions[count++] = RUN;
+            }
+            if (setup.npcShopkeeper[npc]) {
+                actions[count++] = LEAVE;
+                ItemTemplate[] stock = setup.shopItems[npc];
+                for (int entry = 0; entry < stock.length && BUY + entry < MAX_ACTIONS; entry++) {
+                    if (!soldOut[setup.shopOffset[npc] + entry] && gold >= setup.shopPrices[npc][entry] &&
+                            canAdd(stock[entry])) {
+                        actions[count++] = BUY + entry;
+                    }
+                }
+            }
+        } else if (phase == Phase.ITEM) {
+            actions[count++] = SKIP;
+            if (inventorySize < INVENTORY_SLOTS && (itemGoldAt(cursor) > 0 || canAdd(itemAt(cursor)))) {
+                actions[count++] = PICK_UP;
+            }
+        } else {
+            for (int exit = 0; exit < setup.graph.exitCount(node) && MOVE + exit < POTION; exit++) {
+                actions[count++] = MOVE + exit;
+            }
+            for (int slot = 0; slot < inventorySize; slot++) {
+                if (isPotion(inventory[slot])) {
+                    actions[count++] = POTION + slot;
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Takes a decision returned by {@link #legalActions} and plays on until the next decision or the end of the game.
+     * @param action the decision
+     */
+    void apply(int action) {
+        if (phase == Phase.NPC) {
+            int npc = setup.npcsAt[encounterNode][cursor];
+            if (action >= BUY) {
+                buy(npc, action - BUY);
+                return;
+            }
+            if (report != null) {
+                report.encounter(npc, action);
+            }
+            cursor++;
+            if (action == FIGHT) {
+                fight(npc);
+            } else if (action == PAY) {
+                gold -= setup.npcGoldRequired[npc];
+                npcGold[npc] += setup.npcGoldRequired[npc];
+            } else if (action == RUN) {
+                moveTo(previousNode);
+            }
+            if (result == Result.PLAYING) {
+                advance();
+            }
+        } else if (phase == Phase.ITEM) {
+            if (action == PICK_UP) {
+                pickUp(cursor);
+            }
+            cursor++;
+            if (result == Result.PLAYING) {
+                advance();
+            }
+        } else if (action >= POTION) {
+            drink(action - POTION);
+            startTurn();
+        } else {
+            moveTo(setup.graph.exit(node, action - MOVE));
+            if (setup.locationTriggers[node] && ends(outcomeAt(TriggerManager.Event.ENTER_LOCATION, node))) {
+                return;
+            }
+            startTurn();
+        }
+    }
+
+    /**
+     * The start of a turn: the triggers of the location, then the NPCs met there.
+     */
+    private void startTurn() {
+        turn++;
+        if (turn > MAX_TURNS) {
+            result = Result.OUT_OF_TURNS;
+            return;
+        }
+        if (setup.locationTriggers[node] && ends(outcomeAt(TriggerManager.Event.AT_LOCATION, node))) {
+            return;
+        }
+        phase = Phase.NPC;
+        encounterNode = node;
+        cursor = 0;
+        advance();
+    }
+
+    /**
+     * Skips the NPCs and items that need no decision: dead NPCs and items already taken.
+     */
+    private void advance() {
+        if (phase == Phase.NPC) {
+            int[] here = setup.npcsAt[encounterNode];
+            while (cursor < here.length && npcHealth[here[cursor]] <= 0) {
+                cursor++;
+            }
+            if (cursor < here.length) {
+                return;
+            }
+            phase = Phase.ITEM;
+            cursor = 0;
+        }
+        if (phase == Phase.ITEM) {
+            int available = setup.itemsAt[node].length + setup.npcsAt[node].length;
+            while (cursor < available && !isOnGround(cursor)) {
+                cursor++;
+            }
+            if (cursor < available) {
+                return;
+            }
+            phase = Phase.MAIN;
+        }
+    }
+
+    private void moveTo(int target) {
+        previousNode = node;
+        node = target;
+    }
+
+    /**
+     * Fights an NPC the way {@link CombatManager#handleCombat} does: the player hits first, the NPC always hits back,
+     * and the fight goes on until one of them is dead.
+     */
+    private void fight(int npc) {
+        float healthBefore = health;
+        for (int round = 0; round < MAX_ROUNDS && health > 0 && npcHealth[npc] > 0; round++) {
+            npcHealth[npc] = Math.max(0, npcHealth[npc] - CombatManager.reducedDamage(setup.npcDefense[npc], damage));
+            health = Math.max(0, health - CombatManager.reducedDamage(defense, setup.npcDamage[npc]));
+        }
+        if (report != null) {
+            report.fought(npc, healthBefore - health, npcHealth[npc] <= 0);
+        }
+        if (npcHealth[npc] <= 0) {
+            lootTaken[npc] = npcGold[npc] <= 0;
+            if (ends(setup.triggers.outcomeOf(TriggerManager.Event.NPC_DEFEATED, setup.npcNames[npc], this))) {
+                return;
+            }
+        }
+        if (health <= 0) {
+            result = Result.DIED;
+            killer = npc;
+        }
+    }
+
+    private void buy(int npc, int entry) {
+        ItemTemplate template = setup.shopItems[npc][entry];
+        gold -= setup.shopPrices[npc][entry];
+        soldOut[setup.shopOffset[npc] + entry] = true;
+        add(template);
+        if (report != null) {
+            report.bought(npc);
+        }
+    }
+
+    private void pickUp(int index) {
+        int itemCount = setup.itemsAt[node].length;
+        if (index >= itemCount) {
+            int npc = setup.npcsAt[node][index - itemCount];
+            gold += npcGold[npc];
+            lootTaken[npc] = true;
+            return;
+        }
+        int item = setup.itemsAt[node][index];
+        itemTaken[item] = true;
+        if (setup.itemGold[item] > 0) {
+            gold += setup.itemGold[item];
+        } else if (add(setup.items[item])) {
+            ends(setup.triggers.outcomeOf(TriggerManager.Event.ITEM_ACQUIRED, setup.items[item].getName(), this));
+        }
+    }
+
+    /**
+     * Adds an item to the inventory the way {@link model.character.Character#addItem} does: a weapon or potion
+     * replaces one of the same kind only if its tier is higher, and the new item boosts the stats like
+     * {@link Player#addStats} does.
+     * @return true if the item was added
+     */
+    private boolean add(ItemTemplate template) {
+        int same = sameKind(template);
+        if (same >= 0) {
+            if (inventory[same].getTier() >= template.getTier()) {
+                return false;
+            }
+            inventory[same] = template;
+        } else {
+            inventory[inventorySize++] = template;
+        }
+        String type = template.getType();
+        defense = Player.boosted(defense, type.equals("shield") ? template.getEffect() : 0);
+        damage = Player.boosted(damage, type.equals("sword") ? template.getEffect() : 0);
+        return true;
+    }
+
+    private boolean canAdd(ItemTemplate template) {
+        int same = sameKind(template);
+        return same >= 0 ? inventory[same].getTier() < template.getTier() : inventorySize < INVENTORY_SLOTS;
+    }
+
+    private int sameKind(ItemTemplate template) {
+        if (template.getTier() == 0) {
+            return -1;
+        }
+        for (int i = 0; i < inventorySize; i++) {
+            if (inventory[i].getType().equals(template.getType())) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * Drinks a potion the way {@link model.character.Character#usePotion} does.
+     */
+    private void drink(int slot) {
+        ItemTemplate potion = inventory[slot];
+        switch (potion.getType()) {
+            case "healthpotion" -> health = Math.min(setup.maxHealth, health + potion.getEffect());
+            case "strengthpotion" -> damage += potion.getEffect();
+            case "defensepotion" -> defense += potion.getEffect();
+            default -> {
+            }
+        }
+        System.arraycopy(inventory, slot + 1, inventory, slot, inventorySize - slot - 1);
+        inventory[--inventorySize] = null;
+    }
+
+    private static boolean isPotion(ItemTemplate template) {
+        return template.getType().endsWith("potion");
+    }
+
+    private boolean isOnGround(int index) {
+        int itemCount = setup.itemsAt[node].length;
+        if (index < itemCount) {
+            return !itemTaken[setup.itemsAt[node][index]];
+        }
+        int npc = setup.npcsAt[node][index - itemCount];
+        return npcHealth[npc] <= 0 && !lootTaken[npc];
+    }
+
+    private ItemTemplate itemAt(int index) {
+        int itemCount = setup.itemsAt[node].length;
+        return index < itemCount ? setup.items[setup.itemsAt[node][index]] : ItemTemplate.GOLD;
+    }
+
+    private int itemGoldAt(int index) {
+        int itemCount = setup.itemsAt[node].length;
+        return index < itemCount ? setup.itemGold[setup.itemsAt[node][index]] :
+                npcGold[setup.npcsAt[node][index - itemCount]];
+    }
+
+    private TriggerManager.Outcome outcomeAt(TriggerManager.Event event, int target) {
+        return setup.triggers.outcomeOf(event, setup.graph.pointOf(target), this);
+    }
+
+    /**
+     * Ends the game if the outcome of a trigger says so.
+     * @return true if the game is over
+     */
+    private boolean ends(TriggerManager.Outcome outcome) {
+        if (outcome == TriggerManager.Outcome.WIN) {
+            result = Result.WON;
+        } else if (outcome == TriggerManager.Outcome.DEATH) {
+            result = Result.DIED;
+            health = 0;
+        }
+        return outcome != TriggerManager.Outcome.CONTINUE;
+    }
+}
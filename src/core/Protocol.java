@@ -0,0 +1,142 @@
+package core;
+
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The binary protocol spoken between the {@link GameServer} and remote clients.
+ * A binary client starts the connection with the MAGIC byte; a connection that starts with anything else is treated
+ * as a telnet-style client that types text commands. After that every message is a frame made of its length as an
+ * unsigned short, followed by one type byte and the fields of the message. Numbers are big-endian, strings are an
+ * unsigned short length followed by UTF-8 bytes. A frame that is cut short or holds a string longer than the frame
+ * breaks the protocol, and the server closes the connection that sent it.
+ *
+ * Varints use 7 bits per byte, lowest bits first; signed values are zig-zag encoded first.
+ *
+ * Commands (client to server):
+ * MOVE dx:byte dy:byte dz:byte, FIGHT, BUY name:string, SELL name:string, QUIT,
+ * ACK turn:int, telling the server which turn's state the client has applied,
+ * INPUT text:string, a line typed at whatever prompt the game shows, such as "talk" or "yes".
+ * Every command but QUIT and ACK is typed into the game as a line, so it answers the prompt the game shows: FIGHT
+ * is "fight" and only starts a fight where the game asks whether to fight.
+ *
+ * Events (server to client):
+ * DEFINE id:varint text:string, the text of a string id used by STATE,
+ * STATE changes:byte followed by the groups whose bit is set in changes, see {@link StateSync}:
+ * position x y z:zig-zag varint, name+1 description+1:varint (0 when there is none),
+ * NPCs, ground items and inventory count:varint id:varint..., stats health damage defense:float gold:varint,
+ * DAMAGE target:string amount:float health:float,
+ * MESSAGE text:string, what the game printed while handling a command, its prompts included,
+ * TURN_END turn:int, sent after every command so clients know the command was handled.
+ */
+final class Protocol {
+    static final byte MAGIC = (byte) 0xB1;
+    static final int HEADER_SIZE = 2;
+    static final int MAX_FRAME_SIZE = 0xFFFF;
+
+    static final byte MOVE = 1;
+    static final byte FIGHT = 2;
+    static final byte BUY = 3;
+    static final byte SELL = 4;
+    static final byte QUIT = 5;
+    static final byte ACK = 6;
+    static final byte INPUT = 7;
+
+    static final byte DAMAGE = 102;
+    static final byte MESSAGE = 104;
+    static final byte TURN_END = 105;
+    static final byte DEFINE = 106;
+    static final byte STATE = 107;
+
+    private Protocol() {
+    }
+
+    /**
+     * Starts a frame of the given type, leaving room for its length.
+     * @param out the buffer to write to
+     * @param type the type of the frame
+     * @return the position of the frame, to be passed to {@link #endFrame(ByteBuffer, int)}
+     */
+    static int beginFrame(ByteBuffer out, byte type) {
+        int start = out.position();
+        out.putShort((short) 0);
+        out.put(type);
+        return start;
+    }
+
+    /**
+     * Writes the length of the frame that started at the given position.
+     */
+    static void endFrame(ByteBuffer out, int start) {
+        out.putShort(start, (short) (out.position() - start - HEADER_SIZE));
+    }
+
+    static void putString(ByteBuffer out, String value) {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        int length = Math.min(bytes.length, MAX_FRAME_SIZE / 2);
+        out.putShort((short) length);
+        out.put(bytes, 0, length);
+    }
+
+    static void putVarInt(ByteBuffer out, int value) {
+        while ((value & ~0x7F) != 0) {
+            out.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.put((byte) value);
+    }
+
+    static int getVarInt(ByteBuffer in) {
+        int value = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = in.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0) {
+                return value;
+            }
+        }
+    }
+
+    static int zigZag(int value) {
+        return (value << 1) ^ (value >> 31);
+    }
+
+    /**
+     * Reads a string.
+     * @param in the buffer holding the frame, limited to the frame
+     * @return the string
+     * @throws java.nio.BufferUnderflowException if the string is longer than what is left of the frame
+     */
+    static String getString(ByteBuffer in) {
+        int length = in.getShort() & 0xFFFF;
+        if (length > in.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        String value = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+        in.position(in.position() + length);
+        return value;
+    }
+
+    /**
+     * Returns the length the frame at the start of the buffer declares, whether or not it has fully arrived.
+     * @param in the buffer, ready to be read, with at least a header
+     * @return the length of the frame with its header
+     */
+    static int declaredFrameLength(ByteBuffer in) {
+        return HEADER_SIZE + (in.getShort(in.position()) & 0xFFFF);
+    }
+
+    /**
+     * Returns the length of the complete frame at the start of the buffer.
+     * @param in the buffer, ready to be read
+     * @return the length of the frame with its header, or -1 if the frame hasn't fully arrived yet
+     */
+    static int completeFrameLength(ByteBuffer in) {
+        if (in.remaining() < HEADER_SIZE) {
+            return -1;
+        }
+        int length = declaredFrameLength(in);
+        return in.remaining() >= length ? length : -1;
+    }
+}
@@ -0,0 +1,523 @@
+package core;
+
+import gameplay.QuestLog;
+import model.character.Character;
+import model.character.NPC;
+import model.character.NPCFactory;
+import model.character.Player;
+import model.item.Item;
+import model.world.Location;
+import model.world.Point;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Scanner;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+/**
+ * RemoteSession is one player connected to the {@link GameServer}, with a game of their own.
+ * The game is the console game, played with the managers of a pooled {@link SessionContext}: encounters, fights,
+ * pickups, shops and the marketplace follow the same rules as on the console. Every command that arrives is a line
+ * of input for the session's {@link InputHandler}, and whatever the game prints is sent back as messages.
+ * The game runs on a thread of the server's game executor, because it asks for input in the middle of a turn. The
+ * selector thread queues the lines that arrive and goes on serving its other sessions; the game takes them one by
+ * one, and whenever it asks for the next line it encodes the events of the command followed by a TURN_END, posts them
+ * to the session and has the selector thread woken up to send them. So the selector thread never waits for a player
+ * nor for a game, and a slow turn only delays its own session. Only a few lines are queued at a time: the selector
+ * thread stops reading a session whose game is behind until the game catches up.
+ * A session speaks either the binary {@link Protocol}, where the state the player sees is sent as changes by
+ * {@link StateSync}, or, for telnet-style clients, plain text lines.
+ * The connection, the input and the output of a session are only used by the selector thread that owns it, the game,
+ * its events and its state sync only by the game thread, and the two hand over lines and events under a lock.
+ */
+class RemoteSession implements Closeable {
+    private static final int INPUT_CAPACITY = 8192;
+    private static final int OUTPUT_CAPACITY = 8192;
+    private static final int MAX_QUEUED_LINES = 16;
+    private static final Point START = new Point(2, 0, 0);
+
+    private enum Mode { UNKNOWN, BINARY, TEXT }
+
+    private final SocketChannel channel;
+    private final World world;
+    private final WorldGraph graph;
+    private final SessionContext session;
+    private final Player player;
+    private final List<NPC> npcs;
+    private final List<Item> items;
+    private final Game game;
+    private final Executor games;
+    private final Consumer<RemoteSession> postListener;
+
+    /* Used by the selector thread only. */
+    private final ByteBuffer input = ByteBuffer.allocate(INPUT_CAPACITY);
+    private ByteBuffer output = ByteBuffer.allocate(OUTPUT_CAPACITY);
+    private Mode mode = Mode.UNKNOWN;
+    private int room = MAX_QUEUED_LINES;
+    private boolean quitting;
+    private boolean finished;
+
+    /* Used by the game thread only. */
+    private ByteBuffer events = ByteBuffer.allocate(OUTPUT_CAPACITY);
+    private final ByteArrayOutputStream messages = new ByteArrayOutputStream();
+    private final StateSync stateSync = new StateSync();
+    private int turn;
+    private boolean quit;
+    /** What is left of the line the game is reading. */
+    private CharBuffer line = CharBuffer.allocate(0);
+
+    /** Guards the hand-off of lines and events between the selector thread and the game thread. */
+    private final Object handoff = new Object();
+    private final Queue<String> lines = new ArrayDeque<>();
+    private ByteBuffer posted = ByteBuffer.allocate(OUTPUT_CAPACITY);
+    private int acknowledged = -1;
+    private boolean quitRequested;
+    private boolean gameStarted;
+    private boolean gameOver;
+    private boolean closed;
+    private boolean released;
+
+    /**
+     * Creates a session with a new game for the player on the other end of the channel, using a pooled session
+     * context of the world for its managers. The game starts once the client's first bytes tell its protocol.
+     * @param channel the connection of the player
+     * @param world the world to play on, shared by every session
+     * @param games the executor the game runs on
+     * @param postListener called on the game thread whenever the game posted events, so the selector thread sends them
+     */
+    RemoteSession(SocketChannel channel, World world, Executor games, Consumer<RemoteSession> postListener) {
+        this.channel = channel;
+        this.world = world;
+        this.games = games;
+        this.postListener = postListener;
+        this.graph = world.getGraph();
+        this.player = NPCFactory.createPlayer("Hero", START);
+        for (QuestLog.Quest quest : GameManager.createQuests()) {
+            player.getQuestLog().add(quest);
+        }
+        this.npcs = GameManager.createNPCs();
+        this.items = GameManager.createItems();
+        GameManager.placeItems(items, world.getMapManager());
+        this.session = world.acquireSession();
+        session.bind(player, npcs, items, new Scanner(this::readLine));
+        session.getCombatManager().setDamageListener(this::sendDamage);
+        this.game = new Game(session);
+    }
+
+    /**
+     * Closes the connection and stops the game without waiting for it. The session context goes back to the world
+     * once the game is over, right away if it isn't playing. Does nothing the second time.
+     * @throws IOException if the connection can't be closed
+     */
+    @Override
+    public void close() throws IOException {
+        boolean release;
+        synchronized (handoff) {
+            closed = true;
+            handoff.notifyAll();
+            release = takeRelease();
+        }
+        if (release) {
+            world.releaseSession(session);
+        }
+        channel.close();
+    }
+
+    /**
+     * Decides whether the caller gives the session context back, which happens once, when the session is closed and
+     * its game is over or never started. Must be called holding the hand-off lock.
+     */
+    private boolean takeRelease() {
+        if (released || !closed || gameStarted && !gameOver) {
+            return false;
+        }
+        released = true;
+        return true;
+    }
+
+    SocketChannel getChannel() {
+        return channel;
+    }
+
+    /**
+     * @return true once the game is over and everything left to send was sent
+     */
+    boolean isFinished() {
+        return finished && output.position() == 0;
+    }
+
+    /**
+     * @return true if there are events waiting to be written
+     */
+    boolean hasOutput() {
+        return output.position() > 0;
+    }
+
+    /**
+     * @return true if the game has room for more commands, so the connection should be read
+     */
+    boolean wantsInput() {
+        return room > 0 && !quitting && !finished;
+    }
+
+    /**
+     * Reads what arrived on the connection and handles the complete commands in it.
+     * @return false if the connection was closed by the client or the client broke the protocol
+     * @throws IOException if the connection fails
+     */
+    boolean read() throws IOException {
+        if (channel.read(input) < 0) {
+            return false;
+        }
+        return handleInput();
+    }
+
+    /**
+     * Handles the complete commands that were read, as many as the game has room for. The rest stays in the input
+     * until the game catches up.
+     * @return false if the client broke the protocol
+     */
+    boolean handleInput() {
+        synchronized (handoff) {
+            room = MAX_QUEUED_LINES - lines.size();
+        }
+        input.flip();
+        if (mode == Mode.UNKNOWN) {
+            detectMode();
+        }
+        boolean valid = mode == Mode.BINARY ? handleFrames() : handleLines();
+        input.compact();
+        return valid;
+    }
+
+    /**
+     * Moves the events the game posted to the output, and notes when the game is over.
+     */
+    void takePosted() {
+        synchronized (handoff) {
+            if (posted.position() > 0) {
+                output = ensureCapacity(output, posted.position());
+                posted.flip();
+                output.put(posted);
+                posted.clear();
+            }
+            finished |= gameOver;
+        }
+    }
+
+    /**
+     * Writes as much of the pending events as the connection takes.
+     * @throws IOException if the connection fails
+     */
+    void write() throws IOException {
+        output.flip();
+        channel.write(output);
+        output.compact();
+    }
+
+    private void detectMode() {
+        if (!input.hasRemaining()) {
+            return;
+        }
+        if (input.get(input.position()) == Protocol.MAGIC) {
+            input.get();
+            mode = Mode.BINARY;
+        } else {
+            mode = Mode.TEXT;
+            writeText("Welcome! Type your commands at the prompts, as in the console game.");
+        }
+        synchronized (handoff) {
+            gameStarted = true;
+        }
+        try {
+            games.execute(this::playGame);
+        } catch (RejectedExecutionException e) { // the server is shutting down
+            synchronized (handoff) {
+                gameStarted = false;
+            }
+            finished = true;
+        }
+    }
+
+    /**
+     * Handles every complete frame in the input. Each frame is read through a buffer limited to its length, so a
+     * frame whose fields run past its end, or a frame too long to ever fit in the input, breaks the protocol.
+     * @return false if the client broke the protocol
+     */
+    private boolean handleFrames() {
+        while (wantsInput() && input.remaining() >= Protocol.HEADER_SIZE) {
+            int length = Protocol.declaredFrameLength(input);
+            if (length > INPUT_CAPACITY) {
+                return false;
+            }
+            if (input.remaining() < length) {
+                break;
+            }
+            ByteBuffer frame = input.slice(input.position() + Protocol.HEADER_SIZE, length - Protocol.HEADER_SIZE);
+            input.position(input.position() + length);
+            try {
+                if (!handleFrame(frame)) {
+                    return false;
+                }
+            } catch (BufferUnderflowException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Handles one frame. The commands are typed into the game the way a console player would type them, so they
+     * mean what they mean at the prompt the game shows.
+     * @return false if the frame has an unknown type
+     */
+    private boolean handleFrame(ByteBuffer frame) {
+        byte type = frame.get();
+        switch (type) {
+            case Protocol.MOVE -> {
+                Command move = Command.moveOf(frame.get(), frame.get(), frame.get());
+                play(move == null ? "" : move.name().toLowerCase().replace('_', ' '));
+            }
+            case Protocol.FIGHT -> play("fight");
+            case Protocol.BUY -> play("buy " + Protocol.getString(frame));
+            case Protocol.SELL -> play("sell " + Protocol.getString(frame));
+            case Protocol.INPUT -> play(Protocol.getString(frame));
+            case Protocol.QUIT -> quit();
+            case Protocol.ACK -> acknowledge(frame.getInt());
+            default -> {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean handleLines() {
+        int start = input.position();
+        for (int i = start; i < input.limit() && wantsInput(); i++) {
+            if (input.get(i) == '\n') {
+                play(new String(input.array(), start, i - start, StandardCharsets.UTF_8));
+                start = i + 1;
+            }
+        }
+        input.position(start);
+        return !wantsInput() || input.remaining() < input.capacity();
+    }
+
+    /**
+     * Queues a line of input for the game. The game sends the events it caused, the messages it printed and a
+     * TURN_END once it has handled the line and asks for more.
+     * @param text the line, without its line break
+     */
+    private void play(String text) {
+        synchronized (handoff) {
+            lines.add(text.replace('\r', ' ').replace('\n', ' '));
+            handoff.notifyAll();
+        }
+        room--;
+    }
+
+    /**
+     * Ends the game once it has handled the lines queued before, and stops reading commands.
+     */
+    private void quit() {
+        synchronized (handoff) {
+            quitRequested = true;
+            handoff.notifyAll();
+        }
+        quitting = true;
+    }
+
+    private void acknowledge(int ack) {
+        synchronized (handoff) {
+            acknowledged = Math.max(acknowledged, ack);
+        }
+    }
+
+    /**
+     * Encodes the events of the command the game just handled: the messages it printed, the state and a TURN_END.
+     */
+    private void endTurn() {
+        sendMessages();
+        sendState();
+        sendTurnEnd();
+        turn++;
+    }
+
+    /**
+     * Hands the events encoded so far to the selector thread and has it woken up to send them.
+     * @param over true if the game is over, so these are its last events
+     */
+    private void post(boolean over) {
+        boolean release;
+        synchronized (handoff) {
+            posted = ensureCapacity(posted, events.position());
+            events.flip();
+            posted.put(events);
+            events.clear();
+            gameOver = over;
+            release = takeRelease();
+        }
+        postListener.accept(this);
+        if (release) {
+            world.releaseSession(session);
+        }
+    }
+
+    /**
+     * Plays the game on a game thread until the player dies, wins or quits, or the connection is closed.
+     */
+    private void playGame() {
+        GameServer.captureOutput(messages);
+        try {
+            System.out.println("Instructions: Explore the map, defeat enemies, and collect items and find the key to " +
+                    "free the princess.");
+            boolean playing = true;
+            while (playing) {
+                playing = game.playTurn();
+            }
+        } catch (NoSuchElementException e) {
+            // the player quit or the connection was closed while the game waited for input
+        } catch (RuntimeException e) {
+            System.err.println("A remote game failed: " + e);
+        } finally {
+            GameServer.captureOutput(null);
+            if (quit) {
+                writeMessage("Goodbye!");
+            } else {
+                endTurn();
+            }
+            post(true);
+        }
+    }
+
+    /**
+     * The source of the game's scanner, called on the game thread. When the current line is used up the game has
+     * handled the command, so it posts the events of the command and waits for the next line.
+     * @return the number of characters read, or -1 once the player quit or the connection is closed
+     */
+    private int readLine(CharBuffer buffer) {
+        if (!line.hasRemaining()) {
+            endTurn();
+            post(false);
+            String text;
+            synchronized (handoff) {
+                while (lines.isEmpty() && !quitRequested && !closed) {
+                    try {
+                        handoff.wait();
+                    } catch (InterruptedException e) {
+                        return -1;
+                    }
+                }
+                text = closed ? null : lines.poll();
+                quit = text == null && !closed;
+            }
+            if (text == null) {
+                return -1;
+            }
+            line = CharBuffer.wrap(text + "\n");
+        }
+        int count = Math.min(buffer.remaining(), line.remaining());
+        buffer.put(line.subSequence(0, count));
+        line.position(line.position() + count);
+        return count;
+    }
+
+    private void sendMessages() {
+        if (messages.size() > 0) {
+            writeMessage(messages.toString(StandardCharsets.UTF_8).strip());
+            messages.reset();
+        }
+    }
+
+    /**
+     * Sends a binary client what changed in the state it sees since the last turn it acknowledged.
+     */
+    private void sendState() {
+        if (mode != Mode.BINARY) {
+            return;
+        }
+        int ack;
+        synchronized (handoff) {
+            ack = acknowledged;
+        }
+        stateSync.acknowledge(ack);
+        ByteBuffer changes = stateSync.writeChanges(turn, player, currentLocation(), npcs, items);
+        events = ensureCapacity(events, changes.remaining());
+        events.put(changes);
+    }
+
+    private Location currentLocation() {
+        int node = graph.nodeOf(player.getPosition());
+        return node < 0 ? null : graph.locationOf(node);
+    }
+
+    /**
+     * Sends a binary client a hit of a fight as it happens, with the events of the command it happens in. Text
+     * clients read the hits in the game's messages.
+     */
+    private void sendDamage(Character target, float amount) {
+        if (mode != Mode.BINARY) {
+            return;
+        }
+        events = ensureCapacity(events, target.getName().length() * 3 + 16);
+        int frame = Protocol.beginFrame(events, Protocol.DAMAGE);
+        Protocol.putString(events, target.getName());
+        events.putFloat(amount).putFloat(target.getHealth());
+        Protocol.endFrame(events, frame);
+    }
+
+    private void writeMessage(String text) {
+        if (mode == Mode.TEXT) {
+            writeText(text);
+            return;
+        }
+        events = ensureCapacity(events, text.length() * 3 + 8);
+        int frame = Protocol.beginFrame(events, Protocol.MESSAGE);
+        Protocol.putString(events, text);
+        Protocol.endFrame(events, frame);
+    }
+
+    private void sendTurnEnd() {
+        if (mode == Mode.TEXT) {
+            events = ensureCapacity(events, 2);
+            events.put((byte) '>').put((byte) ' ');
+            return;
+        }
+        events = ensureCapacity(events, 8);
+        int frame = Protocol.beginFrame(events, Protocol.TURN_END);
+        events.putInt(turn);
+        Protocol.endFrame(events, frame);
+    }
+
+    /**
+     * Writes a line of text to the events. The welcome line is written by the selector thread before the game starts,
+     * every other one by the game thread.
+     */
+    private void writeText(String text) {
+        byte[] bytes = (text.replace("\n", "\r\n") + "\r\n").getBytes(StandardCharsets.UTF_8);
+        events = ensureCapacity(events, bytes.length);
+        events.put(bytes);
+    }
+
+    private static ByteBuffer ensureCapacity(ByteBuffer buffer, int bytes) {
+        if (buffer.remaining() >= bytes) {
+            return buffer;
+        }
+        ByteBuffer larger = ByteBuffer.allocate(Math.max(buffer.capacity() * 2, buffer.position() + bytes));
+        buffer.flip();
+        larger.put(buffer);
+        return larger;
+    }
+}
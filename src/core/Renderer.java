@@ -0,0 +1,175 @@
+package core;
+
+import java.io.*;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Renderer collects everything the game prints during a turn in one reusable buffer and writes it to the console in
+ * a single call when the game waits for the player, instead of making a write for every line.
+ * Once installed it replaces System.out, so the rest of the game keeps printing as usual. Reading input through the
+ * {@link InputHandler} flushes it, as does the end of the program.
+ * The long texts that never change, like the location descriptions, are encoded once and copied straight into the
+ * buffer by {@link #print(String)} and {@link #printLine(String)}. Short texts that change, like the player's stats,
+ * are copied into the buffer char by char by {@link #printChangingLine(String)} when they are plain ASCII, so they
+ * aren't kept and don't go through the encoder of System.out either. A turn that prints more than MAX_BUFFERED bytes,
+ * like a long fight, is written out in parts.
+ */
+final class Renderer extends OutputStream {
+    private static final int INITIAL_CAPACITY = 8192;
+    private static final int MAX_BUFFERED = 1 << 16;
+    private static final Map<String, byte[]> ENCODED_TEXTS = new ConcurrentHashMap<>();
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(Charset.defaultCharset());
+    private static final boolean ASCII_CHARSET = isAsciiCompatible(Charset.defaultCharset());
+    private static Renderer instance;
+
+    private final OutputStream console;
+    private final PrintStream printStream;
+    private byte[] buffer = new byte[INITIAL_CAPACITY];
+    private int size;
+
+    private Renderer(OutputStream console) {
+        this.console = console;
+        this.printStream = new PrintStream(this, false, Charset.defaultCharset());
+    }
+
+    /**
+     * Replaces System.out with a renderer writing to the console, if it wasn't done yet.
+     */
+    static void install() {
+        install(new FileOutputStream(FileDescriptor.out));
+    }
+
+    /**
+     * Replaces System.out with a renderer writing to the given stream instead of the console, if it wasn't done yet.
+     * @param console the stream to write to
+     */
+    static synchronized void install(OutputStream console) {
+        if (instance != null) {
+            return;
+        }
+        instance = new Renderer(console);
+        System.setOut(instance.printStream);
+        Runtime.getRuntime().addShutdownHook(new Thread(instance.printStream::flush));
+    }
+
+    /**
+     * Prints a text that never changes, like a location description, using its encoded form.
+     * Other text should keep going through System.out.
+     * @param text the text to print
+     */
+    static void print(String text) {
+        Renderer renderer = instance;
+        if (renderer == null || System.out != renderer.printStream) {
+            System.out.print(text);
+            return;
+        }
+        byte[] encoded = ENCODED_TEXTS.computeIfAbsent(text, Renderer::encode);
+        renderer.printStream.write(encoded, 0, encoded.length);
+    }
+
+    /**
+     * Prints a text that never changes followed by a line separator, see {@link #print(String)}.
+     * @param text the text to print
+     */
+    static void printLine(String text) {
+        print(text);
+        Renderer renderer = instance;
+        if (renderer == null || System.out != renderer.printStream) {
+            System.out.println();
+            return;
+        }
+        renderer.printStream.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+    }
+
+    /**
+     * Prints a text that changes from turn to turn followed by a line separator, without keeping its encoded form.
+     * @param text the text to print
+     */
+    static void printChangingLine(String text) {
+        Renderer renderer = instance;
+        if (renderer == null || System.out != renderer.printStream || !renderer.writeAscii(text)) {
+            System.out.println(text);
+            return;
+        }
+        renderer.printStream.write(LINE_SEPARATOR, 0, LINE_SEPARATOR.length);
+    }
+
+    private static byte[] encode(String text) {
+        return text.getBytes(Charset.defaultCharset());
+    }
+
+    private static boolean isAsciiCompatible(Charset charset) {
+        byte[] ascii = new byte[128];
+        for (int i = 0; i < ascii.length; i++) {
+            ascii[i] = (byte) i;
+        }
+        return Arrays.equals(ascii, new String(ascii, StandardCharsets.US_ASCII).getBytes(charset));
+    }
+
+    /**
+     * Copies a text into the buffer, one byte per char, if it is plain ASCII and the console encodes ASCII as is.
+     * @return false if nothing was copied
+     */
+    private synchronized boolean writeAscii(String text) {
+        if (!ASCII_CHARSET) {
+            return false;
+        }
+        int length = text.length();
+        for (int i = 0; i < length; i++) {
+            if (text.charAt(i) >= 0x80) {
+                return false;
+            }
+        }
+        try {
+            ensureCapacity(length);
+        } catch (IOException e) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            buffer[size++] = (byte) text.charAt(i);
+        }
+        return true;
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException {
+        ensureCapacity(1);
+        buffer[size++] = (byte) b;
+    }
+
+    @Override
+    public synchronized void write(byte[] bytes, int offset, int length) throws IOException {
+        ensureCapacity(length);
+        System.arraycopy(bytes, offset, buffer, size, length);
+        size += length;
+    }
+
+    private void ensureCapacity(int extra) throws IOException {
+        if (size > 0 && size + extra > MAX_BUFFERED) {
+            console.write(buffer, 0, size);
+            size = 0;
+        }
+        if (size + extra > buffer.length) {
+            byte[] larger = new byte[Math.max(buffer.length * 2, size + extra)];
+            System.arraycopy(buffer, 0, larger, 0, size);
+            buffer = larger;
+        }
+    }
+
+    /**
+     * Writes everything collected since the last flush to the console in one call. The buffer is kept for the next
+     * turn.
+     */
+    @Override
+    public synchronized void flush() throws IOException {
+        if (size > 0) {
+            console.write(buffer, 0, size);
+            size = 0;
+        }
+        console.flush();
+    }
+}
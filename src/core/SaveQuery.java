@@ -0,0 +1,519 @@
+package core;
+
+import model.character.NPC;
+import model.character.Player;
+import model.item.Item;
+import model.world.Location;
+import model.world.Point;
+import persistence.GameState;
+import persistence.GameStateManager;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * SaveQuery answers questions about a whole archive of saves, like how many players died at the Abyss Edge or how much
+ * gold the players standing with the Village Merchant carry on average.
+ * Reading hundreds of thousands of saves for every question would take minutes, so the archive is first exported to
+ * a {@link SaveTable}: the saves are read in parallel, only their player and NPC sections, and every save becomes a row
+ * of a few numbers. A query then reads only the columns it needs, skips the row groups whose minimum and maximum
+ * values can't match its predicates, and scans the rest in parallel.
+ * Run it with "java core.SaveQuery export [saves directory] [table] [threads]" and
+ * "java core.SaveQuery query [table] [aggregate] [predicate]...", where the aggregate is count, list (the matching
+ * saves) or avg, sum, min or max of a column, like "avg:gold", and a predicate is a column, an operator
+ * (=, !=, &lt;, &lt;=, &gt; or &gt;=) and a value, like "gold&gt;=10".
+ * The columns are x, y, z, health, damage, defense, gold and dead (true or false), and a few more only take "=":
+ * location (the name of a location), with (the NPC at the position of the player), has (an item in the inventory),
+ * alive and killed (an NPC). For example: query saves.tbl count "location=Abyss Edge" dead=true
+ */
+class SaveQuery {
+    private final SaveTable table;
+    private final SaveTable.Column aggregated;
+    private final String aggregate;
+    private final List<Predicate> predicates;
+
+    private enum Operator {
+        EQUAL("="), NOT_EQUAL("!="), LESS("<"), LESS_OR_EQUAL("<="), GREATER(">"), GREATER_OR_EQUAL(">=");
+
+        private final String symbol;
+
+        Operator(String symbol) {
+            this.symbol = symbol;
+        }
+
+        boolean test(double value, double operand) {
+            return switch (this) {
+                case EQUAL -> value == operand;
+                case NOT_EQUAL -> value != operand;
+                case LESS -> value < operand;
+                case LESS_OR_EQUAL -> value <= operand;
+                case GREATER -> value > operand;
+                case GREATER_OR_EQUAL -> value >= operand;
+            };
+        }
+
+        /**
+         * @return false if no value between min and max can pass the test
+         */
+        boolean mayPass(double min, double max, double operand) {
+            return switch (this) {
+                case EQUAL -> min <= operand && operand <= max;
+                case NOT_EQUAL -> min != operand || max != operand;
+                case LESS -> min < operand;
+                case LESS_OR_EQUAL -> min <= operand;
+                case GREATER -> max > operand;
+                case GREATER_OR_EQUAL -> max >= operand;
+            };
+        }
+    }
+
+    /**
+     * A condition on the rows, checked first against the statistics of a row group and then against its rows.
+     */
+    private interface Predicate {
+        /**
+         * @return false if no row of the group can match, so the group doesn't have to be read
+         */
+        boolean mayMatch(SaveTable table, int group);
+
+        /**
+         * Unselects the rows of the group that don't match.
+         */
+        void filter(SaveTable table, int group, boolean[] selected);
+    }
+
+    private static final class Comparison implements Predicate {
+        private final SaveTable.Column column;
+        private final Operator operator;
+        private final double operand;
+
+        Comparison(SaveTable.Column column, Operator operator, double operand) {
+            this.column = column;
+            this.operator = operator;
+            this.operand = operand;
+        }
+
+        @Override
+        public boolean mayMatch(SaveTable table, int group) {
+            return operator.mayPass(table.getMin(group, column), table.getMax(group, column), operand);
+        }
+
+        @Override
+        public void filter(SaveTable table, int group, boolean[] selected) {
+            ByteBuffer values = table.column(group, column);
+            for (int row = 0; row < selected.length; row++) {
+                if (selected[row] && !operator.test(SaveTable.number(values, column, row), operand)) {
+                    selected[row] = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Matches the rows whose player stands on one of the given points, the points of a location.
+     */
+    private static final class AtPoints implements Predicate {
+        private final List<Point> points;
+
+        AtPoints(List<Point> points) {
+            this.points = points;
+        }
+
+        @Override
+        public boolean mayMatch(SaveTable table, int group) {
+            for (Point point : points) {
+                if (within(table, group, SaveTable.Column.X, point.getX()) &&
+                        within(table, group, SaveTable.Column.Y, point.getY()) &&
+                        within(table, group, SaveTable.Column.Z, point.getZ())) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private static boolean within(SaveTable table, int group, SaveTable.Column column, int value) {
+            return table.getMin(group, column) <= value && value <= table.getMax(group, column);
+        }
+
+        @Override
+        public void filter(SaveTable table, int group, boolean[] selected) {
+            ByteBuffer x = table.column(group, SaveTable.Column.X);
+            ByteBuffer y = table.column(group, SaveTable.Column.Y);
+            ByteBuffer z = table.column(group, SaveTable.Column.Z);
+            for (int row = 0; row < selected.length; row++) {
+                if (!selected[row]) {
+                    continue;
+                }
+                int index = row * Integer.BYTES;
+                boolean found = false;
+                for (Point point : points) {
+                    if (x.getInt(index) == point.getX() && y.getInt(index) == point.getY() &&
+                            z.getInt(index) == point.getZ()) {
+                        found = true;
+                        break;
+                    }
+                }
+                selected[row] = found;
+            }
+        }
+    }
+
+    /**
+     * Matches the rows where a bit of a bit set column is set, or clear.
+     */
+    private static final class HasBit implements Predicate {
+        private final SaveTable.Column column;
+        private final long bit;
+        private final boolean set;
+
+        HasBit(SaveTable.Column column, long bit, boolean set) {
+            this.column = column;
+            this.bit = bit;
+            this.set = set;
+        }
+
+        @Override
+        public boolean mayMatch(SaveTable table, int group) {
+            return set ? (table.getAnyBits(group, column) & bit) != 0 : (table.getAllBits(group, column) & bit) == 0;
+        }
+
+        @Override
+        public void filter(SaveTable table, int group, boolean[] selected) {
+            ByteBuffer values = table.column(group, column);
+            for (int row = 0; row < selected.length; row++) {
+                if (selected[row] && ((values.getLong(row * Long.BYTES) & bit) != 0) != set) {
+                    selected[row] = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * The rows matched in some row groups, added up.
+     */
+    private static final class Result {
+        private long count;
+        private double sum;
+        private double min = Double.POSITIVE_INFINITY;
+        private double max = Double.NEGATIVE_INFINITY;
+        private final List<String> saves = new ArrayList<>();
+        private int groupsRead;
+        private long rowsRead;
+
+        Result merge(Result other) {
+            count += other.count;
+            sum += other.sum;
+            min = Math.min(min, other.min);
+            max = Math.max(max, other.max);
+            saves.addAll(other.saves);
+            groupsRead += other.groupsRead;
+            rowsRead += other.rowsRead;
+            return this;
+        }
+    }
+
+    /**
+     * Prepares a query.
+     * @param table the table to query
+     * @param aggregate count, list, or avg, sum, min or max followed by ':' and a column
+     * @param conditions the predicates, all of which a row has to match
+     * @throws IllegalArgumentException if the aggregate or a predicate is invalid
+     */
+    SaveQuery(SaveTable table, String aggregate, List<String> conditions) {
+        this.table = table;
+        int separator = aggregate.indexOf(':');
+        this.aggregate = (separator < 0 ? aggregate : aggregate.substring(0, separator)).toLowerCase(Locale.ROOT);
+        this.aggregated = separator >= 0 ? numberColumn(aggregate.substring(separator + 1)) : null;
+        if (!List.of("count", "list", "avg", "sum", "min", "max").contains(this.aggregate) ||
+                (aggregated == null) != (this.aggregate.equals("count") || this.aggregate.equals("list"))) {
+            throw new IllegalArgumentException("Invalid aggregate: " + aggregate);
+        }
+        this.predicates = new ArrayList<>();
+        for (String condition : conditions) {
+            predicates.add(parse(condition));
+        }
+    }
+
+    private Predicate parse(String condition) {
+        int start = 0;
+        while (start < condition.length() && "=!<>".indexOf(condition.charAt(start)) < 0) {
+            start++;
+        }
+        int end = start;
+        while (end < condition.length() && "=!<>".indexOf(condition.charAt(end)) >= 0) {
+            end++;
+        }
+        String name = condition.substring(0, start).trim().toLowerCase(Locale.ROOT);
+        String symbol = condition.substring(start, end);
+        String value = condition.substring(end).trim();
+        Operator operator = Arrays.stream(Operator.values()).filter(candidate -> candidate.symbol.equals(symbol))
+                .findFirst().orElseThrow(() -> new IllegalArgumentException("Invalid predicate: " + condition));
+        if (List.of("location", "with", "has", "alive", "killed").contains(name) && operator != Operator.EQUAL) {
+            throw new IllegalArgumentException("Only = can be used with " + name + ": " + condition);
+        }
+
+        switch (name) {
+            case "location" -> {
+                List<Point> points = new ArrayList<>();
+                for (Map.Entry<Point, Location> entry : World.getDefault().getGameMap().entrySet()) {
+                    if (entry.getValue().getName().equalsIgnoreCase(value)) {
+                        points.add(entry.getKey());
+                    }
+                }
+                if (points.isEmpty()) {
+                    throw new IllegalArgumentException("Unknown location: " + value);
+                }
+                return new AtPoints(points);
+            }
+            case "with" -> {
+                return new Comparison(SaveTable.Column.WITH, Operator.EQUAL, index(table.getNpcNames(), value));
+            }
+            case "has" -> {
+                return new HasBit(SaveTable.Column.ITEMS, 1L << index(table.getItemNames(), value), true);
+            }
+            case "alive", "killed" -> {
+                return new HasBit(SaveTable.Column.ALIVE, 1L << index(table.getNpcNames(), value),
+                        name.equals("alive"));
+            }
+            case "dead" -> {
+                return new Comparison(SaveTable.Column.DEAD, operator, Boolean.parseBoolean(value) ? 1 : 0);
+            }
+            default -> {
+                try {
+                    return new Comparison(numberColumn(name), operator, Double.parseDouble(value));
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("Invalid number: " + condition);
+                }
+            }
+        }
+    }
+
+    private static SaveTable.Column numberColumn(String name) {
+        for (SaveTable.Column column : SaveTable.Column.values()) {
+            if (column.name().equalsIgnoreCase(name) && column.type != SaveTable.Type.BITS &&
+                    column.type != SaveTable.Type.STRING && column != SaveTable.Column.WITH) {
+                return column;
+            }
+        }
+        throw new IllegalArgumentException("Unknown column: " + name);
+    }
+
+    private static int index(List<String> names, String name) {
+        for (int i = 0; i < names.size(); i++) {
+            if (names.get(i).equalsIgnoreCase(name)) {
+                return i;
+            }
+        }
+        throw new IllegalArgumentException("No save of the table has " + name);
+    }
+
+    /**
+     * Runs the query over every row group in parallel.
+     */
+    private Result run() {
+        return IntStream.range(0, table.getGroupCount()).parallel().mapToObj(this::scan)
+                .collect(Result::new, Result::merge, Result::merge);
+    }
+
+    private Result scan(int group) {
+        Result result = new Result();
+        for (Predicate predicate : predicates) {
+            if (!predicate.mayMatch(table, group)) {
+                return result;
+            }
+        }
+        result.groupsRead++;
+        result.rowsRead += table.getRows(group);
+        boolean[] selected = new boolean[table.getRows(group)];
+        Arrays.fill(selected, true);
+        for (Predicate predicate : predicates) {
+            predicate.filter(table, group, selected);
+        }
+
+        ByteBuffer values = aggregated != null ? table.column(group, aggregated) : null;
+        ByteBuffer saves = aggregate.equals("list") ? table.column(group, SaveTable.Column.SAVE) : null;
+        for (int row = 0; row < selected.length; row++) {
+            if (!selected[row]) {
+                continue;
+            }
+            result.count++;
+            if (values != null) {
+                double value = SaveTable.number(values, aggregated, row);
+                result.sum += value;
+                result.min = Math.min(result.min, value);
+                result.max = Math.max(result.max, value);
+            }
+            if (saves != null) {
+                result.saves.add(SaveTable.string(saves, selected.length, row));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the saves of a directory in parallel and writes their table.
+     * @param directory the archive of saves
+     * @param tablePath the table to write
+     * @param threads the number of saves read at the same time
+     * @return the number of saves exported and of files that couldn't be read
+     * @throws IOException if the directory can't be listed or the table can't be written
+     */
+    static long[] export(Path directory, Path tablePath, int threads) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).filter(path -> !path.toString().endsWith(".tmp")).sorted()
+                    .toList();
+        }
+        Map<Point, Location> gameMap = World.getDefault().getGameMap();
+        AtomicLong exported = new AtomicLong();
+        AtomicLong failed = new AtomicLong();
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try (SaveTable.Writer writer = new SaveTable.Writer(tablePath)) {
+            pool.invoke(new ExportTask(files, 0, files.size(), gameMap, writer, exported, failed));
+        } finally {
+            pool.shutdown();
+        }
+        return new long[]{exported.get(), failed.get()};
+    }
+
+    /**
+     * Exports a range of the saves, one row group at a time.
+     */
+    private static final class ExportTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+        private final List<Path> files;
+        private final int from;
+        private final int to;
+        private final Map<Point, Location> gameMap;
+        private final SaveTable.Writer writer;
+        private final AtomicLong exported;
+        private final AtomicLong failed;
+
+        ExportTask(List<Path> files, int from, int to, Map<Point, Location> gameMap, SaveTable.Writer writer,
+                   AtomicLong exported, AtomicLong failed) {
+            this.files = files;
+            this.from = from;
+            this.to = to;
+            this.gameMap = gameMap;
+            this.writer = writer;
+            this.exported = exported;
+            this.failed = failed;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > SaveTable.ROWS_PER_GROUP) {
+                int middle = from + (to - from) / 2 / SaveTable.ROWS_PER_GROUP * SaveTable.ROWS_PER_GROUP;
+                middle = Math.max(middle, from + SaveTable.ROWS_PER_GROUP);
+                invokeAll(new ExportTask(files, from, middle, gameMap, writer, exported, failed),
+                        new ExportTask(files, middle, to, gameMap, writer, exported, failed));
+                return;
+            }
+            SaveTable.Group group = new SaveTable.Group();
+            for (int i = from; i < to; i++) {
+                try {
+                    add(group, files.get(i));
+                } catch (IOException | ClassNotFoundException | RuntimeException e) {
+                    failed.incrementAndGet();
+                }
+            }
+            try {
+                writer.write(group);
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to write the table", e);
+            }
+            exported.addAndGet(group.size());
+        }
+
+        private void add(SaveTable.Group group, Path file) throws IOException, ClassNotFoundException {
+            GameState state = GameStateManager.loadCharacters(file.toString());
+            Player player = state.getPlayer();
+            Point position = player.getPosition();
+            Location location = gameMap.get(position);
+            boolean deadEnd = location != null && (location.getExits() == null || location.getExits().isEmpty());
+
+            long items = 0;
+            for (Item item : player.getInventory().getItems()) {
+                items |= writer.itemBit(item.getName());
+            }
+            long alive = 0;
+            int with = -1;
+            if (state.getNpcs() != null) {
+                for (NPC npc : state.getNpcs()) {
+                    long bit = writer.npcBit(npc.getName());
+                    if (npc.isAlive()) {
+                        alive |= bit;
+                        if (with < 0 && position.equals(npc.getPosition())) {
+                            with = Long.numberOfTrailingZeros(bit);
+                        }
+                    }
+                }
+            }
+            group.add(file.toString(), position.getX(), position.getY(), position.getZ(), player.getHealth(),
+                    player.getDamage(), player.getDefense(), player.getGold(), !player.isAlive() || deadEnd, with,
+                    items, alive);
+        }
+    }
+
+    private void print(Result result, long elapsed) {
+        String value = switch (aggregate) {
+            case "count", "list" -> String.valueOf(result.count);
+            case "avg" -> result.count == 0 ? "none" : String.format("%.2f", result.sum / result.count);
+            case "sum" -> String.format("%.2f", result.sum);
+            case "min" -> result.count == 0 ? "none" : String.format("%.2f", result.min);
+            default -> result.count == 0 ? "none" : String.format("%.2f", result.max);
+        };
+        if (aggregate.equals("list")) {
+            result.saves.forEach(System.out::println);
+        }
+        System.out.println(aggregate + (aggregated != null ? " " + aggregated.name().toLowerCase() : "") +
+                ": " + value + " (" + result.count + " matching saves; read " + result.groupsRead + " of " +
+                table.getGroupCount() + " row groups, " + result.rowsRead + " of " + table.getRowCount() +
+                " rows, in " + elapsed / 1_000_000 + " ms)");
+    }
+
+    /**
+     * Exports an archive or queries a table, see the description of the class.
+     * @param args "export", the saves directory, the table and the threads (all cores by default), or "query", the
+     *             table, the aggregate and the predicates
+     */
+    public static void main(String[] args) {
+        try {
+            if (args.length >= 3 && args[0].equals("export")) {
+                int threads = args.length > 3 ? Integer.parseInt(args[3]) :
+                        Runtime.getRuntime().availableProcessors();
+                long start = System.nanoTime();
+                long[] counts = export(Path.of(args[1]), Path.of(args[2]), threads);
+                System.out.println(counts[0] + " saves exported to " + args[2] + " in " +
+                        (System.nanoTime() - start) / 1_000_000 + " ms on " + threads + " threads" +
+                        (counts[1] > 0 ? ", " + counts[1] + " files couldn't be read" : ""));
+            } else if (args.length >= 3 && args[0].equals("query")) {
+                try (SaveTable table = SaveTable.open(Path.of(args[1]))) {
+                    long start = System.nanoTime();
+                    SaveQuery query = new SaveQuery(table, args[2], Arrays.asList(args).subList(3, args.length));
+                    Result result = query.run();
+                    query.print(result, System.nanoTime() - start);
+                }
+            } else {
+                System.out.println("Usage: java core.SaveQuery export [saves directory] [table] [threads]");
+                System.out.println("       java core.SaveQuery query [table] [aggregate] [predicate]...");
+            }
+        } catch (IOException e) {
+            System.err.println("Failed to run the query: " + e.getMessage());
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+        }
+    }
+}
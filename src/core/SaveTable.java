@@ -0,0 +1,444 @@
+package core;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * SaveTable is the columnar file {@link SaveQuery} exports an archive of saves to: one row per save, holding the
+ * position, stats and inventory of its player and which NPCs are still alive.
+ * The rows are stored in row groups of up to ROWS_PER_GROUP rows, and every column of a group is stored on its own,
+ * so a query only reads the columns it uses. The footer keeps the smallest and largest value of every column in every
+ * group (for the bit set columns, the bits set in any row and in all of the rows), which lets a query skip the groups
+ * that can't hold a matching row without reading them. The inventory and the living NPCs are bit sets over the
+ * names in the dictionaries of the footer.
+ * The file is laid out as a header, the column chunks of the groups, the footer and the position of the footer.
+ */
+final class SaveTable implements Closeable {
+    static final int MAGIC = 0x52504754; // "RPGT"
+    static final int VERSION = 1;
+    static final int ROWS_PER_GROUP = 4096;
+    static final int MAX_NAMES = Long.SIZE;
+
+    /**
+     * The columns of the table and how their values are stored.
+     */
+    enum Column {
+        X(Type.INT), Y(Type.INT), Z(Type.INT), HEALTH(Type.FLOAT), DAMAGE(Type.FLOAT), DEFENSE(Type.FLOAT),
+        GOLD(Type.INT), DEAD(Type.BYTE), WITH(Type.BYTE), ITEMS(Type.BITS), ALIVE(Type.BITS), SAVE(Type.STRING);
+
+        final Type type;
+
+        Column(Type type) {
+            this.type = type;
+        }
+    }
+
+    enum Type {
+        BYTE, INT, FLOAT, BITS, STRING
+    }
+
+    /**
+     * The rows of one row group while it is filled.
+     */
+    static final class Group {
+        private final int[] x = new int[ROWS_PER_GROUP];
+        private final int[] y = new int[ROWS_PER_GROUP];
+        private final int[] z = new int[ROWS_PER_GROUP];
+        private final float[] health = new float[ROWS_PER_GROUP];
+        private final float[] damage = new float[ROWS_PER_GROUP];
+        private final float[] defense = new float[ROWS_PER_GROUP];
+        private final int[] gold = new int[ROWS_PER_GROUP];
+        private final byte[] dead = new byte[ROWS_PER_GROUP];
+        private final byte[] with = new byte[ROWS_PER_GROUP];
+        private final long[] items = new long[ROWS_PER_GROUP];
+        private final long[] alive = new long[ROWS_PER_GROUP];
+        private final String[] saves = new String[ROWS_PER_GROUP];
+        private int size;
+
+        int size() {
+            return size;
+        }
+
+        void add(String save, int rowX, int rowY, int rowZ, float rowHealth, float rowDamage, float rowDefense,
+                 int rowGold, boolean rowDead, int rowWith, long rowItems, long rowAlive) {
+            x[size] = rowX;
+            y[size] = rowY;
+            z[size] = rowZ;
+            health[size] = rowHealth;
+            damage[size] = rowDamage;
+            defense[size] = rowDefense;
+            gold[size] = rowGold;
+            dead[size] = (byte) (rowDead ? 1 : 0);
+            with[size] = (byte) rowWith;
+            items[size] = rowItems;
+            alive[size] = rowAlive;
+            saves[size] = save;
+            size++;
+        }
+
+        private double number(Column column, int row) {
+            return switch (column) {
+                case X -> x[row];
+                case Y -> y[row];
+                case Z -> z[row];
+                case HEALTH -> health[row];
+                case DAMAGE -> damage[row];
+                case DEFENSE -> defense[row];
+                case GOLD -> gold[row];
+                case DEAD -> dead[row];
+                case WITH -> with[row];
+                default -> 0;
+            };
+        }
+    }
+
+    /**
+     * Where a column chunk of a group is and what values it holds.
+     */
+    private static final class Chunk {
+        private long offset;
+        private int length;
+        private double min;
+        private double max;
+        private long anyBits;
+        private long allBits;
+    }
+
+    private final FileChannel channel;
+    private final ByteBuffer file;
+    private final List<String> itemNames;
+    private final List<String> npcNames;
+    private final List<Chunk[]> chunks;
+    private final int[] groupRows;
+    private final long rows;
+
+    private SaveTable(FileChannel channel, ByteBuffer file, List<String> itemNames, List<String> npcNames,
+                      List<Chunk[]> chunks, int[] groupRows) {
+        this.channel = channel;
+        this.file = file;
+        this.itemNames = itemNames;
+        this.npcNames = npcNames;
+        this.chunks = chunks;
+        this.groupRows = groupRows;
+        long total = 0;
+        for (int count : groupRows) {
+            total += count;
+        }
+        this.rows = total;
+    }
+
+    /**
+     * Maps a table for querying.
+     * @param path the file of the table
+     * @return the table
+     * @throws IOException if the file can't be read or isn't a table
+     */
+    static SaveTable open(Path path) throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        try {
+            ByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            if (file.limit() < 16 || file.getInt(0) != MAGIC || file.getInt(file.limit() - 4) != MAGIC) {
+                throw new IOException("Not a save table: " + path);
+            }
+            if (file.getInt(4) > VERSION) {
+                throw new IOException("The table was written by a newer version of the game: " + path);
+            }
+            ByteBuffer footer = file.duplicate().order(ByteOrder.LITTLE_ENDIAN);
+            footer.position((int) file.getLong(file.limit() - 12));
+            List<String> itemNames = readNames(footer);
+            List<String> npcNames = readNames(footer);
+            int groups = footer.getInt();
+            int[] groupRows = new int[groups];
+            List<Chunk[]> chunks = new ArrayList<>(groups);
+            for (int group = 0; group < groups; group++) {
+                groupRows[group] = footer.getInt();
+                Chunk[] columns = new Chunk[Column.values().length];
+                for (int column = 0; column < columns.length; column++) {
+                    Chunk chunk = new Chunk();
+                    chunk.offset = footer.getLong();
+                    chunk.length = footer.getInt();
+                    chunk.min = footer.getDouble();
+                    chunk.max = footer.getDouble();
+                    chunk.anyBits = footer.getLong();
+                    chunk.allBits = footer.getLong();
+                    columns[column] = chunk;
+                }
+                chunks.add(columns);
+            }
+            return new SaveTable(channel, file, itemNames, npcNames, chunks, groupRows);
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e instanceof IOException io ? io : new IOException("Damaged save table: " + path, e);
+        }
+    }
+
+    int getGroupCount() {
+        return groupRows.length;
+    }
+
+    int getRows(int group) {
+        return groupRows[group];
+    }
+
+    long getRowCount() {
+        return rows;
+    }
+
+    List<String> getItemNames() {
+        return itemNames;
+    }
+
+    List<String> getNpcNames() {
+        return npcNames;
+    }
+
+    double getMin(int group, Column column) {
+        return chunks.get(group)[column.ordinal()].min;
+    }
+
+    double getMax(int group, Column column) {
+        return chunks.get(group)[column.ordinal()].max;
+    }
+
+    /**
+     * @return the bits set in at least one row of the group
+     */
+    long getAnyBits(int group, Column column) {
+        return chunks.get(group)[column.ordinal()].anyBits;
+    }
+
+    /**
+     * @return the bits set in every row of the group
+     */
+    long getAllBits(int group, Column column) {
+        return chunks.get(group)[column.ordinal()].allBits;
+    }
+
+    /**
+     * @return the values of a column in a group, read with the absolute getters of the type of the column
+     */
+    ByteBuffer column(int group, Column column) {
+        Chunk chunk = chunks.get(group)[column.ordinal()];
+        return file.slice((int) chunk.offset, chunk.length).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /**
+     * @return the number value of a row, from a chunk returned by {@link #column}
+     */
+    static double number(ByteBuffer chunk, Column column, int row) {
+        return switch (column.type) {
+            case BYTE -> chunk.get(row);
+            case INT -> chunk.getInt(row * Integer.BYTES);
+            case FLOAT -> chunk.getFloat(row * Float.BYTES);
+            default -> throw new IllegalArgumentException("Not a number column: " + column);
+        };
+    }
+
+    /**
+     * @return the string of a row, from a chunk of the SAVE column
+     */
+    static String string(ByteBuffer chunk, int rows, int row) {
+        int start = chunk.getInt(row * Integer.BYTES);
+        int end = chunk.getInt((row + 1) * Integer.BYTES);
+        byte[] bytes = new byte[end - start];
+        chunk.get((rows + 1) * Integer.BYTES + start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private static List<String> readNames(ByteBuffer footer) {
+        int count = footer.getInt();
+        List<String> names = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte[] bytes = new byte[footer.getShort() & 0xFFFF];
+            footer.get(bytes);
+            names.add(new String(bytes, StandardCharsets.UTF_8));
+        }
+        return names;
+    }
+
+    /**
+     * Writes a table. The groups can be filled by several threads at once, and each is written as soon as it is
+     * complete, so the rows never all have to be in memory.
+     */
+    static final class Writer implements Closeable {
+        private final FileChannel channel;
+        private final List<String> itemNames = new ArrayList<>();
+        private final List<String> npcNames = new ArrayList<>();
+        private final List<Chunk[]> chunks = new ArrayList<>();
+        private final List<Integer> groupRows = new ArrayList<>();
+        private long position;
+
+        Writer(Path path) throws IOException {
+            channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            write(ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN).putInt(MAGIC).putInt(VERSION).flip());
+        }
+
+        /**
+         * @return the bit of an item name in the ITEMS column
+         * @throws IllegalStateException if there are more than MAX_NAMES item names
+         */
+        synchronized long itemBit(String name) {
+            return bit(itemNames, name);
+        }
+
+        /**
+         * @return the bit of an NPC name in the ALIVE column, also its index in the WITH column
+         * @throws IllegalStateException if there are more than MAX_NAMES NPC names
+         */
+        synchronized long npcBit(String name) {
+            return bit(npcNames, name);
+        }
+
+        private static long bit(List<String> names, String name) {
+            int index = names.indexOf(name);
+            if (index < 0) {
+                if (names.size() == MAX_NAMES) {
+                    throw new IllegalStateException("More than " + MAX_NAMES + " names: " + name);
+                }
+                names.add(name);
+                index = names.size() - 1;
+            }
+            return 1L << index;
+        }
+
+        /**
+         * Writes a complete group.
+         * @param group the group
+         * @throws IOException if the file can't be written
+         */
+        void write(Group group) throws IOException {
+            if (group.size == 0) {
+                return;
+            }
+            Chunk[] columns = new Chunk[Column.values().length];
+            ByteBuffer[] encoded = new ByteBuffer[columns.length];
+            for (Column column : Column.values()) {
+                Chunk chunk = new Chunk();
+                encoded[column.ordinal()] = encode(group, column, chunk);
+                columns[column.ordinal()] = chunk;
+            }
+            synchronized (this) {
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i].offset = position;
+                    columns[i].length = encoded[i].remaining();
+                    write(encoded[i]);
+                }
+                chunks.add(columns);
+                groupRows.add(group.size);
+            }
+        }
+
+        private static ByteBuffer encode(Group group, Column column, Chunk chunk) {
+            int rows = group.size;
+            ByteBuffer buffer;
+            switch (column.type) {
+                case BITS -> {
+                    long[] values = column == Column.ITEMS ? group.items : group.alive;
+                    buffer = ByteBuffer.allocate(rows * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+                    chunk.allBits = -1L;
+                    for (int row = 0; row < rows; row++) {
+                        buffer.putLong(values[row]);
+                        chunk.anyBits |= values[row];
+                        chunk.allBits &= values[row];
+                    }
+                }
+                case STRING -> {
+                    byte[][] strings = new byte[rows][];
+                    int total = 0;
+                    for (int row = 0; row < rows; row++) {
+                        strings[row] = group.saves[row].getBytes(StandardCharsets.UTF_8);
+                        total += strings[row].length;
+                    }
+                    buffer = ByteBuffer.allocate((rows + 1) * Integer.BYTES + total).order(ByteOrder.LITTLE_ENDIAN);
+                    int offset = 0;
+                    for (int row = 0; row <= rows; row++) {
+                        buffer.putInt(offset);
+                        offset += row < rows ? strings[row].length : 0;
+                    }
+                    for (byte[] string : strings) {
+                        buffer.put(string);
+                    }
+                }
+                default -> {
+                    int width = column.type == Type.BYTE ? 1 : 4;
+                    buffer = ByteBuffer.allocate(rows * width).order(ByteOrder.LITTLE_ENDIAN);
+                    chunk.min = Double.POSITIVE_INFINITY;
+                    chunk.max = Double.NEGATIVE_INFINITY;
+                    for (int row = 0; row < rows; row++) {
+                        double value = group.number(column, row);
+                        chunk.min = Math.min(chunk.min, value);
+                        chunk.max = Math.max(chunk.max, value);
+                        switch (column.type) {
+                            case BYTE -> buffer.put((byte) value);
+                            case INT -> buffer.putInt((int) value);
+                            default -> buffer.putFloat((float) value);
+                        }
+                    }
+                }
+            }
+            return buffer.flip();
+        }
+
+        private void write(ByteBuffer buffer) throws IOException {
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer);
+            }
+        }
+
+        /**
+         * Writes the footer and closes the file.
+         */
+        @Override
+        public synchronized void close() throws IOException {
+            try {
+                long footerPosition = position;
+                int size = 3 * Integer.BYTES + chunks.size() * (Integer.BYTES + Column.values().length *
+                        (Long.BYTES + Integer.BYTES + 2 * Double.BYTES + 2 * Long.BYTES)) + Long.BYTES + Integer.BYTES;
+                for (String name : itemNames) {
+                    size += 2 + name.getBytes(StandardCharsets.UTF_8).length;
+                }
+                for (String name : npcNames) {
+                    size += 2 + name.getBytes(StandardCharsets.UTF_8).length;
+                }
+                ByteBuffer footer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+                writeNames(footer, itemNames);
+                writeNames(footer, npcNames);
+                footer.putInt(chunks.size());
+                for (int group = 0; group < chunks.size(); group++) {
+                    footer.putInt(groupRows.get(group));
+                    for (Chunk chunk : chunks.get(group)) {
+                        footer.putLong(chunk.offset).putInt(chunk.length).putDouble(chunk.min).putDouble(chunk.max)
+                                .putLong(chunk.anyBits).putLong(chunk.allBits);
+                    }
+                }
+                footer.putLong(footerPosition).putInt(MAGIC);
+                write(footer.flip());
+            } finally {
+                channel.close();
+            }
+        }
+
+        private static void writeNames(ByteBuffer footer, List<String> names) {
+            footer.putInt(names.size());
+            for (String name : names) {
+                byte[] bytes = name.getBytes(StandardCharsets.UTF_8);
+                footer.putShort((short) bytes.length).put(bytes);
+            }
+        }
+    }
+}
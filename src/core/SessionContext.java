@@ -0,0 +1,125 @@
+package core;
+
+import model.character.NPC;
+import model.character.Player;
+import model.item.Item;
+
+import java.util.List;
+import java.util.Scanner;
+
+/**
+ * SessionContext owns the managers of one game session: input, navigation, combat, inventory, interactions, NPC
+ * behaviour and route planning. They are wired together once, when the context is created, and the things they share
+ * with every other session (the map, its exit graph and its triggers) come from the {@link World}.
+ * A context is bound to the player, NPCs and items of a game with {@link #bind}, which resets every manager, and
+ * given back to its world when the game is over, so the next session reuses the managers and their buffers.
+ * Binding a context also stops the turn history of the previous game; a game that offers undo starts it with
+ * {@link HistoryManager#track}.
+ */
+final class SessionContext {
+    private final World world;
+    private final InputHandler inputHandler;
+    private final NavigationManager navigationManager;
+    private final CombatManager combatManager;
+    private final InventoryInteraction inventoryInteraction;
+    private final InteractionManager interactionManager;
+    private final NPCBehaviourManager npcBehaviourManager;
+    private final CommandBatch commandBatch;
+    private final HistoryManager historyManager;
+    private Player player;
+    private List<NPC> individuals;
+    private List<Item> items;
+
+    /**
+     * Creates the managers of a session on the given world. Use {@link World#acquireSession()} instead, which reuses
+     * released contexts.
+     * @param world the world the session plays on
+     */
+    SessionContext(World world) {
+        this.world = world;
+        this.inputHandler = new InputHandler();
+        this.navigationManager = new NavigationManager(world.getGameMap(), inputHandler);
+        this.combatManager = new CombatManager();
+        this.inventoryInteraction = new InventoryInteraction(inputHandler, combatManager);
+        this.npcBehaviourManager = new NPCBehaviourManager(world.getGraph());
+        this.historyManager = new HistoryManager(HistoryManager.DEFAULT_DEPTH, npcBehaviourManager);
+        this.interactionManager = new InteractionManager(inputHandler, inventoryInteraction, combatManager,
+                historyManager);
+        this.commandBatch = new CommandBatch(world.getGraph());
+    }
+
+    /**
+     * Points every manager at the given game.
+     * @param player the player character
+     * @param individuals the NPCs of the game
+     * @param items the items on the ground
+     * @param scanner the scanner to read user input from, or null for sessions that don't read the console
+     */
+    void bind(Player player, List<NPC> individuals, List<Item> items, Scanner scanner) {
+        this.player = player;
+        this.individuals = individuals;
+        this.items = items;
+        inputHandler.reset(scanner);
+        navigationManager.reset(player);
+        combatManager.reset(player, individuals, items);
+        inventoryInteraction.reset(player, items);
+        interactionManager.reset(player);
+        npcBehaviourManager.reset(individuals);
+        historyManager.reset();
+    }
+
+    /**
+     * Lets go of the game the context was bound to.
+     */
+    void unbind() {
+        bind(null, null, null, null);
+    }
+
+    World getWorld() {
+        return world;
+    }
+
+    Player getPlayer() {
+        return player;
+    }
+
+    List<NPC> getIndividuals() {
+        return individuals;
+    }
+
+    List<Item> getItems() {
+        return items;
+    }
+
+    InputHandler getInputHandler() {
+        return inputHandler;
+    }
+
+    NavigationManager getNavigationManager() {
+        return navigationManager;
+    }
+
+    CombatManager getCombatManager() {
+        return combatManager;
+    }
+
+    InventoryInteraction getInventoryInteraction() {
+        return inventoryInteraction;
+    }
+
+    InteractionManager getInteractionManager() {
+        return interactionManager;
+    }
+
+    NPCBehaviourManager getNPCBehaviourManager() {
+        return npcBehaviourManager;
+    }
+
+    CommandBatch getCommandBatch() {
+        return commandBatch;
+    }
+
+    HistoryManager getHistoryManager() {
+        return historyManager;
+    }
+}
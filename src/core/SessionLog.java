@@ -0,0 +1,214 @@
+package core;
+
+import persistence.GameState;
+import persistence.GameStateManager;
+import persistence.TelemetryLog;
+import persistence.WriteAheadLog;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * SessionLog keeps the input of one game in the {@link WriteAheadLog}, so a game whose process dies between two
+ * autosaves can be played again up to its last command.
+ * The turns of the game only depend on its state and on what the player types, so the lines typed are all the log
+ * needs. They are replayed on top of the base of the session, a snapshot taken when the game was started or loaded:
+ * the state the game keeps outside of the saves, like the routes of the NPCs and the turn history, starts over at
+ * that point too, so replaying from there gives back the very same game. An autosave only tells which session the
+ * game belongs to and how far it got.
+ * While the lines are replayed, what the game prints is held back, and only the output of the last turn is shown
+ * once the game has caught up. The telemetry of the replayed turns was recorded when they were first played, so it
+ * is muted until then. The marketplace is shared with the other players and has moved on since, so the operations of
+ * the game on it carry a key made of the session and the line they were typed on, see {@link #nextOperationKey()}:
+ * the marketplace doesn't do an operation it has the key of again, it only gives its outcome back to the game.
+ */
+final class SessionLog {
+    private static final String BASE_SUFFIX = ".base";
+
+    private final WriteAheadLog log;
+    private final long sessionId;
+    private final Deque<WriteAheadLog.Record> replay = new ArrayDeque<>();
+    private long sequence;
+    private long lineSequence;
+    private int operations;
+    private long position;
+    private boolean failed;
+    private int replayed;
+    private PrintStream console;
+    private ByteArrayOutputStream heldBack;
+
+    /**
+     * Creates the log of a session.
+     * @param log the log shared by the sessions
+     * @param sessionId the session of the game
+     * @param sequence the sequence of the last record of the session the game includes
+     */
+    SessionLog(WriteAheadLog log, long sessionId, long sequence) {
+        this.log = log;
+        this.sessionId = sessionId;
+        this.sequence = sequence;
+    }
+
+    long getSessionId() {
+        return sessionId;
+    }
+
+    long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * @return the base snapshot of the given session
+     */
+    static Path basePath(WriteAheadLog log, long sessionId) {
+        return log.getDirectory().resolve(Long.toHexString(sessionId) + BASE_SUFFIX);
+    }
+
+    /**
+     * Makes the given state the base of the session: the records it includes are no longer needed.
+     * @param state the state of the game as it was just bound, holding this session and its sequence
+     * @throws IOException if the snapshot can't be written
+     */
+    void writeBase(GameState state) throws IOException {
+        GameStateManager.saveGame(state, basePath(log, sessionId).toString());
+        log.checkpoint(sessionId, sequence);
+    }
+
+    /**
+     * Queues the lines of the given records to be read before the input of the player, holding back the output of
+     * the game until they are all read.
+     * @param records the records of the session after its base
+     */
+    void replay(List<WriteAheadLog.Record> records) {
+        for (WriteAheadLog.Record record : records) {
+            if (record.getType() == WriteAheadLog.INPUT) {
+                replay.add(record);
+            }
+            sequence = record.getSequence();
+        }
+        if (!replay.isEmpty()) {
+            console = System.out;
+            heldBack = new ByteArrayOutputStream();
+            System.setOut(new PrintStream(heldBack, true, StandardCharsets.UTF_8));
+            TelemetryLog.setMuted(true);
+        }
+    }
+
+    /**
+     * @return the next line to replay, or null once the game has caught up
+     */
+    String nextReplayedLine() {
+        WriteAheadLog.Record record = replay.poll();
+        if (record != null) {
+            heldBack.reset(); // only the output of the last turn is shown
+            replayed++;
+            startLine(record.getSequence());
+            return new String(record.getPayload(), StandardCharsets.UTF_8);
+        }
+        catchUp();
+        return null;
+    }
+
+    /**
+     * Shows the output held back while replaying, once the game has caught up or has ended during the replay.
+     */
+    private void catchUp() {
+        if (console != null) {
+            TelemetryLog.setMuted(false);
+            System.setOut(console);
+            System.out.println("Recovered " + replayed + " commands played after the last save.");
+            System.out.print(heldBack.toString(StandardCharsets.UTF_8));
+            console = null;
+            heldBack = null;
+        }
+    }
+
+    /**
+     * Appends a line typed by the player.
+     * @param line the line
+     */
+    void record(String line) {
+        append(WriteAheadLog.INPUT, line.getBytes(StandardCharsets.UTF_8));
+        startLine(failed ? 0 : sequence);
+    }
+
+    private void startLine(long lineSequence) {
+        this.lineSequence = lineSequence;
+        this.operations = 0;
+    }
+
+    /**
+     * Returns the key of the next operation of the game on the marketplace: the session, the sequence of the line
+     * being played and how many operations that line did before. The same line played again by a replay gives the
+     * same keys.
+     * @return the key, or null if the line isn't in the log and so will never be replayed
+     */
+    String nextOperationKey() {
+        if (lineSequence == 0) {
+            return null;
+        }
+        return Long.toHexString(sessionId) + ":" + lineSequence + ":" + operations++;
+    }
+
+    /**
+     * Waits until every line recorded so far is durable.
+     */
+    void sync() {
+        if (failed || position == 0) {
+            return;
+        }
+        try {
+            log.awaitDurable(position);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    /**
+     * Ends the session once the game is over: nothing of it will be replayed, so its records and base are dropped.
+     */
+    void end() {
+        catchUp();
+        append(WriteAheadLog.END, new byte[0]);
+        sync();
+        drop(log, sessionId);
+    }
+
+    /**
+     * Drops the records and the base of a session that will never be replayed.
+     * @param log the log shared by the sessions
+     * @param sessionId the session
+     */
+    static void drop(WriteAheadLog log, long sessionId) {
+        log.checkpoint(sessionId, Long.MAX_VALUE);
+        try {
+            Files.deleteIfExists(basePath(log, sessionId));
+        } catch (IOException e) {
+            System.err.println("Failed to delete the base of the game: " + e.getMessage());
+        }
+    }
+
+    private void append(byte type, byte[] payload) {
+        if (failed) {
+            return;
+        }
+        try {
+            position = log.append(sessionId, ++sequence, type, payload);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    private void fail(IOException e) {
+        failed = true;
+        System.err.println("The write-ahead log failed, the game is only kept by its autosaves from now on: " +
+                e.getMessage());
+    }
+}
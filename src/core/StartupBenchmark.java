@@ -0,0 +1,86 @@
+package core;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the time-to-first-prompt of the game: the time between launching a new JVM and the start menu asking for
+ * an option. Each configuration is launched several times and the fastest and average times are reported, so the
+ * default launch can be compared with the fast-start launch (pre-baked world and class-data sharing archive).
+ * Usage: java -cp rpg-game.jar core.StartupBenchmark [runs] [world file] [archive file]
+ */
+class StartupBenchmark {
+    private static final String DEFAULT_WORLD = "default_world.bin";
+    private static final String DEFAULT_ARCHIVE = "rpg-game.jsa";
+
+    public static void main(String[] args) throws IOException, InterruptedException {
+        int runs = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        String worldFile = args.length > 1 ? args[1] : DEFAULT_WORLD;
+        String archiveFile = args.length > 2 ? args[2] : DEFAULT_ARCHIVE;
+
+        runConfiguration("default", List.of(), runs);
+
+        if (Files.isReadable(Path.of(worldFile))) {
+            runConfiguration("pre-baked world", List.of("-D" + MapManager.WORLD_FILE_PROPERTY + "=" + worldFile),
+                    runs);
+            if (Files.isReadable(Path.of(archiveFile))) {
+                runConfiguration("pre-baked world + CDS", List.of("-XX:SharedArchiveFile=" + archiveFile,
+                        "-D" + MapManager.WORLD_FILE_PROPERTY + "=" + worldFile), runs);
+            } else {
+                System.out.println("No class-data sharing archive found at " + archiveFile + ", skipping.");
+            }
+        } else {
+            System.out.println("No pre-baked world found at " + worldFile + ", skipping fast-start runs.");
+        }
+    }
+
+    private static void runConfiguration(String name, List<String> jvmOptions, int runs)
+            throws IOException, InterruptedException {
+        launch(jvmOptions); // warm up the file system cache
+
+        long total = 0;
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < runs; i++) {
+            long elapsed = launch(jvmOptions);
+            total += elapsed;
+            best = Math.min(best, elapsed);
+        }
+        System.out.printf("%-24s best %4d ms, average %4d ms over %d runs%n", name, best, total / runs, runs);
+    }
+
+    /**
+     * Launches the game in a new JVM and waits for the start menu prompt, then answers it with "Exit".
+     * @param jvmOptions extra options passed to the new JVM
+     * @return the time in milliseconds until the prompt was printed
+     */
+    private static long launch(List<String> jvmOptions) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(Path.of(System.getProperty("java.home"), "bin", "java").toString());
+        command.addAll(jvmOptions);
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(GameManager.class.getName());
+
+        long start = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+
+        Reader reader = new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8);
+        String prompt = GameManager.START_PROMPT;
+        int matched = 0;
+        int c;
+        while (matched < prompt.length() && (c = reader.read()) != -1) {
+            matched = c == prompt.charAt(matched) ? matched + 1 : (c == prompt.charAt(0) ? 1 : 0);
+        }
+        long elapsed = (System.nanoTime() - start) / 1_000_000;
+
+        try (Writer writer = new OutputStreamWriter(process.getOutputStream(), StandardCharsets.UTF_8)) {
+            writer.write("3\n");
+        }
+        process.waitFor();
+        return elapsed;
+    }
+}
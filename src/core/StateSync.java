@@ -0,0 +1,261 @@
+package core;
+
+import model.character.NPC;
+import model.character.Player;
+import model.item.Gold;
+import model.item.Item;
+import model.world.Location;
+import model.world.Point;
+
+import java.nio.ByteBuffer;
+import java.util.*;
+
+/**
+ * StateSync keeps a binary client up to date with the state it sees: its position and location, the NPCs and the
+ * items on its location, its inventory and its stats. Instead of sending all of it every turn, it remembers what was
+ * sent at each turn and, once the client acknowledges a turn, only sends what changed since that turn.
+ * Every group of the state is sent whole when it changes (the location, the list of NPCs, ...), so applying a change
+ * twice or on top of a newer state gives the same result, and a client that acknowledges late or not at all still
+ * ends up with the right state.
+ * Names and descriptions are sent as string ids. The text of an id is sent once per connection, in a DEFINE frame just
+ * before the first STATE frame that uses it; TCP delivers them in order so they don't need acknowledging.
+ */
+class StateSync {
+    static final byte POSITION = 1;
+    static final byte NPCS = 2;
+    static final byte GROUND = 4;
+    static final byte INVENTORY = 8;
+    static final byte STATS = 16;
+
+    private static final int HISTORY = 32;
+    private static final int INITIAL_CAPACITY = 1024;
+    private static final Map<String, Integer> STRING_IDS = new HashMap<>();
+    private static final List<String> STRINGS = new ArrayList<>();
+
+    private final Snapshot[] history = new Snapshot[HISTORY];
+    private final Snapshot empty = new Snapshot();
+    private final BitSet knownStrings = new BitSet();
+    private ByteBuffer frames = ByteBuffer.allocate(INITIAL_CAPACITY);
+    private int ackedTurn = -1;
+
+    /**
+     * The state of the client at one turn. The lists hold string ids and are reused when the slot of the history is.
+     */
+    private static final class Snapshot {
+        private int turn = -1;
+        private int x;
+        private int y;
+        private int z;
+        private int name = -1;
+        private int description = -1;
+        private final IdList npcs = new IdList();
+        private final IdList ground = new IdList();
+        private final IdList inventory = new IdList();
+        private float health;
+        private float damage;
+        private float defense;
+        private int gold;
+
+        boolean samePosition(Snapshot other) {
+            return x == other.x && y == other.y && z == other.z && name == other.name &&
+                    description == other.description;
+        }
+
+        boolean sameStats(Snapshot other) {
+            return health == other.health && damage == other.damage && defense == other.defense && gold == other.gold;
+        }
+    }
+
+    /**
+     * A reusable list of string ids.
+     */
+    private static final class IdList {
+        private int[] ids = new int[4];
+        private int size;
+
+        void add(int id) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+            }
+            ids[size++] = id;
+        }
+
+        boolean sameAs(IdList other) {
+            return Arrays.equals(ids, 0, size, other.ids, 0, other.size);
+        }
+    }
+
+    StateSync() {
+        for (int i = 0; i < HISTORY; i++) {
+            history[i] = new Snapshot();
+        }
+    }
+
+    /**
+     * Returns the id of a string, the same for every client.
+     */
+    private static synchronized int stringId(String text) {
+        Integer id = STRING_IDS.get(text);
+        if (id == null) {
+            id = STRINGS.size();
+            STRINGS.add(text);
+            STRING_IDS.put(text, id);
+        }
+        return id;
+    }
+
+    private static synchronized String stringOf(int id) {
+        return STRINGS.get(id);
+    }
+
+    /**
+     * Records that the client has applied everything up to the given turn.
+     * @param turn the turn from the client's acknowledgement
+     */
+    void acknowledge(int turn) {
+        if (turn > ackedTurn && turn >= 0 && history[turn % HISTORY].turn == turn) {
+            ackedTurn = turn;
+        }
+    }
+
+    /**
+     * Records the state of the client at the given turn and encodes what changed since the last acknowledged turn:
+     * the DEFINE frames of the strings the client doesn't know yet followed by one STATE frame.
+     * @param turn the turn that just ended
+     * @param player the client's player
+     * @param location the player's location
+     * @param npcs every NPC of the client's game
+     * @param items every item on the ground in the client's game
+     * @return the encoded frames, ready to be read and valid until the next call, empty if nothing changed
+     */
+    ByteBuffer writeChanges(int turn, Player player, Location location, List<NPC> npcs, List<Item> items) {
+        Snapshot current = history[turn % HISTORY];
+        capture(current, turn, player, location, npcs, items);
+        Snapshot baseline = ackedTurn >= 0 && history[ackedTurn % HISTORY].turn == ackedTurn ?
+                history[ackedTurn % HISTORY] : empty;
+
+        byte changes = 0;
+        changes |= current.samePosition(baseline) ? 0 : POSITION;
+        changes |= current.npcs.sameAs(baseline.npcs) ? 0 : NPCS;
+        changes |= current.ground.sameAs(baseline.ground) ? 0 : GROUND;
+        changes |= current.inventory.sameAs(baseline.inventory) ? 0 : INVENTORY;
+        changes |= current.sameStats(baseline) ? 0 : STATS;
+
+        frames.clear();
+        if (changes != 0) {
+            if ((changes & POSITION) != 0) {
+                define(current.name);
+                define(current.description);
+            }
+            defineAll(changes, NPCS, current.npcs);
+            defineAll(changes, GROUND, current.ground);
+            defineAll(changes, INVENTORY, current.inventory);
+            writeState(changes, current);
+        }
+        frames.flip();
+        return frames;
+    }
+
+    private void capture(Snapshot snapshot, int turn, Player player, Location location, List<NPC> npcs,
+                         List<Item> items) {
+        Point position = player.getPosition();
+        snapshot.turn = turn;
+        snapshot.x = position.getX();
+        snapshot.y = position.getY();
+        snapshot.z = position.getZ();
+        snapshot.name = location == null ? -1 : stringId(location.getName());
+        snapshot.description = location == null ? -1 : stringId(location.getDescription());
+
+        snapshot.npcs.size = 0;
+        for (NPC npc : npcs) {
+            if (npc.isAlive() && npc.getPosition().equals(position)) {
+                snapshot.npcs.add(stringId(npc.getName()));
+            }
+        }
+        snapshot.ground.size = 0;
+        for (Item item : items) {
+            if (position.equals(item.getSpawnPoint())) {
+                snapshot.ground.add(stringId(item.getName()));
+            }
+        }
+        snapshot.inventory.size = 0;
+        for (Item item : player.getInventory().getItems()) {
+            if (!(item instanceof Gold)) {
+                snapshot.inventory.add(stringId(item.getName()));
+            }
+        }
+        snapshot.health = player.getHealth();
+        snapshot.damage = player.getDamage();
+        snapshot.defense = player.getDefense();
+        snapshot.gold = player.getGold();
+    }
+
+    private void defineAll(byte changes, byte group, IdList ids) {
+        if ((changes & group) != 0) {
+            for (int i = 0; i < ids.size; i++) {
+                define(ids.ids[i]);
+            }
+        }
+    }
+
+    private void define(int id) {
+        if (id < 0 || knownStrings.get(id)) {
+            return;
+        }
+        knownStrings.set(id);
+        String text = stringOf(id);
+        ensureCapacity(Protocol.HEADER_SIZE + 8 + text.length() * 3);
+        int frame = Protocol.beginFrame(frames, Protocol.DEFINE);
+        Protocol.putVarInt(frames, id);
+        Protocol.putString(frames, text);
+        Protocol.endFrame(frames, frame);
+    }
+
+    /**
+     * Writes the STATE frame: a byte with a bit for every group that changed, then the groups in the order of the bits.
+     * Coordinates are zig-zag varints, ids and counts are varints.
+     */
+    private void writeState(byte changes, Snapshot current) {
+        ensureCapacity(Protocol.HEADER_SIZE + 64 +
+                5 * (current.npcs.size + current.ground.size + current.inventory.size));
+        int frame = Protocol.beginFrame(frames, Protocol.STATE);
+        frames.put(changes);
+        if ((changes & POSITION) != 0) {
+            Protocol.putVarInt(frames, Protocol.zigZag(current.x));
+            Protocol.putVarInt(frames, Protocol.zigZag(current.y));
+            Protocol.putVarInt(frames, Protocol.zigZag(current.z));
+            Protocol.putVarInt(frames, current.name + 1);
+            Protocol.putVarInt(frames, current.description + 1);
+        }
+        if ((changes & NPCS) != 0) {
+            putIds(current.npcs);
+        }
+        if ((changes & GROUND) != 0) {
+            putIds(current.ground);
+        }
+        if ((changes & INVENTORY) != 0) {
+            putIds(current.inventory);
+        }
+        if ((changes & STATS) != 0) {
+            frames.putFloat(current.health).putFloat(current.damage).putFloat(current.defense);
+            Protocol.putVarInt(frames, current.gold);
+        }
+        Protocol.endFrame(frames, frame);
+    }
+
+    private void putIds(IdList ids) {
+        Protocol.putVarInt(frames, ids.size);
+        for (int i = 0; i < ids.size; i++) {
+            Protocol.putVarInt(frames, ids.ids[i]);
+        }
+    }
+
+    private void ensureCapacity(int bytes) {
+        if (frames.remaining() < bytes) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(frames.capacity() * 2, frames.position() + bytes));
+            frames.flip();
+            larger.put(frames);
+            frames = larger;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+package core;
+
+import model.character.Player;
+import model.world.Location;
+import model.world.Point;
+
+import java.util.*;
+import java.util.function.Predicate;
+
+/**
+ * TriggerManager holds the scripted rules of the world: conditions that fire an outcome when the player enters a
+ * location, stands on it at the start of a turn, picks up an item or defeats an NPC. Winning the game with the key at
+ * the princess's location and dying on a location without exits are both triggers.
+ * Triggers are indexed by event type and then by the location or the name they are about, so every event only looks
+ * at the triggers of its own tile or name instead of going through all of them. Once built the triggers never change,
+ * so one TriggerManager can be shared by every game on the same map.
+ */
+class TriggerManager {
+    /**
+     * The events a trigger can listen to. Location events are keyed by the Point of the location, the others by the
+     * name of the item or the NPC.
+     */
+    enum Event { ENTER_LOCATION, AT_LOCATION, ITEM_ACQUIRED, NPC_DEFEATED }
+
+    /**
+     * What happens to the game when a trigger fires.
+     */
+    enum Outcome { CONTINUE, WIN, DEATH }
+
+    private final Map<Point, Location> gameMap;
+    private final EnumMap<Event, Map<Object, List<Trigger>>> triggers = new EnumMap<>(Event.class);
+
+    /**
+     * A rule: when its event happens for its key, and the player holds the required item if there is one, it prints
+     * its message and ends with its outcome. Otherwise it prints the message for a missing item, if any, and the game
+     * goes on.
+     */
+    static final class Trigger {
+        private final Event event;
+        private final Object key;
+        private String requiredItem;
+        private Outcome outcome = Outcome.CONTINUE;
+        private String message;
+        private String missingItemMessage;
+        private boolean describesLocation;
+
+        private Trigger(Event event, Object key) {
+            this.event = event;
+            this.key = key;
+        }
+
+        static Trigger onEnter(Point point) {
+            return new Trigger(Event.ENTER_LOCATION, point);
+        }
+
+        static Trigger onLocation(Point point) {
+            return new Trigger(Event.AT_LOCATION, point);
+        }
+
+        static Trigger onItemAcquired(String itemName) {
+            return new Trigger(Event.ITEM_ACQUIRED, itemName);
+        }
+
+        static Trigger onNPCDefeated(String npcName) {
+            return new Trigger(Event.NPC_DEFEATED, npcName);
+        }
+
+        Trigger requiring(String itemName, String missingItemMessage) {
+            this.requiredItem = itemName;
+            this.missingItemMessage = missingItemMessage;
+            return this;
+        }
+
+        Trigger then(Outcome outcome, String message) {
+            this.outcome = outcome;
+            this.message = message;
+            return this;
+        }
+
+        /**
+         * Prints the description of the location before the message, for outcomes that end the game before the
+         * location would be shown at the start of the next turn.
+         */
+        Trigger describingLocation() {
+            this.describesLocation = true;
+            return this;
+        }
+    }
+
+    /**
+     * Creates an empty TriggerManager for the given map.
+     * @param gameMap the map whose locations the location triggers are about
+     */
+    TriggerManager(Map<Point, Location> gameMap) {
+        this.gameMap = gameMap;
+        for (Event event : Event.values()) {
+            triggers.put(event, new HashMap<>());
+        }
+    }
+
+    void add(Trigger trigger) {
+        triggers.get(trigger.event).computeIfAbsent(trigger.key, key -> new ArrayList<>()).add(trigger);
+    }
+
+    /**
+     * @return true if something is scripted to happen on the given location
+     */
+    boolean hasLocationTriggers(Point point) {
+        return triggers.get(Event.ENTER_LOCATION).containsKey(point) ||
+                triggers.get(Event.AT_LOCATION).containsKey(point);
+    }
+
+    /**
+     * Works out what firing the triggers of an event would do, without printing anything or touching a player. Used
+     * by simulations that keep their own state instead of a Player.
+     * @param event the event that happened
+     * @param key the Point of the location, or the name of the item or NPC
+     * @param carries tells whether the player holds an item, by name
+     * @return the outcome {@link #fire} would return
+     */
+    Outcome outcomeOf(Event event, Object key, Predicate<String> carries) {
+        List<Trigger> candidates = triggers.get(event).get(key);
+        if (candidates == null) {
+            return Outcome.CONTINUE;
+        }
+        for (int i = 0; i < candidates.size(); i++) {
+            Trigger trigger = candidates.get(i);
+            if (trigger.requiredItem == null || carries.test(trigger.requiredItem)) {
+                if (trigger.outcome != Outcome.CONTINUE) {
+                    return trigger.outcome;
+                }
+            }
+        }
+        return Outcome.CONTINUE;
+    }
+
+    /**
+     * Fires the triggers of an event in the order they were added. The first one that ends the game stops the rest.
+     * @param event the event that happened
+     * @param key the Point of the location, or the name of the item or NPC
+     * @param player the player, whose inventory the conditions look at and who dies on a DEATH outcome
+     * @return the outcome of the event, CONTINUE if no trigger ended the game
+     */
+    Outcome fire(Event event, Object key, Player player) {
+        List<Trigger> candidates = triggers.get(event).get(key);
+        if (candidates == null) {
+            return Outcome.CONTINUE;
+        }
+        for (int i = 0; i < candidates.size(); i++) {
+            Trigger trigger = candidates.get(i);
+            if (trigger.requiredItem != null && player.getItem(trigger.requiredItem) == null) {
+                if (trigger.missingItemMessage != null) {
+                    System.out.println(trigger.missingItemMessage);
+                }
+                continue;
+            }
+            if (trigger.describesLocation && gameMap.get(key) != null) {
+                Renderer.printLine(gameMap.get(key).getDescription());
+            }
+            if (trigger.message != null) {
+                System.out.println(trigger.message);
+            }
+            if (trigger.outcome == Outcome.DEATH) {
+                player.setHealth(0);
+            }
+            if (trigger.outcome != Outcome.CONTINUE) {
+                return trigger.outcome;
+            }
+        }
+        return Outcome.CONTINUE;
+    }
+}
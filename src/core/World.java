@@ -0,0 +1,92 @@
+package core;
+
+import model.world.Location;
+import model.world.Point;
+
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A World is everything the sessions playing on the same map share: the map itself, its exit graph and its triggers.
+ * None of them change once the world is built, so any number of sessions, on any thread, can use them at once.
+ * The world also keeps a pool of released {@link SessionContext}s, so starting a session usually reuses the managers
+ * of a finished one instead of creating them again.
+ */
+final class World {
+    private static final int MAX_POOLED_SESSIONS = 256;
+    private static World defaultWorld;
+
+    private final MapManager mapManager;
+    private final WorldGraph graph;
+    private final TriggerManager triggerManager;
+    private final Queue<SessionContext> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+
+    /**
+     * Creates a world around the given map.
+     * @param mapManager the map of the world
+     */
+    World(MapManager mapManager) {
+        this.mapManager = mapManager;
+        Map<Point, Location> gameMap = mapManager.getGameMap();
+        this.graph = new WorldGraph(gameMap);
+        this.triggerManager = GameManager.createTriggers(gameMap);
+    }
+
+    /**
+     * Returns the default world, loading it the first time.
+     * @return the default world
+     */
+    static synchronized World getDefault() {
+        if (defaultWorld == null) {
+            defaultWorld = new World(MapManager.load());
+        }
+        return defaultWorld;
+    }
+
+    MapManager getMapManager() {
+        return mapManager;
+    }
+
+    Map<Point, Location> getGameMap() {
+        return mapManager.getGameMap();
+    }
+
+    WorldGraph getGraph() {
+        return graph;
+    }
+
+    TriggerManager getTriggerManager() {
+        return triggerManager;
+    }
+
+    /**
+     * Returns a session context for this world, reusing a released one when there is one. The context must be bound to
+     * a game with {@link SessionContext#bind} before it is used.
+     * @return an unbound session context
+     */
+    SessionContext acquireSession() {
+        SessionContext session = pool.poll();
+        if (session == null) {
+            return new SessionContext(this);
+        }
+        pooled.decrementAndGet();
+        return session;
+    }
+
+    /**
+     * Gives a session context back to the pool once its game is over. The context lets go of the game it was bound
+     * to, so the game can be collected while the managers wait for the next session.
+     * @param session the context to release, which must not be used afterward
+     */
+    void releaseSession(SessionContext session) {
+        session.unbind();
+        if (pooled.incrementAndGet() <= MAX_POOLED_SESSIONS) {
+            pool.add(session);
+        } else {
+            pooled.decrementAndGet();
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package core;
+
+import model.world.Location;
+import model.world.Point;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Reads and writes a pre-baked world file, so a launch can map a ready-made world instead of building it again.
+ * The file holds a string table (every description id and name is stored once, even the repeated filler
+ * descriptions; the texts themselves stay in the {@link model.text.TextStore}) followed by the locations and their exits as plain integers. Loading memory-maps the file and decodes it in a
+ * single pass without going through Java serialization.
+ */
+class WorldFile {
+    private static final int MAGIC = 0x52504757; // "RPGW"
+    private static final int VERSION = 2;
+
+    private WorldFile() {
+    }
+
+    /**
+     * Writes the given world to the given file.
+     * @param gameMap the world to write
+     * @param path the file to write to
+     * @throws IOException if the file cannot be written
+     */
+    static void write(Map<Point, Location> gameMap, Path path) throws IOException {
+        Map<String, Integer> stringIds = new LinkedHashMap<>();
+        for (Location location : gameMap.values()) {
+            stringIds.putIfAbsent(location.getDescriptionId(), stringIds.size());
+            stringIds.putIfAbsent(location.getName(), stringIds.size());
+        }
+
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(path.toFile())))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+
+            out.writeInt(stringIds.size());
+            for (String string : stringIds.keySet()) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            out.writeInt(gameMap.size());
+            for (Map.Entry<Point, Location> entry : gameMap.entrySet()) {
+                Location location = entry.getValue();
+                writePoint(out, entry.getKey());
+                out.writeInt(stringIds.get(location.getDescriptionId()));
+                out.writeInt(stringIds.get(location.getName()));
+
+                List<Point> exits = location.getExits();
+                out.writeInt(exits == null ? -1 : exits.size());
+                if (exits != null) {
+                    for (Point exit : exits) {
+                        writePoint(out, exit);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Memory-maps the given file and decodes the world it holds.
+     * @param path the file to read
+     * @return the decoded world
+     * @throws IOException if the file cannot be read or is not a world file
+     */
+    static HashMap<Point, Location> read(Path path) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+                throw new IOException("Not a pre-baked world file: " + path);
+            }
+
+            String[] strings = new String[buffer.getInt()];
+            for (int i = 0; i < strings.length; i++) {
+                byte[] bytes = new byte[buffer.getInt()];
+                buffer.get(bytes);
+                strings[i] = new String(bytes, StandardCharsets.UTF_8).intern();
+            }
+
+            int locationCount = buffer.getInt();
+            HashMap<Point, Location> gameMap = new HashMap<>(locationCount * 2);
+            for (int i = 0; i < locationCount; i++) {
+                Point point = readPoint(buffer);
+                String descriptionId = strings[buffer.getInt()];
+                String name = strings[buffer.getInt()];
+
+                int exitCount = buffer.getInt();
+                List<Point> exits = null;
+                if (exitCount >= 0) {
+                    Point[] exitPoints = new Point[exitCount];
+                    for (int j = 0; j < exitCount; j++) {
+                        exitPoints[j] = readPoint(buffer);
+                    }
+                    exits = List.of(exitPoints);
+                }
+                gameMap.put(point, new Location(descriptionId, name, exits));
+            }
+            return gameMap;
+        } catch (RuntimeException e) {
+            throw new IOException("Corrupted pre-baked world file: " + path, e);
+        }
+    }
+
+    private static void writePoint(DataOutputStream out, Point point) throws IOException {
+        out.writeInt(point.getX());
+        out.writeInt(point.getY());
+        out.writeInt(point.getZ());
+    }
+
+    private static Point readPoint(ByteBuffer buffer) {
+        return new Point(buffer.getInt(), buffer.getInt(), buffer.getInt());
+    }
+}
@@ -0,0 +1,219 @@
+package core;
+
+import model.world.Location;
+import model.world.Point;
+
+import java.util.*;
+
+/**
+ * A compact, read-only view of the exit graph of the map. Every location gets an integer node id (ordered by z, y and
+ * x so the ids are the same on every run) and the exits are stored as flat int arrays, so systems that look at many
+ * NPCs each turn can walk the map without touching Point objects or the HashMap.
+ */
+class WorldGraph {
+    private final Point[] points;
+    private final Location[] locations;
+    private final int[] xs;
+    private final int[] ys;
+    private final int[] zs;
+    private final int minX;
+    private final int minY;
+    private final int minZ;
+    private final int width;
+    private final int depth;
+    private final int height;
+    private final int[] cells;
+    private final int[] exitStart;
+    private final int[] exitTargets;
+
+    /**
+     * Builds the graph from the given map.
+     * @param gameMap the game map with locations and exits
+     */
+    WorldGraph(Map<Point, Location> gameMap) {
+        points = gameMap.keySet().toArray(new Point[0]);
+        Arrays.sort(points, Comparator.comparingInt(Point::getZ).thenComparingInt(Point::getY)
+                .thenComparingInt(Point::getX));
+
+        locations = new Location[points.length];
+        xs = new int[points.length];
+        ys = new int[points.length];
+        zs = new int[points.length];
+        int lowX = Integer.MAX_VALUE, lowY = Integer.MAX_VALUE, lowZ = Integer.MAX_VALUE;
+        int highX = Integer.MIN_VALUE, highY = Integer.MIN_VALUE, highZ = Integer.MIN_VALUE;
+        for (int i = 0; i < points.length; i++) {
+            locations[i] = gameMap.get(points[i]);
+            xs[i] = points[i].getX();
+            ys[i] = points[i].getY();
+            zs[i] = points[i].getZ();
+            lowX = Math.min(lowX, xs[i]);
+            lowY = Math.min(lowY, ys[i]);
+            lowZ = Math.min(lowZ, zs[i]);
+            highX = Math.max(highX, xs[i]);
+            highY = Math.max(highY, ys[i]);
+            highZ = Math.max(highZ, zs[i]);
+        }
+
+        minX = points.length == 0 ? 0 : lowX;
+        minY = points.length == 0 ? 0 : lowY;
+        minZ = points.length == 0 ? 0 : lowZ;
+        width = points.length == 0 ? 0 : highX - lowX + 1;
+        depth = points.length == 0 ? 0 : highY - lowY + 1;
+        height = points.length == 0 ? 0 : highZ - lowZ + 1;
+        cells = new int[width * depth * height];
+        Arrays.fill(cells, -1);
+        for (int i = 0; i < points.length; i++) {
+            cells[cellIndex(xs[i], ys[i], zs[i])] = i;
+        }
+
+        exitStart = new int[points.length + 1];
+        List<Integer> targets = new ArrayList<>();
+        for (int i = 0; i < points.length; i++) {
+            exitStart[i] = targets.size();
+            List<Point> exits = locations[i].getExits();
+            if (exits != null) {
+                for (Point exit : exits) {
+                    int target = nodeOf(exit);
+                    if (target >= 0) {
+                        targets.add(target);
+                    }
+                }
+            }
+        }
+        exitStart[points.length] = targets.size();
+        exitTargets = targets.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    int size() {
+        return points.length;
+    }
+
+    /**
+     * Returns the node id of the given point.
+     * @param point the point to look up
+     * @return the node id or -1 if the point is not on the map
+     */
+    int nodeOf(Point point) {
+        return point == null ? -1 : nodeAt(point.getX(), point.getY(), point.getZ());
+    }
+
+    /**
+     * Returns the node id of the location at the given coordinates.
+     * @return the node id or -1 if there is no location there
+     */
+    int nodeAt(int x, int y, int z) {
+        if (x < minX || y < minY || z < minZ || x >= minX + width || y >= minY + depth || z >= minZ + height) {
+            return -1;
+        }
+        return cells[cellIndex(x, y, z)];
+    }
+
+    private int cellIndex(int x, int y, int z) {
+        return ((z - minZ) * depth + (y - minY)) * width + (x - minX);
+    }
+
+    int x(int node) {
+        return xs[node];
+    }
+
+    int y(int node) {
+        return ys[node];
+    }
+
+    int z(int node) {
+        return zs[node];
+    }
+
+    int minX() {
+        return minX;
+    }
+
+    int maxX() {
+        return minX + width - 1;
+    }
+
+    int minY() {
+        return minY;
+    }
+
+    int maxY() {
+        return minY + depth - 1;
+    }
+
+    int minZ() {
+        return minZ;
+    }
+
+    int maxZ() {
+        return minZ + height - 1;
+    }
+
+    Point pointOf(int node) {
+        return points[node];
+    }
+
+    Location locationOf(int node) {
+        return locations[node];
+    }
+
+    int exitCount(int node) {
+        return exitStart[node + 1] - exitStart[node];
+    }
+
+    int exit(int node, int index) {
+        return exitTargets[exitStart[node] + index];
+    }
+
+    boolean hasExit(int from, int to) {
+        for (int i = exitStart[from]; i < exitStart[from + 1]; i++) {
+            if (exitTargets[i] == to) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Finds the shortest path between two nodes following the exits.
+     * @param from the node to start from
+     * @param to the node to reach
+     * @return the nodes of the path, without the start node, or null if the target can't be reached
+     */
+    int[] shortestPath(int from, int to) {
+        if (from == to) {
+            return new int[0];
+        }
+        int[] previous = new int[points.length];
+        Arrays.fill(previous, -1);
+        previous[from] = from;
+
+        ArrayDeque<Integer> queue = new ArrayDeque<>();
+        queue.add(from);
+        while (!queue.isEmpty()) {
+            int node = queue.poll();
+            for (int i = exitStart[node]; i < exitStart[node + 1]; i++) {
+                int next = exitTargets[i];
+                if (previous[next] == -1) {
+                    previous[next] = node;
+                    if (next == to) {
+                        return buildPath(previous, from, to);
+                    }
+                    queue.add(next);
+                }
+            }
+        }
+        return null;
+    }
+
+    private int[] buildPath(int[] previous, int from, int to) {
+        int length = 0;
+        for (int node = to; node != from; node = previous[node]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int node = to, i = length - 1; node != from; node = previous[node], i--) {
+            path[i] = node;
+        }
+        return path;
+    }
+}
@@ -0,0 +1,126 @@
+package gameplay;
+
+import model.world.Point;
+
+import java.io.Serializable;
+
+/**
+ * ExplorationMap remembers which points of the world a player has been to, for the map of the explored area.
+ * The world is cut in chunks of CHUNK_SIZE x CHUNK_SIZE points on one level, and the points of a chunk are the 64
+ * bits of a single long. Only the chunks with a visited point are kept, in an open-addressing table keyed by the
+ * coordinates of the chunk, so the map grows with what the player has seen rather than with the size of the world,
+ * and marking a visit or looking up a point is one probe of the table without any allocation.
+ */
+public class ExplorationMap implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final int CHUNK_BITS = 3;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    private static final int INITIAL_CAPACITY = 16;
+
+    /** The coordinates of the chunk in every slot, packed by {@link #chunkKey}. */
+    private long[] keys = new long[INITIAL_CAPACITY];
+    /** The visited points of the chunk in every slot. An empty slot has no point visited. */
+    private long[] chunks = new long[INITIAL_CAPACITY];
+    private int chunkCount;
+    private int visitedCount;
+
+    /**
+     * Marks a point as visited.
+     * @param point the point the player is on
+     * @return true if the player had never been there
+     */
+    public boolean visit(Point point) {
+        long key = chunkKey(point.getX(), point.getY(), point.getZ());
+        long bit = bit(point.getX(), point.getY());
+        int slot = slot(key);
+        if (chunks[slot] == 0) {
+            if ((chunkCount + 1) * 2 > keys.length) {
+                grow();
+                slot = slot(key);
+            }
+            keys[slot] = key;
+            chunkCount++;
+        } else if ((chunks[slot] & bit) != 0) {
+            return false;
+        }
+        chunks[slot] |= bit;
+        visitedCount++;
+        return true;
+    }
+
+    /**
+     * @return true if the player has been to the given point
+     */
+    public boolean isVisited(int x, int y, int z) {
+        return (chunks[slot(chunkKey(x, y, z))] & bit(x, y)) != 0;
+    }
+
+    /**
+     * @return the number of points the player has been to
+     */
+    public int getVisitedCount() {
+        return visitedCount;
+    }
+
+    /**
+     * Prints the map of the level of the given point, the square of the points within the given distance of it, north
+     * at the top.
+     * @param position the position of the player, in the middle of the map
+     * @param radius how many points the map shows on every side of the player
+     */
+    public void display(Point position, int radius) {
+        StringBuilder map = new StringBuilder((2 * radius + 2) * (4 * radius + 4) + 64);
+        map.append("Explored map of level ").append(position.getZ())
+                .append(" (@ you, # explored, . unexplored):").append(System.lineSeparator());
+        for (int y = position.getY() + radius; y >= position.getY() - radius; y--) {
+            for (int x = position.getX() - radius; x <= position.getX() + radius; x++) {
+                char cell = x == position.getX() && y == position.getY() ? '@' :
+                        isVisited(x, y, position.getZ()) ? '#' : '.';
+                map.append(' ').append(cell);
+            }
+            map.append(System.lineSeparator());
+        }
+        System.out.print(map);
+    }
+
+    /**
+     * Packs the coordinates of the chunk of a point: 24 bits for each of the chunk's x and y and 16 bits for the
+     * level, which covers more than 67 million points in every direction.
+     */
+    private static long chunkKey(int x, int y, int z) {
+        long chunkX = (x >> CHUNK_BITS) & 0xFFFFFFL;
+        long chunkY = (y >> CHUNK_BITS) & 0xFFFFFFL;
+        return chunkX << 40 | chunkY << 16 | (z & 0xFFFFL);
+    }
+
+    private static long bit(int x, int y) {
+        return 1L << ((y & (CHUNK_SIZE - 1)) << CHUNK_BITS | (x & (CHUNK_SIZE - 1)));
+    }
+
+    /**
+     * Finds the slot of a chunk, or the empty slot where it would go.
+     */
+    private int slot(long key) {
+        int mask = keys.length - 1;
+        int hash = (int) (key ^ key >>> 32) * 0x9E3779B9;
+        int slot = (hash ^ hash >>> 16) & mask;
+        while (chunks[slot] != 0 && keys[slot] != key) {
+            slot = (slot + 1) & mask;
+        }
+        return slot;
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        long[] oldChunks = chunks;
+        keys = new long[oldKeys.length * 2];
+        chunks = new long[oldChunks.length * 2];
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldChunks[i] != 0) {
+                int slot = slot(oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                chunks[slot] = oldChunks[i];
+            }
+        }
+    }
+}
@@ -3,29 +3,45 @@ package gameplay;
 import model.item.Gold;
 import model.item.Item;
 import model.item.Potion;
+import persistence.PersistentList;
+import persistence.VersionedList;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
 
 /**
  * Inventory class that holds the player's items and gold. It has a space limit of 5 items.
+ * The items are kept in a {@link VersionedList}, so the turn history can keep earlier contents of the inventory
+ * without copying them. The saves written before that hold a plain list, which is copied into a versioned one when
+ * they are loaded.
  */
 public class Inventory implements Serializable {
+    private static final long serialVersionUID = 1L;
     private final int space = 5;
-    private final List<Item> inventory;
-    private final Gold gold;
+    private VersionedList<Item> inventory;
+    private Gold gold;
 
     /**
      * Constructor for Inventory class. Initializes the inventory with a gold object with a set amount of 0 gold coins
      * and an empty list of items with a maximum space of 5 items.
      */
      public Inventory() {
-        this.inventory = new ArrayList<>(space);
+        this.inventory = new VersionedList<>();
         this.gold = new Gold(0);
         inventory.add(this.gold);
     }
 
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        List<Item> items = (List<Item>) fields.get("inventory", null);
+        inventory = items instanceof VersionedList ? (VersionedList<Item>) items : new VersionedList<>(items);
+        gold = (Gold) fields.get("gold", null);
+    }
+
      public void addItem(Item item) {
         if (inventory.size() < space) {
             inventory.add(item);
@@ -42,6 +58,28 @@ public class Inventory implements Serializable {
         return space;
     }
 
+    /**
+     * @return the current contents of the inventory, which later changes don't affect
+     */
+    public PersistentList<Item> version() {
+        return inventory.version();
+    }
+
+    /**
+     * Puts back earlier contents of the inventory.
+     * @param version contents returned by {@link #version()}
+     */
+    public void restore(PersistentList<Item> version) {
+        inventory.restore(version);
+    }
+
+    /**
+     * @param changeListener called after every change to the items of the inventory, null for none
+     */
+    public void setChangeListener(Runnable changeListener) {
+        inventory.setChangeListener(changeListener);
+    }
+
 
      public List<Item> getItems() {
         return inventory;
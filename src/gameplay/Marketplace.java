@@ -0,0 +1,524 @@
+package gameplay;
+
+import model.character.Player;
+import model.item.Item;
+import model.item.ItemFactory;
+import model.item.ItemTemplate;
+import model.item.Weapon;
+import persistence.TradeLog;
+
+import java.io.*;
+import java.nio.file.Path;
+import java.util.*;
+
+/**
+ * Marketplace is an auction house shared by every player, where players list items for sale and bid for items listed
+ * by others. Every item template has its own order book with the offers (asks) sorted by lowest price and the bids
+ * sorted by highest price, older orders first at the same price, so finding and removing the best order costs
+ * O(log n) in the number of listings.
+ * Orders are not matched as they come in but once per turn, in a single batch for all the books that changed.
+ * A listed item and the gold of a bid are taken from the player when the order is placed. The gold of a sale, the
+ * change of a bid and the items bought wait in the marketplace until their owner collects them, so trades work even
+ * when the other player is not playing.
+ * Every change goes through the trade log first and the state is rebuilt from the log on start up, so the marketplace
+ * survives a crash. A batch of matches costs a single fsync.
+ * The orders and the gold and items waiting in the marketplace belong to the {@link Player#getId() id} of a player,
+ * not to their name, which every player shares.
+ * An operation of a player can carry a key, which goes into the trade log with its records. A game recovered from its
+ * own log plays its operations again with the same keys, and an operation whose key the marketplace has is not done
+ * again: the player only gets back its outcome, the gold and items it moved, as it was the first time.
+ */
+public class Marketplace {
+    private static final String LOG_FILE = "market_trades.log";
+    private static final int MAX_PRICE_FACTOR = 10;
+
+    private static final byte ASK = 1;
+    private static final byte BID = 2;
+    private static final byte FILL = 3;
+    private static final byte CANCEL = 4;
+    private static final byte COLLECT_GOLD = 5;
+    private static final byte COLLECT_ITEM = 6;
+    private static final byte KEYED = 7;
+
+    private static Marketplace instance;
+
+    private final TradeLog tradeLog;
+    private final Map<String, OrderBook> books = new HashMap<>();
+    private final Map<Long, Order> openOrders = new HashMap<>();
+    private final Map<String, Integer> pendingGold = new HashMap<>();
+    private final Map<String, List<Order>> pendingItems = new HashMap<>();
+    private final Set<OrderBook> changedBooks = new LinkedHashSet<>();
+    private final Map<String, Outcome> outcomes = new HashMap<>();
+    private long nextSeq = 1;
+
+    /**
+     * One order: an ask offers a listed item (with the durability it had left) for a price, a bid offers a price
+     * for any item of the template.
+     */
+    private static final class Order {
+        private final long seq;
+        private final String owner;
+        private final ItemTemplate template;
+        private final int price;
+        private final int durability;
+        private final boolean bid;
+
+        Order(long seq, String owner, ItemTemplate template, int price, int durability, boolean bid) {
+            this.seq = seq;
+            this.owner = owner;
+            this.template = template;
+            this.price = price;
+            this.durability = durability;
+            this.bid = bid;
+        }
+    }
+
+    /**
+     * What a keyed operation did for its player: the gold collected, the items collected and the orders cancelled.
+     * Listings and bids only need to be known as done.
+     */
+    private static final class Outcome {
+        private int gold;
+        private final List<Order> items = new ArrayList<>();
+        private int cancelled;
+    }
+
+    /**
+     * The asks and bids of one item template in price-time priority.
+     */
+    private static final class OrderBook {
+        private final ItemTemplate template;
+        private final PriorityQueue<Order> asks = new PriorityQueue<>(
+                Comparator.comparingInt((Order order) -> order.price).thenComparingLong(order -> order.seq));
+        private final PriorityQueue<Order> bids = new PriorityQueue<>(
+                Comparator.comparingInt((Order order) -> -order.price).thenComparingLong(order -> order.seq));
+
+        OrderBook(ItemTemplate template) {
+            this.template = template;
+        }
+    }
+
+    private Marketplace(TradeLog tradeLog) throws IOException {
+        this.tradeLog = tradeLog;
+        for (byte[] record : tradeLog.readAll()) {
+            apply(record);
+        }
+        changedBooks.addAll(books.values());
+    }
+
+    /**
+     * Returns the marketplace shared by every player, rebuilding it from the trade log the first time.
+     * @return the marketplace
+     * @throws IllegalStateException if the trade log cannot be opened
+     */
+    public static synchronized Marketplace getInstance() {
+        if (instance == null) {
+            try {
+                instance = new Marketplace(new TradeLog(Path.of(LOG_FILE)));
+            } catch (IOException e) {
+                throw new IllegalStateException("Failed to open the marketplace: " + e.getMessage(), e);
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * Lists an item from the player's inventory for sale. The item leaves the inventory right away.
+     * @param seller the player selling the item
+     * @param weapon the item to sell
+     * @param price the asking price
+     * @param key the key of the operation, or null
+     * @return true if the item was listed, false otherwise
+     */
+    public synchronized boolean listItem(Player seller, Weapon weapon, int price, String key) {
+        if (!isValidPrice(weapon.getTemplate(), price)) {
+            System.out.println("The price must be between 1 and " + maxPrice(weapon.getTemplate()) + " gold.");
+            return false;
+        }
+
+        long seq = nextSeq;
+        if (!outcomes.containsKey(key) && !record(key,
+                orderRecord(ASK, seq, owner(seller), weapon.getTemplate(), price, weapon.getDurability()))) {
+            return false;
+        }
+        seller.removeItem(weapon);
+        seller.removeStats(weapon);
+        System.out.println("You have listed " + weapon.getName() + " for " + price + " gold.");
+        return true;
+    }
+
+    /**
+     * Places a bid for an item. The gold of the bid leaves the player's inventory right away.
+     * @param buyer the player bidding
+     * @param itemName the name of the item to bid for
+     * @param price the most the player is willing to pay
+     * @param key the key of the operation, or null
+     * @return true if the bid was placed, false otherwise
+     */
+    public synchronized boolean placeBid(Player buyer, String itemName, int price, String key) {
+        ItemTemplate template = ItemTemplate.byName(itemName);
+        if (template == null || template.getPrice() == 0) {
+            System.out.println("There is no such item to bid for.");
+            return false;
+        }
+        if (!isValidPrice(template, price)) {
+            System.out.println("The price must be between 1 and " + maxPrice(template) + " gold.");
+            return false;
+        }
+        if (buyer.getGold() < price) {
+            System.out.println("You don't have enough gold for this bid.");
+            return false;
+        }
+
+        long seq = nextSeq;
+        if (!outcomes.containsKey(key) && !record(key, orderRecord(BID, seq, owner(buyer), template, price, 0))) {
+            return false;
+        }
+        buyer.removeGold(price);
+        System.out.println("You have placed a bid of " + price + " gold for " + template.getName() + ".");
+        return true;
+    }
+
+    /**
+     * Matches the books that changed since the last batch: while the best bid of a book pays at least the best ask,
+     * the two orders trade at the price of the older one. The whole batch is written to the trade log with a single
+     * fsync.
+     */
+    public synchronized void matchOrders() {
+        if (changedBooks.isEmpty()) {
+            return;
+        }
+        List<OrderBook> batch = new ArrayList<>(changedBooks);
+        changedBooks.clear();
+
+        for (OrderBook book : batch) {
+            while (!book.asks.isEmpty() && !book.bids.isEmpty() && book.bids.peek().price >= book.asks.peek().price) {
+                Order ask = book.asks.peek();
+                Order bid = book.bids.peek();
+                int price = ask.seq < bid.seq ? ask.price : bid.price;
+                tradeLog.append(fillRecord(bid.seq, ask.seq, price));
+                apply(fillRecord(bid.seq, ask.seq, price));
+            }
+        }
+        if (!sync()) {
+            reload();
+        }
+    }
+
+    /**
+     * Gives the player the gold and items waiting for them: gold from sales, change from bids and items bought.
+     * Items stay in the marketplace while the player's inventory is full or if the player already has a better one.
+     * @param player the player collecting
+     * @param key the key of the operation, or null
+     */
+    public synchronized void collect(Player player, String key) {
+        Outcome outcome = outcomes.get(key);
+        if (outcome != null) {
+            giveGold(player, outcome.gold);
+            for (Order order : outcome.items) {
+                giveItem(player, order);
+            }
+            return;
+        }
+
+        int gold = pendingGold.getOrDefault(owner(player), 0);
+        if (gold > 0 && record(key, collectGoldRecord(owner(player), gold))) {
+            giveGold(player, gold);
+        }
+
+        List<Order> items = new ArrayList<>(pendingItems.getOrDefault(owner(player), List.of()));
+        for (Order order : items) {
+            if (player.isInventoryFull()) {
+                System.out.println("Your inventory is full. The rest of your items wait at the marketplace.");
+                break;
+            }
+            if (giveItem(player, order)) {
+                record(key, itemRecord(COLLECT_ITEM, owner(player), order.seq));
+            }
+        }
+    }
+
+    private static void giveGold(Player player, int gold) {
+        if (gold > 0) {
+            player.addGold(gold);
+            System.out.println("You have collected " + gold + " gold from the marketplace.");
+        }
+    }
+
+    private static boolean giveItem(Player player, Order order) {
+        Item item = ItemFactory.createFromTemplate(order.template, order.durability);
+        if (!player.addItem(item)) {
+            return false;
+        }
+        player.addStats(item);
+        return true;
+    }
+
+    /**
+     * Cancels every open order of the player. Listed items and bid gold wait in the marketplace to be collected.
+     * @param player the player cancelling
+     * @param key the key of the operation, or null
+     */
+    public synchronized void cancelOrders(Player player, String key) {
+        Outcome outcome = outcomes.get(key);
+        if (outcome != null) {
+            System.out.println("You have cancelled " + outcome.cancelled + " orders.");
+            return;
+        }
+
+        List<Long> cancelled = new ArrayList<>();
+        for (Order order : openOrders.values()) {
+            if (order.owner.equals(owner(player))) {
+                cancelled.add(order.seq);
+            }
+        }
+        Collections.sort(cancelled);
+        for (long seq : cancelled) {
+            record(key, itemRecord(CANCEL, owner(player), seq));
+        }
+        System.out.println(cancelled.isEmpty() ? "You have no open orders." :
+                "You have cancelled " + cancelled.size() + " orders.");
+    }
+
+    public synchronized void displayMarket() {
+        System.out.println("Marketplace: ");
+        boolean empty = true;
+        for (OrderBook book : books.values()) {
+            if (book.asks.isEmpty() && book.bids.isEmpty()) {
+                continue;
+            }
+            empty = false;
+            System.out.println(book.template.getName() + " - " +
+                    (book.asks.isEmpty() ? "no offers" : book.asks.size() + " offered from " +
+                            book.asks.peek().price + " gold") + ", " +
+                    (book.bids.isEmpty() ? "no bids" : book.bids.size() + " bids up to " +
+                            book.bids.peek().price + " gold"));
+        }
+        if (empty) {
+            System.out.println("Nothing is being traded at the moment.");
+        }
+    }
+
+    private boolean isValidPrice(ItemTemplate template, int price) {
+        return price >= 1 && price <= maxPrice(template);
+    }
+
+    private int maxPrice(ItemTemplate template) {
+        return Math.max(1, template.getPrice() * MAX_PRICE_FACTOR);
+    }
+
+    /**
+     * Appends a record of an operation to the trade log, makes it durable and applies it to the marketplace. A record
+     * that could not be written is dropped from the log and never applied.
+     * @param key the key of the operation, or null
+     * @return true if the record was written, false otherwise
+     */
+    private boolean record(String key, byte[] record) {
+        if (key != null) {
+            record = keyedRecord(key, record);
+        }
+        tradeLog.append(record);
+        if (!sync()) {
+            return false;
+        }
+        apply(record);
+        return true;
+    }
+
+    /**
+     * Rebuilds the state of the marketplace from the trade log, after a batch of matches that was already applied
+     * could not be written. The books are matched again at the end of the next turn.
+     */
+    private void reload() {
+        books.clear();
+        openOrders.clear();
+        pendingGold.clear();
+        pendingItems.clear();
+        changedBooks.clear();
+        outcomes.clear();
+        try {
+            for (byte[] record : tradeLog.readAll()) {
+                apply(record);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Failed to reload the trade log", e);
+        }
+        changedBooks.addAll(books.values());
+    }
+
+    private static String owner(Player player) {
+        return Long.toHexString(player.getId());
+    }
+
+    private boolean sync() {
+        try {
+            tradeLog.sync();
+            return true;
+        } catch (IOException e) {
+            System.err.println("Failed to write the trade log: " + e.getMessage());
+            return false;
+        }
+    }
+
+    /**
+     * Applies one record of the trade log to the state of the marketplace. This is the only place the state
+     * changes, both for live trades and when the log is replayed on start up.
+     * @param record the encoded record
+     */
+    private void apply(byte[] record) {
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(record))) {
+            byte type = in.readByte();
+            switch (type) {
+                case ASK, BID -> {
+                    long seq = in.readLong();
+                    String owner = in.readUTF();
+                    ItemTemplate template = ItemTemplate.of(in.readUTF(), in.readInt(), in.readUTF(), in.readUTF());
+                    Order order = new Order(seq, owner, template, in.readInt(), in.readInt(), type == BID);
+                    OrderBook book = books.computeIfAbsent(template.getName().toLowerCase(),
+                            name -> new OrderBook(template));
+                    (order.bid ? book.bids : book.asks).add(order);
+                    openOrders.put(seq, order);
+                    changedBooks.add(book);
+                    nextSeq = Math.max(nextSeq, seq + 1);
+                }
+                case FILL -> {
+                    Order bid = removeOrder(in.readLong());
+                    Order ask = removeOrder(in.readLong());
+                    int price = in.readInt();
+                    addPendingGold(ask.owner, price);
+                    addPendingGold(bid.owner, bid.price - price);
+                    pendingItems.computeIfAbsent(bid.owner, owner -> new ArrayList<>()).add(ask);
+                }
+                case CANCEL -> {
+                    in.readUTF();
+                    Order order = removeOrder(in.readLong());
+                    if (order.bid) {
+                        addPendingGold(order.owner, order.price);
+                    } else {
+                        pendingItems.computeIfAbsent(order.owner, owner -> new ArrayList<>()).add(order);
+                    }
+                }
+                case COLLECT_GOLD -> addPendingGold(in.readUTF(), -in.readInt());
+                case COLLECT_ITEM -> {
+                    String owner = in.readUTF();
+                    long seq = in.readLong();
+                    List<Order> items = pendingItems.getOrDefault(owner, new ArrayList<>());
+                    items.removeIf(order -> order.seq == seq);
+                    if (items.isEmpty()) {
+                        pendingItems.remove(owner);
+                    }
+                }
+                case KEYED -> {
+                    Outcome outcome = outcomes.computeIfAbsent(in.readUTF(), key -> new Outcome());
+                    byte[] keyed = in.readAllBytes();
+                    DataInputStream body = new DataInputStream(new ByteArrayInputStream(keyed, 1, keyed.length - 1));
+                    switch (keyed[0]) {
+                        case COLLECT_GOLD -> {
+                            body.readUTF();
+                            outcome.gold += body.readInt();
+                        }
+                        case COLLECT_ITEM -> {
+                            String owner = body.readUTF();
+                            long seq = body.readLong();
+                            for (Order order : pendingItems.getOrDefault(owner, List.of())) {
+                                if (order.seq == seq) {
+                                    outcome.items.add(order);
+                                }
+                            }
+                        }
+                        case CANCEL -> outcome.cancelled++;
+                        default -> {
+                        }
+                    }
+                    apply(keyed);
+                }
+                default -> throw new IOException("Unknown trade log record " + type);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Corrupted trade log record", e);
+        }
+    }
+
+    private Order removeOrder(long seq) {
+        Order order = openOrders.remove(seq);
+        OrderBook book = books.get(order.template.getName().toLowerCase());
+        PriorityQueue<Order> queue = order.bid ? book.bids : book.asks;
+        if (queue.peek() == order) {
+            queue.poll();
+        } else {
+            queue.remove(order);
+        }
+        return order;
+    }
+
+    private void addPendingGold(String owner, int amount) {
+        int total = pendingGold.getOrDefault(owner, 0) + amount;
+        if (total == 0) {
+            pendingGold.remove(owner);
+        } else {
+            pendingGold.put(owner, total);
+        }
+    }
+
+    private static byte[] orderRecord(byte type, long seq, String owner, ItemTemplate template, int price,
+                                      int durability) {
+        return encode(out -> {
+            out.writeByte(type);
+            out.writeLong(seq);
+            out.writeUTF(owner);
+            out.writeUTF(template.getType());
+            out.writeInt(template.getTier());
+            out.writeUTF(template.getName());
+            out.writeUTF(template.getDescription());
+            out.writeInt(price);
+            out.writeInt(durability);
+        });
+    }
+
+    private static byte[] fillRecord(long bidSeq, long askSeq, int price) {
+        return encode(out -> {
+            out.writeByte(FILL);
+            out.writeLong(bidSeq);
+            out.writeLong(askSeq);
+            out.writeInt(price);
+        });
+    }
+
+    private static byte[] itemRecord(byte type, String owner, long seq) {
+        return encode(out -> {
+            out.writeByte(type);
+            out.writeUTF(owner);
+            out.writeLong(seq);
+        });
+    }
+
+    private static byte[] collectGoldRecord(String owner, int amount) {
+        return encode(out -> {
+            out.writeByte(COLLECT_GOLD);
+            out.writeUTF(owner);
+            out.writeInt(amount);
+        });
+    }
+
+    private static byte[] keyedRecord(String key, byte[] record) {
+        return encode(out -> {
+            out.writeByte(KEYED);
+            out.writeUTF(key);
+            out.write(record);
+        });
+    }
+
+    private interface RecordWriter {
+        void write(DataOutputStream out) throws IOException;
+    }
+
+    private static byte[] encode(RecordWriter writer) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            writer.write(out);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return bytes.toByteArray();
+    }
+}
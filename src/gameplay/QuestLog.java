@@ -0,0 +1,360 @@
+package gameplay;
+
+import model.character.NPC;
+import model.character.Player;
+import model.item.Gold;
+import model.item.Item;
+
+import java.io.Serializable;
+import java.util.*;
+
+/**
+ * QuestLog keeps the quests of a player and their progress. A quest is a sequence of steps, and each step is one
+ * objective: defeat some NPCs, pick up some items, pay an NPC or deliver items to an NPC.
+ * The game reports what happens (an NPC was defeated, an item was picked up, ...) and the log only looks at the
+ * objectives waiting for that kind of fact about that NPC or item. Only the current step of each quest is waiting,
+ * indexed by fact and by the names it matches, so a fact costs a few map lookups plus the objectives it actually
+ * advances, however many quests the player has. Nothing is checked between facts. A quest knows where it is in its
+ * index list, so moving it to its next step doesn't search the list either.
+ * An objective matches an NPC or an item by its name or by its kind (the name of its class or of any superclass,
+ * like "Goblin" or "Potion").
+ * The turn history keeps {@link #version() versions} of the progress, taken again only after the quests changed, so
+ * undoing a turn also takes back the progress made in it.
+ */
+public class QuestLog implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * The facts the game reports.
+     */
+    public enum Fact { DEFEATED, PICKED_UP, PAID, MET }
+
+    private final List<Quest> quests = new ArrayList<>();
+    private final EnumMap<Fact, Map<String, List<Quest>>> waiting = new EnumMap<>(Fact.class);
+    private final List<Quest> advanced = new ArrayList<>();
+    private transient Runnable changeListener;
+    private transient Version version;
+
+    /**
+     * A quest: its steps in order, the step the player is on and the gold it rewards when every step is done.
+     */
+    public static final class Quest implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final String name;
+        private final int reward;
+        private final List<Objective> steps = new ArrayList<>();
+        private int currentStep;
+        private int progress;
+        private int waitingIndex;
+
+        public Quest(String name, int reward) {
+            this.name = name;
+            this.reward = reward;
+        }
+
+        public Quest then(Objective objective) {
+            steps.add(objective);
+            return this;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isCompleted() {
+            return currentStep == steps.size();
+        }
+
+        private Objective objective() {
+            return steps.get(currentStep);
+        }
+    }
+
+    /**
+     * One step of a quest: a number of facts of one kind about the same subject. A delivery also needs the player to
+     * carry the items when they meet the NPC, and takes them.
+     */
+    public static final class Objective implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final Fact fact;
+        private final String subject;
+        private final int required;
+        private final String description;
+        private String deliveredKind;
+
+        private Objective(Fact fact, String subject, int required, String description) {
+            this.fact = fact;
+            this.subject = subject.toLowerCase();
+            this.required = required;
+            this.description = description;
+        }
+
+        public static Objective defeat(String npc, int count) {
+            return new Objective(Fact.DEFEATED, npc, count, "Defeat " + count + " " + npc);
+        }
+
+        public static Objective pickUp(String item, int count) {
+            return new Objective(Fact.PICKED_UP, item, count, "Pick up " + count + " " + item);
+        }
+
+        public static Objective pay(String npc) {
+            return new Objective(Fact.PAID, npc, 1, "Pay " + npc);
+        }
+
+        public static Objective deliver(String item, int count, String npc) {
+            Objective objective = new Objective(Fact.MET, npc, count,
+                    "Bring " + count + " " + item + " to " + npc);
+            objective.deliveredKind = item;
+            return objective;
+        }
+    }
+
+    /**
+     * The step and the progress of every quest at one point in time.
+     */
+    public static final class Version {
+        private final int[] steps;
+        private final int[] progress;
+
+        private Version(List<Quest> quests) {
+            this.steps = new int[quests.size()];
+            this.progress = new int[quests.size()];
+            for (int i = 0; i < quests.size(); i++) {
+                steps[i] = quests.get(i).currentStep;
+                progress[i] = quests.get(i).progress;
+            }
+        }
+    }
+
+    public QuestLog() {
+        for (Fact fact : Fact.values()) {
+            waiting.put(fact, new HashMap<>());
+        }
+    }
+
+    /**
+     * Gives the player a new quest, waiting for its first step.
+     * @param quest the quest to add
+     */
+    public void add(Quest quest) {
+        quests.add(quest);
+        if (!quest.isCompleted()) {
+            startWaiting(quest);
+        }
+        changed();
+    }
+
+    public List<Quest> getQuests() {
+        return quests;
+    }
+
+    public void recordDefeat(NPC npc, Player player) {
+        record(Fact.DEFEATED, npc.getName(), npc.getClass(), 1, player);
+    }
+
+    public void recordPickup(Item item, Player player) {
+        record(Fact.PICKED_UP, item.getName(), item.getClass(),
+                item instanceof Gold ? ((Gold) item).getAmount() : 1, player);
+    }
+
+    public void recordPayment(NPC npc, Player player) {
+        record(Fact.PAID, npc.getName(), npc.getClass(), 1, player);
+    }
+
+    public void recordMeeting(NPC npc, Player player) {
+        record(Fact.MET, npc.getName(), npc.getClass(), 1, player);
+    }
+
+    /**
+     * Advances the objectives waiting for a fact about the given subject, under its name and every kind it has.
+     * The quests are collected first and advanced afterward, so a quest moving on to a step that waits for the same
+     * fact doesn't count it twice.
+     */
+    private void record(Fact fact, String name, Class<?> kind, int amount, Player player) {
+        Map<String, List<Quest>> byKey = waiting.get(fact);
+        String nameKey = name.toLowerCase();
+        collect(byKey.get(nameKey));
+        for (Class<?> type = kind; type != null && type != Object.class; type = type.getSuperclass()) {
+            String kindKey = type.getSimpleName().toLowerCase();
+            if (!kindKey.equals(nameKey)) {
+                collect(byKey.get(kindKey));
+            }
+        }
+
+        boolean changed = !advanced.isEmpty();
+        for (int i = 0; i < advanced.size(); i++) {
+            advance(advanced.get(i), amount, player);
+        }
+        advanced.clear();
+        if (changed) {
+            changed();
+        }
+    }
+
+    /**
+     * @param changeListener called after every change to the progress of the quests, null for none
+     */
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void changed() {
+        version = null;
+        if (changeListener != null) {
+            changeListener.run();
+        }
+    }
+
+    /**
+     * @return the progress of every quest, which later changes don't affect. The same version is handed out until
+     * the quests change.
+     */
+    public Version version() {
+        if (version == null) {
+            version = new Version(quests);
+        }
+        return version;
+    }
+
+    /**
+     * Puts back the progress of an earlier version, without telling the change listener. The quests move back to
+     * the step they were on, and wait for its facts again. Quests added after the version was taken are left as
+     * they are.
+     * @param version a version returned by {@link #version()}
+     */
+    public void restore(Version version) {
+        for (int i = 0; i < quests.size() && i < version.steps.length; i++) {
+            Quest quest = quests.get(i);
+            if (quest.currentStep != version.steps[i]) {
+                if (!quest.isCompleted()) {
+                    stopWaiting(quest);
+                }
+                quest.currentStep = version.steps[i];
+                if (!quest.isCompleted()) {
+                    startWaiting(quest);
+                }
+            }
+            quest.progress = version.progress[i];
+        }
+        this.version = quests.size() == version.steps.length ? version : null;
+    }
+
+    /**
+     * A quest waits under a single key, so the lists never share a quest.
+     */
+    private void collect(List<Quest> candidates) {
+        if (candidates != null) {
+            advanced.addAll(candidates);
+        }
+    }
+
+    private void advance(Quest quest, int amount, Player player) {
+        Objective objective = quest.objective();
+        if (objective.deliveredKind != null) {
+            if (!deliver(objective, player)) {
+                System.out.println("Quest " + quest.name + ": " + objective.description + ".");
+                return;
+            }
+            quest.progress = objective.required;
+        } else {
+            quest.progress = Math.min(objective.required, quest.progress + amount);
+        }
+
+        if (quest.progress < objective.required) {
+            System.out.println("Quest " + quest.name + ": " + objective.description + " (" + quest.progress + "/" +
+                    objective.required + ")");
+            return;
+        }
+
+        stopWaiting(quest);
+        quest.currentStep++;
+        quest.progress = 0;
+        if (quest.isCompleted()) {
+            if (quest.reward > 0) {
+                System.out.println("Quest completed: " + quest.name + "! You receive " + quest.reward + " gold.");
+                player.addGold(quest.reward);
+            } else {
+                System.out.println("Quest completed: " + quest.name + "!");
+            }
+        } else {
+            System.out.println("Quest " + quest.name + " updated: " + quest.objective().description + ".");
+            startWaiting(quest);
+        }
+    }
+
+    /**
+     * Takes the items of a delivery from the player, if they carry enough of them.
+     * @return true if the items were delivered
+     */
+    private boolean deliver(Objective objective, Player player) {
+        List<Item> carried = new ArrayList<>();
+        for (Item item : player.getInventory().getItems()) {
+            if (carried.size() < objective.required && matches(item, objective.deliveredKind)) {
+                carried.add(item);
+            }
+        }
+        if (carried.size() < objective.required) {
+            return false;
+        }
+        for (Item item : carried) {
+            player.removeItem(item);
+        }
+        return true;
+    }
+
+    private static boolean matches(Item item, String kind) {
+        if (item.getName().equalsIgnoreCase(kind)) {
+            return true;
+        }
+        for (Class<?> type = item.getClass(); type != Object.class; type = type.getSuperclass()) {
+            if (type.getSimpleName().equalsIgnoreCase(kind)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void startWaiting(Quest quest) {
+        Objective objective = quest.objective();
+        List<Quest> candidates = waiting.get(objective.fact).computeIfAbsent(objective.subject,
+                subject -> new ArrayList<>());
+        quest.waitingIndex = candidates.size();
+        candidates.add(quest);
+    }
+
+    /**
+     * Removes a quest from its index list by moving the last quest of the list into its place.
+     */
+    private void stopWaiting(Quest quest) {
+        Objective objective = quest.objective();
+        Map<String, List<Quest>> byKey = waiting.get(objective.fact);
+        List<Quest> candidates = byKey.get(objective.subject);
+        Quest last = candidates.remove(candidates.size() - 1);
+        if (last != quest) {
+            candidates.set(quest.waitingIndex, last);
+            last.waitingIndex = quest.waitingIndex;
+        }
+        if (candidates.isEmpty()) {
+            byKey.remove(objective.subject);
+        }
+    }
+
+    /**
+     * Prints every quest with the step the player is on.
+     */
+    public void display() {
+        if (quests.isEmpty()) {
+            System.out.println("You have no quests.");
+            return;
+        }
+        for (Quest quest : quests) {
+            if (quest.isCompleted()) {
+                System.out.println(quest.name + ": completed");
+            } else {
+                Objective objective = quest.objective();
+                System.out.println(quest.name + ": " + objective.description + " (" + quest.progress + "/" +
+                        objective.required + ")");
+            }
+        }
+    }
+}
@@ -5,25 +5,48 @@ import model.character.NPC;
 import model.character.Player;
 import model.character.Witch;
 import model.item.*;
+import persistence.TelemetryLog;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Random;
+import java.util.*;
 
 import static java.util.Collections.shuffle;
 
 /**
  * Shop class that represents the shop in the shopkeeper NPCs, where the player can buy and sell items.
- * Each shop has a list of weapons and a gold object.
+ * The stock is indexed by item template, each entry keeps how many units the shop holds, how many it wants to hold
+ * and how much demand there has been for it lately. Prices follow supply and demand: they go up when the stock runs
+ * low or players keep buying and go down when the shop is full or players keep selling. The shop restocks one unit of
+ * every entry below its target each RESTOCK_INTERVAL turns.
+ * Every transaction holds the shop lock while it moves the item and the gold, so players trading with the same shop
+ * at the same time never see half of a transaction. Every purchase and sale that gets as far as a price goes to the
+ * telemetry, whether it goes through or not.
+ * The saves written before the stock was indexed hold the items of the shop as a plain list, which becomes one entry
+ * per item when they are loaded.
+ * The turn history keeps {@link #version() versions} of the gold and the stock, taken again only after they changed,
+ * so undoing a turn also takes back the trades and restocks made in it.
  */
 public class Shop implements Serializable {
-    private final List<Weapon> inventory = new ArrayList<>();
-    private final Gold gold;
+    private static final long serialVersionUID = 1L;
+    private static final int RESTOCK_INTERVAL = 5;
+    private static final int MAX_ITEMS = 3;
+    private static final int TARGET_STOCK = 1;
+    private static final float DEMAND_WEIGHT = 0.1f;
+    private static final float MIN_PRICE_FACTOR = 0.5f;
+    private static final float MAX_PRICE_FACTOR = 2.0f;
+    private static final float SELL_MARGIN = 0.8f;
+
+    private Map<String, StockEntry> stock = new LinkedHashMap<>();
+    private Gold gold;
+    private int lastRestockTurn;
+    private transient StockEntry[] entries;
+    private transient Runnable changeListener;
+    private transient Version version;
 
     /**
-     * Constructor for the Shop class, which initializes the shop with a list of weapons and a gold object set with the
+     * Constructor for the Shop class, which initializes the shop with its stock and a gold object set with the
      * given amount of gold set up by the NPC.
      * @param owner NPC that owns the shop
      * @param gold Gold object with the amount of gold set up by the NPC
@@ -33,132 +56,328 @@ public class Shop implements Serializable {
         setupShop(owner);
     }
 
+    private static final List<ItemTemplate> MERCHANT_STOCK = List.of(
+            ItemTemplate.of("Shield", 1, "Wooden Shield", "A wooden shield"),
+            ItemTemplate.of("Shield", 2, "Iron Shield", "An iron shield"),
+            ItemTemplate.of("Sword", 1, "Wooden Sword", "A wooden sword"),
+            ItemTemplate.of("Sword", 2, "Iron Sword", "An iron sword"),
+            ItemTemplate.of("HealthPotion", 1, "Health Potion", "A health potion"),
+            ItemTemplate.of("DefensePotion", 1, "Defense Potion", "A defense potion"),
+            ItemTemplate.of("StrengthPotion", 1, "Strength Potion", "A strength potion")
+    );
+
+    private static final List<ItemTemplate> WITCH_STOCK = List.of(
+            ItemTemplate.of("HealthPotion", 1, "Health Potion", "A health potion"),
+            ItemTemplate.of("DefensePotion", 1, "Defense Potion", "A defense potion"),
+            ItemTemplate.of("StrengthPotion", 1, "Strength Potion", "A strength potion"),
+            ItemTemplate.of("HealthPotion", 2, "Greater Health Potion", "A greater health potion"),
+            ItemTemplate.of("DefensePotion", 2, "Greater Defense Potion", "A greater defense potion"),
+            ItemTemplate.of("StrengthPotion", 2, "Greater Strength Potion", "A greater strength potion")
+    );
+
+    /**
+     * One indexed stock entry: the template sold, the units in stock, the units the shop restocks up to and the
+     * recent demand (purchases minus sales, fading at every restock).
+     */
+    private static class StockEntry implements Serializable {
+        private static final long serialVersionUID = 1L;
+        private final ItemTemplate template;
+        private int quantity;
+        private int target;
+        private int demand;
+
+        StockEntry(ItemTemplate template, int quantity, int target) {
+            this.template = template;
+            this.quantity = quantity;
+            this.target = target;
+        }
+    }
+
+    /**
+     * The gold and the stock of a shop at one point in time. The quantities and demands follow the order of the
+     * stock entries.
+     */
+    public static final class Version {
+        private final int gold;
+        private final int lastRestockTurn;
+        private final int[] quantities;
+        private final int[] demands;
+
+        private Version(Shop shop) {
+            this.gold = shop.gold.getAmount();
+            this.lastRestockTurn = shop.lastRestockTurn;
+            this.quantities = new int[shop.stock.size()];
+            this.demands = new int[shop.stock.size()];
+            int i = 0;
+            for (StockEntry entry : shop.stock.values()) {
+                quantities[i] = entry.quantity;
+                demands[i] = entry.demand;
+                i++;
+            }
+        }
+    }
+
     /**
-     * Sets up the shop with a list of weapons that the NPC can sell and then sets up the shop with a max
-     * of 3 Items to sell and may have an empty slot given at random. The items are shuffled before being added to the
-     * shop.
+     * Sets up the shop with an entry for every template the NPC can sell. The shop keeps up to 3 of them in stock,
+     * chosen at random, and may leave one of those slots empty at random. Only the chosen entries are restocked.
      * @param owner NPC that owns the shop
      */
     private void setupShop(NPC owner) {
-        List<Weapon> merchantShop = new ArrayList<>(Arrays.asList(
-                ItemFactory.createWeapon("Shield", 1, "Wooden Shield",
-                        "A wooden shield"),
-                ItemFactory.createWeapon("Shield", 2, "Iron Shield",
-                        "An iron shield"),
-                ItemFactory.createWeapon("Sword", 1, "Wooden Sword",
-                        "A wooden sword"),
-                ItemFactory.createWeapon("Sword", 2, "Iron Sword",
-                        "An iron sword"),
-                ItemFactory.createPotion("HealthPotion", 1, "Health Potion",
-                        "A health potion"),
-                ItemFactory.createPotion("DefensePotion", 1, "Defense Potion",
-                        "A defense potion"),
-                ItemFactory.createPotion("StrengthPotion", 1, "Strength Potion",
-                        "A strength potion")
-        ));
-
-        List<Potion> witchShop = new ArrayList<>(Arrays.asList(
-                ItemFactory.createPotion("HealthPotion", 1, "Health Potion",
-                        "A health potion"),
-                ItemFactory.createPotion("DefensePotion", 1, "Defense Potion",
-                        "A defense potion"),
-                ItemFactory.createPotion("StrengthPotion", 1, "Strength Potion",
-                        "A strength potion"),
-                ItemFactory.createPotion("HealthPotion", 2, "Greater Health Potion",
-                        "A greater health potion"),
-                ItemFactory.createPotion("DefensePotion", 2, "Greater Defense Potion",
-                        "A greater defense potion"),
-                ItemFactory.createPotion("StrengthPotion", 2, "Greater Strength Potion",
-                        "A greater strength potion")
-        ));
-
-        List<Weapon> shopItems = new ArrayList<>();
+        List<ItemTemplate> shopItems = new ArrayList<>();
 
         if (owner instanceof Merchant) {
-            shopItems.addAll(merchantShop);
+            shopItems.addAll(MERCHANT_STOCK);
         } else if (owner instanceof Witch) {
-            shopItems.addAll(witchShop);
+            shopItems.addAll(WITCH_STOCK);
         }
 
         Random random = new Random();
-        int hasEmptySlot = random.nextInt(2);
+        boolean hasEmptySlot = random.nextInt(2) == 1;
         shuffle(shopItems);
 
-        int maxItems = 3;
-        for (int i = 0; i <= maxItems; i++) {
-            if (hasEmptySlot == 1 && i == maxItems) {
-                this.inventory.add(null);
-                break;
+        for (int i = 0; i < shopItems.size(); i++) {
+            ItemTemplate template = shopItems.get(i);
+            int target = i < MAX_ITEMS ? TARGET_STOCK : 0;
+            int quantity = hasEmptySlot && i == MAX_ITEMS - 1 ? 0 : target;
+            stock.put(key(template.getName()), new StockEntry(template, quantity, target));
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        stock = (Map<String, StockEntry>) fields.get("stock", null);
+        gold = (Gold) fields.get("gold", null);
+        lastRestockTurn = fields.get("lastRestockTurn", 0);
+        if (stock == null) {
+            stock = new LinkedHashMap<>();
+            for (Item item : (List<Item>) fields.get("inventory", List.of())) {
+                if (item == null) { // an empty slot
+                    continue;
+                }
+                StockEntry entry = stock.computeIfAbsent(key(item.getName()),
+                        name -> new StockEntry(item.getTemplate(), 0, 0));
+                entry.quantity++;
+                entry.target++;
             }
+        }
+    }
+
+    private static String key(String itemName) {
+        return itemName.toLowerCase();
+    }
+
+    /**
+     * Restocks the shop for the turns that passed since the last restock: one unit of every entry below its target
+     * for each RESTOCK_INTERVAL turns, while the demand of every entry fades by one per interval. A shop that was not
+     * visited for a while catches up on all the intervals it missed at once.
+     * Only a restock that changes the stock is a change for the change listener. A full shop whose demand has faded
+     * keeps the same version, since catching up on intervals later doesn't change it either.
+     * @param turn the current turn
+     */
+    public synchronized void restock(int turn) {
+        if (turn < lastRestockTurn) {
+            lastRestockTurn = turn;
+        }
+        int intervals = (turn - lastRestockTurn) / RESTOCK_INTERVAL;
+        if (intervals == 0) {
+            return;
+        }
+        lastRestockTurn += intervals * RESTOCK_INTERVAL;
 
-            if (shopItems.get(i) != null && i != maxItems) {
-                this.inventory.add(shopItems.get(i));
+        if (entries == null) {
+            entries = stock.values().toArray(new StockEntry[0]);
+        }
+        boolean changed = false;
+        for (StockEntry entry : entries) {
+            if (entry.quantity < entry.target) {
+                entry.quantity = Math.min(entry.target, entry.quantity + intervals);
+                changed = true;
             }
+            if (entry.demand != 0) {
+                entry.demand = entry.demand > 0 ? Math.max(0, entry.demand - intervals)
+                        : Math.min(0, entry.demand + intervals);
+                changed = true;
+            }
+        }
+        if (changed) {
+            changed();
+        }
+    }
+
+    /**
+     * @param changeListener called after every trade and every restock that changes the stock, null for none
+     */
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    private void changed() {
+        version = null;
+        if (changeListener != null) {
+            changeListener.run();
+        }
+    }
+
+    /**
+     * @return the gold and the stock of the shop, which later changes don't affect. The same version is handed out
+     * until the shop changes.
+     */
+    public synchronized Version version() {
+        if (version == null) {
+            version = new Version(this);
+        }
+        return version;
+    }
+
+    /**
+     * Puts back the gold and the stock of an earlier version, without telling the change listener. Entries added
+     * after the version was taken, by selling the shop an item it didn't deal in, are left empty.
+     * @param version a version returned by {@link #version()}
+     */
+    public synchronized void restore(Version version) {
+        gold.setAmount(version.gold);
+        lastRestockTurn = version.lastRestockTurn;
+        int i = 0;
+        for (StockEntry entry : stock.values()) {
+            entry.quantity = i < version.quantities.length ? version.quantities[i] : 0;
+            entry.demand = i < version.demands.length ? version.demands[i] : 0;
+            i++;
         }
+        this.version = stock.size() == version.quantities.length ? version : null;
+    }
+
+    /**
+     * The current price of an entry: the template price scaled by how scarce the item is compared with the target
+     * stock and by the recent demand, kept between half and twice the template price.
+     */
+    private int currentPrice(StockEntry entry) {
+        float scarcity = (entry.target + 1f) / (entry.quantity + 1f);
+        float factor = 0.5f + 0.5f * scarcity + DEMAND_WEIGHT * entry.demand;
+        factor = Math.max(MIN_PRICE_FACTOR, Math.min(MAX_PRICE_FACTOR, factor));
+        return Math.max(1, Math.round(entry.template.getPrice() * factor));
     }
 
-    public void displayShop() {
+    public synchronized void displayShop() {
         System.out.println("The shop has " + gold.getDescription() + ". Items available: ");
-        for (Weapon weapon : inventory) {
-            if(weapon != null)
-                System.out.println(weapon.getName() + " - " + weapon.getPrice() + " gold");
+        for (StockEntry entry : stock.values()) {
+            if (entry.quantity > 0) {
+                System.out.println(entry.template.getName() + " - " + currentPrice(entry) + " gold" +
+                        (entry.quantity > 1 ? " (" + entry.quantity + " in stock)" : ""));
+            }
+        }
+    }
+
+    /**
+     * Returns the price the shop currently asks for the given item.
+     * @param itemName name of the item
+     * @return the current price, or -1 if the shop doesn't deal in that item
+     */
+    public synchronized int getPrice(String itemName) {
+        StockEntry entry = stock.get(key(itemName));
+        return entry == null ? -1 : currentPrice(entry);
+    }
+
+    /**
+     * @return the templates of the items the shop has in stock, in the order the shop shows them
+     */
+    public synchronized List<ItemTemplate> getAvailableItems() {
+        List<ItemTemplate> available = new ArrayList<>();
+        for (StockEntry entry : stock.values()) {
+            if (entry.quantity > 0) {
+                available.add(entry.template);
+            }
         }
+        return available;
     }
 
     /**
      * Buys an item from the shop and adds it to the player's inventory if the player has enough gold to buy the item
-     * and enough space to hold it.
+     * and enough space to hold it. The gold only changes hands if the player takes the item.
      * @param player Player that is buying the item
-     * @param weapon Weapon that the player is buying
+     * @param itemName name of the item the player is buying
+     * @return true if the shop has the item in stock, false otherwise
      */
-    public void buyItem(Player player, Weapon weapon) {
-        if (!inventory.contains(weapon)) {
+    public synchronized boolean buyItem(Player player, String itemName) {
+        StockEntry entry = stock.get(key(itemName));
+        if (entry == null || entry.quantity == 0) {
             System.out.println("This item is not available in the shop.");
-            return;
+            return false;
         }
 
-        if (player.getGold() >= weapon.getPrice()) {
-            player.removeGold(weapon.getPrice());
-            if(player.addItem(weapon)){
-                player.addStats(weapon);
-            }
-            inventory.remove(weapon);
-            gold.addGold(weapon.getPrice());
-            System.out.println("You bought " + weapon.getName() + " for " + weapon.getPrice() + " gold.");
-        } else {
-            System.out.println("You do not have enough gold to buy " + weapon.getName());
+        int price = currentPrice(entry);
+        if (player.getGold() < price) {
+            System.out.println("You do not have enough gold to buy " + entry.template.getName());
+            recordTrade(TelemetryLog.Kind.BUY, false, player, entry, price);
+            return true;
+        }
+        if (player.isInventoryFull()) {
+            System.out.println("Your inventory is full. Cannot buy " + entry.template.getName());
+            recordTrade(TelemetryLog.Kind.BUY, false, player, entry, price);
+            return true;
+        }
+
+        Item item = ItemFactory.createFromTemplate(entry.template);
+        boolean bought = player.addItem(item);
+        if (bought) {
+            player.addStats(item);
+            player.removeGold(price);
+            gold.addGold(price);
+            entry.quantity--;
+            entry.demand++;
+            changed();
+            System.out.println("You bought " + item.getName() + " for " + price + " gold.");
         }
+        recordTrade(TelemetryLog.Kind.BUY, bought, player, entry, price);
+        return true;
+    }
+
+    private static void recordTrade(TelemetryLog.Kind kind, boolean done, Player player, StockEntry entry, int price) {
+        TelemetryLog.record(kind, done, player.getId(), player.getPosition(), entry.template.getName(),
+                price);
+    }
+
+    /**
+     * The price the shop pays for one unit of an entry: what it would ask for the item once it is back in stock,
+     * minus the shop's margin, so buying an item and selling it straight back never makes a profit.
+     */
+    private int sellPrice(StockEntry entry) {
+        entry.quantity++;
+        entry.demand--;
+        int price = currentPrice(entry);
+        entry.quantity--;
+        entry.demand++;
+        return Math.max(1, (int) (price * SELL_MARGIN));
     }
 
     /**
      * Sells an item to the shop and adds the gold to the player's inventory if the player has the item to sell and the
-     * shop has enough gold to buy the item.
+     * shop has enough gold to buy the item. The item goes back into the shop's stock.
      * @param player Player that is selling the item
      * @param weapon Weapon that the player is selling
      */
-    public void sellItem(Player player, Weapon weapon) {
+    public synchronized void sellItem(Player player, Weapon weapon) {
         if (player.getItem(weapon.getName()) == null) {
             System.out.println("You don't have this item to sell.");
             return;
         }
 
-        if (gold.getAmount() >= weapon.getPrice()) {
+        StockEntry entry = stock.computeIfAbsent(key(weapon.getName()),
+                name -> new StockEntry(weapon.getTemplate(), 0, 0));
+        int price = sellPrice(entry);
+        boolean sold = gold.getAmount() >= price;
+        recordTrade(TelemetryLog.Kind.SELL, sold, player, entry, price);
+        if (sold) {
             player.removeItem(weapon);
-            player.addGold(weapon.getPrice());
-            inventory.add(weapon);
-            gold.removeGold(weapon.getPrice());
-            System.out.println("You sold " + weapon.getName() + " for " + weapon.getPrice() + " gold.");
+            player.removeStats(weapon);
+            player.addGold(price);
+            gold.removeGold(price);
+            entry.quantity++;
+            entry.demand--;
+            changed();
+            System.out.println("You sold " + weapon.getName() + " for " + price + " gold.");
         } else {
             System.out.println("The shop does not have enough gold to buy " + weapon.getName());
         }
     }
-
-    public Weapon getItemByName(String itemToSell) {
-        for (Weapon item : inventory) {
-            if (item.getName().equalsIgnoreCase(itemToSell)) {
-                return item;
-            }
-        }
-        return null;
-    }
 }
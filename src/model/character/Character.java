@@ -6,15 +6,20 @@ import model.item.Item;
 import model.item.Potion;
 import model.item.Weapon;
 import model.world.Point;
+import persistence.PersistentList;
 
 import java.io.Serializable;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * Represents a character in the game, each character has a name, position, health, damage, defense and inventory.
+ * A change listener can be set to hear about every change to the stats, gold or inventory of the character, which
+ * the turn history uses to record them as {@link Stats}.
  */
 public class Character implements Serializable {
+    private static final long serialVersionUID = 1L;
     private final float maxHealth;
     private float currentHealth;
     private float damage;
@@ -23,6 +28,28 @@ public class Character implements Serializable {
     private final String name;
     private Point position;
     private Point previousPosition;
+    private transient String stats;
+    private transient float statsHealth;
+    private transient float statsDamage;
+    private transient float statsDefense;
+    private transient Consumer<Character> changeListener;
+
+    /**
+     * The state of a character at one point in time: its health, damage, defense, position, gold, the contents of its
+     * inventory and what only its kind of character has, like the quests of the player. A Stats is filled by
+     * {@link #saveStats(Stats)} and can be filled again later, so the turn history reuses the same few Stats for every
+     * turn. The inventory contents are shared with the inventory, so filling one only copies a few fields.
+     */
+    public static final class Stats {
+        private float health;
+        private float damage;
+        private float defense;
+        private Point position;
+        private Point previousPosition;
+        private int gold;
+        private PersistentList<Item> items;
+        private Object state;
+    }
 
     /**
      * Creates a new character with the given name, position, max health, damage and defense.
@@ -49,6 +76,7 @@ public class Character implements Serializable {
     public void setPosition(Point position) {
         this.previousPosition = this.position;
         this.position = position;
+        changed();
     }
 
     public List<Potion> getPotions(){
@@ -77,6 +105,7 @@ public class Character implements Serializable {
 
     public void setDamage(float damage) {
         this.damage = damage;
+        changed();
     }
 
     public float getDefense() {
@@ -85,6 +114,7 @@ public class Character implements Serializable {
 
     public void setDefense(float defense) {
         this.defense = defense;
+        changed();
     }
 
     public float getHealth() {
@@ -97,18 +127,82 @@ public class Character implements Serializable {
 
     public void setHealth(float health) {
         this.currentHealth = health;
+        changed();
     }
 
     public void addGold(int amount) {
         inventory.getGold().addGold(amount);
+        changed();
     }
 
     public void removeGold(int amount) {
         inventory.getGold().removeGold(amount);
+        changed();
     }
 
     public void removeAllGold() {
         inventory.getGold().removeAllGold();
+        changed();
+    }
+
+    /**
+     * Sets the listener that is called with this character after every change to its stats, gold or inventory.
+     * @param changeListener the listener, null for none
+     */
+    public void setChangeListener(Consumer<Character> changeListener) {
+        this.changeListener = changeListener;
+        inventory.setChangeListener(changeListener == null ? null : this::changed);
+    }
+
+    void changed() {
+        if (changeListener != null) {
+            changeListener.accept(this);
+        }
+    }
+
+    /**
+     * Saves the current stats, gold and inventory contents of the character.
+     * @param stats the Stats to fill, replacing what it held
+     */
+    public void saveStats(Stats stats) {
+        stats.health = currentHealth;
+        stats.damage = damage;
+        stats.defense = defense;
+        stats.position = position;
+        stats.previousPosition = previousPosition;
+        stats.gold = getGold();
+        stats.items = inventory.version();
+        stats.state = saveState();
+    }
+
+    /**
+     * Puts back stats saved earlier, without calling the change listener.
+     * @param stats stats filled by {@link #saveStats(Stats)}
+     */
+    public void restoreStats(Stats stats) {
+        this.currentHealth = stats.health;
+        this.damage = stats.damage;
+        this.defense = stats.defense;
+        this.position = stats.position;
+        this.previousPosition = stats.previousPosition;
+        inventory.setGoldAmount(stats.gold);
+        inventory.restore(stats.items);
+        restoreState(stats.state);
+    }
+
+    /**
+     * Saves what only this kind of character has, with its stats. A change to it must call the change listener.
+     * @return the state, which later changes to the character don't affect, or null if there is none
+     */
+    Object saveState() {
+        return null;
+    }
+
+    /**
+     * Puts back state returned by {@link #saveState()}, without calling the change listener.
+     * @param state the state to put back
+     */
+    void restoreState(Object state) {
     }
 
     public int getGold() {
@@ -197,17 +291,20 @@ public class Character implements Serializable {
                 case "heal":
                     float healAmount = potion.getHeal();
                     currentHealth = Math.min(maxHealth, currentHealth + healAmount);
+                    changed();
                     System.out.println("You used a " + potion.getName() + " and healed for " + healAmount + " health.");
                     break;
                 case "strength":
                     float strengthIncrease = potion.getStrengthIncrease();
                     damage += strengthIncrease;
+                    changed();
                     System.out.println("You used a " + potion.getName() + " and increased your damage by " +
                             strengthIncrease + ".");
                     break;
                 case "defense":
                     float defenseIncrease = potion.getDefenseIncrease();
                     defense += defenseIncrease;
+                    changed();
                     System.out.println("You used a " + potion.getName() + " and increased your defense by " +
                             defenseIncrease + ".");
                     break;
@@ -223,7 +320,9 @@ public class Character implements Serializable {
     }
 
     public Item getItem(String input) {
-        for(Item item : inventory.getItems()){
+        List<Item> items = inventory.getItems();
+        for (int i = 0; i < items.size(); i++) {
+            Item item = items.get(i);
             if(item.getName().equalsIgnoreCase(input)){
                 return item;
             }
@@ -248,10 +347,20 @@ public class Character implements Serializable {
         System.out.println("The enemy dropped " + item.getName() + " on the ground.");
     }
 
+    /**
+     * Returns the stats of the character as text. The text is shown every turn, so it is only built again when one of
+     * the stats changed.
+     * @return the health, damage and defense of the character
+     */
     public String characterStats() {
-
-        return "Health: " + this.getHealth() + " " + "Damage: " + this.getDamage() + " " +
-                "Defense: " + this.getDefense() + "\n";
+        if (stats == null || statsHealth != currentHealth || statsDamage != damage || statsDefense != defense) {
+            statsHealth = currentHealth;
+            statsDamage = damage;
+            statsDefense = defense;
+            stats = "Health: " + this.getHealth() + " " + "Damage: " + this.getDamage() + " " +
+                    "Defense: " + this.getDefense() + "\n";
+        }
+        return stats;
     }
 
 
@@ -1,5 +1,6 @@
 package model.character;
 
+import model.text.TextStore;
 import model.world.Point;
 
 import java.io.Serializable;
@@ -9,6 +10,7 @@ import java.io.Serializable;
  * It has a goldRequired field which represents the amount of gold required to pass the goblin.
  */
 public class Goblin extends NPC implements Serializable {
+    private static final long serialVersionUID = 1L;
     private final int goldRequired;
 
     /**
@@ -28,14 +30,17 @@ public class Goblin extends NPC implements Serializable {
     @Override
     public void setupDialogue(String specificType) {
         switch (specificType) {
-            case "bridge" -> dialogue = "I'm guarding this bridge. You can't pass... Unless you pay me " +
-                    goldRequired + " gold.";
-            case "village" -> dialogue = "I'm guarding this village. You can't pass without paying " +
-                    goldRequired + " gold.";
-            default -> dialogue = "You shall not pass without paying " + goldRequired + " gold!";
+            case "bridge" -> dialogueId = "dialogue.goblin.bridge";
+            case "village" -> dialogueId = "dialogue.goblin.village";
+            default -> dialogueId = "dialogue.goblin.default";
         }
     }
 
+    @Override
+    public String getDialogue() {
+        return TextStore.format(dialogueId, goldRequired);
+    }
+
     @Override
     public int getGoldRequired() {
         return goldRequired;
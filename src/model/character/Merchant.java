@@ -6,6 +6,7 @@ import model.world.Point;
  * Merchant class is a subclass of ShopkeeperNPC class. It represents a merchant NPC in the game.
  */
 public class Merchant extends ShopkeeperNPC {
+    private static final long serialVersionUID = 1L;
 
     /**
      * Constructor for Merchant class.
@@ -21,10 +22,10 @@ public class Merchant extends ShopkeeperNPC {
     @Override
     public void setupDialogue(String specificType) {
         switch (specificType) {
-            case "village" -> dialogue = "Welcome to my shop!";
-            case "forest" -> dialogue = "I have the finest wares in the land!";
-            case "swamp" -> dialogue = "Care for some special swamp concoctions?";
-            default -> dialogue = "My magical brews await!";
+            case "village" -> dialogueId = "dialogue.merchant.village";
+            case "forest" -> dialogueId = "dialogue.merchant.forest";
+            case "swamp" -> dialogueId = "dialogue.merchant.swamp";
+            default -> dialogueId = "dialogue.merchant.default";
         }
     }
 
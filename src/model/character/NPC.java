@@ -1,6 +1,7 @@
 package model.character;
 
 import model.item.Gold;
+import model.text.TextStore;
 import model.world.Point;
 
 import java.io.Serializable;
@@ -8,11 +9,12 @@ import java.util.Random;
 
 /**
  * NPC class is an abstract class that represents a non-playable character in the game.
- * It has a dialogue field which represents the dialogue of the NPC and a canRunAway field which
- * represents whether the player can run away from the NPC.
+ * It has a dialogueId field which holds the id of the dialogue of the NPC in the {@link TextStore} and a canRunAway
+ * field which represents whether the player can run away from the NPC.
  */
 public abstract class NPC extends Character implements Serializable {
-    String dialogue;
+    private static final long serialVersionUID = 1L;
+    String dialogueId;
     boolean canRunAway;
 
     /**
@@ -45,7 +47,7 @@ public abstract class NPC extends Character implements Serializable {
     public abstract int getGoldRequired();
 
     public String getDialogue() {
-        return dialogue;
+        return TextStore.text(dialogueId);
     }
 
 }
\ No newline at end of file
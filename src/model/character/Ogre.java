@@ -8,6 +8,8 @@ import java.io.Serializable;
  * Ogre class is a subclass of NPC class. It represents an ogre NPC in the game.
  */
 public class Ogre extends NPC implements Serializable {
+    private static final long serialVersionUID = 1L;
+
     /**
      * Constructor for Ogre class.
      * @param name name of the ogre
@@ -23,9 +25,9 @@ public class Ogre extends NPC implements Serializable {
     @Override
     public void setupDialogue(String specificType) {
         switch (specificType) {
-            case "swamp" -> dialogue = "GET OUTTA MY SWAMP!!!!";
-            case "cave" -> dialogue = "You dare enter my cave?";
-            default -> dialogue = "You will not leave here alive!";
+            case "swamp" -> dialogueId = "dialogue.ogre.swamp";
+            case "cave" -> dialogueId = "dialogue.ogre.cave";
+            default -> dialogueId = "dialogue.ogre.default";
         }
     }
 
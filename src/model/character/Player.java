@@ -1,16 +1,25 @@
 package model.character;
 
+import gameplay.ExplorationMap;
+import gameplay.QuestLog;
 import model.item.Item;
 import model.item.Shield;
 import model.item.Sword;
 import model.world.Point;
 
 import java.io.Serializable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Consumer;
 
 /**
  * Player class is a subclass of Character class. It represents the player in the game.
+ * The progress of the player's quests is saved with their stats, so undoing a turn takes it back too.
  */
 public class Player extends Character implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private QuestLog questLog = new QuestLog();
+    private ExplorationMap explorationMap = new ExplorationMap();
+    private long id;
 
     /**
      * Constructor for Player class.
@@ -20,6 +29,7 @@ public class Player extends Character implements Serializable {
     public Player(String name, Point position) {
         super(name, position, 100, 5, 5);
         this.inventory.setGoldAmount(5);
+        this.id = ThreadLocalRandom.current().nextLong() | 1;
     }
 
     /**
@@ -27,18 +37,22 @@ public class Player extends Character implements Serializable {
      * @param item item that was picked up
      */
     public void addStats(Item item) {
-        float defensePercentage = this.getDefense();
-        float damagePercentage = this.getDamage();
-
-        if (item instanceof Shield){
-            defensePercentage *= (1 + (((Shield) item).getDamageReduced() / 100.0f));
-        } else if (item instanceof Sword){
-            damagePercentage *= (1 + (((Sword) item).getDamageBoost() / 100.0f));
-        }
+        float defenseBoost = item instanceof Shield ? ((Shield) item).getDamageReduced() : 0;
+        float damageBoost = item instanceof Sword ? ((Sword) item).getDamageBoost() : 0;
 
-        this.setDefense((float) (Math.ceil(defensePercentage * 10) / 10.0f));
-        this.setDamage((float) (Math.ceil(damagePercentage * 10) / 10.0f));
+        this.setDefense(boosted(this.getDefense(), defenseBoost));
+        this.setDamage(boosted(this.getDamage(), damageBoost));
+    }
 
+    /**
+     * Raises a stat by a percentage, rounded up to one decimal, the way picking up a sword or a shield does.
+     * @param value the current value of the stat
+     * @param percent the boost in percent, 0 to only round
+     * @return the boosted stat
+     */
+    public static float boosted(float value, float percent) {
+        float boosted = value * (1 + (percent / 100.0f));
+        return (float) (Math.ceil(boosted * 10) / 10.0f);
     }
 
     /**
@@ -61,6 +75,56 @@ public class Player extends Character implements Serializable {
 
     }
 
+    /**
+     * @return the quests of the player; a player loaded from a save written before they were kept starts with none
+     */
+    public QuestLog getQuestLog() {
+        if (questLog == null) {
+            questLog = new QuestLog();
+        }
+        return questLog;
+    }
+
+    /**
+     * @return the points the player has been to; a player loaded from a save written before they were kept starts
+     * with none
+     */
+    public ExplorationMap getExplorationMap() {
+        if (explorationMap == null) {
+            explorationMap = new ExplorationMap();
+        }
+        return explorationMap;
+    }
+
+    /**
+     * Tells the player apart from every other player, since they all share the same name. The id is random, picked
+     * when the player is created, and saved with the player, so it stays the same across games; a player loaded from
+     * a save written before it was kept gets a new one the first time it is asked for.
+     * @return the id of the player, never 0
+     */
+    public long getId() {
+        if (id == 0) {
+            id = ThreadLocalRandom.current().nextLong() | 1;
+        }
+        return id;
+    }
+
+    @Override
+    public void setChangeListener(Consumer<Character> changeListener) {
+        super.setChangeListener(changeListener);
+        getQuestLog().setChangeListener(changeListener == null ? null : this::changed);
+    }
+
+    @Override
+    Object saveState() {
+        return getQuestLog().version();
+    }
+
+    @Override
+    void restoreState(Object state) {
+        getQuestLog().restore((QuestLog.Version) state);
+    }
+
     public boolean isInventoryFull() {
         return this.getInventory().getItems().size() == this.getInventory().getSpace();
     }
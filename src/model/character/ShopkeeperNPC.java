@@ -1,16 +1,22 @@
 package model.character;
 
 import gameplay.Shop;
+import model.item.Item;
+import model.item.ItemTemplate;
 import model.item.Weapon;
 import model.world.Point;
 
 import java.io.Serializable;
+import java.util.List;
+import java.util.function.Consumer;
 
 /**
  * ShopkeeperNPC class is an abstract class that represents a shopkeeper NPC in the game.
- * It has a shop field which represents the shop of the shopkeeper.
+ * It has a shop field which represents the shop of the shopkeeper. The gold and the stock of the shop are saved with
+ * the stats of the shopkeeper, so undoing a turn takes back the trades and restocks made in it.
  */
 public abstract class ShopkeeperNPC extends NPC implements Serializable {
+    private static final long serialVersionUID = 1L;
     final Shop shop;
 
     /**
@@ -30,6 +36,22 @@ public abstract class ShopkeeperNPC extends NPC implements Serializable {
         this.shop = new Shop(this, getRandomGoldAmount());
     }
 
+    @Override
+    public void setChangeListener(Consumer<Character> changeListener) {
+        super.setChangeListener(changeListener);
+        shop.setChangeListener(changeListener == null ? null : this::changed);
+    }
+
+    @Override
+    Object saveState() {
+        return shop.version();
+    }
+
+    @Override
+    void restoreState(Object state) {
+        shop.restore((Shop.Version) state);
+    }
+
     public void displayShop() {
         shop.displayShop();
     }
@@ -45,13 +67,18 @@ public abstract class ShopkeeperNPC extends NPC implements Serializable {
             return false;
         }
 
-        Weapon weaponToSell = (Weapon) player.getItem(itemToSell);
-        if (weaponToSell == null) {
+        Item itemInInventory = player.getItem(itemToSell);
+        if (itemInInventory == null) {
             System.out.println("You don't have this item in your inventory.");
             return false;
         }
 
-        shop.sellItem(player, weaponToSell);
+        if (!(itemInInventory instanceof Weapon)) {
+            System.out.println("The shop doesn't buy " + itemInInventory.getName() + ".");
+            return false;
+        }
+
+        shop.sellItem(player, (Weapon) itemInInventory);
         return true;
     }
 
@@ -61,13 +88,30 @@ public abstract class ShopkeeperNPC extends NPC implements Serializable {
             return false;
         }
 
-        Weapon weapon = shop.getItemByName(itemToBuy);
-        if (weapon == null) {
-            System.out.println("Item not found in shop.");
-            return false;
-        }
+        return shop.buyItem(player, itemToBuy);
+    }
 
-        shop.buyItem(player, weapon);
-        return true;
+    /**
+     * Lets the shop restock for the turns that passed since it was last restocked.
+     * @param turn the current turn
+     */
+    public void restockShop(int turn) {
+        shop.restock(turn);
+    }
+
+    /**
+     * @return the templates of the items the shop has in stock, in the order the shop shows them
+     */
+    public List<ItemTemplate> getAvailableItems() {
+        return shop.getAvailableItems();
+    }
+
+    /**
+     * Returns the price the shop currently asks for the given item.
+     * @param itemName name of the item
+     * @return the current price, or -1 if the shop doesn't deal in that item
+     */
+    public int getPrice(String itemName) {
+        return shop.getPrice(itemName);
     }
 }
@@ -6,6 +6,8 @@ import model.world.Point;
  * Witch class is a subclass of ShopkeeperNPC class. It represents a witch NPC in the game.
  */
 public class Witch extends ShopkeeperNPC {
+    private static final long serialVersionUID = 1L;
+
     /**
      * Constructor for Witch class.
      * @param name name of the witch
@@ -20,10 +22,9 @@ public class Witch extends ShopkeeperNPC {
     @Override
     public void setupDialogue(String specificType) {
         switch (specificType) {
-            case "house" -> dialogue = "Oh, you must be lost. But if you insist on staying, my potions might have " +
-                    "a word with you.";
-            case "forest" -> dialogue = "Wandering in my forest, are we? Just know, my curses are quite persuasive.";
-            default -> dialogue = "Feel free to browse, but remember, my magical brews don't take kindly to thieves.";
+            case "house" -> dialogueId = "dialogue.witch.house";
+            case "forest" -> dialogueId = "dialogue.witch.forest";
+            default -> dialogueId = "dialogue.witch.default";
         }
     }
 
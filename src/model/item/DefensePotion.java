@@ -3,10 +3,10 @@ package model.item;
 import java.io.Serializable;
 
 /**
- * DefensePotion is a subclass of Potion and has a defense field.
+ * DefensePotion is a subclass of Potion and increases defense by the effect value of its template.
  */
 public class DefensePotion extends Potion implements Serializable {
-    private final float defense;
+    private static final long serialVersionUID = 1L;
 
     /**
      * Constructor for DefensePotion, based on the tier (1-2) the defense gets its value.
@@ -15,8 +15,11 @@ public class DefensePotion extends Potion implements Serializable {
      * @param description description of the potion
      */
     public DefensePotion(int tier, String name, String description){
-        super(tier, name, description);
-        this.defense = setupDefense(tier);
+        this(ItemTemplate.of("defensepotion", tier, name, description));
+    }
+
+    public DefensePotion(ItemTemplate template) {
+        super(template);
     }
 
     public String getSpecialAbility() {
@@ -35,15 +38,6 @@ public class DefensePotion extends Potion implements Serializable {
 
     @Override
     public float getDefenseIncrease() {
-        return defense;
+        return getTemplate().getEffect();
     }
-
-    private int setupDefense(int defense) {
-        return switch (defense) {
-            case 1 -> 15;
-            case 2 -> 20;
-            default -> 0;
-        };
-    }
-
 }
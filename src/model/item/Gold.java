@@ -6,6 +6,7 @@ import java.io.Serializable;
  * Gold is a subclass of Item and has a goldAmount field for determining the number of gold coins.
  */
 public class Gold extends Item implements Serializable {
+    private static final long serialVersionUID = 1L;
     private int goldAmount;
 
     /**
@@ -13,7 +14,7 @@ public class Gold extends Item implements Serializable {
      * @param amount amount of gold
      */
     public Gold(int amount) {
-        super("Gold", amount + " shiny gold coins");
+        super(ItemTemplate.GOLD);
         this.goldAmount = amount;
     }
 
@@ -3,10 +3,10 @@ package model.item;
 import java.io.Serializable;
 
 /**
- * HealthPotion is a subclass of Potion and has a healing field.
+ * HealthPotion is a subclass of Potion and heals by the effect value of its template.
  */
 public class HealthPotion extends Potion implements Serializable {
-    private final float healing;
+    private static final long serialVersionUID = 1L;
 
     /**
      * Constructor for HealthPotion, based on the tier (1-2) the healing gets its value.
@@ -15,8 +15,11 @@ public class HealthPotion extends Potion implements Serializable {
      * @param description description of the potion
      */
     public HealthPotion(int tier, String name, String description) {
-        super(tier, name, description);
-        this.healing = setupHealing(tier);
+        this(ItemTemplate.of("healthpotion", tier, name, description));
+    }
+
+    public HealthPotion(ItemTemplate template) {
+        super(template);
     }
 
     public String getSpecialAbility() {
@@ -25,7 +28,7 @@ public class HealthPotion extends Potion implements Serializable {
 
     @Override
     public float getHeal() {
-        return healing;
+        return getTemplate().getEffect();
     }
 
     @Override
@@ -37,15 +40,4 @@ public class HealthPotion extends Potion implements Serializable {
     public float getDefenseIncrease() {
         return 0;
     }
-
-    private int setupHealing(int tier) {
-        return switch (tier) {
-            case 1 -> 15;
-            case 2 -> 25;
-            default -> 0;
-        };
-    }
-
-
-
 }
@@ -2,16 +2,22 @@ package model.item;
 
 import model.world.Point;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
- * Item is a class that represents an item in the game. It has a name and a description and a spawn point variable to
- * determine where the item is located.
+ * Item is a class that represents an item in the game. The name and description live in a shared {@link ItemTemplate},
+ * each item only keeps a reference to its template and a spawn point variable to determine where the item is located.
+ * The saves written before the templates keep the name and description in the item itself, and the tier in the
+ * weapon, so the template of such an item is looked up once the item is loaded.
  */
 public class Item implements Serializable {
-    private final String name;
-    private final String description;
+    private static final long serialVersionUID = 1L;
+    private ItemTemplate template;
     private Point spawnPoint;
+    /** The name and description of an item saved before the templates, until {@link Weapon} has read its tier. */
+    private transient String[] savedText;
 
     /**
      * Constructor for Item, based on the name and description.
@@ -19,16 +25,54 @@ public class Item implements Serializable {
      * @param description description of the item
      */
     public Item(String name, String description) {
-        this.name = name;
-        this.description = description;
+        this(ItemTemplate.of("key", 0, name, description));
+    }
+
+    /**
+     * Constructor for Item, based on a shared template.
+     * @param template template holding the name and description of the item
+     */
+    public Item(ItemTemplate template) {
+        this.template = template;
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        template = (ItemTemplate) fields.get("template", null);
+        spawnPoint = (Point) fields.get("spawnPoint", null);
+        if (template == null) {
+            String name = (String) fields.get("name", null);
+            String description = (String) fields.get("description", null);
+            if (this instanceof Weapon) {
+                savedText = new String[]{name, description};
+            } else {
+                template = this instanceof Gold ? ItemTemplate.GOLD : ItemTemplate.of("key", 0, name, description);
+            }
+        }
+    }
+
+    /**
+     * Gives an item saved before the templates its template, once its tier is known.
+     * @param type type of the item
+     * @param tier tier of the item
+     */
+    void setSavedTemplate(String type, int tier) {
+        if (savedText != null) {
+            template = ItemTemplate.of(type, tier, savedText[0], savedText[1]);
+            savedText = null;
+        }
+    }
+
+    public ItemTemplate getTemplate() {
+        return template;
     }
 
     public String getName() {
-        return name;
+        return template.getName();
     }
 
     public String getDescription() {
-        return description;
+        return template.getDescription();
     }
 
     public Point getSpawnPoint() {
@@ -7,7 +7,7 @@ public class ItemFactory {
 
     public static Item createItem(String itemType, String name, String description) {
         return switch (itemType.toLowerCase()) {
-            case "key" -> new Item(name, description);
+            case "key" -> new Item(ItemTemplate.of("key", 0, name, description));
             default -> throw new IllegalArgumentException("Unknown item type: " + itemType);
         };
     }
@@ -29,6 +29,37 @@ public class ItemFactory {
         };
     }
 
+    /**
+     * Creates a new item from a shared template. Only the per-instance state (durability, spawn point) is allocated.
+     * @param template the template of the item to create
+     * @return a new item of the template's type
+     */
+    public static Item createFromTemplate(ItemTemplate template) {
+        return switch (template.getType()) {
+            case "sword" -> new Sword(template);
+            case "shield" -> new Shield(template);
+            case "strengthpotion" -> new StrengthPotion(template);
+            case "healthpotion" -> new HealthPotion(template);
+            case "defensepotion" -> new DefensePotion(template);
+            case "key" -> new Item(template);
+            default -> throw new IllegalArgumentException("Unknown item type: " + template.getType());
+        };
+    }
+
+    /**
+     * Creates a new item from a shared template with the given durability, for items that were already used.
+     * @param template the template of the item to create
+     * @param durability the durability left on the item, ignored for items without durability
+     * @return a new item of the template's type
+     */
+    public static Item createFromTemplate(ItemTemplate template, int durability) {
+        Item item = createFromTemplate(template);
+        if (item instanceof Weapon) {
+            ((Weapon) item).durability = durability;
+        }
+        return item;
+    }
+
     public static Gold createGold(int amount) {
         return new Gold(amount);
     }
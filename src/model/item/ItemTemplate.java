@@ -0,0 +1,129 @@
+package model.item;
+
+import java.io.ObjectStreamException;
+import java.io.Serializable;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * ItemTemplate holds the immutable data shared by every item of the same kind: its type, name, description, tier,
+ * price, starting durability and effect value. Templates are interned by name (ignoring case), so every Wooden Sword
+ * in the world points to the same template and only keeps its own durability and spawn point.
+ */
+public final class ItemTemplate implements Serializable {
+    private static final long serialVersionUID = 1L;
+    private static final Map<String, ItemTemplate> TEMPLATES = new HashMap<>();
+
+    public static final ItemTemplate GOLD = of("gold", 0, "Gold", "shiny gold coins");
+
+    private final String type;
+    private final String name;
+    private final String description;
+    private final int tier;
+    private final int price;
+    private final int durability;
+    private final float effect;
+
+    private ItemTemplate(String type, int tier, String name, String description) {
+        this.type = type;
+        this.name = name;
+        this.description = description;
+        this.tier = tier;
+        this.price = setupPrice(type, tier);
+        this.durability = setupDurability(tier);
+        this.effect = setupEffect(type, tier);
+    }
+
+    /**
+     * Returns the template registered under the given name, creating and registering it if this is the first item
+     * with that name.
+     * @param type type of the item (sword, shield, healthpotion, strengthpotion, defensepotion, key or gold)
+     * @param tier 1 or 2, 0 for items without tiers
+     * @param name name of the item, also used as the template id
+     * @param description description of the item
+     * @return the shared template
+     */
+    public static synchronized ItemTemplate of(String type, int tier, String name, String description) {
+        return TEMPLATES.computeIfAbsent(name.toLowerCase(),
+                key -> new ItemTemplate(type.toLowerCase(), tier, name, description));
+    }
+
+    /**
+     * Returns the template registered under the given name (ignoring case) or null if there is none.
+     * @param name name of the item
+     * @return the shared template or null
+     */
+    public static synchronized ItemTemplate byName(String name) {
+        return TEMPLATES.get(name.toLowerCase());
+    }
+
+    private static int setupPrice(String type, int tier) {
+        return switch (type.toLowerCase()) {
+            case "sword" -> 10 * tier;
+            case "shield" -> 15 * tier;
+            case "healthpotion", "strengthpotion", "defensepotion" -> 30 * tier / 2;
+            default -> 0;
+        };
+    }
+
+    private static int setupDurability(int tier) {
+        return switch (tier) {
+            case 1 -> 2;
+            case 2 -> 4;
+            default -> 0;
+        };
+    }
+
+    private static float setupEffect(String type, int tier) {
+        return switch (type.toLowerCase()) {
+            case "sword", "shield" -> tier == 1 ? 15 : tier == 2 ? 25 : 0;
+            case "healthpotion" -> tier == 1 ? 15 : tier == 2 ? 25 : 0;
+            case "strengthpotion" -> tier == 1 ? 10 : tier == 2 ? 15 : 0;
+            case "defensepotion" -> tier == 1 ? 15 : tier == 2 ? 20 : 0;
+            default -> 0;
+        };
+    }
+
+    public String getType() {
+        return type;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+
+    public int getTier() {
+        return tier;
+    }
+
+    public int getPrice() {
+        return price;
+    }
+
+    public int getDurability() {
+        return durability;
+    }
+
+    public float getEffect() {
+        return effect;
+    }
+
+    /**
+     * Swaps a deserialized template for the one already registered under the same name, so loaded items share the
+     * same template instances as freshly created ones.
+     * @return the registered template
+     */
+    private Object readResolve() throws ObjectStreamException {
+        synchronized (ItemTemplate.class) {
+            return TEMPLATES.computeIfAbsent(name.toLowerCase(), key -> this);
+        }
+    }
+
+    public String toString() {
+        return name;
+    }
+}
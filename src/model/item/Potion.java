@@ -13,17 +13,15 @@ import model.character.Character;
  * Subclasses of Potion must implement the abstract methods to define the specific effects of the potion.
  */
 public abstract class Potion extends Weapon implements Serializable {
+    private static final long serialVersionUID = 1L;
 
     /**
-     * Constructor for Potion, based on the tier, name, and description.
+     * Constructor for Potion, based on the shared template.
      * The price is set to 30 times the tier divided by 2.
-     * @param tier 1 or 2
-     * @param name name of the potion
-     * @param description description of the potion
+     * @param template template holding the tier, price and effect of the potion
      */
-    public Potion(int tier, String name, String description) {
-        super(tier, name, description);
-        this.price = 30 * tier/2;
+    public Potion(ItemTemplate template) {
+        super(template);
     }
 
     /**
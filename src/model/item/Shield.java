@@ -3,10 +3,10 @@ package model.item;
 import java.io.Serializable;
 
 /**
- * Shield is a subclass of Weapon and has a damageReduced field.
+ * Shield is a subclass of Weapon and its damage reduction comes from the shared template.
  */
 public class Shield extends Weapon implements Serializable {
-    int damageReduced;
+    private static final long serialVersionUID = 1L;
 
     /**
      * Constructor for Shield, based on the tier (1-2) the damageReduced gets its value.
@@ -16,22 +16,14 @@ public class Shield extends Weapon implements Serializable {
      * @param description description of the shield
      */
     public Shield(int tier, String name, String description) {
-        super(tier, name, description);
-        this.damageReduced = setupDamageReduced(tier);
-        this.price = 15 * tier;
-
-
+        this(ItemTemplate.of("shield", tier, name, description));
     }
 
-    private int setupDamageReduced(int tier) {
-        return switch (tier) {
-            case 1 -> 15;
-            case 2 -> 25;
-            default -> 0;
-        };
+    public Shield(ItemTemplate template) {
+        super(template);
     }
 
     public int getDamageReduced() {
-        return damageReduced;
+        return (int) getTemplate().getEffect();
     }
 }
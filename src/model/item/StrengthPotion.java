@@ -3,10 +3,10 @@ package model.item;
 import java.io.Serializable;
 
 /**
- * StrengthPotion is a subclass of Potion and has a strength field.
+ * StrengthPotion is a subclass of Potion and increases damage by the effect value of its template.
  */
 public class StrengthPotion extends Potion implements Serializable {
-    private final float strength;
+    private static final long serialVersionUID = 1L;
 
     /**
      * Constructor for StrengthPotion, based on the tier (1-2) the strength gets its value.
@@ -15,8 +15,11 @@ public class StrengthPotion extends Potion implements Serializable {
      * @param description description of the potion
      */
     public StrengthPotion(int tier, String name, String description){
-        super(tier, name, description);
-        this.strength = setupStrength(tier);
+        this(ItemTemplate.of("strengthpotion", tier, name, description));
+    }
+
+    public StrengthPotion(ItemTemplate template) {
+        super(template);
     }
 
     public String getSpecialAbility() {
@@ -30,20 +33,11 @@ public class StrengthPotion extends Potion implements Serializable {
 
     @Override
     public float getStrengthIncrease() {
-        return strength;
+        return getTemplate().getEffect();
     }
 
     @Override
     public float getDefenseIncrease() {
         return 0;
     }
-
-    private int setupStrength(int tier) {
-        return switch (tier) {
-            case 1 -> 10;
-            case 2 -> 15;
-            default -> 0;
-        };
-    }
-
 }
@@ -3,10 +3,10 @@ package model.item;
 import java.io.Serializable;
 
 /**
- * Sword is a subclass of Weapon and has a damageBoost field.
+ * Sword is a subclass of Weapon and its damage boost comes from the shared template.
  */
 public class Sword extends Weapon implements Serializable {
-    int damageBoost;
+    private static final long serialVersionUID = 1L;
 
     /**
      * Constructor for Sword, based on the tier (1-2) the damageBoost gets its value.
@@ -16,20 +16,14 @@ public class Sword extends Weapon implements Serializable {
      * @param description description of the sword
      */
     public Sword(int tier, String name, String description) {
-        super(tier, name, description);
-        this.damageBoost = setupDamageBoost(tier);
-        this.price = 10 * tier;
+        this(ItemTemplate.of("sword", tier, name, description));
     }
 
-    public int getDamageBoost() {
-        return damageBoost;
+    public Sword(ItemTemplate template) {
+        super(template);
     }
 
-    private int setupDamageBoost(int tier) {
-        return switch (tier) {
-            case 1 -> 15;
-            case 2 -> 25;
-            default -> 0;
-        };
+    public int getDamageBoost() {
+        return (int) getTemplate().getEffect();
     }
 }
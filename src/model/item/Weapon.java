@@ -1,26 +1,32 @@
 package model.item;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
 import java.io.Serializable;
 
 /**
  * Weapon is a subclass of Item and has a durability field that determines the amount of fights the item can take before
- * it breaks, tier and price (to determine how much it costs on the shop) field.
+ * it breaks. The tier and price (to determine how much it costs on the shop) are read from the shared template.
  */
 public abstract class Weapon extends Item implements Serializable {
+    private static final long serialVersionUID = 1L;
     int durability;
-    int tier;
-    int price;
 
     /**
      * Constructor for Weapon, based on the tier (1-2) the durability gets its value.
-     * @param tier 1 or 2
-     * @param name name of the weapon
-     * @param description description of the weapon
+     * @param template template holding the tier, price and effect of the weapon
      */
-    public Weapon(int tier, String name, String description) {
-        super(name, description);
-        this.tier = tier;
-        this.durability = setupDurability(tier);
+    public Weapon(ItemTemplate template) {
+        super(template);
+        this.durability = template.getDurability();
+    }
+
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+        ObjectInputStream.GetField fields = in.readFields();
+        durability = fields.get("durability", 0);
+        if (getTemplate() == null) { // saved before the templates, with the tier in the weapon
+            setSavedTemplate(getClass().getSimpleName(), fields.get("tier", 0));
+        }
     }
 
     public int getDurability() {
@@ -28,28 +34,20 @@ public abstract class Weapon extends Item implements Serializable {
     }
 
     public int getTier() {
-        return tier;
+        return getTemplate().getTier();
     }
 
     public void updateDurability(){
         this.durability -= 1;
     }
 
-    private int setupDurability(int tier) {
-        return switch (tier) {
-            case 1 -> 2;
-            case 2 -> 4;
-            default -> 0;
-        };
-    }
-
     @Override
     public String getDescription() {
         return super.getDescription() + " Durability: " + durability + ". " + "Price: " + getPrice() + " gold.";
     }
 
     public int getPrice() {
-        return price;
+        return getTemplate().getPrice();
     }
 
 
@@ -0,0 +1,180 @@
+package model.text;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * TextStore holds the texts of the game, like the location descriptions and the NPC dialogue, outside of the heap.
+ * The game refers to a text by its id (for example "location.start") and only asks for the text when it prints it,
+ * so the objects of the world and the saves only carry the short ids.
+ * The texts of a language are kept in a "texts/[language].txt" file with one "id=text" line per text. The file is
+ * memory-mapped the first time a text of its language is needed and indexed in a single pass that only remembers
+ * where every text starts and ends. A text is decoded the first time it is asked for and kept for the next time, so
+ * the texts that are never printed are never loaded. A text missing from a language is taken from English, and
+ * only the languages that are used are ever mapped.
+ * The language is chosen with the rpg.language system property (English by default). The files are read from the
+ * classpath, or from the directory given by the rpg.texts system property.
+ */
+public final class TextStore {
+    public static final String LANGUAGE_PROPERTY = "rpg.language";
+    public static final String TEXTS_PROPERTY = "rpg.texts";
+    private static final String DEFAULT_LANGUAGE = "en";
+    private static final Map<String, TextStore> STORES = new ConcurrentHashMap<>();
+
+    private final ByteBuffer buffer;
+    private final Map<String, Integer> index;
+    private final int[] starts;
+    private final int[] lengths;
+    private final String[] texts;
+
+    private TextStore(ByteBuffer buffer) {
+        this.buffer = buffer;
+        this.index = new HashMap<>();
+
+        int count = 0;
+        int[] textStarts = new int[64];
+        int[] textLengths = new int[64];
+        int limit = buffer.limit();
+        for (int line = 0; line < limit; ) {
+            int end = line;
+            int separator = -1;
+            while (end < limit && buffer.get(end) != '\n') {
+                if (separator < 0 && buffer.get(end) == '=') {
+                    separator = end;
+                }
+                end++;
+            }
+            int textEnd = end > line && buffer.get(end - 1) == '\r' ? end - 1 : end;
+            if (separator > line && buffer.get(line) != '#') {
+                if (count == textStarts.length) {
+                    textStarts = Arrays.copyOf(textStarts, count * 2);
+                    textLengths = Arrays.copyOf(textLengths, count * 2);
+                }
+                index.put(decode(line, separator - line).trim(), count);
+                textStarts[count] = separator + 1;
+                textLengths[count] = textEnd - separator - 1;
+                count++;
+            }
+            line = end + 1;
+        }
+        this.starts = textStarts;
+        this.lengths = textLengths;
+        this.texts = new String[count];
+    }
+
+    /**
+     * Returns the text with the given id in the language of the game.
+     * @param id the id of the text
+     * @return the text, or the id itself if no language has the text
+     */
+    public static String text(String id) {
+        String text = store(language()).find(id);
+        if (text == null && !language().equals(DEFAULT_LANGUAGE)) {
+            text = store(DEFAULT_LANGUAGE).find(id);
+        }
+        return text != null ? text : id;
+    }
+
+    /**
+     * Returns the text with the given id with its {0} replaced by the given value.
+     * @param id the id of the text
+     * @param value the value to put in the text
+     * @return the completed text
+     */
+    public static String format(String id, Object value) {
+        return text(id).replace("{0}", String.valueOf(value));
+    }
+
+    /**
+     * @return the language of the game, from the rpg.language system property
+     */
+    public static String language() {
+        return System.getProperty(LANGUAGE_PROPERTY, DEFAULT_LANGUAGE);
+    }
+
+    private static TextStore store(String language) {
+        TextStore store = STORES.get(language);
+        return store != null ? store : STORES.computeIfAbsent(language, TextStore::load);
+    }
+
+    private String find(String id) {
+        Integer entry = index.get(id);
+        if (entry == null) {
+            return null;
+        }
+        String text = texts[entry];
+        if (text == null) {
+            text = decode(starts[entry], lengths[entry]);
+            texts[entry] = text;
+        }
+        return text;
+    }
+
+    private String decode(int start, int length) {
+        byte[] bytes = new byte[length];
+        buffer.get(start, bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Maps the file of the given language. A language without a file is kept as an empty store, so its texts are
+     * taken from English without looking for the file again.
+     */
+    private static TextStore load(String language) {
+        try {
+            Path path = locate(language);
+            if (path == null) {
+                if (language.equals(DEFAULT_LANGUAGE)) {
+                    System.err.println("Failed to load the texts: texts/" + language + ".txt not found");
+                }
+                return new TextStore(ByteBuffer.allocate(0));
+            }
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new TextStore(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        } catch (IOException | URISyntaxException e) {
+            System.err.println("Failed to load the texts of " + language + ": " + e.getMessage());
+            return new TextStore(ByteBuffer.allocate(0));
+        }
+    }
+
+    /**
+     * Finds the file of a language. A file packed in a jar can't be mapped where it is, so it is copied to a
+     * temporary file first.
+     */
+    private static Path locate(String language) throws IOException, URISyntaxException {
+        String fileName = language + ".txt";
+        String directory = System.getProperty(TEXTS_PROPERTY);
+        if (directory != null) {
+            Path path = Path.of(directory, fileName);
+            return Files.isReadable(path) ? path : null;
+        }
+
+        URL resource = TextStore.class.getResource("/texts/" + fileName);
+        if (resource == null) {
+            return null;
+        }
+        if (resource.getProtocol().equals("file")) {
+            return Path.of(resource.toURI());
+        }
+        Path copy = Files.createTempFile("rpg-texts-" + language, ".txt");
+        copy.toFile().deleteOnExit();
+        try (InputStream in = resource.openStream()) {
+            Files.copy(in, copy, StandardCopyOption.REPLACE_EXISTING);
+        }
+        return copy;
+    }
+}
@@ -1,34 +1,43 @@
 package model.world;
 
+import model.text.TextStore;
+
 import java.util.List;
 import java.io.Serializable;
 
 /**
  * Represents a location in the game world, each location has a description, name and a list of possible exits.
+ * The location only keeps the id of its description, the text itself is looked up in the {@link TextStore} when it
+ * is printed.
  */
 public class Location implements Serializable{
-    private final String description;
+    private static final long serialVersionUID = 1L;
+    private final String descriptionId;
     private final String name;
     private final List<Point> exits;
 
     /**
      * Constructor for a location.
-     * @param description the description of the location
+     * @param descriptionId the id of the description of the location in the {@link TextStore}
      * @param name the name of the location
      * @param exits the list of possible exits from the location
      */
-    public Location(String description, String name, List<Point> exits) {
-        this.description = description;
+    public Location(String descriptionId, String name, List<Point> exits) {
+        this.descriptionId = descriptionId;
         this.name = name;
         this.exits = exits;
     }
 
     public String toString(){
-        return description;
+        return getDescription();
     }
 
     public String getDescription() {
-        return description;
+        return TextStore.text(descriptionId);
+    }
+
+    public String getDescriptionId() {
+        return descriptionId;
     }
 
     public String getName() {
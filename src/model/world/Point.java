@@ -1,6 +1,5 @@
 package model.world;
 
-import java.util.Objects;
 import java.io.Serializable;
 
 /**
@@ -8,6 +7,7 @@ import java.io.Serializable;
  * will determine the positions of the locations in the world.
  */
 public class Point implements Serializable{
+    private static final long serialVersionUID = 1L;
     private final int x;
     private final int y;
     private final int z;
@@ -48,9 +48,13 @@ public class Point implements Serializable{
         return x == point.x && y == point.y && z == point.z;
     }
 
+    /**
+     * Same value as Objects.hash(x, y, z), without the varargs array and the boxing: points are hashed on every map
+     * lookup of every turn.
+     */
     @Override
     public int hashCode() {
-        return Objects.hash(x, y, z);
+        return 31 * (31 * (31 + x) + y) + z;
     }
 
 
@@ -0,0 +1,195 @@
+package persistence;
+
+import java.util.Arrays;
+
+/**
+ * A fast LZ77 compressor for blocks of up to 64 KiB, using the LZ4 block format: a block is a run of sequences, each
+ * made of a token byte (the number of literals in the high four bits and the match length minus four in the low
+ * four), the literals, the two byte little-endian offset of the match and the rest of the lengths in extra bytes of
+ * 255. The last sequence only has literals.
+ * Compression looks up the previous position of every four byte sequence in a small hash table and skips ahead
+ * faster through data that doesn't compress, so it runs at hundreds of megabytes per second. It compresses less than
+ * a deflate stream but costs much less time than the disk writes it saves.
+ */
+final class BlockCodec {
+    static final int MAX_BLOCK_SIZE = 1 << 16;
+    private static final int HASH_BITS = 12;
+    static final int HASH_TABLE_SIZE = 1 << HASH_BITS;
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 65535;
+    private static final int LAST_LITERALS = 5;
+    private static final int MATCH_FIND_LIMIT = 12;
+    private static final int SKIP_TRIGGER = 6;
+
+    private BlockCodec() {
+    }
+
+    /**
+     * @return the size of the buffer compressing a block of the given length needs in the worst case
+     */
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /**
+     * Compresses a block.
+     * @param src the block to compress
+     * @param length the length of the block, at most MAX_BLOCK_SIZE
+     * @param dst the buffer to compress to, of at least {@link #maxCompressedLength} bytes
+     * @param table a hash table of HASH_TABLE_SIZE entries, reused between the blocks
+     * @return the length of the compressed block
+     */
+    static int compress(byte[] src, int length, byte[] dst, int[] table) {
+        Arrays.fill(table, -1);
+        int anchor = 0;
+        int in = 0;
+        int out = 0;
+        int limit = length - MATCH_FIND_LIMIT;
+        int matchLimit = length - LAST_LITERALS;
+
+        while (in < limit) {
+            int sequence = readInt(src, in);
+            int hash = hash(sequence);
+            int candidate = table[hash];
+            table[hash] = in;
+            if (candidate < 0 || in - candidate > MAX_OFFSET || readInt(src, candidate) != sequence) {
+                in += 1 + ((in - anchor) >>> SKIP_TRIGGER);
+                continue;
+            }
+
+            while (in > anchor && candidate > 0 && src[in - 1] == src[candidate - 1]) {
+                in--;
+                candidate--;
+            }
+            int matchEnd = in + MIN_MATCH;
+            int candidateEnd = candidate + MIN_MATCH;
+            while (matchEnd < matchLimit && src[matchEnd] == src[candidateEnd]) {
+                matchEnd++;
+                candidateEnd++;
+            }
+
+            int token = out++;
+            out = writeLiterals(src, anchor, in - anchor, dst, token, out);
+            int offset = in - candidate;
+            dst[out++] = (byte) offset;
+            dst[out++] = (byte) (offset >>> 8);
+            int matchLength = matchEnd - in - MIN_MATCH;
+            if (matchLength >= 15) {
+                dst[token] |= 0x0F;
+                out = writeLength(dst, out, matchLength - 15);
+            } else {
+                dst[token] |= (byte) matchLength;
+            }
+            in = matchEnd;
+            anchor = in;
+        }
+
+        int token = out++;
+        return writeLiterals(src, anchor, length - anchor, dst, token, out);
+    }
+
+    /**
+     * Decompresses a block, checking every length and offset against the buffers so a damaged block can't read or
+     * write out of them.
+     * @param src the buffer holding the compressed block
+     * @param offset where the compressed block starts
+     * @param length the length of the compressed block
+     * @param dst the buffer to decompress to
+     * @param rawLength the length the block had before it was compressed
+     * @throws CorruptSaveException if the block is damaged
+     */
+    static void decompress(byte[] src, int offset, int length, byte[] dst, int rawLength) throws CorruptSaveException {
+        int in = offset;
+        int end = offset + length;
+        int out = 0;
+        while (in < end) {
+            int token = src[in++] & 0xFF;
+            int literals = token >>> 4;
+            if (literals == 15) {
+                int extra;
+                do {
+                    if (in >= end) {
+                        throw damaged();
+                    }
+                    extra = src[in++] & 0xFF;
+                    literals += extra;
+                } while (extra == 255);
+            }
+            if (literals > end - in || literals > rawLength - out) {
+                throw damaged();
+            }
+            System.arraycopy(src, in, dst, out, literals);
+            in += literals;
+            out += literals;
+            if (in == end) {
+                break;
+            }
+
+            if (end - in < 2) {
+                throw damaged();
+            }
+            int matchOffset = (src[in] & 0xFF) | (src[in + 1] & 0xFF) << 8;
+            in += 2;
+            int matchLength = token & 0x0F;
+            if (matchLength == 15) {
+                int extra;
+                do {
+                    if (in >= end) {
+                        throw damaged();
+                    }
+                    extra = src[in++] & 0xFF;
+                    matchLength += extra;
+                } while (extra == 255);
+            }
+            matchLength += MIN_MATCH;
+            if (matchOffset == 0 || matchOffset > out || matchLength > rawLength - out) {
+                throw damaged();
+            }
+            int from = out - matchOffset;
+            if (matchOffset >= matchLength) {
+                System.arraycopy(dst, from, dst, out, matchLength);
+            } else {
+                for (int i = 0; i < matchLength; i++) {
+                    dst[out + i] = dst[from + i];
+                }
+            }
+            out += matchLength;
+        }
+        if (out != rawLength) {
+            throw damaged();
+        }
+    }
+
+    private static int writeLiterals(byte[] src, int start, int count, byte[] dst, int token, int out) {
+        if (count >= 15) {
+            dst[token] = (byte) 0xF0;
+            out = writeLength(dst, out, count - 15);
+        } else {
+            dst[token] = (byte) (count << 4);
+        }
+        System.arraycopy(src, start, dst, out, count);
+        return out + count;
+    }
+
+    private static int writeLength(byte[] dst, int out, int length) {
+        while (length >= 255) {
+            dst[out++] = (byte) 255;
+            length -= 255;
+        }
+        dst[out++] = (byte) length;
+        return out;
+    }
+
+    private static int readInt(byte[] bytes, int index) {
+        return (bytes[index] & 0xFF) | (bytes[index + 1] & 0xFF) << 8 | (bytes[index + 2] & 0xFF) << 16 |
+                (bytes[index + 3] & 0xFF) << 24;
+    }
+
+    private static int hash(int sequence) {
+        return (sequence * -1640531535) >>> (32 - HASH_BITS);
+    }
+
+    private static CorruptSaveException damaged() {
+        return new CorruptSaveException("Damaged compressed block");
+    }
+}
@@ -0,0 +1,15 @@
+package persistence;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a save file is damaged, for example by a write that was cut short, so that a part of it fails its
+ * checksum or can't be decompressed.
+ */
+public class CorruptSaveException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    public CorruptSaveException(String message) {
+        super(message);
+    }
+}
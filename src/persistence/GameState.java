@@ -21,6 +21,8 @@ public class GameState implements Serializable {
     private final Player player;
     private final List<Item> items;
     private final MapManager gameMap;
+    private final long sessionId;
+    private final long logSequence;
 
     /**
      * Creates a new GameState object with the given NPCs, player, items, and game map.
@@ -30,10 +32,26 @@ public class GameState implements Serializable {
      * @param gameMap the game map
      */
     public GameState(List<NPC> npcs, Player player, List<Item> items, MapManager gameMap) {
+        this(npcs, player, items, gameMap, 0, 0);
+    }
+
+    /**
+     * Creates a new GameState object of a game whose input is kept in a {@link WriteAheadLog}.
+     * @param npcs the list of NPCs scattered around the game world
+     * @param player the player character
+     * @param items the list of items scattered around the game world
+     * @param gameMap the game map
+     * @param sessionId the session of the game in the log, 0 if it isn't logged
+     * @param logSequence the sequence of the last record of the session the state includes
+     */
+    public GameState(List<NPC> npcs, Player player, List<Item> items, MapManager gameMap, long sessionId,
+                     long logSequence) {
         this.npcs = npcs;
         this.player = player;
         this.items = items;
         this.gameMap = gameMap;
+        this.sessionId = sessionId;
+        this.logSequence = logSequence;
     }
 
     public List<NPC> getNpcs() {
@@ -47,4 +65,23 @@ public class GameState implements Serializable {
     public List<Item> getItems() {
         return items;
     }
+
+    public MapManager getGameMap() {
+        return gameMap;
+    }
+
+    public long getSessionId() {
+        return sessionId;
+    }
+
+    public long getLogSequence() {
+        return logSequence;
+    }
+
+    /**
+     * @return false if parts of a damaged save couldn't be recovered and are null
+     */
+    public boolean isComplete() {
+        return npcs != null && player != null && items != null && gameMap != null;
+    }
 }
\ No newline at end of file
@@ -1,21 +1,139 @@
 package persistence;
 
+import core.MapManager;
+import model.character.NPC;
+import model.character.Player;
+import model.item.Item;
+
 import java.io.*;
 import java.io.Serializable;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
 
 /**
  * GameStateManager class is responsible for saving and loading the game (state).
+ * A save is a {@link SaveContainer} with one compressed and checksummed section for each part of the game state, so a
+ * damaged save still gives back the parts that are intact. The save is written to a temporary file first, forced to
+ * the disk and moved over the old one once it is complete, so a crash while saving leaves the previous save as it
+ * was and a crash right after it doesn't leave an empty save behind. A save that fails deletes its temporary file.
+ * Saves of the older format, a plain serialized GameState, are still loaded.
+ * The saves written with an older {@link SaveSchema} are migrated while they are loaded.
  */
 public class GameStateManager implements Serializable {
+    private static final int PLAYER_SECTION = 1;
+    private static final int NPCS_SECTION = 2;
+    private static final int ITEMS_SECTION = 3;
+    private static final int MAP_SECTION = 4;
+    private static final int LOG_SECTION = 5;
+
     public static void saveGame(GameState gameState, String filePath) throws IOException {
-        try (ObjectOutputStream oos = new ObjectOutputStream(new FileOutputStream(filePath))) {
-            oos.writeObject(gameState);
+        Path path = Path.of(filePath);
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            try (FileOutputStream file = new FileOutputStream(temporary.toFile());
+                 SaveContainer.Writer writer = new SaveContainer.Writer(new BufferedOutputStream(file),
+                         SaveSchema.VERSION)) {
+                writeSection(writer, PLAYER_SECTION, gameState.getPlayer());
+                writeSection(writer, NPCS_SECTION, gameState.getNpcs());
+                writeSection(writer, ITEMS_SECTION, gameState.getItems());
+                writeSection(writer, MAP_SECTION, gameState.getGameMap());
+                writeSection(writer, LOG_SECTION, new long[]{gameState.getSessionId(), gameState.getLogSequence()});
+                writer.flush();
+                file.getChannel().force(true);
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+    }
+
+    private static void writeSection(SaveContainer.Writer writer, int section, Object value) throws IOException {
+        try (ObjectOutputStream oos = new ObjectOutputStream(writer.section(section))) {
+            oos.writeObject(value);
         }
     }
 
+    /**
+     * Loads a save. The sections of a damaged save that are intact are recovered and the others are left null in the
+     * returned state, see {@link GameState#isComplete()}. Only the player is required.
+     * @param filePath the file to load
+     * @return the state of the game
+     * @throws CorruptSaveException if the player can't be recovered
+     * @throws IOException if the file can't be read
+     * @throws ClassNotFoundException if a save of the older format holds an unknown class
+     */
     public static GameState loadGame(String filePath) throws IOException, ClassNotFoundException {
-        try (ObjectInputStream ois = new ObjectInputStream(new FileInputStream(filePath))) {
-            return (GameState) ois.readObject();
+        return load(filePath, true);
+    }
+
+    /**
+     * Loads only the player and the NPCs of a save, for tools that look at many saves. The other sections are
+     * skipped without being decompressed. A save of the older format is loaded whole.
+     * @param filePath the file to load
+     * @return the state of the game, without its items and map
+     * @throws CorruptSaveException if the player can't be recovered
+     * @throws IOException if the file can't be read
+     * @throws ClassNotFoundException if a save of the older format holds an unknown class
+     */
+    public static GameState loadCharacters(String filePath) throws IOException, ClassNotFoundException {
+        return load(filePath, false);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static GameState load(String filePath, boolean everything) throws IOException, ClassNotFoundException {
+        Path path = Path.of(filePath);
+        SaveContainer.Reader reader = SaveContainer.Reader.open(path);
+        if (reader == null) {
+            try (InputStream in = new BufferedInputStream(Files.newInputStream(path));
+                 ObjectInputStream ois = new ObjectInputStream(SaveSchema.migrated(in, 1))) {
+                return (GameState) ois.readObject();
+            }
+        }
+
+        Player player = null;
+        List<NPC> npcs = null;
+        List<Item> items = null;
+        MapManager gameMap = null;
+        long[] log = {0, 0};
+        for (int section = reader.nextSection(); section >= 0; section = reader.nextSection()) {
+            if (!everything && section != PLAYER_SECTION && section != NPCS_SECTION) {
+                continue;
+            }
+            Object value = readSection(reader);
+            switch (section) {
+                case PLAYER_SECTION -> player = value instanceof Player p ? p : player;
+                case NPCS_SECTION -> npcs = value instanceof List<?> list ? (List<NPC>) list : npcs;
+                case ITEMS_SECTION -> items = value instanceof List<?> list ? (List<Item>) list : items;
+                case MAP_SECTION -> gameMap = value instanceof MapManager map ? map : gameMap;
+                case LOG_SECTION -> log = value instanceof long[] position && position.length == 2 ? position : log;
+                default -> {
+                }
+            }
+        }
+        if (player == null) {
+            throw new CorruptSaveException("The player can't be recovered from " + filePath);
+        }
+        return new GameState(npcs, player, items, gameMap, log[0], log[1]);
+    }
+
+    /**
+     * @return the object of the section, or null if the section is damaged or can't be deserialized
+     */
+    private static Object readSection(SaveContainer.Reader reader) {
+        InputStream in = reader.section();
+        try (ObjectInputStream ois = new ObjectInputStream(SaveSchema.migrated(in, reader.getSchemaVersion()))) {
+            Object value = ois.readObject();
+            in.transferTo(OutputStream.nullOutputStream()); // reading to the end verifies the section is complete
+            return value;
+        } catch (IOException | ClassNotFoundException | RuntimeException e) {
+            return null;
         }
     }
 }
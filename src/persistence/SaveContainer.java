@@ -0,0 +1,359 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.zip.CRC32C;
+
+/**
+ * The file format of the saves: a header followed by sections, each holding one independent part of the game (the
+ * player, the NPCs...). A section is streamed in blocks of up to 64 KiB that are compressed with {@link BlockCodec}
+ * (or stored as they are when they don't compress) and ends with an end block holding its total length.
+ * Every block starts with a marker, the section it belongs to, its number in the section and its lengths, followed by
+ * a CRC32C of the uncompressed data and a CRC32C of the block header itself. Reading verifies every block, so a
+ * damaged or missing block is reported instead of turning into garbage objects, and because the blocks can be found
+ * again by their marker and header checksum, the sections after a damaged one can still be read.
+ * Since version 2 the header also holds the version of the {@link SaveSchema} the sections were written with.
+ */
+final class SaveContainer {
+    static final int MAGIC = 0x52504753; // "RPGS"
+    static final int VERSION = 2;
+    private static final int BLOCK_MAGIC = 0x424C4B21; // "BLK!"
+    private static final int HEADER_SIZE = 26;
+    private static final int MAP_THRESHOLD = 1 << 22;
+    private static final int INITIAL_BUFFER_SIZE = 4096;
+    private static final byte STORED = 0;
+    private static final byte COMPRESSED = 1;
+    private static final byte END = 2;
+
+    private SaveContainer() {
+    }
+
+    /**
+     * Writes the sections of a save one after the other. Only one section can be written at a time.
+     */
+    static final class Writer implements Closeable {
+        private final OutputStream out;
+        private byte[] raw = new byte[INITIAL_BUFFER_SIZE];
+        private byte[] compressed = new byte[0];
+        private final int[] table = new int[BlockCodec.HASH_TABLE_SIZE];
+        private final ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        private final CRC32C crc = new CRC32C();
+
+        /**
+         * Starts a save.
+         * @param out the stream to write the save to
+         * @param schemaVersion the version of the schema the sections are written with
+         */
+        Writer(OutputStream out, int schemaVersion) throws IOException {
+            this.out = out;
+            ByteBuffer fileHeader = ByteBuffer.allocate(12).putInt(MAGIC).putInt(VERSION).putInt(schemaVersion);
+            out.write(fileHeader.array());
+        }
+
+        /**
+         * Starts a section. Closing the returned stream ends the section without closing the save.
+         * @param section the id of the section
+         * @return the stream to write the data of the section to
+         */
+        OutputStream section(int section) {
+            return new OutputStream() {
+                private int size;
+                private int sequence;
+                private int total;
+
+                @Override
+                public void write(int b) throws IOException {
+                    if (size == raw.length) {
+                        makeRoom();
+                    }
+                    raw[size++] = (byte) b;
+                }
+
+                @Override
+                public void write(byte[] bytes, int offset, int length) throws IOException {
+                    while (length > 0) {
+                        if (size == raw.length) {
+                            makeRoom();
+                        }
+                        int count = Math.min(length, raw.length - size);
+                        System.arraycopy(bytes, offset, raw, size, count);
+                        size += count;
+                        offset += count;
+                        length -= count;
+                    }
+                }
+
+                @Override
+                public void close() throws IOException {
+                    if (size > 0) {
+                        flushBlock();
+                    }
+                    writeHeader(section, END, sequence, total, 0, 0);
+                }
+
+                /**
+                 * Grows the buffer up to a whole block, so small saves don't allocate full blocks, and writes the
+                 * block once it is full.
+                 */
+                private void makeRoom() throws IOException {
+                    if (raw.length < BlockCodec.MAX_BLOCK_SIZE) {
+                        raw = Arrays.copyOf(raw, raw.length * 2);
+                    } else {
+                        flushBlock();
+                    }
+                }
+
+                private void flushBlock() throws IOException {
+                    if (compressed.length < BlockCodec.maxCompressedLength(size)) {
+                        compressed = new byte[BlockCodec.maxCompressedLength(raw.length)];
+                    }
+                    crc.reset();
+                    crc.update(raw, 0, size);
+                    int checksum = (int) crc.getValue();
+                    int length = BlockCodec.compress(raw, size, compressed, table);
+                    if (length < size) {
+                        writeHeader(section, COMPRESSED, sequence, size, length, checksum);
+                        out.write(compressed, 0, length);
+                    } else {
+                        writeHeader(section, STORED, sequence, size, size, checksum);
+                        out.write(raw, 0, size);
+                    }
+                    sequence++;
+                    total += size;
+                    size = 0;
+                }
+            };
+        }
+
+        private void writeHeader(int section, byte type, int sequence, int rawLength, int storedLength, int checksum)
+                throws IOException {
+            header.clear();
+            header.putInt(BLOCK_MAGIC).put((byte) section).put(type).putInt(sequence).putInt(rawLength)
+                    .putInt(storedLength).putInt(checksum);
+            crc.reset();
+            crc.update(header.array(), 0, header.position());
+            header.putInt((int) crc.getValue());
+            out.write(header.array(), 0, HEADER_SIZE);
+        }
+
+        /**
+         * Writes out the bytes that are still buffered, so the file can be forced to the disk before it is closed.
+         */
+        void flush() throws IOException {
+            out.flush();
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the sections of a save. Each section is decompressed and verified block by block
+     * while it is read. When a section turns out to be damaged, {@link #nextSection()} skips to the first intact
+     * section after it.
+     */
+    static final class Reader {
+        private final ByteBuffer buffer;
+        private final int schemaVersion;
+        private byte[] raw = new byte[0];
+        private byte[] stored = new byte[0];
+        private final CRC32C crc = new CRC32C();
+        private int position;
+        private int sectionStart = -1;
+        private int blockSection;
+        private byte blockType;
+        private int blockSequence;
+        private int blockRawLength;
+        private int blockStoredLength;
+        private int blockChecksum;
+
+        private Reader(ByteBuffer buffer, int headerSize, int schemaVersion) {
+            this.buffer = buffer;
+            this.position = headerSize;
+            this.schemaVersion = schemaVersion;
+        }
+
+        /**
+         * Opens a save. Saves are usually small, so they are read at once. Only a save larger than MAP_THRESHOLD is
+         * memory-mapped, because mapping a file costs more than reading a few kilobytes.
+         * @param path the save to read
+         * @return the reader, or null if the file isn't a save container (a save of the older uncompressed format)
+         * @throws IOException if the file can't be read or was written by a newer version of the game
+         */
+        static Reader open(Path path) throws IOException {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                long size = channel.size();
+                ByteBuffer buffer;
+                if (size > MAP_THRESHOLD) {
+                    buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                } else {
+                    buffer = ByteBuffer.allocate((int) size);
+                    while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                        // keep reading until the whole file is in the buffer
+                    }
+                    buffer.flip();
+                }
+                if (buffer.limit() < 8 || buffer.getInt(0) != MAGIC) {
+                    return null;
+                }
+                int version = buffer.getInt(4);
+                if (version > VERSION) {
+                    throw new IOException("The save was written by a newer version of the game: " + path);
+                }
+                if (version == 1) {
+                    return new Reader(buffer, 8, 1);
+                }
+                if (buffer.limit() < 12) {
+                    throw new CorruptSaveException("The header of the save is incomplete: " + path);
+                }
+                return new Reader(buffer, 12, buffer.getInt(8));
+            }
+        }
+
+        /**
+         * @return the version of the schema the sections were written with
+         */
+        int getSchemaVersion() {
+            return schemaVersion;
+        }
+
+        /**
+         * Finds the next section, skipping whatever is left of the previous one and anything damaged on the way.
+         * @return the id of the section, or -1 at the end of the save
+         */
+        int nextSection() {
+            if (position == sectionStart) {
+                position++;
+            }
+            for (; position + HEADER_SIZE <= buffer.limit(); position++) {
+                if (readHeader(position) && blockSequence == 0) {
+                    sectionStart = position;
+                    return blockSection;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Opens the section found by {@link #nextSection()}. The stream throws a {@link CorruptSaveException} when it
+         * reaches a damaged block, and reading it to its end verifies that the section is complete.
+         * @return the stream of the data of the section
+         */
+        InputStream section() {
+            int section = blockSection;
+            return new InputStream() {
+                private int size;
+                private int index;
+                private int sequence;
+                private long total;
+                private boolean ended;
+
+                @Override
+                public int read() throws IOException {
+                    if (index == size && !fill()) {
+                        return -1;
+                    }
+                    return raw[index++] & 0xFF;
+                }
+
+                @Override
+                public int read(byte[] bytes, int offset, int length) throws IOException {
+                    if (length == 0) {
+                        return 0;
+                    }
+                    if (index == size && !fill()) {
+                        return -1;
+                    }
+                    int count = Math.min(length, size - index);
+                    System.arraycopy(raw, index, bytes, offset, count);
+                    index += count;
+                    return count;
+                }
+
+                @Override
+                public int available() {
+                    return size - index;
+                }
+
+                private boolean fill() throws IOException {
+                    if (ended) {
+                        return false;
+                    }
+                    if (!readHeader(position) || blockSection != section || blockSequence != sequence) {
+                        throw new CorruptSaveException("Block " + sequence + " of section " + section +
+                                " is missing or damaged");
+                    }
+                    position += HEADER_SIZE + blockStoredLength;
+                    if (blockType == END) {
+                        ended = true;
+                        if (blockRawLength != total) {
+                            throw new CorruptSaveException("Section " + section + " is incomplete");
+                        }
+                        return false;
+                    }
+
+                    if (raw.length < blockRawLength) {
+                        raw = new byte[blockRawLength];
+                    }
+                    if (stored.length < blockStoredLength) {
+                        stored = new byte[blockStoredLength];
+                    }
+                    buffer.get(position - blockStoredLength, stored, 0, blockStoredLength);
+                    if (blockType == COMPRESSED) {
+                        BlockCodec.decompress(stored, 0, blockStoredLength, raw, blockRawLength);
+                    } else {
+                        System.arraycopy(stored, 0, raw, 0, blockRawLength);
+                    }
+                    crc.reset();
+                    crc.update(raw, 0, blockRawLength);
+                    if ((int) crc.getValue() != blockChecksum) {
+                        throw new CorruptSaveException("Block " + sequence + " of section " + section +
+                                " fails its checksum");
+                    }
+                    size = blockRawLength;
+                    index = 0;
+                    sequence++;
+                    total += size;
+                    return true;
+                }
+            };
+        }
+
+        /**
+         * Reads and checks the block header at the given position.
+         * @return true if there is an intact block header there, whose block fits in the file
+         */
+        private boolean readHeader(int at) {
+            if (buffer.getInt(at) != BLOCK_MAGIC) {
+                return false;
+            }
+            crc.reset();
+            crc.update(buffer.slice(at, HEADER_SIZE - 4));
+            if ((int) crc.getValue() != buffer.getInt(at + HEADER_SIZE - 4)) {
+                return false;
+            }
+            blockSection = buffer.get(at + 4);
+            blockType = buffer.get(at + 5);
+            blockSequence = buffer.getInt(at + 6);
+            blockRawLength = buffer.getInt(at + 10);
+            blockStoredLength = buffer.getInt(at + 14);
+            blockChecksum = buffer.getInt(at + 18);
+            boolean block = blockType == STORED || blockType == COMPRESSED;
+            return blockSequence >= 0 && blockRawLength >= 0 && blockStoredLength >= 0 &&
+                    (!block || blockRawLength <= BlockCodec.MAX_BLOCK_SIZE) &&
+                    blockStoredLength <= BlockCodec.maxCompressedLength(BlockCodec.MAX_BLOCK_SIZE) &&
+                    (blockType == END ? blockStoredLength == 0 : block) &&
+                    blockStoredLength <= buffer.limit() - at - HEADER_SIZE;
+        }
+
+    }
+}
@@ -0,0 +1,128 @@
+package persistence;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * SaveMigrator brings a whole archive of saves up to the current {@link SaveSchema} ahead of time, so the game doesn't
+ * migrate them every time they are loaded.
+ * Every save is migrated on its own, section by section: a section is decompressed, rewritten by the migrations and
+ * compressed again as one stream, without ever holding the objects of the save or more than a block of it. The saves
+ * are spread over all the cores, and a migrated save replaces the old one atomically, so the job can be stopped and
+ * run again at any time. The sections of a damaged save that can't be found any more stay lost, as they would when
+ * the game loads it, and a save with a section that turns out damaged while it is migrated is left as it is.
+ * Run it with "java persistence.SaveMigrator [directory] [threads]".
+ */
+public final class SaveMigrator {
+    /**
+     * What happened to a file of the archive.
+     */
+    enum Outcome {
+        MIGRATED, UP_TO_DATE, OLDER_FORMAT, FAILED
+    }
+
+    private SaveMigrator() {
+    }
+
+    /**
+     * Migrates every save in a directory and its subdirectories.
+     * @param directory the archive
+     * @param threads the number of saves migrated at the same time
+     * @return the number of files for every outcome
+     * @throws IOException if the directory can't be listed
+     */
+    static Map<Outcome, Long> migrateAll(Path directory, int threads) throws IOException {
+        List<Path> files;
+        try (Stream<Path> walk = Files.walk(directory)) {
+            files = walk.filter(Files::isRegularFile).filter(path -> !path.toString().endsWith(".tmp")).toList();
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            Map<Outcome, Long> counts = pool.submit(() -> files.parallelStream().map(SaveMigrator::migrate)
+                    .collect(Collectors.groupingBy(Function.identity(), Collectors.counting()))).get();
+            Map<Outcome, Long> outcomes = new EnumMap<>(Outcome.class);
+            outcomes.putAll(counts);
+            return outcomes;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("The migration was interrupted", e);
+        } catch (ExecutionException e) {
+            throw new IOException("The migration failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    /**
+     * Migrates one save. Saves of the older uncompressed format are left to the game, which migrates them when it
+     * loads them.
+     * @param path the save
+     * @return what happened to it
+     */
+    static Outcome migrate(Path path) {
+        Path temporary = path.resolveSibling(path.getFileName() + ".tmp");
+        try {
+            SaveContainer.Reader reader = SaveContainer.Reader.open(path);
+            if (reader == null) {
+                return Outcome.OLDER_FORMAT;
+            }
+            if (reader.getSchemaVersion() == SaveSchema.VERSION) {
+                return Outcome.UP_TO_DATE;
+            }
+            try (SaveContainer.Writer writer = new SaveContainer.Writer(
+                    new BufferedOutputStream(Files.newOutputStream(temporary)), SaveSchema.VERSION)) {
+                for (int section = reader.nextSection(); section >= 0; section = reader.nextSection()) {
+                    InputStream in = reader.section();
+                    try (OutputStream out = writer.section(section)) {
+                        SaveSchema.migrate(in, out, reader.getSchemaVersion());
+                    }
+                }
+            }
+            Files.move(temporary, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return Outcome.MIGRATED;
+        } catch (IOException e) {
+            System.err.println("Failed to migrate " + path + ": " + e.getMessage());
+            try {
+                Files.deleteIfExists(temporary);
+            } catch (IOException ignored) {
+                // the next run replaces it
+            }
+            return Outcome.FAILED;
+        }
+    }
+
+    /**
+     * Migrates the saves of a directory and prints what happened.
+     * @param args the directory (the current one by default) and the threads (all cores by default)
+     */
+    public static void main(String[] args) {
+        Path directory = Path.of(args.length > 0 ? args[0] : ".");
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        long start = System.nanoTime();
+        try {
+            Map<Outcome, Long> counts = migrateAll(directory, threads);
+            long elapsed = System.nanoTime() - start;
+            long files = counts.values().stream().mapToLong(Long::longValue).sum();
+            System.out.println(files + " files in " + elapsed / 1_000_000 + " ms on " + threads + " threads: " +
+                    counts.getOrDefault(Outcome.MIGRATED, 0L) + " migrated to version " + SaveSchema.VERSION + ", " +
+                    counts.getOrDefault(Outcome.UP_TO_DATE, 0L) + " up to date, " +
+                    counts.getOrDefault(Outcome.OLDER_FORMAT, 0L) + " of the older format (migrated when loaded), " +
+                    counts.getOrDefault(Outcome.FAILED, 0L) + " failed");
+        } catch (IOException e) {
+            System.err.println("Failed to migrate the saves: " + e.getMessage());
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package persistence;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * The versions of the classes the saves are written with. Every save records the version of the schema it was
+ * written with, and an older save is brought up to date by the {@link SchemaMigration}s of the versions after it when
+ * it is loaded, or ahead of time by {@link SaveMigrator}. A change to a saved class that older saves can't be loaded
+ * with as they are (a renamed field or class, a new stat that doesn't start at 0) takes a new version with a
+ * migration for it.
+ * Version 1 is every save written before the versions were recorded. Version 2 pins the serialVersionUID of the game
+ * classes to 1, so adding or removing a field no longer makes the older saves unreadable, and renames the fields that
+ * held the texts of the locations and the NPCs to the fields holding their ids. The old saves keep the texts
+ * themselves in those fields, which {@link model.text.TextStore} gives back as they are.
+ */
+public final class SaveSchema {
+    public static final int VERSION = 2;
+    private static final List<SchemaMigration> MIGRATIONS = List.of(
+            new SchemaMigration(2)
+                    .pinSerialVersionUIDs("core", 1L)
+                    .pinSerialVersionUIDs("gameplay", 1L)
+                    .pinSerialVersionUIDs("model", 1L)
+                    .pinSerialVersionUIDs("persistence", 1L)
+                    .renameField("model.world.Location", "description", "descriptionId")
+                    .renameField("model.character.NPC", "dialogue", "dialogueId"));
+
+    private SaveSchema() {
+    }
+
+    /**
+     * Migrates a serialized object written with an older version of the schema to the current one.
+     * @param in the serialization stream to migrate
+     * @param out where the migrated stream is written
+     * @param version the version the stream was written with
+     * @throws IOException if the stream can't be read, written or parsed
+     */
+    public static void migrate(InputStream in, OutputStream out, int version) throws IOException {
+        if (version > VERSION) {
+            throw new IOException("The save was written by a newer version of the game");
+        }
+        new SerialStreamRewriter(in, out, migrationsAfter(version)).rewrite();
+    }
+
+    /**
+     * Migrates a serialized object in memory, for loading it.
+     * @param in the serialization stream to migrate
+     * @param version the version the stream was written with
+     * @return the migrated stream, or the given one if it is up to date
+     * @throws IOException if the stream can't be read or parsed
+     */
+    static InputStream migrated(InputStream in, int version) throws IOException {
+        if (version == VERSION) {
+            return in;
+        }
+        ByteArrayOutputStream migrated = new ByteArrayOutputStream();
+        migrate(in, migrated, version);
+        return new ByteArrayInputStream(migrated.toByteArray());
+    }
+
+    private static List<SchemaMigration> migrationsAfter(int version) {
+        int first = 0;
+        while (first < MIGRATIONS.size() && MIGRATIONS.get(first).getVersion() <= version) {
+            first++;
+        }
+        return MIGRATIONS.subList(first, MIGRATIONS.size());
+    }
+}
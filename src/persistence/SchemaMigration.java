@@ -0,0 +1,204 @@
+package persistence;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A migration of the saves from the previous version of the {@link SaveSchema} to the given one, made of steps that
+ * say how the classes of the game changed, for example:
+ * <pre>
+ *     new SchemaMigration(3)
+ *             .renameField("model.character.Character", "damage", "attack")
+ *             .addField("model.character.Character", "luck", 1.0f)
+ * </pre>
+ * The steps are applied to the class descriptors of the saves by the {@link SerialStreamRewriter}, so a save is
+ * migrated without loading any of its objects. The field steps name the classes as they are once the classes of
+ * the migration are renamed.
+ * A field that is removed needs no step: its value is skipped when the save is loaded. Only primitive fields can be
+ * added, since a new object field would change the handles of the objects after it; an object field that is missing
+ * from a save is loaded as null anyway.
+ */
+public final class SchemaMigration {
+    private final int version;
+    private final Map<String, String> classRenames = new HashMap<>();
+    private final List<String> pinnedPackages = new ArrayList<>();
+    private final List<Long> pinnedSerialVersionUIDs = new ArrayList<>();
+    private final Map<String, Map<String, String>> fieldRenames = new HashMap<>();
+    private final Map<String, List<AddedField>> addedFields = new HashMap<>();
+
+    /**
+     * A primitive field added by a migration, with the value it takes in the objects of the older saves.
+     */
+    private static final class AddedField {
+        private final String name;
+        private final char typeCode;
+        private final byte[] value;
+
+        AddedField(String name, char typeCode, byte[] value) {
+            this.name = name;
+            this.typeCode = typeCode;
+            this.value = value;
+        }
+    }
+
+    /**
+     * Creates an empty migration.
+     * @param version the version of the schema the migration leads to
+     */
+    public SchemaMigration(int version) {
+        this.version = version;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * Renames a class, for the class itself, the arrays of it and the fields of its type.
+     * @param from the fully qualified name the class had
+     * @param to the fully qualified name of the class
+     * @return this migration
+     */
+    public SchemaMigration renameClass(String from, String to) {
+        classRenames.put(from, to);
+        return this;
+    }
+
+    /**
+     * Sets the serialVersionUID of every class of a package and its subpackages, for classes that declare a
+     * serialVersionUID from this version on when they didn't before.
+     * @param packageName the package, like "model"
+     * @param serialVersionUID the serialVersionUID the classes declare
+     * @return this migration
+     */
+    public SchemaMigration pinSerialVersionUIDs(String packageName, long serialVersionUID) {
+        pinnedPackages.add(packageName + ".");
+        pinnedSerialVersionUIDs.add(serialVersionUID);
+        return this;
+    }
+
+    /**
+     * Renames a field, keeping its value.
+     * @param className the class declaring the field
+     * @param from the name the field had
+     * @param to the name of the field
+     * @return this migration
+     */
+    public SchemaMigration renameField(String className, String from, String to) {
+        fieldRenames.computeIfAbsent(className, name -> new HashMap<>()).put(from, to);
+        return this;
+    }
+
+    /**
+     * Adds a primitive field, like a new stat, that takes the given value in the older saves.
+     * @param className the class declaring the field
+     * @param name the name of the field
+     * @param value the value of the field, a boxed primitive of the type of the field
+     * @return this migration
+     * @throws IllegalArgumentException if the value isn't a boxed primitive
+     */
+    public SchemaMigration addField(String className, String name, Object value) {
+        ByteBuffer bytes = ByteBuffer.allocate(8);
+        char typeCode;
+        if (value instanceof Boolean b) {
+            typeCode = 'Z';
+            bytes.put((byte) (b ? 1 : 0));
+        } else if (value instanceof Byte b) {
+            typeCode = 'B';
+            bytes.put(b);
+        } else if (value instanceof Character c) {
+            typeCode = 'C';
+            bytes.putChar(c);
+        } else if (value instanceof Short s) {
+            typeCode = 'S';
+            bytes.putShort(s);
+        } else if (value instanceof Integer i) {
+            typeCode = 'I';
+            bytes.putInt(i);
+        } else if (value instanceof Float f) {
+            typeCode = 'F';
+            bytes.putFloat(f);
+        } else if (value instanceof Long l) {
+            typeCode = 'J';
+            bytes.putLong(l);
+        } else if (value instanceof Double d) {
+            typeCode = 'D';
+            bytes.putDouble(d);
+        } else {
+            throw new IllegalArgumentException("Only primitive fields can be added: " + className + "." + name);
+        }
+        byte[] encoded = new byte[bytes.position()];
+        bytes.get(0, encoded);
+        addedFields.computeIfAbsent(className, key -> new ArrayList<>()).add(new AddedField(name, typeCode, encoded));
+        return this;
+    }
+
+    /**
+     * Applies the steps of the migration to a class read from a save.
+     * @param streamClass the class as described in the save, and by the migrations before this one
+     */
+    void apply(SerialStreamRewriter.StreamClass streamClass) {
+        if (streamClass.name == null) {
+            return; // a proxy class
+        }
+        streamClass.name = renameClasses(streamClass.name, '.');
+        for (SerialStreamRewriter.StreamField field : streamClass.fields) {
+            if (field.signature != null) {
+                field.signature = renameClasses(field.signature, '/');
+            }
+        }
+
+        boolean isEnum = (streamClass.flags & SerialStreamRewriter.SC_ENUM) != 0;
+        if (!isEnum && !streamClass.name.startsWith("[")) { // enums and arrays have no serialVersionUID to check
+            for (int i = 0; i < pinnedPackages.size(); i++) {
+                if (streamClass.name.startsWith(pinnedPackages.get(i))) {
+                    streamClass.serialVersionUID = pinnedSerialVersionUIDs.get(i);
+                }
+            }
+        }
+
+        Map<String, String> renames = fieldRenames.get(streamClass.name);
+        if (renames != null) {
+            for (SerialStreamRewriter.StreamField field : streamClass.fields) {
+                field.name = renames.getOrDefault(field.name, field.name);
+            }
+        }
+
+        List<AddedField> added = addedFields.get(streamClass.name);
+        if (added != null) {
+            for (AddedField field : added) {
+                if (streamClass.field(field.name) != null) {
+                    continue;
+                }
+                int index = 0;
+                while (index < streamClass.fields.size() && streamClass.fields.get(index).isPrimitive()) {
+                    index++;
+                }
+                streamClass.fields.add(index, new SerialStreamRewriter.StreamField(field.typeCode, field.name));
+                byte[] values = new byte[streamClass.addedValues.length + field.value.length];
+                System.arraycopy(streamClass.addedValues, 0, values, 0, streamClass.addedValues.length);
+                System.arraycopy(field.value, 0, values, streamClass.addedValues.length, field.value.length);
+                streamClass.addedValues = values;
+            }
+        }
+    }
+
+    /**
+     * Renames the classes in a class name or a type signature, where the packages are separated by the given
+     * separator.
+     */
+    private String renameClasses(String name, char separator) {
+        for (Map.Entry<String, String> rename : classRenames.entrySet()) {
+            String from = rename.getKey().replace('.', separator);
+            String to = rename.getValue().replace('.', separator);
+            if (name.equals(from)) {
+                return to;
+            }
+            name = name.replace("L" + from + ";", "L" + to + ";");
+        }
+        return name;
+    }
+}
@@ -0,0 +1,391 @@
+package persistence;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Copies a Java serialization stream token by token while applying {@link SchemaMigration}s to it, without creating
+ * any of the objects it holds. The migrations only change the class descriptors (the names, serialVersionUIDs and
+ * fields of the classes) and add the values of the fields they add to the data of every object of those classes;
+ * everything else is copied as it is. Objects and strings keep the same handles, so the references between them
+ * stay valid.
+ * Only the stream itself is parsed, following the grammar of the serialization protocol, so the rewriter needs the
+ * field layout of a class from its descriptor in the stream and never loads the class. Objects written by a
+ * writeObject method are copied as long as the method writes its fields first, as the protocol requires.
+ */
+final class SerialStreamRewriter {
+    private static final short STREAM_MAGIC = (short) 0xACED;
+    private static final short STREAM_VERSION = 5;
+    private static final byte TC_NULL = 0x70;
+    private static final byte TC_REFERENCE = 0x71;
+    private static final byte TC_CLASSDESC = 0x72;
+    private static final byte TC_OBJECT = 0x73;
+    private static final byte TC_STRING = 0x74;
+    private static final byte TC_ARRAY = 0x75;
+    private static final byte TC_CLASS = 0x76;
+    private static final byte TC_BLOCKDATA = 0x77;
+    private static final byte TC_ENDBLOCKDATA = 0x78;
+    private static final byte TC_RESET = 0x79;
+    private static final byte TC_BLOCKDATALONG = 0x7A;
+    private static final byte TC_EXCEPTION = 0x7B;
+    private static final byte TC_LONGSTRING = 0x7C;
+    private static final byte TC_PROXYCLASSDESC = 0x7D;
+    private static final byte TC_ENUM = 0x7E;
+    private static final int BASE_HANDLE = 0x7E0000;
+    private static final byte SC_WRITE_METHOD = 0x01;
+    private static final byte SC_SERIALIZABLE = 0x02;
+    private static final byte SC_EXTERNALIZABLE = 0x04;
+    private static final byte SC_BLOCK_DATA = 0x08;
+    static final byte SC_ENUM = 0x10;
+
+    /**
+     * A class as it is described in the stream, with the migrations applied to it.
+     */
+    static final class StreamClass {
+        String name;
+        long serialVersionUID;
+        byte flags;
+        final List<StreamField> fields = new ArrayList<>();
+        StreamClass superClass;
+        /** The size of the primitive values of an object in the stream that is read. */
+        int primitiveSize;
+        /** The values of the primitive fields added by the migrations, written after the ones that were there. */
+        byte[] addedValues = new byte[0];
+
+        StreamField field(String fieldName) {
+            for (StreamField field : fields) {
+                if (field.name.equals(fieldName)) {
+                    return field;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * A field of a class described in the stream.
+     */
+    static final class StreamField {
+        final char typeCode;
+        String name;
+        /** The type signature of an object field, null for a primitive field. */
+        String signature;
+        /** The handle of the signature when the stream refers to a signature written before, or -1. */
+        int signatureHandle = -1;
+
+        StreamField(char typeCode, String name) {
+            this.typeCode = typeCode;
+            this.name = name;
+        }
+
+        boolean isPrimitive() {
+            return typeCode != 'L' && typeCode != '[';
+        }
+    }
+
+    private final DataInputStream in;
+    private final DataOutputStream out;
+    private final List<SchemaMigration> migrations;
+    /** The class descriptors by handle, null for the handles of other objects. */
+    private final List<StreamClass> handles = new ArrayList<>();
+    private final byte[] copyBuffer = new byte[8192];
+
+    /**
+     * Creates a rewriter.
+     * @param in the stream to migrate
+     * @param out where the migrated stream is written
+     * @param migrations the migrations to apply, in order
+     */
+    SerialStreamRewriter(InputStream in, OutputStream out, List<SchemaMigration> migrations) {
+        this.in = new DataInputStream(in);
+        this.out = new DataOutputStream(out);
+        this.migrations = migrations;
+    }
+
+    /**
+     * Copies the whole stream.
+     * @throws StreamCorruptedException if the stream isn't a serialization stream or uses something not supported
+     * @throws IOException if the stream can't be read or written
+     */
+    void rewrite() throws IOException {
+        if (in.readShort() != STREAM_MAGIC || in.readShort() != STREAM_VERSION) {
+            throw new StreamCorruptedException("Not a serialization stream");
+        }
+        out.writeShort(STREAM_MAGIC);
+        out.writeShort(STREAM_VERSION);
+        int tc;
+        while ((tc = in.read()) >= 0) {
+            content((byte) tc);
+        }
+        out.flush();
+    }
+
+    /**
+     * Copies the block data or object starting with the given type code.
+     */
+    private void content(byte tc) throws IOException {
+        switch (tc) {
+            case TC_BLOCKDATA -> {
+                int length = in.readUnsignedByte();
+                out.writeByte(tc);
+                out.writeByte(length);
+                copy(length);
+            }
+            case TC_BLOCKDATALONG -> {
+                int length = in.readInt();
+                out.writeByte(tc);
+                out.writeInt(length);
+                copy(length);
+            }
+            default -> object(tc);
+        }
+    }
+
+    private void object(byte tc) throws IOException {
+        switch (tc) {
+            case TC_NULL -> out.writeByte(tc);
+            case TC_REFERENCE -> {
+                out.writeByte(tc);
+                out.writeInt(in.readInt());
+            }
+            case TC_CLASSDESC, TC_PROXYCLASSDESC -> classDescription(tc);
+            case TC_OBJECT -> {
+                out.writeByte(tc);
+                StreamClass streamClass = required(classDescription(in.readByte()));
+                newHandle(null);
+                classData(streamClass);
+            }
+            case TC_STRING, TC_LONGSTRING -> string(tc);
+            case TC_ARRAY -> {
+                out.writeByte(tc);
+                StreamClass streamClass = required(classDescription(in.readByte()));
+                newHandle(null);
+                int length = in.readInt();
+                out.writeInt(length);
+                char elementType = streamClass.name != null && streamClass.name.length() > 1 ?
+                        streamClass.name.charAt(1) : '?';
+                if ("BCDFIJSZL[".indexOf(elementType) < 0) {
+                    throw new StreamCorruptedException("Invalid array class: " + streamClass.name);
+                }
+                if (elementType == 'L' || elementType == '[') {
+                    for (int i = 0; i < length; i++) {
+                        object(in.readByte());
+                    }
+                } else {
+                    copy((long) length * width(elementType));
+                }
+            }
+            case TC_CLASS -> {
+                out.writeByte(tc);
+                classDescription(in.readByte());
+                newHandle(null);
+            }
+            case TC_ENUM -> {
+                out.writeByte(tc);
+                classDescription(in.readByte());
+                newHandle(null);
+                object(in.readByte());
+            }
+            case TC_RESET -> {
+                out.writeByte(tc);
+                handles.clear();
+            }
+            case TC_EXCEPTION -> throw new StreamCorruptedException("The stream holds an exception of its writer");
+            default -> throw new StreamCorruptedException(String.format("Invalid type code: %02X", tc));
+        }
+    }
+
+    /**
+     * Copies a class descriptor, or the reference to one, with the migrations applied to it.
+     * @return the class, null for a null descriptor
+     */
+    private StreamClass classDescription(byte tc) throws IOException {
+        switch (tc) {
+            case TC_NULL -> {
+                out.writeByte(tc);
+                return null;
+            }
+            case TC_REFERENCE -> {
+                int handle = in.readInt();
+                out.writeByte(tc);
+                out.writeInt(handle);
+                int index = handle - BASE_HANDLE;
+                if (index < 0 || index >= handles.size() || handles.get(index) == null) {
+                    throw new StreamCorruptedException("Invalid class descriptor handle: " + handle);
+                }
+                return handles.get(index);
+            }
+            case TC_PROXYCLASSDESC -> {
+                out.writeByte(tc);
+                StreamClass proxy = new StreamClass();
+                proxy.flags = SC_SERIALIZABLE;
+                newHandle(proxy);
+                int count = in.readInt();
+                out.writeInt(count);
+                for (int i = 0; i < count; i++) {
+                    out.writeUTF(in.readUTF());
+                }
+                annotation();
+                proxy.superClass = classDescription(in.readByte());
+                return proxy;
+            }
+            case TC_CLASSDESC -> {
+                return newClassDescription();
+            }
+            default -> throw new StreamCorruptedException(String.format("Invalid class descriptor: %02X", tc));
+        }
+    }
+
+    private StreamClass newClassDescription() throws IOException {
+        StreamClass streamClass = new StreamClass();
+        streamClass.name = in.readUTF();
+        streamClass.serialVersionUID = in.readLong();
+        newHandle(streamClass);
+        streamClass.flags = in.readByte();
+        int count = in.readShort();
+        for (int i = 0; i < count; i++) {
+            StreamField field = new StreamField((char) in.readUnsignedByte(), in.readUTF());
+            if ("BCDFIJSZL[".indexOf(field.typeCode) < 0) {
+                throw new StreamCorruptedException("Invalid field type code: " + field.typeCode);
+            }
+            if (field.isPrimitive()) {
+                streamClass.primitiveSize += width(field.typeCode);
+            } else {
+                byte tc = in.readByte();
+                if (tc == TC_REFERENCE) {
+                    field.signatureHandle = in.readInt();
+                } else if (tc == TC_STRING) {
+                    field.signature = in.readUTF();
+                } else {
+                    throw new StreamCorruptedException(String.format("Invalid field signature: %02X", tc));
+                }
+            }
+            streamClass.fields.add(field);
+        }
+        for (SchemaMigration migration : migrations) {
+            migration.apply(streamClass);
+        }
+
+        out.writeByte(TC_CLASSDESC);
+        out.writeUTF(streamClass.name);
+        out.writeLong(streamClass.serialVersionUID);
+        out.writeByte(streamClass.flags);
+        out.writeShort(streamClass.fields.size());
+        for (StreamField field : streamClass.fields) {
+            out.writeByte(field.typeCode);
+            out.writeUTF(field.name);
+            if (field.isPrimitive()) {
+                continue;
+            }
+            if (field.signatureHandle >= 0) {
+                out.writeByte(TC_REFERENCE);
+                out.writeInt(field.signatureHandle);
+            } else {
+                newHandle(null);
+                out.writeByte(TC_STRING);
+                out.writeUTF(field.signature);
+            }
+        }
+        annotation();
+        streamClass.superClass = classDescription(in.readByte());
+        return streamClass;
+    }
+
+    /**
+     * Copies the data of an object, from its topmost serializable class down.
+     */
+    private void classData(StreamClass streamClass) throws IOException {
+        List<StreamClass> hierarchy = new ArrayList<>();
+        for (StreamClass current = streamClass; current != null; current = current.superClass) {
+            hierarchy.add(current);
+        }
+        for (int i = hierarchy.size() - 1; i >= 0; i--) {
+            StreamClass current = hierarchy.get(i);
+            if ((current.flags & SC_EXTERNALIZABLE) != 0) {
+                if ((current.flags & SC_BLOCK_DATA) == 0) {
+                    throw new StreamCorruptedException("Externalizable data of the old protocol: " + current.name);
+                }
+                annotation();
+                continue;
+            }
+            copy(current.primitiveSize);
+            out.write(current.addedValues);
+            for (StreamField field : current.fields) {
+                if (!field.isPrimitive()) {
+                    object(in.readByte());
+                }
+            }
+            if ((current.flags & SC_WRITE_METHOD) != 0) {
+                annotation();
+            }
+        }
+    }
+
+    /**
+     * Copies the contents written by a writeObject method or as a class annotation, up to their end marker.
+     */
+    private void annotation() throws IOException {
+        byte tc;
+        while ((tc = in.readByte()) != TC_ENDBLOCKDATA) {
+            content(tc);
+        }
+        out.writeByte(TC_ENDBLOCKDATA);
+    }
+
+    private void string(byte tc) throws IOException {
+        newHandle(null);
+        out.writeByte(tc);
+        long length;
+        if (tc == TC_STRING) {
+            length = in.readUnsignedShort();
+            out.writeShort((int) length);
+        } else {
+            length = in.readLong();
+            out.writeLong(length);
+        }
+        copy(length);
+    }
+
+    private static StreamClass required(StreamClass streamClass) throws StreamCorruptedException {
+        if (streamClass == null) {
+            throw new StreamCorruptedException("Missing class descriptor");
+        }
+        return streamClass;
+    }
+
+    private int newHandle(StreamClass streamClass) {
+        handles.add(streamClass);
+        return BASE_HANDLE + handles.size() - 1;
+    }
+
+    private void copy(long length) throws IOException {
+        while (length > 0) {
+            int count = in.read(copyBuffer, 0, (int) Math.min(length, copyBuffer.length));
+            if (count < 0) {
+                throw new EOFException();
+            }
+            out.write(copyBuffer, 0, count);
+            length -= count;
+        }
+    }
+
+    /**
+     * @return the size in bytes of a primitive of the given type code
+     */
+    static int width(char typeCode) {
+        return switch (typeCode) {
+            case 'B', 'Z' -> 1;
+            case 'C', 'S' -> 2;
+            case 'I', 'F' -> 4;
+            case 'J', 'D' -> 8;
+            default -> throw new IllegalArgumentException("Not a primitive type code: " + typeCode);
+        };
+    }
+}
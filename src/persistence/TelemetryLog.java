@@ -0,0 +1,371 @@
+package persistence;
+
+import model.world.Point;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * An append-only log of what the players do, for analytics: every move, fight, payment and purchase of every session
+ * of the process becomes a fixed-size record of RECORD_SIZE bytes.
+ * The gameplay appends from many threads and can't wait for the disk, so an append only claims the next slot of a
+ * ring buffer with a compare-and-set, writes the record into it and publishes it. A single writer thread takes the
+ * published records in order and writes them to the current segment, moving to a new segment every
+ * SEGMENT_RECORDS records. Nothing is ever locked or forced to the device: a record can be lost in a crash, and when
+ * the writer falls a whole ring behind the new records are dropped and counted rather than slowing the game down.
+ * A segment starts with a header of HEADER_SIZE bytes, and its records are little-endian: the time in nanoseconds
+ * since the epoch, the player, the kind, the outcome, the position of the player, the subject (the hash code of the
+ * name of the NPC or the item) and a value.
+ */
+public final class TelemetryLog implements Closeable {
+    public static final int RECORD_SIZE = 40;
+    static final int MAGIC = 0x544C4D59; // "TLMY"
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RING_SIZE = 1 << 16;
+    static final long SEGMENT_RECORDS = 1 << 20;
+    private static final long IDLE_PARK_NANOS = 1_000_000;
+    private static final String DIRECTORY = "telemetry";
+    private static final String SEGMENT_SUFFIX = ".tlm";
+    private static final Kind[] KINDS = Kind.values();
+    private static final ThreadLocal<Boolean> MUTED = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+    /**
+     * What a record is about, and what its subject and value are.
+     */
+    public enum Kind {
+        /** A step of the player, to the position of the record. */
+        MOVE,
+        /** A fight: the subject is the enemy, the value the health the player is left with, and the outcome a win. */
+        COMBAT,
+        /** A payment to an NPC to pass: the subject is the NPC, the value the gold asked for, the outcome paid. */
+        PAYMENT,
+        /** A purchase in a shop: the subject is the item, the value its price, the outcome bought. */
+        BUY,
+        /** A sale to a shop: the subject is the item, the value its price, the outcome sold. */
+        SELL
+    }
+
+    /**
+     * A record read back from the log.
+     */
+    public static final class Event {
+        private final long time;
+        private final long player;
+        private final Kind kind;
+        private final boolean outcome;
+        private final Point position;
+        private final int subject;
+        private final int value;
+
+        Event(ByteBuffer record) {
+            this.time = record.getLong(0);
+            this.player = record.getLong(8);
+            this.kind = KINDS[record.get(16)];
+            this.outcome = record.get(17) != 0;
+            this.position = new Point(record.getInt(20), record.getInt(24), record.getInt(28));
+            this.subject = record.getInt(32);
+            this.value = record.getInt(36);
+        }
+
+        public long getTime() {
+            return time;
+        }
+
+        public long getPlayer() {
+            return player;
+        }
+
+        public Kind getKind() {
+            return kind;
+        }
+
+        public boolean getOutcome() {
+            return outcome;
+        }
+
+        public Point getPosition() {
+            return position;
+        }
+
+        /**
+         * @return the hash code of the name of the NPC or the item of the event, or 0
+         */
+        public int getSubject() {
+            return subject;
+        }
+
+        public int getValue() {
+            return value;
+        }
+    }
+
+    private static final class Holder {
+        private static final TelemetryLog INSTANCE = openDefault();
+    }
+
+    private final Path directory;
+    private final ByteBuffer ring = ByteBuffer.allocate(RING_SIZE * RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    /** The sequence + 1 of the record last published in every slot of the ring. */
+    private final AtomicLongArray published = new AtomicLongArray(RING_SIZE);
+    private final AtomicLong claimed = new AtomicLong();
+    private final LongAdder dropped = new LongAdder();
+    private final long epochOffsetNanos;
+    private final Thread writer;
+    /** The sequence of the next record the writer takes; the slots before it can be reused. */
+    private volatile long written;
+    private volatile boolean closed;
+    private FileChannel segment;
+    private long segmentNumber;
+    private long segmentRecords;
+
+    private TelemetryLog(Path directory) throws IOException {
+        this.directory = directory;
+        this.epochOffsetNanos = System.currentTimeMillis() * 1_000_000 - System.nanoTime();
+        List<Path> segments = segments(directory);
+        segmentNumber = segments.isEmpty() ? 1 : segmentNumber(segments.get(segments.size() - 1)) + 1;
+        openSegment();
+        writer = new Thread(this::writeLoop, "telemetry-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Opens the log kept in the given directory, creating it if needed. Appends go to a new segment.
+     * @param directory the directory of the log
+     * @return the log
+     * @throws IOException if the directory or the first segment can't be created
+     */
+    public static TelemetryLog open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new TelemetryLog(directory);
+    }
+
+    /**
+     * Returns the log shared by every session of the process, opened the first time and written out when the process
+     * exits. If it can't be opened, the game goes on without telemetry and this returns null.
+     * @return the log, or null
+     */
+    public static TelemetryLog getInstance() {
+        return Holder.INSTANCE;
+    }
+
+    private static TelemetryLog openDefault() {
+        try {
+            TelemetryLog log = open(Path.of(DIRECTORY));
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    log.close();
+                } catch (IOException e) {
+                    System.err.println("Failed to write the telemetry: " + e.getMessage());
+                }
+            }, "telemetry-log-shutdown"));
+            return log;
+        } catch (IOException e) {
+            System.err.println("Failed to open the telemetry log, playing without it: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Appends a record to the shared log, if there is one and the current thread isn't muted.
+     * @see #append
+     */
+    public static void record(Kind kind, boolean outcome, long player, Point position, String subject, int value) {
+        TelemetryLog log = Holder.INSTANCE;
+        if (log != null && !MUTED.get()) {
+            log.append(kind, outcome, player, position, subject, value);
+        }
+    }
+
+    /**
+     * Mutes or unmutes the records of the current thread, while it replays turns that were already recorded.
+     * @param muted true to drop the records of the thread
+     */
+    public static void setMuted(boolean muted) {
+        MUTED.set(muted);
+    }
+
+    /**
+     * Appends a record without waiting for it to be written. The record is dropped if the writer is a whole ring
+     * behind or the log is closed.
+     * @param kind what the record is about
+     * @param outcome whether the player got what they were after
+     * @param player the player, see {@link model.character.Player#getId()}
+     * @param position where the player is
+     * @param subject the name of the NPC or the item, or null
+     * @param value the value of the record, depending on its kind
+     */
+    public void append(Kind kind, boolean outcome, long player, Point position, String subject, int value) {
+        long sequence;
+        do {
+            sequence = claimed.get();
+            if (sequence - written >= RING_SIZE || closed) {
+                dropped.increment();
+                return;
+            }
+        } while (!claimed.compareAndSet(sequence, sequence + 1));
+
+        int slot = (int) (sequence & (RING_SIZE - 1));
+        int offset = slot * RECORD_SIZE;
+        ring.putLong(offset, System.nanoTime() + epochOffsetNanos)
+                .putLong(offset + 8, player)
+                .put(offset + 16, (byte) kind.ordinal())
+                .put(offset + 17, (byte) (outcome ? 1 : 0))
+                .putShort(offset + 18, (short) 0)
+                .putInt(offset + 20, position.getX())
+                .putInt(offset + 24, position.getY())
+                .putInt(offset + 28, position.getZ())
+                .putInt(offset + 32, subject != null ? subject.hashCode() : 0)
+                .putInt(offset + 36, value);
+        published.lazySet(slot, sequence + 1);
+    }
+
+    /**
+     * @return the number of records dropped because the writer was a whole ring behind
+     */
+    public long getDropped() {
+        return dropped.sum();
+    }
+
+    private void writeLoop() {
+        ByteBuffer batch = ByteBuffer.allocate(RING_SIZE * RECORD_SIZE);
+        while (true) {
+            long next = written;
+            long end = next;
+            while (end - next < RING_SIZE && published.get((int) (end & (RING_SIZE - 1))) == end + 1) {
+                end++;
+            }
+            if (end == next) {
+                if (closed && claimed.get() == next) {
+                    return;
+                }
+                LockSupport.parkNanos(IDLE_PARK_NANOS);
+                continue;
+            }
+
+            try {
+                while (next < end) {
+                    long count = Math.min(end - next, SEGMENT_RECORDS - segmentRecords);
+                    batch.clear();
+                    for (long sequence = next; sequence < next + count; sequence++) {
+                        int offset = (int) (sequence & (RING_SIZE - 1)) * RECORD_SIZE;
+                        batch.put(batch.position(), ring, offset, RECORD_SIZE);
+                        batch.position(batch.position() + RECORD_SIZE);
+                    }
+                    batch.flip();
+                    while (batch.hasRemaining()) {
+                        segment.write(batch);
+                    }
+                    next += count;
+                    written = next;
+                    segmentRecords += count;
+                    if (segmentRecords == SEGMENT_RECORDS) {
+                        segment.close();
+                        segmentNumber++;
+                        openSegment();
+                    }
+                }
+            } catch (IOException e) {
+                System.err.println("Failed to write the telemetry, dropping it from now on: " + e.getMessage());
+                closed = true;
+                written = claimed.get();
+                return;
+            }
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segment = FileChannel.open(segmentPath(segmentNumber), StandardOpenOption.CREATE_NEW,
+                StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(MAGIC).putInt(VERSION).putInt(RECORD_SIZE).putInt(0).flip();
+        while (header.hasRemaining()) {
+            segment.write(header);
+        }
+        segmentRecords = 0;
+    }
+
+    /**
+     * Writes the records appended so far and stops the writer. Later appends are dropped.
+     */
+    @Override
+    public void close() throws IOException {
+        closed = true;
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+    }
+
+    /**
+     * Reads every record of the log in the given directory, in the order of the segments. The partial record a crash
+     * can leave at the end of a segment is skipped.
+     * @param directory the directory of the log
+     * @param visitor called with every record
+     * @throws IOException if a segment can't be read or isn't a telemetry segment
+     */
+    public static void read(Path directory, Consumer<Event> visitor) throws IOException {
+        for (Path path : segments(directory)) {
+            try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                ByteBuffer buffer = ByteBuffer.allocate(RECORD_SIZE * 4096).order(ByteOrder.LITTLE_ENDIAN);
+                buffer.limit(HEADER_SIZE);
+                while (buffer.hasRemaining() && channel.read(buffer) >= 0) {
+                    // fill the header
+                }
+                if (buffer.position() < HEADER_SIZE || buffer.getInt(0) != MAGIC ||
+                        buffer.getInt(8) != RECORD_SIZE) {
+                    throw new IOException("Not a telemetry segment: " + path);
+                }
+                buffer.clear();
+                ByteBuffer record = ByteBuffer.allocate(RECORD_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+                while (channel.read(buffer) >= 0 || buffer.position() >= RECORD_SIZE) {
+                    buffer.flip();
+                    while (buffer.remaining() >= RECORD_SIZE) {
+                        record.clear();
+                        record.put(0, buffer, buffer.position(), RECORD_SIZE);
+                        buffer.position(buffer.position() + RECORD_SIZE);
+                        visitor.accept(new Event(record));
+                    }
+                    buffer.compact();
+                }
+            }
+        }
+    }
+
+    private static List<Path> segments(Path directory) throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort((first, second) -> Long.compare(segmentNumber(first), segmentNumber(second)));
+        return segments;
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%016d%s", number, SEGMENT_SUFFIX));
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+}
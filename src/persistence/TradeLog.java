@@ -0,0 +1,128 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * TradeLog is an append-only log of marketplace events. Each record is written as its length, a CRC32 checksum and
+ * the payload. Appends are buffered and only reach the disk on {@link #sync()}, which writes the whole batch and
+ * forces it to the device, so a batch of trades costs one fsync. When the log is opened the records are read back
+ * and a torn or corrupted tail, left by a crash in the middle of a write, is cut off.
+ */
+public class TradeLog implements Closeable {
+    private static final int HEADER_SIZE = 8;
+    private static final int MAX_RECORD_SIZE = 1 << 20;
+
+    private final FileChannel channel;
+    private ByteBuffer pending = ByteBuffer.allocate(4096);
+    private final CRC32 crc = new CRC32();
+
+    /**
+     * Opens the log at the given path, creating it if it doesn't exist.
+     * @param path the file of the log
+     * @throws IOException if the file cannot be opened
+     */
+    public TradeLog(Path path) throws IOException {
+        this.channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE);
+        this.channel.position(channel.size());
+    }
+
+    /**
+     * Reads every intact record of the log, in order. Everything after the first torn or corrupted record is
+     * truncated, so later appends continue from the last good record.
+     * @return the payloads of the intact records
+     * @throws IOException if the file cannot be read
+     */
+    public synchronized List<byte[]> readAll() throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        long position = 0;
+        long size = channel.size();
+
+        while (position + HEADER_SIZE <= size) {
+            header.clear();
+            channel.read(header, position);
+            header.flip();
+            int length = header.getInt();
+            int checksum = header.getInt();
+            if (length < 0 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > size) {
+                break;
+            }
+
+            ByteBuffer payload = ByteBuffer.allocate(length);
+            channel.read(payload, position + HEADER_SIZE);
+            crc.reset();
+            crc.update(payload.array());
+            if ((int) crc.getValue() != checksum) {
+                break;
+            }
+            records.add(payload.array());
+            position += HEADER_SIZE + length;
+        }
+
+        if (position < size) {
+            channel.truncate(position);
+        }
+        channel.position(position);
+        return records;
+    }
+
+    /**
+     * Adds a record to the current batch. The record is not durable until {@link #sync()} is called.
+     * @param payload the record to append
+     */
+    public synchronized void append(byte[] payload) {
+        if (pending.remaining() < HEADER_SIZE + payload.length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2,
+                    pending.position() + HEADER_SIZE + payload.length));
+            pending.flip();
+            larger.put(pending);
+            pending = larger;
+        }
+        crc.reset();
+        crc.update(payload);
+        pending.putInt(payload.length);
+        pending.putInt((int) crc.getValue());
+        pending.put(payload);
+    }
+
+    /**
+     * Writes the current batch to the end of the log and forces it to the device. If the batch cannot be written it
+     * is dropped, along with whatever part of it reached the file, so a failed batch is never written later with the
+     * next one.
+     * @throws IOException if the batch cannot be written
+     */
+    public synchronized void sync() throws IOException {
+        if (pending.position() == 0) {
+            return;
+        }
+        long start = channel.position();
+        pending.flip();
+        try {
+            while (pending.hasRemaining()) {
+                channel.write(pending);
+            }
+            channel.force(false);
+        } catch (IOException e) {
+            channel.truncate(start);
+            channel.position(start);
+            throw e;
+        } finally {
+            pending.clear();
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        sync();
+        channel.close();
+    }
+}
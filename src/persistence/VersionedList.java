@@ -0,0 +1,98 @@
+package persistence;
+
+import java.io.Serializable;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * A mutable list backed by a {@link PersistentList}. Every change replaces the backing list with a new version that
+ * shares everything it didn't change with the old one, so {@link #version()} can hand out the current contents in
+ * O(1) and {@link #restore} can go back to any earlier version just as fast.
+ * The game uses it for the NPCs, the items on the ground and the inventories, which lets the turn history keep the
+ * last turns without copying them.
+ * @param <E> the type of the elements
+ */
+public class VersionedList<E> extends AbstractList<E> implements RandomAccess, Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private PersistentList<E> contents = PersistentList.empty();
+    private transient Runnable changeListener;
+
+    public VersionedList() {
+    }
+
+    public VersionedList(Iterable<? extends E> elements) {
+        this.contents = PersistentList.of(elements);
+    }
+
+    /**
+     * @return the current contents, which later changes to this list don't affect
+     */
+    public PersistentList<E> version() {
+        return contents;
+    }
+
+    /**
+     * Replaces the contents of the list with an earlier version, without telling the change listener.
+     * @param version a version returned by {@link #version()}
+     */
+    public void restore(PersistentList<E> version) {
+        contents = version;
+        modCount++;
+    }
+
+    /**
+     * @param changeListener called after every change to the list, null for none
+     */
+    public void setChangeListener(Runnable changeListener) {
+        this.changeListener = changeListener;
+    }
+
+    @Override
+    public E get(int index) {
+        return contents.get(index);
+    }
+
+    @Override
+    public int size() {
+        return contents.size();
+    }
+
+    @Override
+    public E set(int index, E element) {
+        E previous = contents.get(index);
+        update(contents.set(index, element));
+        return previous;
+    }
+
+    @Override
+    public void add(int index, E element) {
+        modCount++;
+        update(contents.add(index, element));
+    }
+
+    @Override
+    public E remove(int index) {
+        E previous = contents.get(index);
+        modCount++;
+        update(contents.remove(index));
+        return previous;
+    }
+
+    @Override
+    public void clear() {
+        if (!contents.isEmpty()) {
+            modCount++;
+            update(PersistentList.empty());
+        }
+    }
+
+    private void update(PersistentList<E> updated) {
+        if (updated != contents) {
+            contents = updated;
+            if (changeListener != null) {
+                changeListener.run();
+            }
+        }
+    }
+}
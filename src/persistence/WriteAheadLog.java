@@ -0,0 +1,378 @@
+package persistence;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+import java.util.zip.CRC32C;
+
+/**
+ * A write-ahead log shared by every game session of a process. A session appends a record for every action before
+ * it shows the player the outcome, and waits for the record to be durable, so a crash never loses an action the
+ * player has seen. After a crash, the records of a session are replayed on top of its last snapshot.
+ * The appends of all the sessions go to one buffer, and a single writer thread writes whatever has gathered and
+ * makes it durable with one fsync for all of them (group commit). The writer syncs at most once every
+ * MIN_SYNC_INTERVAL_NANOS, so the fsync rate stays bounded however many sessions there are: more sessions only put
+ * more records in each sync.
+ * A record holds its session, its sequence number in the session, its type and its payload, followed by a CRC32C;
+ * a record torn by a crash fails its checksum and ends the log there. The log is split in segments of about
+ * SEGMENT_SIZE bytes, and a segment is deleted once every session with records in it has been checkpointed past
+ * them, see {@link #checkpoint}.
+ */
+public final class WriteAheadLog implements Closeable {
+    public static final byte INPUT = 1;
+    public static final byte END = 2;
+    static final long MIN_SYNC_INTERVAL_NANOS = 2_000_000;
+    private static final long SEGMENT_SIZE = 4 << 20;
+    private static final int RECORD_OVERHEAD = 4 + 8 + 8 + 1 + 4;
+    private static final String SEGMENT_SUFFIX = ".log";
+
+    /**
+     * A record read back from the log.
+     */
+    public static final class Record {
+        private final long sequence;
+        private final byte type;
+        private final byte[] payload;
+
+        Record(long sequence, byte type, byte[] payload) {
+            this.sequence = sequence;
+            this.type = type;
+            this.payload = payload;
+        }
+
+        public long getSequence() {
+            return sequence;
+        }
+
+        public byte getType() {
+            return type;
+        }
+
+        public byte[] getPayload() {
+            return payload;
+        }
+    }
+
+    private final Path directory;
+    private final Thread writer;
+    private final CRC32C crc = new CRC32C();
+    /** The last sequence of every session in every segment, by segment number. Guarded by this. */
+    private final TreeMap<Long, Map<Long, Long>> segmentSessions = new TreeMap<>();
+    private ByteBuffer pending = ByteBuffer.allocate(1 << 16);
+    private ByteBuffer writing = ByteBuffer.allocate(1 << 16);
+    /** The last sequence of every session in the pending and in the writing buffer. */
+    private Map<Long, Long> pendingSessions = new HashMap<>();
+    private Map<Long, Long> writingSessions = new HashMap<>();
+    private long appended;
+    private long durable;
+    private long syncs;
+    private IOException failure;
+    private boolean closed;
+    private boolean writerIdle;
+    private FileChannel segment;
+    private long segmentNumber;
+
+    private WriteAheadLog(Path directory) throws IOException {
+        this.directory = directory;
+        for (Path path : segments()) {
+            Map<Long, Long> sessions = new HashMap<>();
+            read(path, record -> sessions.merge(record.session, record.sequence, Math::max));
+            segmentSessions.put(segmentNumber(path), sessions);
+        }
+        segmentNumber = segmentSessions.isEmpty() ? 1 : segmentSessions.lastKey() + 1;
+        openSegment();
+        writer = new Thread(this::writeLoop, "write-ahead-log");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /**
+     * Opens the log kept in the given directory, creating it if needed. Appends go to a new segment.
+     * @param directory the directory of the log
+     * @return the log
+     * @throws IOException if the directory or the log can't be read or created
+     */
+    public static WriteAheadLog open(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        return new WriteAheadLog(directory);
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /**
+     * Appends a record. The record is durable once {@link #awaitDurable} returns for the returned position.
+     * @param session the session the record belongs to
+     * @param sequence the number of the record in its session
+     * @param type the type of the record
+     * @param payload the payload of the record
+     * @return the position of the end of the record in the log
+     * @throws IOException if the log has failed or is closed
+     */
+    public synchronized long append(long session, long sequence, byte type, byte[] payload) throws IOException {
+        if (failure != null) {
+            throw failure;
+        }
+        if (closed) {
+            throw new IOException("The write-ahead log is closed");
+        }
+        int length = RECORD_OVERHEAD + payload.length;
+        if (pending.remaining() < length) {
+            ByteBuffer larger = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + length));
+            pending.flip();
+            pending = larger.put(pending);
+        }
+        int start = pending.position();
+        pending.putInt(payload.length).putLong(session).putLong(sequence).put(type).put(payload);
+        crc.reset();
+        crc.update(pending.array(), start, length - 4);
+        pending.putInt((int) crc.getValue());
+        pendingSessions.merge(session, sequence, Math::max);
+        appended += length;
+        if (writerIdle) {
+            notifyAll(); // the sessions waiting for a sync have nothing to gain from being woken by every append
+        }
+        return appended;
+    }
+
+    /**
+     * Waits until everything up to the given position is durable.
+     * @param position a position returned by {@link #append}
+     * @throws IOException if the log failed before the position was durable
+     */
+    public synchronized void awaitDurable(long position) throws IOException {
+        while (durable < position) {
+            if (failure != null) {
+                throw failure;
+            }
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while waiting for the write-ahead log");
+            }
+        }
+    }
+
+    /**
+     * @return the number of fsyncs made so far
+     */
+    public synchronized long getSyncCount() {
+        return syncs;
+    }
+
+    /**
+     * Tells the log that the records of a session up to the given sequence are no longer needed, because a snapshot
+     * covers them or the session is over. Segments left without needed records are deleted.
+     * @param session the session
+     * @param sequence the last sequence the snapshot covers, or Long.MAX_VALUE when the session is over
+     */
+    public synchronized void checkpoint(long session, long sequence) {
+        Iterator<Map.Entry<Long, Map<Long, Long>>> segments = segmentSessions.entrySet().iterator();
+        while (segments.hasNext()) {
+            Map.Entry<Long, Map<Long, Long>> entry = segments.next();
+            Map<Long, Long> sessions = entry.getValue();
+            Long last = sessions.get(session);
+            if (last != null && last <= sequence) {
+                sessions.remove(session);
+            }
+            if (sessions.isEmpty() && entry.getKey() != segmentNumber) {
+                try {
+                    Files.deleteIfExists(segmentPath(entry.getKey()));
+                    segments.remove();
+                } catch (IOException e) {
+                    System.err.println("Failed to delete a write-ahead log segment: " + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the records of a session that come after the given sequence, in order, up to the first damaged record.
+     * @param session the session
+     * @param afterSequence the last sequence that isn't wanted
+     * @return the records
+     * @throws IOException if the log can't be read
+     */
+    public List<Record> records(long session, long afterSequence) throws IOException {
+        List<Record> records = new ArrayList<>();
+        for (Path path : segments()) {
+            read(path, record -> {
+                if (record.session == session && record.sequence > afterSequence) {
+                    records.add(new Record(record.sequence, record.type, record.payload));
+                }
+            });
+        }
+        return records;
+    }
+
+    private void writeLoop() {
+        long lastSync = System.nanoTime() - MIN_SYNC_INTERVAL_NANOS;
+        while (true) {
+            synchronized (this) {
+                while (appended == durable && !closed) {
+                    writerIdle = true;
+                    try {
+                        wait();
+                    } catch (InterruptedException e) {
+                        return;
+                    } finally {
+                        writerIdle = false;
+                    }
+                }
+                if (appended == durable) {
+                    return;
+                }
+            }
+            long wait = lastSync + MIN_SYNC_INTERVAL_NANOS - System.nanoTime();
+            if (wait > 0) {
+                try {
+                    Thread.sleep(wait / 1_000_000, (int) (wait % 1_000_000)); // lets more records join this sync
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+
+            long target;
+            synchronized (this) {
+                ByteBuffer full = pending;
+                pending = writing;
+                writing = full;
+                Map<Long, Long> sessions = pendingSessions;
+                pendingSessions = writingSessions;
+                writingSessions = sessions;
+                target = appended;
+            }
+            lastSync = System.nanoTime();
+            try {
+                writing.flip();
+                while (writing.hasRemaining()) {
+                    segment.write(writing);
+                }
+                writing.clear();
+                segment.force(false);
+            } catch (IOException e) {
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                return;
+            }
+
+            synchronized (this) {
+                Map<Long, Long> sessions = segmentSessions.get(segmentNumber);
+                writingSessions.forEach((session, sequence) -> sessions.merge(session, sequence, Math::max));
+                writingSessions.clear();
+                durable = target;
+                syncs++;
+                notifyAll();
+                try {
+                    if (segment.size() >= SEGMENT_SIZE) {
+                        segment.close();
+                        segmentNumber++;
+                        openSegment();
+                    }
+                } catch (IOException e) {
+                    failure = e;
+                    return;
+                }
+            }
+        }
+    }
+
+    private void openSegment() throws IOException {
+        segment = FileChannel.open(segmentPath(segmentNumber), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        segmentSessions.put(segmentNumber, new HashMap<>());
+    }
+
+    /**
+     * Writes what is left and stops the writer.
+     */
+    @Override
+    public void close() throws IOException {
+        synchronized (this) {
+            closed = true;
+            notifyAll();
+        }
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        segment.close();
+    }
+
+    private List<Path> segments() throws IOException {
+        List<Path> segments = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SEGMENT_SUFFIX)) {
+            for (Path path : stream) {
+                segments.add(path);
+            }
+        }
+        segments.sort((first, second) -> Long.compare(segmentNumber(first), segmentNumber(second)));
+        return segments;
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%016d%s", number, SEGMENT_SUFFIX));
+    }
+
+    private static long segmentNumber(Path path) {
+        String name = path.getFileName().toString();
+        return Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length()));
+    }
+
+    /**
+     * A record as it is read from a segment.
+     */
+    private static final class RawRecord {
+        private long session;
+        private long sequence;
+        private byte type;
+        private byte[] payload;
+    }
+
+    /**
+     * Reads the records of a segment up to its end or to its first damaged record.
+     */
+    private static void read(Path path, Consumer<RawRecord> visitor) throws IOException {
+        ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(path));
+        CRC32C checksum = new CRC32C();
+        RawRecord record = new RawRecord();
+        while (buffer.remaining() >= RECORD_OVERHEAD) {
+            int start = buffer.position();
+            int length = buffer.getInt(start);
+            if (length < 0 || length > buffer.remaining() - RECORD_OVERHEAD) {
+                return;
+            }
+            checksum.reset();
+            checksum.update(buffer.array(), start, RECORD_OVERHEAD - 4 + length);
+            if ((int) checksum.getValue() != buffer.getInt(start + RECORD_OVERHEAD - 4 + length)) {
+                return;
+            }
+            buffer.getInt();
+            record.session = buffer.getLong();
+            record.sequence = buffer.getLong();
+            record.type = buffer.get();
+            record.payload = new byte[length];
+            buffer.get(record.payload);
+            buffer.getInt();
+            visitor.accept(record);
+        }
+    }
+}